@@ -2,8 +2,10 @@ package com.proyecto.ProyectoConectacare;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class ProyectoConectacareApplication {
 
 	public static void main(String[] args) {
@@ -0,0 +1,211 @@
+package com.proyecto.ProyectoConectacare.cache;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.google.cloud.firestore.DocumentSnapshot;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * La clase CacheLocal representa una caché en memoria, con caducidad por entrada, para los datos más consultados
+ * de Firestore (perfiles de usuario, anuncios, agregados...).
+ *
+ * Cada entrada guarda, además del valor, la versión del documento en Firestore (su updateTime en microsegundos),
+ * lo que permite volcar la caché a disco y, al arrancar, reconciliarla comparando versiones en lugar de
+ * volver a leer todos los documentos.
+ *
+ * Características principales:
+ * - Lecturas y escrituras sin bloqueos globales mediante un ConcurrentHashMap.
+ * - Caducidad (TTL) por entrada y un número máximo de entradas.
+ * - Una entrada vigente no se sustituye por otra de una versión anterior (por ejemplo, la de una lectura lenta
+ *   que termina después de una escritura).
+ * - Si la caché está asociada a una colección, dispone de un lector para convertir un DocumentSnapshot en su valor.
+ *
+ * @param <V> el tipo de valor almacenado.
+ */
+public class CacheLocal<V> {
+
+    /**
+     * Entrada de la caché: el valor, la versión del documento de origen (0 si no aplica)
+     * y el instante (epoch en milisegundos) en que caduca.
+     */
+    public record Entrada<V>(V valor, long version, long expiraEn) {
+        boolean caducada(long ahora) {
+            return ahora >= expiraEn;
+        }
+    }
+
+    private final String nombre;
+    private final JavaType tipo;
+    private final String coleccion;
+    private final Function<DocumentSnapshot, V> lector;
+    private final long ttlMs;
+    private final int maxEntradas;
+    private final ConcurrentHashMap<String, Entrada<V>> entradas = new ConcurrentHashMap<>();
+    private final LongAdder aciertos = new LongAdder();
+    private final LongAdder fallos = new LongAdder();
+
+    /**
+     * Construye una nueva caché.
+     *
+     * @param nombre nombre de la caché, usado como identificador en el volcado a disco.
+     * @param tipo tipo Jackson del valor, necesario para serializarlo y deserializarlo.
+     * @param coleccion colección de Firestore de la que provienen los valores, o null si no proceden de un único documento.
+     * @param lector función que convierte un documento de la colección en su valor, o null si no hay colección.
+     * @param ttlMs tiempo de vida de cada entrada en milisegundos.
+     * @param maxEntradas número máximo de entradas que puede contener.
+     */
+    public CacheLocal(String nombre, JavaType tipo, String coleccion, Function<DocumentSnapshot, V> lector,
+                      long ttlMs, int maxEntradas) {
+        this.nombre = nombre;
+        this.tipo = tipo;
+        this.coleccion = coleccion;
+        this.lector = lector;
+        this.ttlMs = ttlMs;
+        this.maxEntradas = maxEntradas;
+    }
+
+    /**
+     * Recupera el valor asociado a una clave si existe y no ha caducado.
+     *
+     * @param clave la clave a consultar.
+     * @return el valor en caché, o null si no está o ha caducado.
+     */
+    public V get(String clave) {
+        Entrada<V> entrada = getEntrada(clave);
+        return entrada != null ? entrada.valor() : null;
+    }
+
+    /**
+     * Recupera la entrada completa (valor y versión) asociada a una clave si no ha caducado.
+     *
+     * @param clave la clave a consultar.
+     * @return la entrada, o null si no está o ha caducado.
+     */
+    public Entrada<V> getEntrada(String clave) {
+        Entrada<V> entrada = entradas.get(clave);
+        if (entrada == null || entrada.caducada(System.currentTimeMillis())) {
+            if (entrada != null) {
+                entradas.remove(clave, entrada);
+            }
+            fallos.increment();
+            return null;
+        }
+        aciertos.increment();
+        return entrada;
+    }
+
+    /**
+     * Guarda un valor con el TTL por defecto de la caché.
+     *
+     * @param clave la clave del valor.
+     * @param valor el valor a guardar; si es null se invalida la clave.
+     * @param version la versión del documento de origen (updateTime en microsegundos), o 0 si no aplica.
+     */
+    public void put(String clave, V valor, long version) {
+        putHasta(clave, valor, version, System.currentTimeMillis() + ttlMs);
+    }
+
+    /**
+     * Guarda un valor indicando explícitamente su instante de caducidad. Se usa al restaurar un volcado.
+     *
+     * @param clave la clave del valor.
+     * @param valor el valor a guardar; si es null se invalida la clave.
+     * @param version la versión del documento de origen, o 0 si no aplica; si la entrada vigente tiene una versión
+     *                posterior, se conserva.
+     * @param expiraEn instante de caducidad (epoch en milisegundos).
+     */
+    public void putHasta(String clave, V valor, long version, long expiraEn) {
+        if (clave == null) {
+            return;
+        }
+        if (valor == null) {
+            entradas.remove(clave);
+            return;
+        }
+        if (entradas.size() >= maxEntradas && !entradas.containsKey(clave)) {
+            liberarEspacio();
+        }
+        Entrada<V> nueva = new Entrada<>(valor, version, expiraEn);
+        long ahora = System.currentTimeMillis();
+        entradas.compute(clave, (k, actual) ->
+                actual != null && version != 0 && actual.version() > version && !actual.caducada(ahora) ? actual : nueva);
+    }
+
+    /**
+     * Elimina una clave de la caché.
+     *
+     * @param clave la clave a invalidar.
+     */
+    public void invalidar(String clave) {
+        if (clave != null) {
+            entradas.remove(clave);
+        }
+    }
+
+    /**
+     * Vacía la caché por completo.
+     */
+    public void invalidarTodo() {
+        entradas.clear();
+    }
+
+    /**
+     * Devuelve una vista de solo lectura de las entradas actuales (incluidas las caducadas aún no purgadas).
+     *
+     * @return un mapa de clave a entrada.
+     */
+    public Map<String, Entrada<V>> entradas() {
+        return Collections.unmodifiableMap(entradas);
+    }
+
+    /**
+     * Elimina las entradas caducadas y, si sigue sin haber hueco, descarta aproximadamente
+     * una décima parte de las entradas para no superar el máximo configurado.
+     */
+    private void liberarEspacio() {
+        long ahora = System.currentTimeMillis();
+        entradas.values().removeIf(entrada -> entrada.caducada(ahora));
+        if (entradas.size() < maxEntradas) {
+            return;
+        }
+        int aDescartar = Math.max(1, maxEntradas / 10);
+        Iterator<String> it = entradas.keySet().iterator();
+        while (aDescartar-- > 0 && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    public String getNombre() {
+        return nombre;
+    }
+
+    public JavaType getTipo() {
+        return tipo;
+    }
+
+    public String getColeccion() {
+        return coleccion;
+    }
+
+    public Function<DocumentSnapshot, V> getLector() {
+        return lector;
+    }
+
+    public int size() {
+        return entradas.size();
+    }
+
+    public long getAciertos() {
+        return aciertos.sum();
+    }
+
+    public long getFallos() {
+        return fallos.sum();
+    }
+}
@@ -0,0 +1,204 @@
+package com.proyecto.ProyectoConectacare.cache;
+
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.proyecto.ProyectoConectacare.ejecucion.CompartimentosEjecucion;
+import com.proyecto.ProyectoConectacare.ejecucion.Prioridad;
+import com.proyecto.ProyectoConectacare.firestore.AccesoFirestore;
+import com.proyecto.ProyectoConectacare.metricas.FuenteMetricas;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Índice local de emails registrados, para responder a `/usuarios/email-existe` sin consultar Firebase Auth
+ * en cada pulsación del formulario de registro.
+ *
+ * Funcionamiento:
+ * - Un filtro de Bloom con los emails de la colección "usuarios", construido al arrancar (en segundo plano)
+ *   y reconstruido periódicamente para olvidar los usuarios eliminados.
+ * - Las altas y los cambios de email se añaden al filtro en el momento; un email que el filtro descarta
+ *   no está registrado con seguridad y se responde localmente.
+ * - Si el filtro indica que el email puede existir, se confirma contra Firebase Auth y el resultado se guarda
+ *   en la caché `existenciaEmails` (los negativos, con una caducidad más corta).
+ *
+ * Mientras el filtro no se ha construido, todas las consultas se confirman contra Firebase Auth como antes.
+ * Nota: el índice parte de la colección "usuarios"; una cuenta de Firebase Auth que aún no haya completado
+ * su perfil no aparece en él.
+ */
+@Component
+public class IndiceEmails implements FuenteMetricas {
+    private static final Logger logger = LoggerFactory.getLogger(IndiceEmails.class);
+    private static final String COLECCION = "usuarios";
+    private static final double PROBABILIDAD_FALSO_POSITIVO = 0.01;
+
+    private final Firestore db;
+    private final AccesoFirestore accesoFirestore;
+    private final CompartimentosEjecucion compartimentos;
+    private final CacheLocal<Boolean> resultados;
+    private final long ttlNegativosMs;
+
+    private volatile BloomFilter<String> filtro;
+    // Filtro que se está construyendo; las altas concurrentes se añaden también a él para no perderlas
+    private volatile BloomFilter<String> enConstruccion;
+    private volatile int emailsIndexados;
+
+    private final LongAdder negativosLocales = new LongAdder();
+    private final LongAdder aciertosCache = new LongAdder();
+    private final LongAdder confirmaciones = new LongAdder();
+    private final LongAdder reconstrucciones = new LongAdder();
+
+    public IndiceEmails(Firestore db, AccesoFirestore accesoFirestore, CompartimentosEjecucion compartimentos,
+                        RegistroCaches registroCaches,
+                        @Value("${conectacare.emails.ttl-negativos-ms:60000}") long ttlNegativosMs) {
+        this.db = db;
+        this.accesoFirestore = accesoFirestore;
+        this.compartimentos = compartimentos;
+        this.resultados = registroCaches.existenciaEmails();
+        this.ttlNegativosMs = ttlNegativosMs;
+    }
+
+    @PostConstruct
+    public void iniciar() {
+        compartimentos.enviar(Prioridad.FONDO, this::reconstruir);
+    }
+
+    /**
+     * Reconstruye el filtro a partir de la colección "usuarios".
+     */
+    @Scheduled(initialDelayString = "${conectacare.emails.reconstruccion-ms:21600000}",
+            fixedDelayString = "${conectacare.emails.reconstruccion-ms:21600000}")
+    public void reconstruir() {
+        // El filtro nuevo se publica antes de leer la colección para que reciba las altas que ocurran mientras tanto
+        BloomFilter<String> nuevo = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8),
+                Math.max(10_000, emailsIndexados * 2), PROBABILIDAD_FALSO_POSITIVO);
+        enConstruccion = nuevo;
+        try {
+            List<? extends DocumentSnapshot> docs = accesoFirestore.leer("usuarios.emails",
+                    () -> db.collection(COLECCION).select("email").get()).getDocuments();
+            for (DocumentSnapshot doc : docs) {
+                String email = normalizar(doc.getString("email"));
+                if (email != null) {
+                    nuevo.put(email);
+                }
+            }
+            filtro = nuevo;
+            enConstruccion = null;
+            emailsIndexados = docs.size();
+            reconstrucciones.increment();
+            logger.info("Índice de emails construido con {} usuarios.", docs.size());
+        } catch (Exception e) {
+            enConstruccion = null;
+            logger.warn("No se pudo construir el índice de emails: {}. Se seguirá consultando a Firebase Auth.", e.getMessage());
+        }
+    }
+
+    /**
+     * Responde localmente, si es posible, a si un email está registrado.
+     *
+     * @param email el email a comprobar.
+     * @return TRUE o FALSE si se conoce la respuesta; null si hay que confirmarla contra Firebase Auth.
+     */
+    public Boolean consultar(String email) {
+        String clave = normalizar(email);
+        if (clave == null) {
+            return Boolean.FALSE;
+        }
+        Boolean enCache = resultados.get(clave);
+        if (enCache != null) {
+            aciertosCache.increment();
+            return enCache;
+        }
+        BloomFilter<String> actual = filtro;
+        if (actual != null && !actual.mightContain(clave)) {
+            negativosLocales.increment();
+            return Boolean.FALSE;
+        }
+        confirmaciones.increment();
+        return null;
+    }
+
+    /**
+     * Guarda el resultado confirmado contra Firebase Auth.
+     */
+    public void recordar(String email, boolean existe) {
+        String clave = normalizar(email);
+        if (clave == null) {
+            return;
+        }
+        if (existe) {
+            resultados.put(clave, Boolean.TRUE, 0L);
+        } else {
+            resultados.putHasta(clave, Boolean.FALSE, 0L, System.currentTimeMillis() + ttlNegativosMs);
+        }
+    }
+
+    /**
+     * Registra el email de un usuario nuevo (o un cambio de email).
+     */
+    public void registrar(String email) {
+        String clave = normalizar(email);
+        if (clave == null) {
+            return;
+        }
+        // Primero el filtro en construcción: si ya se ha publicado, es el mismo objeto que el filtro actual
+        BloomFilter<String> construyendo = enConstruccion;
+        if (construyendo != null) {
+            construyendo.put(clave);
+        }
+        BloomFilter<String> actual = filtro;
+        if (actual != null) {
+            actual.put(clave);
+        }
+        resultados.put(clave, Boolean.TRUE, 0L);
+    }
+
+    /**
+     * Olvida el resultado en caché de un email eliminado; el filtro lo conserva hasta la siguiente reconstrucción,
+     * por lo que las consultas sobre él se confirmarán contra Firebase Auth.
+     */
+    public void eliminar(String email) {
+        String clave = normalizar(email);
+        if (clave != null) {
+            resultados.invalidar(clave);
+        }
+    }
+
+    private static String normalizar(String email) {
+        if (email == null || email.isBlank()) {
+            return null;
+        }
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public String getNombreMetricas() {
+        return "indiceEmails";
+    }
+
+    @Override
+    public Map<String, Object> getMetricas() {
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        BloomFilter<String> actual = filtro;
+        metricas.put("listo", actual != null);
+        metricas.put("emailsIndexados", emailsIndexados);
+        metricas.put("falsosPositivosEstimados", actual != null ? actual.expectedFpp() : 0.0);
+        metricas.put("negativosLocales", negativosLocales.sum());
+        metricas.put("aciertosCache", aciertosCache.sum());
+        metricas.put("confirmacionesFirebase", confirmaciones.sum());
+        metricas.put("reconstrucciones", reconstrucciones.sum());
+        return metricas;
+    }
+}
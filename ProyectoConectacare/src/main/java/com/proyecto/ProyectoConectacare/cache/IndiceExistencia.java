@@ -0,0 +1,198 @@
+package com.proyecto.ProyectoConectacare.cache;
+
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.Firestore;
+import com.proyecto.ProyectoConectacare.ejecucion.CompartimentosEjecucion;
+import com.proyecto.ProyectoConectacare.ejecucion.Prioridad;
+import com.proyecto.ProyectoConectacare.firestore.AccesoFirestore;
+import com.proyecto.ProyectoConectacare.metricas.FuenteMetricas;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Índice en memoria con los IDs de los anuncios existentes y de las solicitudes ya evaluadas, para responder
+ * a las comprobaciones de existencia sin ir a Firestore (la comprobación de evaluación se hace una vez por fila
+ * en el frontend).
+ *
+ * Funcionamiento:
+ * - Al arrancar, y después periódicamente, se leen solo los IDs de "anuncios" y el campo solicitudId de
+ *   "evaluaciones" (consultas con proyección) en el compartimento de segundo plano.
+ * - Las rutas de escritura (crear anuncio, crear evaluación) añaden los IDs en el momento.
+ * - Mientras un índice no se ha construido, las consultas devuelven null y el llamante consulta Firestore.
+ *
+ * Con un único proceso escribiendo en estas colecciones el índice es exacto, por lo que los negativos se dan
+ * por buenos; si se escribe desde fuera del servicio, la reconstrucción periódica recoge esos cambios, y se puede
+ * desactivar la confianza en los negativos con `conectacare.indices.confiar-negativos=false`.
+ */
+@Component
+public class IndiceExistencia implements FuenteMetricas {
+    private static final Logger logger = LoggerFactory.getLogger(IndiceExistencia.class);
+
+    private final Firestore db;
+    private final AccesoFirestore accesoFirestore;
+    private final CompartimentosEjecucion compartimentos;
+    private final boolean confiarNegativos;
+    private final Indice anuncios = new Indice();
+    private final Indice solicitudesEvaluadas = new Indice();
+
+    public IndiceExistencia(Firestore db, AccesoFirestore accesoFirestore, CompartimentosEjecucion compartimentos,
+                            @Value("${conectacare.indices.confiar-negativos:true}") boolean confiarNegativos) {
+        this.db = db;
+        this.accesoFirestore = accesoFirestore;
+        this.compartimentos = compartimentos;
+        this.confiarNegativos = confiarNegativos;
+    }
+
+    @PostConstruct
+    public void iniciar() {
+        compartimentos.enviar(Prioridad.FONDO, this::reconstruir);
+    }
+
+    /**
+     * Reconstruye ambos índices leyendo únicamente los identificadores necesarios.
+     */
+    @Scheduled(initialDelayString = "${conectacare.indices.reconstruccion-ms:600000}",
+            fixedDelayString = "${conectacare.indices.reconstruccion-ms:600000}")
+    public void reconstruir() {
+        Set<String> nuevosAnuncios = anuncios.empezarConstruccion();
+        try {
+            for (DocumentSnapshot doc : accesoFirestore.leer("anuncios.ids",
+                    () -> db.collection("anuncios").select(FieldPath.documentId()).get()).getDocuments()) {
+                nuevosAnuncios.add(doc.getId());
+            }
+            anuncios.publicar(nuevosAnuncios);
+        } catch (Exception e) {
+            anuncios.abortarConstruccion();
+            logger.warn("No se pudo construir el índice de anuncios: {}", e.getMessage());
+        }
+        Set<String> nuevasEvaluadas = solicitudesEvaluadas.empezarConstruccion();
+        try {
+            for (DocumentSnapshot doc : accesoFirestore.leer("evaluaciones.solicitudIds",
+                    () -> db.collection("evaluaciones").select("solicitudId").get()).getDocuments()) {
+                String solicitudId = doc.getString("solicitudId");
+                if (solicitudId != null) {
+                    nuevasEvaluadas.add(solicitudId);
+                }
+            }
+            solicitudesEvaluadas.publicar(nuevasEvaluadas);
+        } catch (Exception e) {
+            solicitudesEvaluadas.abortarConstruccion();
+            logger.warn("No se pudo construir el índice de solicitudes evaluadas: {}", e.getMessage());
+        }
+        logger.info("Índices de existencia construidos: {} anuncios, {} solicitudes evaluadas.",
+                anuncios.tamano(), solicitudesEvaluadas.tamano());
+    }
+
+    /**
+     * @return TRUE o FALSE si el índice conoce la respuesta; null si hay que consultar Firestore.
+     */
+    public Boolean anuncioExiste(String anuncioId) {
+        return anuncios.consultar(anuncioId, confiarNegativos);
+    }
+
+    public void registrarAnuncio(String anuncioId) {
+        anuncios.registrar(anuncioId);
+    }
+
+    /**
+     * @return TRUE o FALSE si el índice conoce la respuesta; null si hay que consultar Firestore.
+     */
+    public Boolean solicitudEvaluada(String solicitudId) {
+        return solicitudesEvaluadas.consultar(solicitudId, confiarNegativos);
+    }
+
+    public void registrarEvaluacion(String solicitudId) {
+        solicitudesEvaluadas.registrar(solicitudId);
+    }
+
+    @Override
+    public String getNombreMetricas() {
+        return "indiceExistencia";
+    }
+
+    @Override
+    public Map<String, Object> getMetricas() {
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        metricas.put("confiarNegativos", confiarNegativos);
+        metricas.put("anuncios", anuncios.metricas());
+        metricas.put("solicitudesEvaluadas", solicitudesEvaluadas.metricas());
+        return metricas;
+    }
+
+    /**
+     * Conjunto de IDs con el mismo esquema de publicación que el índice de emails: el conjunto nuevo se publica
+     * como "en construcción" antes de leer Firestore, para que las altas concurrentes no se pierdan.
+     */
+    private static final class Indice {
+        private volatile Set<String> ids;
+        private volatile Set<String> enConstruccion;
+        private final LongAdder respondidas = new LongAdder();
+        private final LongAdder sinRespuesta = new LongAdder();
+
+        Set<String> empezarConstruccion() {
+            Set<String> nuevo = ConcurrentHashMap.newKeySet();
+            enConstruccion = nuevo;
+            return nuevo;
+        }
+
+        void publicar(Set<String> nuevo) {
+            ids = nuevo;
+            enConstruccion = null;
+        }
+
+        void abortarConstruccion() {
+            enConstruccion = null;
+        }
+
+        void registrar(String id) {
+            if (id == null) {
+                return;
+            }
+            Set<String> construyendo = enConstruccion;
+            if (construyendo != null) {
+                construyendo.add(id);
+            }
+            Set<String> actual = ids;
+            if (actual != null) {
+                actual.add(id);
+            }
+        }
+
+        Boolean consultar(String id, boolean confiarNegativos) {
+            Set<String> actual = ids;
+            if (actual != null && id != null) {
+                if (actual.contains(id)) {
+                    respondidas.increment();
+                    return Boolean.TRUE;
+                }
+                if (confiarNegativos) {
+                    respondidas.increment();
+                    return Boolean.FALSE;
+                }
+            }
+            sinRespuesta.increment();
+            return null;
+        }
+
+        int tamano() {
+            Set<String> actual = ids;
+            return actual != null ? actual.size() : 0;
+        }
+
+        Map<String, Object> metricas() {
+            return Map.of("listo", ids != null, "ids", tamano(),
+                    "respondidasLocalmente", respondidas.sum(), "consultadasAFirestore", sinRespuesta.sum());
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.proyecto.ProyectoConectacare.cache;
+
+import com.proyecto.ProyectoConectacare.exception.PresentationException;
+import com.proyecto.ProyectoConectacare.metricas.FuenteMetricas;
+import com.proyecto.ProyectoConectacare.peticion.PlazoPeticion;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Componente que agrupa ("single-flight") las lecturas idénticas que se producen a la vez.
+ *
+ * Cuando varias peticiones solicitan simultáneamente la misma clave (por ejemplo, el perfil de un trabajador popular
+ * o el listado completo de anuncios), solo la primera ejecuta la lectura en Firestore; el resto espera al mismo
+ * CompletableFuture y recibe su resultado.
+ *
+ * Características principales:
+ * - Registro por clave sin bloqueos mediante ConcurrentHashMap.putIfAbsent.
+ * - Los errores de la lectura se propagan tal cual a todos los que esperaban.
+ * - Si la petición que ejecutaba la lectura se cancela, se interrumpe o agota su propio plazo (504), los que
+ *   esperaban no heredan el fallo: se reintenta y uno de ellos pasa a ejecutar la lectura con su plazo.
+ * - Cada hilo que espera lo hace como mucho hasta el plazo de su propia petición ({@link PlazoPeticion}); al
+ *   vencer recibe un 504, sin cancelar la lectura compartida que aún esperan los demás.
+ * - Contadores de lecturas ejecutadas, coalescidas, fallidas, canceladas y de esperas vencidas.
+ */
+@Component
+public class LecturasCoalescidas implements FuenteMetricas {
+
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> enCurso = new ConcurrentHashMap<>();
+    private final LongAdder ejecutadas = new LongAdder();
+    private final LongAdder coalescidas = new LongAdder();
+    private final LongAdder fallidas = new LongAdder();
+    private final LongAdder canceladas = new LongAdder();
+    private final LongAdder vencidas = new LongAdder();
+
+    /**
+     * Ejecuta la lectura asociada a la clave o, si ya hay una en curso para esa clave, espera su resultado.
+     *
+     * @param clave identificador de la lectura (por ejemplo, "usuarios/{id}").
+     * @param lectura la operación que realiza la lectura; puede lanzar PresentationException.
+     * @return el resultado de la lectura, compartido entre todos los llamantes concurrentes.
+     * @param <T> el tipo del resultado.
+     * @throws PresentationException si la lectura falla, 504 si vence el plazo de la petición mientras espera,
+     * o 500 si el hilo que espera es interrumpido.
+     */
+    public <T> T ejecutar(String clave, Supplier<T> lectura) {
+        while (true) {
+            CompletableFuture<Object> nuevo = new CompletableFuture<>();
+            CompletableFuture<Object> existente = enCurso.putIfAbsent(clave, nuevo);
+            if (existente == null) {
+                return liderar(clave, nuevo, lectura);
+            }
+            coalescidas.increment();
+            try {
+                return esperar(existente);
+            } catch (TimeoutException e) {
+                vencidas.increment();
+                throw new PresentationException("Plazo de la petición agotado", HttpStatus.GATEWAY_TIMEOUT);
+            } catch (CancellationException e) {
+                // La lectura compartida se canceló: se vuelve a intentar y quizá este hilo la ejecute
+            } catch (ExecutionException e) {
+                Throwable causa = e.getCause();
+                if (causa instanceof RuntimeException runtime) {
+                    throw runtime;
+                }
+                if (causa instanceof Error error) {
+                    throw error;
+                }
+                throw new PresentationException("Error en lectura compartida", HttpStatus.INTERNAL_SERVER_ERROR);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PresentationException("Lectura interrumpida", HttpStatus.INTERNAL_SERVER_ERROR);
+            }
+        }
+    }
+
+    /**
+     * Espera el resultado compartido como mucho hasta el plazo de la petición del hilo actual. El Future lo completa
+     * liderar() con el resultado de un Supplier&lt;T&gt; registrado con la misma clave.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T esperar(CompletableFuture<Object> compartido)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long restante = PlazoPeticion.restanteNanos();
+        if (restante == Long.MAX_VALUE) {
+            return (T) compartido.get();
+        }
+        return (T) compartido.get(Math.max(0, restante), TimeUnit.NANOSECONDS);
+    }
+
+    private <T> T liderar(String clave, CompletableFuture<Object> compartido, Supplier<T> lectura) {
+        ejecutadas.increment();
+        try {
+            T resultado = lectura.get();
+            compartido.complete(resultado);
+            return resultado;
+        } catch (RuntimeException | Error e) {
+            if (e instanceof CancellationException || Thread.currentThread().isInterrupted() || plazoPropioAgotado(e)) {
+                canceladas.increment();
+                compartido.cancel(false);
+            } else {
+                fallidas.increment();
+                compartido.completeExceptionally(e);
+            }
+            throw e;
+        } finally {
+            enCurso.remove(clave, compartido);
+        }
+    }
+
+    /**
+     * Un 504 lanzado cuando el plazo de la petición que lideraba ya ha vencido es cosa de esa petición, no de la
+     * lectura: los que esperan pueden tener tiempo de sobra para repetirla.
+     */
+    private static boolean plazoPropioAgotado(Throwable e) {
+        return e instanceof PresentationException p && p.getHttpStatus() == HttpStatus.GATEWAY_TIMEOUT
+                && PlazoPeticion.vencido();
+    }
+
+    @Override
+    public String getNombreMetricas() {
+        return "lecturasCoalescidas";
+    }
+
+    @Override
+    public Map<String, Object> getMetricas() {
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        metricas.put("ejecutadas", ejecutadas.sum());
+        metricas.put("coalescidas", coalescidas.sum());
+        metricas.put("fallidas", fallidas.sum());
+        metricas.put("canceladas", canceladas.sum());
+        metricas.put("vencidas", vencidas.sum());
+        metricas.put("enCurso", enCurso.size());
+        return metricas;
+    }
+}
@@ -0,0 +1,136 @@
+package com.proyecto.ProyectoConectacare.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.proyecto.ProyectoConectacare.metricas.FuenteMetricas;
+import com.proyecto.ProyectoConectacare.model.Anuncio;
+import com.proyecto.ProyectoConectacare.model.Usuario;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registro centralizado de las cachés en memoria de la aplicación.
+ *
+ * Cachés disponibles:
+ * - `usuarios`: perfiles de usuario por ID (colección "usuarios").
+ * - `anuncios`: anuncios por ID (colección "anuncios").
+ * - `listados`: listados completos, como el de todos los anuncios.
+ * - `agregados`: valores calculados, como la valoración media global.
+ * - `existenciaEmails`: resultados recientes de la comprobación de si un email está registrado.
+ * - `idempotencia`: respuestas guardadas por clave Idempotency-Key (cada entrada caduca cuando indica RegistroIdempotencia).
+ *
+ * Las cachés asociadas a una colección se pueden reconciliar contra Firestore comparando versiones
+ * (updateTime) de cada documento; las demás dependen únicamente de su TTL y de la invalidación en las escrituras.
+ */
+@Component
+public class RegistroCaches implements FuenteMetricas {
+    public static final String CLAVE_TODOS = "todos";
+    public static final String CLAVE_VALORACION_MEDIA = "valoracionMedia";
+
+    private static final long TTL_DOCUMENTOS_MS = 10 * 60 * 1000L;
+    private static final long TTL_LISTADOS_MS = 60 * 1000L;
+    private static final long TTL_AGREGADOS_MS = 5 * 60 * 1000L;
+    private static final long TTL_IDEMPOTENCIA_MS = 24 * 60 * 60 * 1000L;
+
+    private final CacheLocal<Usuario> usuarios;
+    private final CacheLocal<Anuncio> anuncios;
+    private final CacheLocal<List<Anuncio>> listados;
+    private final CacheLocal<Map<String, Object>> agregados;
+    private final CacheLocal<Boolean> existenciaEmails;
+    private final CacheLocal<Map<String, String>> idempotencia;
+
+    public RegistroCaches(ObjectMapper objectMapper) {
+        TypeFactory tipos = objectMapper.getTypeFactory();
+        this.usuarios = new CacheLocal<>("usuarios", tipos.constructType(Usuario.class), "usuarios",
+                doc -> doc.toObject(Usuario.class), TTL_DOCUMENTOS_MS, 10_000);
+        this.anuncios = new CacheLocal<>("anuncios", tipos.constructType(Anuncio.class), "anuncios",
+                doc -> {
+                    Anuncio anuncio = doc.toObject(Anuncio.class);
+                    if (anuncio != null) {
+                        anuncio.setId(doc.getId());
+                    }
+                    return anuncio;
+                }, TTL_DOCUMENTOS_MS, 10_000);
+        this.listados = new CacheLocal<>("listados", tipos.constructCollectionType(List.class, Anuncio.class), null,
+                null, TTL_LISTADOS_MS, 16);
+        this.agregados = new CacheLocal<>("agregados", tipos.constructMapType(Map.class, String.class, Object.class), null,
+                null, TTL_AGREGADOS_MS, 64);
+        this.existenciaEmails = new CacheLocal<>("existenciaEmails", tipos.constructType(Boolean.class), null,
+                null, TTL_DOCUMENTOS_MS, 20_000);
+        this.idempotencia = new CacheLocal<>("idempotencia", tipos.constructMapType(Map.class, String.class, String.class), null,
+                null, TTL_IDEMPOTENCIA_MS, 20_000);
+    }
+
+    /**
+     * Calcula la versión de un documento de Firestore a partir de su updateTime.
+     *
+     * @param doc el documento leído de Firestore.
+     * @return el updateTime en microsegundos desde epoch, o 0 si el documento no existe.
+     */
+    public static long version(DocumentSnapshot doc) {
+        return doc != null && doc.exists() ? version(doc.getUpdateTime()) : 0L;
+    }
+
+    /**
+     * Convierte una marca de tiempo de Firestore en una versión numérica.
+     *
+     * @param updateTime la marca de tiempo (por ejemplo, la de un WriteResult).
+     * @return la marca de tiempo en microsegundos desde epoch, o 0 si es null.
+     */
+    public static long version(Timestamp updateTime) {
+        return updateTime != null ? updateTime.getSeconds() * 1_000_000L + updateTime.getNanos() / 1_000 : 0L;
+    }
+
+    public CacheLocal<Usuario> usuarios() {
+        return usuarios;
+    }
+
+    public CacheLocal<Anuncio> anuncios() {
+        return anuncios;
+    }
+
+    public CacheLocal<List<Anuncio>> listados() {
+        return listados;
+    }
+
+    public CacheLocal<Map<String, Object>> agregados() {
+        return agregados;
+    }
+
+    public CacheLocal<Boolean> existenciaEmails() {
+        return existenciaEmails;
+    }
+
+    public CacheLocal<Map<String, String>> idempotencia() {
+        return idempotencia;
+    }
+
+    /**
+     * @return todas las cachés registradas, en un orden estable.
+     */
+    public List<CacheLocal<?>> todas() {
+        return List.of(usuarios, anuncios, listados, agregados, existenciaEmails, idempotencia);
+    }
+
+    @Override
+    public String getNombreMetricas() {
+        return "caches";
+    }
+
+    @Override
+    public Map<String, Object> getMetricas() {
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        for (CacheLocal<?> cache : todas()) {
+            metricas.put(cache.getNombre(), Map.of(
+                    "entradas", cache.size(),
+                    "aciertos", cache.getAciertos(),
+                    "fallos", cache.getFallos()));
+        }
+        return metricas;
+    }
+}
@@ -0,0 +1,320 @@
+package com.proyecto.ProyectoConectacare.cache;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.introspect.Annotated;
+import com.fasterxml.jackson.databind.introspect.JacksonAnnotationIntrospector;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.proyecto.ProyectoConectacare.ejecucion.CompartimentosEjecucion;
+import com.proyecto.ProyectoConectacare.ejecucion.Prioridad;
+import com.proyecto.ProyectoConectacare.firestore.AccesoFirestore;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Componente responsable de volcar periódicamente las cachés en memoria a un fichero binario en disco local
+ * y de restaurarlas al arrancar, para que el servicio no empiece en frío tras un reinicio o un despliegue en Render.
+ *
+ * Funcionamiento:
+ * - Cada cierto intervalo se escribe un fichero temporal con todas las entradas vigentes y se renombra de forma
+ *   atómica sobre el fichero de volcado, de modo que nunca se lee un fichero a medio escribir.
+ * - Al arrancar, el fichero se lee mediante un mapeo en memoria (FileChannel.map) y se rellenan las cachés.
+ * - Después, en segundo plano (compartimento FONDO), se reconcilian las cachés asociadas a una colección: se leen los documentos por lotes
+ *   con Firestore.getAll y se descartan o actualizan las entradas cuyo updateTime no coincide con la versión guardada.
+ *
+ * Formato del fichero (big endian):
+ * - Cabecera: número mágico, versión del formato, instante de creación y número de cachés.
+ * - Por cada caché: nombre y número de entradas.
+ * - Por cada entrada: clave, versión del documento, instante de caducidad y el valor serializado con Jackson.
+ *
+ * Los valores se serializan con una copia del ObjectMapper que ignora los modos de acceso de @JsonProperty: en la
+ * API `password` es de solo escritura y `updatedAt` o `contadoresSolicitudes` de solo lectura, pero el volcado debe
+ * conservar todos los campos tal y como están en la caché.
+ *
+ * Notas:
+ * - En Render el disco local es efímero entre despliegues salvo que se monte un disco persistente;
+ *   la ruta se configura con la propiedad `conectacare.cache.snapshot.ruta`.
+ * - El volcado contiene datos personales: por defecto se guarda en un directorio propio de la aplicación (no en el
+ *   temporal compartido) y, en sistemas POSIX, el directorio se crea con permisos 0700 y el fichero con 0600.
+ * - Cualquier error al leer el volcado se registra y se ignora: el servicio arranca en frío como antes.
+ */
+@Component
+public class SnapshotCache {
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotCache.class);
+    private static final int MAGICO = 0x43434331; // "CCC1"
+    private static final int VERSION_FORMATO = 1;
+    private static final int TAMANO_LOTE_RECONCILIACION = 100;
+
+    private final RegistroCaches registroCaches;
+    private final ObjectMapper objectMapper;
+    private final Firestore db;
+    private final AccesoFirestore accesoFirestore;
+    private final CompartimentosEjecucion compartimentos;
+    private final boolean habilitado;
+    private final Path ruta;
+
+    public SnapshotCache(RegistroCaches registroCaches, ObjectMapper objectMapper, Firestore db, AccesoFirestore accesoFirestore,
+                         CompartimentosEjecucion compartimentos,
+                         @Value("${conectacare.cache.snapshot.habilitado:true}") boolean habilitado,
+                         @Value("${conectacare.cache.snapshot.ruta:${user.home}/.conectacare/cache.bin}") String ruta) {
+        this.registroCaches = registroCaches;
+        this.objectMapper = mapperVolcado(objectMapper);
+        this.db = db;
+        this.accesoFirestore = accesoFirestore;
+        this.compartimentos = compartimentos;
+        this.habilitado = habilitado;
+        this.ruta = Paths.get(ruta);
+    }
+
+    /**
+     * Copia del ObjectMapper de la aplicación (con sus módulos) que serializa y lee todas las propiedades,
+     * sin aplicar los modos de acceso READ_ONLY y WRITE_ONLY pensados para la API.
+     */
+    static ObjectMapper mapperVolcado(ObjectMapper objectMapper) {
+        ObjectMapper copia = objectMapper.copy();
+        copia.setAnnotationIntrospector(new JacksonAnnotationIntrospector() {
+            @Override
+            public JsonProperty.Access findPropertyAccess(Annotated annotated) {
+                return JsonProperty.Access.AUTO;
+            }
+        });
+        return copia;
+    }
+
+    /**
+     * Restaura las cachés desde el último volcado y lanza la reconciliación en segundo plano.
+     */
+    @PostConstruct
+    public void restaurar() {
+        if (!habilitado || !Files.isRegularFile(ruta)) {
+            return;
+        }
+        try {
+            int restauradas = cargar();
+            logger.info("Caché restaurada desde {}: {} entradas.", ruta, restauradas);
+            compartimentos.enviar(Prioridad.FONDO, this::reconciliar);
+        } catch (Exception e) {
+            logger.warn("No se pudo restaurar el volcado de caché {}: {}. Se arranca en frío.", ruta, e.getMessage());
+            registroCaches.todas().forEach(CacheLocal::invalidarTodo);
+        }
+    }
+
+    /**
+     * Escribe periódicamente el volcado de las cachés en disco.
+     */
+    @Scheduled(fixedDelayString = "${conectacare.cache.snapshot.intervalo-ms:60000}",
+            initialDelayString = "${conectacare.cache.snapshot.intervalo-ms:60000}")
+    public void volcarPeriodicamente() {
+        if (habilitado) {
+            volcar();
+        }
+    }
+
+    /**
+     * Escribe un último volcado al detener la aplicación.
+     */
+    @PreDestroy
+    public void volcarAlDetener() {
+        if (habilitado) {
+            volcar();
+        }
+    }
+
+    /**
+     * Escribe todas las entradas vigentes de las cachés en un fichero temporal y lo renombra sobre el volcado.
+     */
+    void volcar() {
+        long ahora = System.currentTimeMillis();
+        Path temporal = ruta.resolveSibling(ruta.getFileName() + ".tmp");
+        try {
+            crearFicheroPrivado(temporal);
+            int total = 0;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(temporal, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)))) {
+                List<CacheLocal<?>> caches = registroCaches.todas();
+                out.writeInt(MAGICO);
+                out.writeInt(VERSION_FORMATO);
+                out.writeLong(ahora);
+                out.writeInt(caches.size());
+                for (CacheLocal<?> cache : caches) {
+                    total += escribirCache(out, cache, ahora);
+                }
+            }
+            Files.move(temporal, ruta, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.debug("Volcado de caché escrito en {} ({} entradas).", ruta, total);
+        } catch (IOException e) {
+            logger.warn("Error al escribir el volcado de caché en {}: {}", ruta, e.getMessage());
+        }
+    }
+
+    /**
+     * Crea el fichero vacío (y su directorio, si falta) solo accesible por el usuario del proceso.
+     */
+    private static void crearFicheroPrivado(Path fichero) throws IOException {
+        boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+        Path directorio = fichero.toAbsolutePath().getParent();
+        if (directorio != null && !Files.isDirectory(directorio)) {
+            if (posix) {
+                Files.createDirectories(directorio, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            } else {
+                Files.createDirectories(directorio);
+            }
+        }
+        Files.deleteIfExists(fichero);
+        FileAttribute<?>[] permisos = posix
+                ? new FileAttribute<?>[]{PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"))}
+                : new FileAttribute<?>[0];
+        Files.createFile(fichero, permisos);
+    }
+
+    private <V> int escribirCache(DataOutputStream out, CacheLocal<V> cache, long ahora) throws IOException {
+        List<Map.Entry<String, CacheLocal.Entrada<V>>> vigentes = new ArrayList<>();
+        for (Map.Entry<String, CacheLocal.Entrada<V>> e : cache.entradas().entrySet()) {
+            if (e.getValue().expiraEn() > ahora) {
+                vigentes.add(e);
+            }
+        }
+        escribirTexto(out, cache.getNombre());
+        out.writeInt(vigentes.size());
+        for (Map.Entry<String, CacheLocal.Entrada<V>> e : vigentes) {
+            byte[] valor = objectMapper.writerFor(cache.getTipo()).writeValueAsBytes(e.getValue().valor());
+            escribirTexto(out, e.getKey());
+            out.writeLong(e.getValue().version());
+            out.writeLong(e.getValue().expiraEn());
+            out.writeInt(valor.length);
+            out.write(valor);
+        }
+        return vigentes.size();
+    }
+
+    /**
+     * Lee el volcado mediante un mapeo en memoria y rellena las cachés con las entradas no caducadas.
+     *
+     * @return el número de entradas restauradas.
+     * @throws IOException si el fichero no se puede leer o su formato no es válido.
+     */
+    int cargar() throws IOException {
+        try (FileChannel canal = FileChannel.open(ruta, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            if (buffer.getInt() != MAGICO || buffer.getInt() != VERSION_FORMATO) {
+                throw new IOException("formato de volcado no reconocido");
+            }
+            buffer.getLong(); // instante de creación, solo informativo
+            long ahora = System.currentTimeMillis();
+            int restauradas = 0;
+            int numCaches = buffer.getInt();
+            for (int i = 0; i < numCaches; i++) {
+                String nombre = leerTexto(buffer);
+                CacheLocal<?> cache = registroCaches.todas().stream()
+                        .filter(c -> c.getNombre().equals(nombre))
+                        .findFirst()
+                        .orElse(null);
+                restauradas += leerCache(buffer, cache, ahora);
+            }
+            return restauradas;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <V> int leerCache(ByteBuffer buffer, CacheLocal<V> cache, long ahora) throws IOException {
+        int restauradas = 0;
+        int numEntradas = buffer.getInt();
+        for (int j = 0; j < numEntradas; j++) {
+            String clave = leerTexto(buffer);
+            long version = buffer.getLong();
+            long expiraEn = buffer.getLong();
+            byte[] valor = new byte[buffer.getInt()];
+            buffer.get(valor);
+            // Las cachés que ya no existen o las entradas caducadas se saltan, pero hay que consumir sus bytes
+            if (cache != null && expiraEn > ahora) {
+                cache.putHasta(clave, (V) objectMapper.readerFor(cache.getTipo()).readValue(valor), version, expiraEn);
+                restauradas++;
+            }
+        }
+        return restauradas;
+    }
+
+    /**
+     * Compara, por lotes, la versión de cada entrada restaurada con el updateTime actual del documento en Firestore.
+     * Las entradas de documentos eliminados se descartan y las de documentos modificados se sustituyen.
+     */
+    void reconciliar() {
+        for (CacheLocal<?> cache : registroCaches.todas()) {
+            if (cache.getColeccion() != null) {
+                try {
+                    reconciliarCache(cache);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    logger.warn("Error reconciliando la caché '{}'; se vacía por seguridad: {}", cache.getNombre(), e.getMessage());
+                    cache.invalidarTodo();
+                }
+            }
+        }
+        logger.info("Reconciliación de la caché restaurada finalizada.");
+    }
+
+    private <V> void reconciliarCache(CacheLocal<V> cache) throws InterruptedException, ExecutionException {
+        List<String> claves = new ArrayList<>(cache.entradas().keySet());
+        int actualizadas = 0;
+        int descartadas = 0;
+        for (int i = 0; i < claves.size(); i += TAMANO_LOTE_RECONCILIACION) {
+            List<String> lote = claves.subList(i, Math.min(i + TAMANO_LOTE_RECONCILIACION, claves.size()));
+            DocumentReference[] refs = lote.stream()
+                    .map(id -> db.collection(cache.getColeccion()).document(id))
+                    .toArray(DocumentReference[]::new);
+            for (DocumentSnapshot doc : accesoFirestore.leer(cache.getColeccion() + ".getAll", () -> db.getAll(refs))) {
+                CacheLocal.Entrada<V> actual = cache.entradas().get(doc.getId());
+                if (!doc.exists()) {
+                    cache.invalidar(doc.getId());
+                    descartadas++;
+                } else if (actual == null || actual.version() != RegistroCaches.version(doc)) {
+                    cache.put(doc.getId(), cache.getLector().apply(doc), RegistroCaches.version(doc));
+                    actualizadas++;
+                }
+            }
+        }
+        logger.info("Caché '{}' reconciliada: {} entradas revisadas, {} actualizadas, {} descartadas.",
+                cache.getNombre(), claves.size(), actualizadas, descartadas);
+    }
+
+    private static void escribirTexto(DataOutputStream out, String texto) throws IOException {
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String leerTexto(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -3,6 +3,7 @@ package com.proyecto.ProyectoConectacare.config;
 
 
 import com.proyecto.ProyectoConectacare.security.FirebaseFiltroAutenticacion;
+import com.proyecto.ProyectoConectacare.security.FiltroLimiteTasa;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
@@ -30,6 +31,8 @@ import java.util.List;
  * - Configura la gestión de sesiones sin estado para evitar la creación y el uso de sesiones del lado del servidor.
  * - Define reglas de acceso para rutas HTTP, incluyendo endpoints públicos y autenticados.
  * - Incorpora un filtro de autenticación personalizado que utiliza Firebase para la autenticación basada en tokens.
+ * - Antes de la autenticación limita por IP, para no verificar tokens de una avalancha de peticiones, y después
+ * aplica la limitación de tasa por usuario verificado o IP (`FiltroLimiteTasa`).
  *
  * Beans:
  * - `SecurityFilterChain`: Configura la cadena de filtros de seguridad utilizada para interceptar y procesar solicitudes HTTP. * - `CorsConfigurationSource`: Proporciona una configuración CORS personalizada para definir orígenes, métodos y encabezados permitidos.
@@ -49,9 +52,11 @@ import java.util.List;
 public class SecurityConfig {
 
     private final FirebaseFiltroAutenticacion firebaseFilter;
+    private final FiltroLimiteTasa filtroLimiteTasa;
 
-    public SecurityConfig(FirebaseFiltroAutenticacion firebaseFilter) {
+    public SecurityConfig(FirebaseFiltroAutenticacion firebaseFilter, FiltroLimiteTasa filtroLimiteTasa) {
         this.firebaseFilter = firebaseFilter;
+        this.filtroLimiteTasa = filtroLimiteTasa;
     }
 
     @Bean
@@ -94,7 +99,11 @@ public class SecurityConfig {
                         .anyRequest().authenticated()
                 )
                 // Añadir filtro personalizado
-                .addFilterBefore(firebaseFilter, UsernamePasswordAuthenticationFilter.class);
+                .addFilterBefore(firebaseFilter, UsernamePasswordAuthenticationFilter.class)
+                // Límite por IP antes de verificar el token
+                .addFilterBefore(filtroLimiteTasa.filtroPorIp(), FirebaseFiltroAutenticacion.class)
+                // Limitación de tasa con el UID ya verificado (o la IP en las rutas públicas)
+                .addFilterAfter(filtroLimiteTasa, FirebaseFiltroAutenticacion.class);
         return http.build();
     }
 
@@ -0,0 +1,288 @@
+package com.proyecto.ProyectoConectacare.contadores;
+
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Precondition;
+import com.google.cloud.firestore.SetOptions;
+import com.google.cloud.firestore.WriteBatch;
+import com.proyecto.ProyectoConectacare.ejecucion.CompartimentosEjecucion;
+import com.proyecto.ProyectoConectacare.ejecucion.Prioridad;
+import com.proyecto.ProyectoConectacare.exception.PresentationException;
+import com.proyecto.ProyectoConectacare.firestore.AccesoFirestore;
+import com.proyecto.ProyectoConectacare.metricas.FuenteMetricas;
+import com.proyecto.ProyectoConectacare.model.EstadoSolicitud;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contadores materializados de solicitudes por anuncio: total y desglose por {@link EstadoSolicitud}, para que
+ * el cliente vea cuántas solicitudes tiene cada anuncio sin leer las solicitudes de todos ellos.
+ *
+ * Funcionamiento:
+ * - Cada anuncio tiene un documento en la colección "contadoresAnuncios" con el mismo ID que el anuncio y los
+ *   campos `total`, `PENDIENTE`, `ACEPTADA` y `RECHAZADA`.
+ * - Las escrituras de solicitudes añaden al mismo WriteBatch un FieldValue.increment sobre el contador, de modo que
+ *   la solicitud y su contador se confirman juntos o no se confirma ninguno. Como crear una solicitud usa create()
+ *   y cambiar de estado lleva la precondición de versión, un reintento nunca cuenta dos veces.
+ * - Los contadores están en su propia colección y no en el anuncio para que editar el anuncio no los pise ni
+ *   cambiar de estado una solicitud altere la versión del anuncio (caché y sincronización incremental).
+ *
+ * Reconciliación ({@link #reconciliar()}): se ejecuta a diario y desde el panel de administración. Cuenta todas
+ * las solicitudes con una consulta con proyección, lo compara con los contadores guardados y solo reescribe los
+ * que no cuadran. Cada corrección lee el contador, vuelve a contar las solicitudes de ese anuncio y escribe con
+ * la precondición de la versión leída: si entretanto se ha confirmado una solicitud, la escritura se rechaza y
+ * se repite, así que la reconciliación no pierde incrementos concurrentes.
+ */
+@Component
+public class ContadoresSolicitudes implements FuenteMetricas {
+    private static final Logger logger = LoggerFactory.getLogger(ContadoresSolicitudes.class);
+    private static final String COLECCION = "contadoresAnuncios";
+    private static final String TOTAL = "total";
+    private static final int MAX_INTENTOS_CORRECCION = 3;
+
+    private final Firestore db;
+    private final AccesoFirestore accesoFirestore;
+    private final CompartimentosEjecucion compartimentos;
+
+    private final LongAdder reconciliaciones = new LongAdder();
+    private final LongAdder corregidos = new LongAdder();
+    private final AtomicLong ultimaReconciliacion = new AtomicLong();
+
+    public ContadoresSolicitudes(Firestore db, AccesoFirestore accesoFirestore, CompartimentosEjecucion compartimentos) {
+        this.db = db;
+        this.accesoFirestore = accesoFirestore;
+        this.compartimentos = compartimentos;
+    }
+
+    /**
+     * Añade al lote el alta de una solicitud nueva (PENDIENTE) en el contador de su anuncio.
+     */
+    public void contarAlta(WriteBatch lote, String anuncioId) {
+        Map<String, Object> incrementos = new HashMap<>();
+        incrementos.put(TOTAL, FieldValue.increment(1));
+        incrementos.put(EstadoSolicitud.PENDIENTE.name(), FieldValue.increment(1));
+        lote.set(referencia(anuncioId), incrementos, SetOptions.merge());
+    }
+
+    /**
+     * Añade al lote el paso de una solicitud de un estado a otro en el contador de su anuncio.
+     */
+    public void contarCambio(WriteBatch lote, String anuncioId, EstadoSolicitud anterior, EstadoSolicitud nuevo) {
+        if (anuncioId == null || anterior == nuevo) {
+            return;
+        }
+        Map<String, Object> incrementos = new HashMap<>();
+        incrementos.put(anterior.name(), FieldValue.increment(-1));
+        incrementos.put(nuevo.name(), FieldValue.increment(1));
+        lote.set(referencia(anuncioId), incrementos, SetOptions.merge());
+    }
+
+    /**
+     * Lee los contadores de varios anuncios en una sola llamada.
+     *
+     * @param anuncioIds los IDs de los anuncios.
+     * @return los contadores de cada anuncio; los anuncios sin solicitudes aparecen con todo a cero.
+     * @throws PresentationException si hay un error durante la lectura.
+     */
+    public Map<String, Map<String, Long>> leer(Collection<String> anuncioIds) {
+        Map<String, Map<String, Long>> contadores = new LinkedHashMap<>();
+        Set<String> ids = new LinkedHashSet<>(anuncioIds);
+        ids.removeIf(id -> id == null || id.isBlank());
+        if (ids.isEmpty()) {
+            return contadores;
+        }
+        DocumentReference[] refs = ids.stream().map(this::referencia).toArray(DocumentReference[]::new);
+        try {
+            for (DocumentSnapshot doc : accesoFirestore.leer(COLECCION + ".getAll", () -> db.getAll(refs))) {
+                contadores.put(doc.getId(), desdeDocumento(doc));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PresentationException("Error al obtener los contadores de solicitudes", HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (ExecutionException e) {
+            throw new PresentationException("Error al obtener los contadores de solicitudes", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+        return contadores;
+    }
+
+    /**
+     * Reconciliación diaria en segundo plano.
+     */
+    @Scheduled(initialDelayString = "${conectacare.contadores.reconciliacion-ms:86400000}",
+            fixedDelayString = "${conectacare.contadores.reconciliacion-ms:86400000}")
+    public void reconciliarPeriodicamente() {
+        compartimentos.enviar(Prioridad.FONDO, () -> {
+            try {
+                reconciliar();
+            } catch (Exception e) {
+                logger.warn("No se pudieron reconciliar los contadores de solicitudes: {}", e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Recalcula los contadores de todos los anuncios desde las solicitudes y corrige los que no cuadran.
+     *
+     * @return un resumen con los anuncios revisados y los contadores corregidos.
+     * @throws PresentationException si no se pueden leer las solicitudes o los contadores.
+     */
+    public Map<String, Object> reconciliar() {
+        try {
+            Map<String, Map<String, Long>> esperados = new HashMap<>();
+            for (DocumentSnapshot doc : accesoFirestore.leer("solicitudes.estados",
+                    () -> db.collection("solicitudes").select("anuncioId", "estado").get()).getDocuments()) {
+                String anuncioId = doc.getString("anuncioId");
+                if (anuncioId != null) {
+                    sumar(esperados.computeIfAbsent(anuncioId, id -> vacios()), doc.getString("estado"));
+                }
+            }
+            Map<String, Map<String, Long>> guardados = new HashMap<>();
+            for (DocumentSnapshot doc : accesoFirestore.leer(COLECCION + ".todos",
+                    () -> db.collection(COLECCION).get()).getDocuments()) {
+                guardados.put(doc.getId(), desdeDocumento(doc));
+            }
+
+            Set<String> anuncios = new HashSet<>(esperados.keySet());
+            anuncios.addAll(guardados.keySet());
+            List<String> descuadrados = new ArrayList<>();
+            for (String anuncioId : anuncios) {
+                if (!Objects.equals(esperados.getOrDefault(anuncioId, vacios()), guardados.getOrDefault(anuncioId, vacios()))) {
+                    descuadrados.add(anuncioId);
+                }
+            }
+
+            int corregidosAhora = 0;
+            List<String> sinCorregir = new ArrayList<>();
+            for (String anuncioId : descuadrados) {
+                if (corregir(anuncioId)) {
+                    corregidosAhora++;
+                } else {
+                    sinCorregir.add(anuncioId);
+                }
+            }
+            reconciliaciones.increment();
+            corregidos.add(corregidosAhora);
+            ultimaReconciliacion.set(System.currentTimeMillis());
+            if (!descuadrados.isEmpty()) {
+                logger.info("Contadores de solicitudes reconciliados: {} de {} anuncios corregidos.", corregidosAhora, anuncios.size());
+            }
+
+            Map<String, Object> resumen = new LinkedHashMap<>();
+            resumen.put("anunciosRevisados", anuncios.size());
+            resumen.put("corregidos", corregidosAhora);
+            resumen.put("sinCorregir", sinCorregir);
+            return resumen;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PresentationException("Reconciliación interrumpida", HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (ExecutionException e) {
+            throw new PresentationException("Error al reconciliar los contadores de solicitudes", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Reescribe el contador de un anuncio a partir de sus solicitudes, con la precondición de la versión leída.
+     *
+     * @return true si el contador ha quedado corregido; false si sigue cambiando tras todos los intentos.
+     */
+    private boolean corregir(String anuncioId) throws InterruptedException, ExecutionException {
+        DocumentReference ref = referencia(anuncioId);
+        for (int intento = 1; intento <= MAX_INTENTOS_CORRECCION; intento++) {
+            // El contador se lee antes que las solicitudes: cualquier alta posterior cambia su versión
+            DocumentSnapshot contador = accesoFirestore.leer(COLECCION + ".get", ref::get);
+            Map<String, Long> valores = vacios();
+            for (DocumentSnapshot doc : accesoFirestore.leer("solicitudes.estadosPorAnuncio", () -> db.collection("solicitudes")
+                    .whereEqualTo("anuncioId", anuncioId)
+                    .select("estado")
+                    .get()).getDocuments()) {
+                sumar(valores, doc.getString("estado"));
+            }
+            try {
+                if (contador.exists()) {
+                    Precondition version = Precondition.updatedAt(contador.getUpdateTime());
+                    if (valores.get(TOTAL) == 0) {
+                        accesoFirestore.escribir(COLECCION + ".eliminar", () -> ref.delete(version));
+                    } else {
+                        accesoFirestore.escribir(COLECCION + ".corregir", () -> ref.update(new HashMap<String, Object>(valores), version));
+                    }
+                } else if (valores.get(TOTAL) > 0) {
+                    accesoFirestore.escribir(COLECCION + ".crear", () -> ref.create(new HashMap<String, Object>(valores)));
+                }
+                return true;
+            } catch (ExecutionException e) {
+                String codigo = AccesoFirestore.codigoDe(e);
+                if (!"FAILED_PRECONDITION".equals(codigo) && !"ALREADY_EXISTS".equals(codigo)) {
+                    throw e;
+                }
+                logger.debug("Contador del anuncio {} modificado durante la corrección (intento {})", anuncioId, intento);
+            }
+        }
+        return false;
+    }
+
+    private DocumentReference referencia(String anuncioId) {
+        return db.collection(COLECCION).document(anuncioId);
+    }
+
+    private static Map<String, Long> vacios() {
+        Map<String, Long> valores = new LinkedHashMap<>();
+        valores.put(TOTAL, 0L);
+        for (EstadoSolicitud estado : EstadoSolicitud.values()) {
+            valores.put(estado.name(), 0L);
+        }
+        return valores;
+    }
+
+    /**
+     * Suma una solicitud al desglose; las solicitudes antiguas sin estado cuentan como PENDIENTE.
+     */
+    private static void sumar(Map<String, Long> valores, String estado) {
+        String clave = estado != null ? estado : EstadoSolicitud.PENDIENTE.name();
+        valores.merge(TOTAL, 1L, Long::sum);
+        valores.merge(clave, 1L, Long::sum);
+    }
+
+    private static Map<String, Long> desdeDocumento(DocumentSnapshot doc) {
+        Map<String, Long> valores = vacios();
+        if (doc.exists()) {
+            for (String clave : valores.keySet()) {
+                Long valor = doc.getLong(clave);
+                valores.put(clave, valor != null ? valor : 0L);
+            }
+        }
+        return valores;
+    }
+
+    @Override
+    public String getNombreMetricas() {
+        return "contadoresSolicitudes";
+    }
+
+    @Override
+    public Map<String, Object> getMetricas() {
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        metricas.put("reconciliaciones", reconciliaciones.sum());
+        metricas.put("corregidos", corregidos.sum());
+        metricas.put("ultimaReconciliacion", ultimaReconciliacion.get());
+        return metricas;
+    }
+}
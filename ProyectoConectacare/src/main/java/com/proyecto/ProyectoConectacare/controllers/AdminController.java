@@ -4,8 +4,16 @@ import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseAuthException;
 import com.google.firebase.auth.FirebaseToken;
 import com.google.firebase.auth.UserRecord;
+import com.proyecto.ProyectoConectacare.contadores.ContadoresSolicitudes;
+import com.proyecto.ProyectoConectacare.dto.ProyeccionUsuario;
 import com.proyecto.ProyectoConectacare.dto.UsuarioCreadAdmDTO;
+import com.proyecto.ProyectoConectacare.ejecucion.Abanico;
+import com.proyecto.ProyectoConectacare.ejecucion.CompartimentosEjecucion;
+import com.proyecto.ProyectoConectacare.ejecucion.Prioridad;
+import com.proyecto.ProyectoConectacare.eventos.ResumenesEstadisticas;
 import com.proyecto.ProyectoConectacare.exception.PresentationException;
+import com.proyecto.ProyectoConectacare.metricas.FuenteMetricas;
+import com.proyecto.ProyectoConectacare.migracion.MigracionIdsDeterministas;
 import com.proyecto.ProyectoConectacare.model.Rol;
 import com.proyecto.ProyectoConectacare.model.Usuario;
 import com.proyecto.ProyectoConectacare.service.AdminService;
@@ -13,6 +21,8 @@ import com.proyecto.ProyectoConectacare.service.AnuncioService;
 import com.proyecto.ProyectoConectacare.service.UsuarioService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -21,14 +31,21 @@ import org.springframework.web.bind.annotation.*;
 
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Responsable del control de las funciones administrativas relacionadas con la gestión de usuarios,
  * las estadísticas.
+ *
+ * Las operaciones que recorren colecciones completas (listado de usuarios, estadísticas y CSV) se ejecutan
+ * en el compartimento ADMIN, con su propio pool de hilos y su propia cuota de Firestore. Las consultas
+ * independientes de las estadísticas se lanzan en paralelo con un {@link Abanico}, cada una con el plazo
+ * `conectacare.admin.timeout-consulta-ms`.
  */
 @RestController
 @RequestMapping("/admin")
@@ -38,12 +55,28 @@ public class AdminController {
     private final FirebaseAuth firebaseAuth;
     private final UsuarioService usuarioService;
     private final AnuncioService anuncioService;
-
-    public AdminController(AdminService adminService, FirebaseAuth firebaseAuth, UsuarioService usuarioService, AnuncioService anuncioService) {
+    private final List<FuenteMetricas> fuentesMetricas;
+    private final CompartimentosEjecucion compartimentos;
+    private final long timeoutConsultaMs;
+    private final MigracionIdsDeterministas migracionIds;
+    private final ContadoresSolicitudes contadoresSolicitudes;
+    private final ResumenesEstadisticas resumenesEstadisticas;
+
+    public AdminController(AdminService adminService, FirebaseAuth firebaseAuth, UsuarioService usuarioService, AnuncioService anuncioService,
+                           List<FuenteMetricas> fuentesMetricas, CompartimentosEjecucion compartimentos,
+                           @Value("${conectacare.admin.timeout-consulta-ms:8000}") long timeoutConsultaMs,
+                           MigracionIdsDeterministas migracionIds, ContadoresSolicitudes contadoresSolicitudes,
+                           ResumenesEstadisticas resumenesEstadisticas) {
         this.adminService = adminService;
         this.anuncioService = anuncioService;
         this.firebaseAuth = firebaseAuth;
         this.usuarioService = usuarioService;
+        this.fuentesMetricas = fuentesMetricas;
+        this.compartimentos = compartimentos;
+        this.timeoutConsultaMs = timeoutConsultaMs;
+        this.migracionIds = migracionIds;
+        this.contadoresSolicitudes = contadoresSolicitudes;
+        this.resumenesEstadisticas = resumenesEstadisticas;
     }
 
 
@@ -53,12 +86,15 @@ public class AdminController {
      *
      * @param token: el token de autorización proporcionado en el encabezado de la solicitud; debe
      * comenzar con "Bearer" seguido del token real.
-     * @return: una ResponseEntity que contiene una lista de objetos "Usuario" si la autenticación y la autorización son exitosas.
+     * @param fields: opcional; campos a devolver separados por comas, o una proyección predefinida ("admin", "tarjetaTrabajador").
+     * @return: una ResponseEntity que contiene una lista de objetos "Usuario" (o solo los campos pedidos) si la autenticación y la autorización son exitosas.
      * @throws: FirebaseAuthException si hay un error durante la verificación del token.
      * @throws: PresentationException si se deniega el acceso debido a permisos insuficientes.
      */
     @GetMapping("/usuarios")
-    public ResponseEntity<List<Usuario>> obtenerUsuarios(@RequestHeader("Authorization") String token) throws FirebaseAuthException {
+    public ResponseEntity<List<?>> obtenerUsuarios(@RequestHeader("Authorization") String token,
+                                                   @RequestParam(required = false) String fields) throws FirebaseAuthException {
+        List<String> campos = ProyeccionUsuario.resolver(fields);
         if (token.startsWith("Bearer ")) {
             token = token.substring(7);
         }
@@ -71,7 +107,10 @@ public class AdminController {
             throw new PresentationException("Acceso denegado", HttpStatus.FORBIDDEN);
         }
 
-        return ResponseEntity.ok(usuarioService.getAllUsuarios());
+        if (campos != null) {
+            return ResponseEntity.ok(compartimentos.ejecutar(Prioridad.ADMIN, () -> usuarioService.getAllUsuarios(campos)));
+        }
+        return ResponseEntity.ok(compartimentos.ejecutar(Prioridad.ADMIN, () -> usuarioService.getAllUsuarios()));
     }
 
     /**
@@ -120,17 +159,153 @@ public class AdminController {
         if (usuarioActual == null || usuarioActual.getRol() != Rol.ADMINISTRADOR) {
             throw new PresentationException("Acceso denegado", HttpStatus.FORBIDDEN);
         }
-        int inicios = adminService.contarInicioSesion();
-        int registros = adminService.contarRegistros();
-        int anuncios = anuncioService.contarTotalAnuncios();
+        // Los tres conteos son independientes: se lanzan a la vez y, si uno falla, se cancelan los demás
+        Abanico abanico = compartimentos.abanico(Prioridad.ADMIN);
+        Abanico.Rama<Integer> inicios = abanico.lanzar("iniciosSesion", timeoutConsultaMs, adminService::contarInicioSesion);
+        Abanico.Rama<Integer> registros = abanico.lanzar("registros", timeoutConsultaMs, adminService::contarRegistros);
+        Abanico.Rama<Integer> anuncios = abanico.lanzar("totalAnuncios", timeoutConsultaMs, anuncioService::contarTotalAnuncios);
+        abanico.esperarTodasOFallar();
+
         Map<String, Object> estadisticas = new HashMap<>();
-        estadisticas.put("iniciosSesion", inicios);    // Total de logins
-        estadisticas.put("registros", registros);         // Nuevos registros
-        estadisticas.put("totalAnuncios", anuncios);
+        estadisticas.put("iniciosSesion", inicios.valor());    // Total de logins
+        estadisticas.put("registros", registros.valor());         // Nuevos registros
+        estadisticas.put("totalAnuncios", anuncios.valor());
 
         return ResponseEntity.ok(estadisticas);
     }
 
+    /**
+     * Obtiene la serie temporal de eventos (registros e inicios de sesión) por hora o por día, leyendo los resúmenes
+     * precalculados: un documento por intervalo, sin recorrer los eventos.
+     *
+     * @param token el token de autorización en el encabezado de la solicitud, que debe incluir el prefijo "Bearer ".
+     * @param desde el primer día (yyyy-MM-dd), incluido.
+     * @param hasta el último día (yyyy-MM-dd), incluido.
+     * @param granularidad HORA o DIA (por defecto DIA).
+     * @return un elemento por intervalo con su inicio y el número de eventos de cada tipo.
+     * @throws FirebaseAuthException si hay un error al verificar el token de autenticación con Firebase.
+     */
+    @GetMapping("/estadisticas/serie")
+    public ResponseEntity<List<Map<String, Object>>> obtenerSerieEstadisticas(@RequestHeader("Authorization") String token,
+                                                                              @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate desde,
+                                                                              @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate hasta,
+                                                                              @RequestParam(defaultValue = "DIA") ResumenesEstadisticas.Granularidad granularidad) throws FirebaseAuthException {
+        if (token.startsWith("Bearer ")) token = token.substring(7);
+        FirebaseToken decodedToken = firebaseAuth.verifyIdToken(token);
+        Usuario usuarioActual = usuarioService.getUsuarioById(decodedToken.getUid());
+        if (usuarioActual == null || usuarioActual.getRol() != Rol.ADMINISTRADOR) {
+            throw new PresentationException("Acceso denegado", HttpStatus.FORBIDDEN);
+        }
+        return ResponseEntity.ok(compartimentos.ejecutar(Prioridad.ADMIN, () -> resumenesEstadisticas.serie(desde, hasta, granularidad)));
+    }
+
+    /**
+     * Recalcula desde los eventos los resúmenes por hora y por día de un rango de días, varios días en paralelo,
+     * si el usuario autenticado tiene rol de administrador.
+     *
+     * @param token el token de autorización en el encabezado de la solicitud, que debe incluir el prefijo "Bearer ".
+     * @param desde el primer día (yyyy-MM-dd), incluido.
+     * @param hasta el último día (yyyy-MM-dd), incluido.
+     * @return un resumen con los días reconstruidos y los errores de los que no se han podido reconstruir.
+     * @throws FirebaseAuthException si hay un error al verificar el token de autenticación con Firebase.
+     */
+    @PostMapping("/estadisticas/serie/reconstruir")
+    public ResponseEntity<Map<String, Object>> reconstruirSerieEstadisticas(@RequestHeader("Authorization") String token,
+                                                                            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate desde,
+                                                                            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate hasta) throws FirebaseAuthException {
+        if (token.startsWith("Bearer ")) token = token.substring(7);
+        FirebaseToken decodedToken = firebaseAuth.verifyIdToken(token);
+        Usuario usuarioActual = usuarioService.getUsuarioById(decodedToken.getUid());
+        if (usuarioActual == null || usuarioActual.getRol() != Rol.ADMINISTRADOR) {
+            throw new PresentationException("Acceso denegado", HttpStatus.FORBIDDEN);
+        }
+        return ResponseEntity.ok(compartimentos.ejecutar(Prioridad.ADMIN,
+                () -> resumenesEstadisticas.reconstruir(desde, hasta, Prioridad.ADMIN)));
+    }
+
+
+    /**
+     * Obtiene las métricas internas del servicio (cachés, lecturas coalescidas, etc.) si el usuario autenticado
+     * tiene rol de administrador.
+     *
+     * @param token el token de autorización en el encabezado de la solicitud, que debe incluir el prefijo "Bearer ".
+     * @return un mapa con las métricas agrupadas por fuente.
+     * @throws FirebaseAuthException si hay un error al verificar el token de autenticación con Firebase.
+     */
+    @GetMapping("/metricas")
+    public ResponseEntity<Map<String, Object>> obtenerMetricas(@RequestHeader("Authorization") String token) throws FirebaseAuthException {
+        if (token.startsWith("Bearer ")) token = token.substring(7);
+        FirebaseToken decodedToken = firebaseAuth.verifyIdToken(token);
+        Usuario usuarioActual = usuarioService.getUsuarioById(decodedToken.getUid());
+        if (usuarioActual == null || usuarioActual.getRol() != Rol.ADMINISTRADOR) {
+            throw new PresentationException("Acceso denegado", HttpStatus.FORBIDDEN);
+        }
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        for (FuenteMetricas fuente : fuentesMetricas) {
+            metricas.put(fuente.getNombreMetricas(), fuente.getMetricas());
+        }
+        return ResponseEntity.ok(metricas);
+    }
+
+    /**
+     * Lanza en segundo plano la migración de las solicitudes y evaluaciones con IDs aleatorios a los IDs deterministas
+     * (ver {@link MigracionIdsDeterministas}) si el usuario autenticado tiene rol de administrador.
+     * Se puede repetir hasta que no quede nada por mover.
+     *
+     * @param token el token de autorización en el encabezado de la solicitud, que debe incluir el prefijo "Bearer ".
+     * @param simular si es true, solo informa de lo que se movería.
+     * @return 202 con el estado del trabajo; el resumen se consulta después con GET sobre la misma ruta.
+     * @throws FirebaseAuthException si hay un error al verificar el token de autenticación con Firebase.
+     */
+    @PostMapping("/migraciones/ids-deterministas")
+    public ResponseEntity<Map<String, Object>> migrarIdsDeterministas(@RequestHeader("Authorization") String token,
+                                                                      @RequestParam(defaultValue = "false") boolean simular) throws FirebaseAuthException {
+        if (token.startsWith("Bearer ")) token = token.substring(7);
+        FirebaseToken decodedToken = firebaseAuth.verifyIdToken(token);
+        Usuario usuarioActual = usuarioService.getUsuarioById(decodedToken.getUid());
+        if (usuarioActual == null || usuarioActual.getRol() != Rol.ADMINISTRADOR) {
+            throw new PresentationException("Acceso denegado", HttpStatus.FORBIDDEN);
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(migracionIds.lanzar(simular));
+    }
+
+    /**
+     * Obtiene el estado de la última migración a IDs deterministas (EN_CURSO, COMPLETADA o FALLIDA) con su resumen,
+     * que incluye los duplicados y los conflictos que hay que revisar, si el usuario autenticado tiene rol de administrador.
+     *
+     * @param token el token de autorización en el encabezado de la solicitud, que debe incluir el prefijo "Bearer ".
+     * @return el estado del trabajo.
+     * @throws FirebaseAuthException si hay un error al verificar el token de autenticación con Firebase.
+     */
+    @GetMapping("/migraciones/ids-deterministas")
+    public ResponseEntity<Map<String, Object>> estadoMigracionIdsDeterministas(@RequestHeader("Authorization") String token) throws FirebaseAuthException {
+        if (token.startsWith("Bearer ")) token = token.substring(7);
+        FirebaseToken decodedToken = firebaseAuth.verifyIdToken(token);
+        Usuario usuarioActual = usuarioService.getUsuarioById(decodedToken.getUid());
+        if (usuarioActual == null || usuarioActual.getRol() != Rol.ADMINISTRADOR) {
+            throw new PresentationException("Acceso denegado", HttpStatus.FORBIDDEN);
+        }
+        return ResponseEntity.ok(migracionIds.estado());
+    }
+
+    /**
+     * Recalcula desde las solicitudes los contadores de solicitudes por anuncio y corrige los que no cuadran,
+     * si el usuario autenticado tiene rol de administrador. Es la misma reconciliación que se ejecuta a diario.
+     *
+     * @param token el token de autorización en el encabezado de la solicitud, que debe incluir el prefijo "Bearer ".
+     * @return un resumen con los anuncios revisados y los contadores corregidos.
+     * @throws FirebaseAuthException si hay un error al verificar el token de autenticación con Firebase.
+     */
+    @PostMapping("/contadores/reconciliar")
+    public ResponseEntity<Map<String, Object>> reconciliarContadores(@RequestHeader("Authorization") String token) throws FirebaseAuthException {
+        if (token.startsWith("Bearer ")) token = token.substring(7);
+        FirebaseToken decodedToken = firebaseAuth.verifyIdToken(token);
+        Usuario usuarioActual = usuarioService.getUsuarioById(decodedToken.getUid());
+        if (usuarioActual == null || usuarioActual.getRol() != Rol.ADMINISTRADOR) {
+            throw new PresentationException("Acceso denegado", HttpStatus.FORBIDDEN);
+        }
+        return ResponseEntity.ok(compartimentos.ejecutar(Prioridad.ADMIN, contadoresSolicitudes::reconciliar));
+    }
 
     /**
      * Obtiene el usuario actual a partir del token de autorización proporcionado.
@@ -177,7 +352,7 @@ public class AdminController {
         // 2. Obtener la lista de usuarios
         List<Usuario> usuarios;
         try {
-            usuarios = adminService.obtenerUsuarios();
+            usuarios = compartimentos.ejecutar(Prioridad.ADMIN, adminService::obtenerUsuarios);
             logger.info("Obtenidos {} usuarios para incluir en el CSV (byte[]).", usuarios.size());
         } catch (PresentationException e) {
             logger.error("Error (PresentationException) al obtener la lista de usuarios para el CSV: {}", e.getMessage(), e);
@@ -187,10 +362,11 @@ public class AdminController {
             throw new PresentationException("Error interno al obtener datos de usuarios.", HttpStatus.INTERNAL_SERVER_ERROR);
         }
 
+        byte[] csvBytes;
         try {
-
-            adminService.generarCSVBytes(usuarios);
-            logger.info("Bytes del CSV generados correctamente ({} bytes).");
+            List<Usuario> incluidos = usuarios;
+            csvBytes = compartimentos.ejecutar(Prioridad.ADMIN, () -> adminService.generarCSVBytes(incluidos));
+            logger.info("Bytes del CSV generados correctamente ({} bytes).", csvBytes.length);
         } catch (PresentationException e) {
             // Error específico de negocio DENTRO del servicio generarCSVBytes
             logger.error("❌ Error (PresentationException) durante la generación del contenido CSV: {}", e.getMessage());
@@ -210,7 +386,7 @@ public class AdminController {
         logger.debug("Encabezados HTTP para descarga CSV (byte[]) configurados.");
 
 
-        return new ResponseEntity<>( headers, HttpStatus.OK);
+        return new ResponseEntity<>(csvBytes, headers, HttpStatus.OK);
     }
 @PostMapping("crear-usuario")
 public ResponseEntity<Usuario> crearUsuario( @RequestBody UsuarioCreadAdmDTO usuarioNuevoDTO,
@@ -3,15 +3,20 @@ package com.proyecto.ProyectoConectacare.controllers;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseAuthException;
 import com.google.firebase.auth.FirebaseToken;
+import com.proyecto.ProyectoConectacare.dto.CambiosDTO;
+import com.proyecto.ProyectoConectacare.dto.LoteIdsDTO;
 import com.proyecto.ProyectoConectacare.exception.PresentationException;
+import com.proyecto.ProyectoConectacare.idempotencia.RegistroIdempotencia;
 import com.proyecto.ProyectoConectacare.model.Anuncio;
 import com.proyecto.ProyectoConectacare.service.AnuncioService;
+import jakarta.validation.Valid;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * Clase controladora responsable de gestionar las solicitudes HTTP relacionadas con los recursos de "Anuncio".
@@ -24,9 +29,11 @@ import java.util.List;
 public class AnuncioController {
     private final AnuncioService anuncioService;
     private final FirebaseAuth firebaseAuth;
-    public AnuncioController(AnuncioService anuncioService, FirebaseAuth firebaseAuth) {
+    private final RegistroIdempotencia registroIdempotencia;
+    public AnuncioController(AnuncioService anuncioService, FirebaseAuth firebaseAuth, RegistroIdempotencia registroIdempotencia) {
         this.anuncioService = anuncioService;
         this.firebaseAuth = firebaseAuth;
+        this.registroIdempotencia = registroIdempotencia;
     }
 
     /**
@@ -34,11 +41,13 @@ public class AnuncioController {
      *
      * @param token: el token de autorización, que debe incluir el prefijo "Bearer" para autenticar la solicitud.
      * @param anuncio: el objeto "Anuncio" que contiene los datos que se crearán.
+     * @param claveIdempotencia: opcional; si se repite, se devuelve el resultado de la primera petición sin volver a crearlo.
      * @return: una {@code ResponseEntity} que contiene el objeto "Anuncio" creado y un estado HTTP de CREADO.
      * @throws: una PresentationException si el token proporcionado no es válido o la autenticación falla.
      */
     @PostMapping
-    public ResponseEntity<Anuncio> crearAnuncio(@RequestHeader("Authorization") String token, @RequestBody Anuncio anuncio) {
+    public ResponseEntity<?> crearAnuncio(@RequestHeader("Authorization") String token, @RequestBody Anuncio anuncio,
+                                                @RequestHeader(value = RegistroIdempotencia.CABECERA, required = false) String claveIdempotencia) {
         try {
 
             if (token.startsWith("Bearer ")) {
@@ -47,8 +56,8 @@ public class AnuncioController {
             FirebaseToken decoded = firebaseAuth.verifyIdToken(token);
             String uid = decoded.getUid();
 
-             anuncio = anuncioService.crearAnuncio(uid,anuncio);
-            return new ResponseEntity<>(anuncio, HttpStatus.CREATED);
+            return registroIdempotencia.ejecutar("POST /anuncios", uid, claveIdempotencia, anuncio, HttpStatus.CREATED,
+                    () -> anuncioService.crearAnuncio(uid, anuncio));
         } catch (FirebaseAuthException e) {
             throw new PresentationException("Token inválido", HttpStatus.UNAUTHORIZED);
         }
@@ -65,6 +74,17 @@ public class AnuncioController {
         return anuncioService.getAnuncioById(id);
     }
 
+    /**
+     * Recupera varios recursos "Anuncio" en una sola petición, en lugar de uno por cada solicitud mostrada.
+     *
+     * @param lote: los identificadores de los anuncios (como máximo {@link LoteIdsDTO#MAX_IDS}).
+     * @return: un mapa del identificador al "Anuncio"; los identificadores que no existen no aparecen.
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<Map<String, Anuncio>> obtenerAnunciosPorLote(@Valid @RequestBody LoteIdsDTO lote) {
+        return ResponseEntity.ok(anuncioService.getAnunciosByIds(lote.getIds()));
+    }
+
     /**
      * Recupera todos los recursos de "Anuncio" sin filtrar por cliente.
      *
@@ -76,6 +96,17 @@ public class AnuncioController {
         return new ResponseEntity<>(anuncios, HttpStatus.OK);
     }
 
+    /**
+     * Sincronización incremental de la lista de anuncios: solo los cambios desde el cursor del cliente.
+     *
+     * @param since: el cursor devuelto por la sincronización anterior (milisegundos desde epoch).
+     * @return: los anuncios modificados, los IDs eliminados y el nuevo cursor.
+     */
+    @GetMapping(params = "since")
+    public ResponseEntity<CambiosDTO<Anuncio>> obtenerCambios(@RequestParam long since) {
+        return ResponseEntity.ok(anuncioService.getAnunciosDesde(since));
+    }
+
     /**
      * Recupera una lista de recursos "Anuncio" asociados a un cliente específico.
      *
@@ -0,0 +1,40 @@
+package com.proyecto.ProyectoConectacare.controllers;
+
+import com.proyecto.ProyectoConectacare.dto.BootstrapDTO;
+import com.proyecto.ProyectoConectacare.exception.PresentationException;
+import com.proyecto.ProyectoConectacare.service.BootstrapService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Controlador del panel inicial. Sustituye la secuencia de llamadas que hace el frontend tras iniciar sesión
+ * (/usuarios/yo, /solicitudes/..., /anuncios/..., /evaluaciones/mias) por una sola petición.
+ */
+@RestController
+@RequestMapping("/bootstrap")
+public class BootstrapController {
+    private final BootstrapService bootstrapService;
+
+    public BootstrapController(BootstrapService bootstrapService) {
+        this.bootstrapService = bootstrapService;
+    }
+
+    /**
+     * Devuelve el usuario autenticado y los datos de su panel según su rol.
+     *
+     * @param request la petición, con el UID que deja el filtro de autenticación de Firebase.
+     * @return el panel; si alguna sección no se ha podido cargar, `parcial` es true y el motivo aparece en `errores`.
+     */
+    @GetMapping
+    public ResponseEntity<BootstrapDTO> obtenerPanel(HttpServletRequest request) {
+        String uid = (String) request.getAttribute("userId");
+        if (uid == null) {
+            throw new PresentationException("Usuario no autenticado", HttpStatus.UNAUTHORIZED);
+        }
+        return ResponseEntity.ok(bootstrapService.cargarPanel(uid));
+    }
+}
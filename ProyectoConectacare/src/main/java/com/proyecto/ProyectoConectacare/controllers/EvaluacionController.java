@@ -4,11 +4,14 @@ import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseAuthException;
 import com.google.firebase.auth.FirebaseToken;
 import com.proyecto.ProyectoConectacare.dto.EvaluacionDTO;
+import com.proyecto.ProyectoConectacare.dto.LoteIdsDTO;
 import com.proyecto.ProyectoConectacare.exception.PresentationException;
+import com.proyecto.ProyectoConectacare.idempotencia.RegistroIdempotencia;
 import com.proyecto.ProyectoConectacare.model.Evaluacion;
 import com.proyecto.ProyectoConectacare.model.Solicitud;
 import com.proyecto.ProyectoConectacare.service.EvaluacionService;
 import com.proyecto.ProyectoConectacare.service.SolicitudService;
+import jakarta.validation.Valid;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -28,10 +31,13 @@ public class EvaluacionController {
     private final EvaluacionService evaluacionService;
     private final FirebaseAuth firebaseAuth;
     private final SolicitudService solicitudService;
-    public EvaluacionController(EvaluacionService evaluacionService, FirebaseAuth firebaseAuth, SolicitudService solicitudService) {
+    private final RegistroIdempotencia registroIdempotencia;
+    public EvaluacionController(EvaluacionService evaluacionService, FirebaseAuth firebaseAuth, SolicitudService solicitudService,
+                                RegistroIdempotencia registroIdempotencia) {
         this.evaluacionService = evaluacionService;
         this.firebaseAuth = firebaseAuth;
         this.solicitudService = solicitudService;
+        this.registroIdempotencia = registroIdempotencia;
     }
     /**
      * Crea una nueva evaluación para una solicitud de trabajo completada, garantizando que el usuario esté autenticado
@@ -39,12 +45,14 @@ public class EvaluacionController {
      *
      * @param evaluacion: el objeto de evaluación que contiene los detalles que se crearán.
      * @param token: el token de autorización del usuario que envía la solicitud.
+     * @param claveIdempotencia: opcional; si se repite, se devuelve el resultado de la primera petición sin volver a crearlo.
      * @return: una ResponseEntity que contiene la evaluación creada y el código de estado HTTP.
      */
     @PostMapping
-    public ResponseEntity<Evaluacion> crearEvaluacion(
+    public ResponseEntity<?> crearEvaluacion(
             @RequestBody Evaluacion evaluacion,
-            @RequestHeader("Authorization") String token) {
+            @RequestHeader("Authorization") String token,
+            @RequestHeader(value = RegistroIdempotencia.CABECERA, required = false) String claveIdempotencia) {
 
         // Verificar autenticación
         FirebaseToken decodedToken = null;
@@ -70,8 +78,8 @@ public class EvaluacionController {
         evaluacion.setClienteId(decodedToken.getUid());
         evaluacion.setTrabajadorId(solicitud.getTrabajadorId());
 
-        Evaluacion evaluacionCreada = evaluacionService.createEvaluacion(evaluacion);
-        return new ResponseEntity<>(evaluacionCreada, HttpStatus.CREATED);
+        return registroIdempotencia.ejecutar("POST /evaluaciones", decodedToken.getUid(), claveIdempotencia,
+                evaluacion, HttpStatus.CREATED, () -> evaluacionService.createEvaluacion(evaluacion));
     }
     /**
      * Recupera una evaluación por su identificador único.
@@ -122,6 +130,16 @@ public class EvaluacionController {
         boolean evaluada = evaluacionService.existeEvaluacionPorSolicitud(solicitudId);
         return ResponseEntity.ok(evaluada);
     }
+    /**
+     * Indica qué solicitudes de un lote ya están evaluadas, para no llamar a /evaluada/{solicitudId} por cada fila.
+     *
+     * @param lote los identificadores de las solicitudes (como máximo {@link LoteIdsDTO#MAX_IDS}).
+     * @return un mapa del ID de solicitud a true si ya tiene evaluación.
+     */
+    @PostMapping("/evaluadas")
+    public ResponseEntity<Map<String, Boolean>> estanEvaluadas(@Valid @RequestBody LoteIdsDTO lote) {
+        return ResponseEntity.ok(evaluacionService.existenEvaluacionesPorSolicitudes(lote.getIds()));
+    }
     @GetMapping("/media")
     public ResponseEntity<Map<String, Object>> obtenerValoracionMediaGlobal() {
         try {
@@ -1,5 +1,6 @@
 package com.proyecto.ProyectoConectacare.controllers;
 
+import com.proyecto.ProyectoConectacare.idempotencia.RegistroIdempotencia;
 import com.proyecto.ProyectoConectacare.model.Mensaje;
 import com.proyecto.ProyectoConectacare.service.MensajeService;
 import org.springframework.http.HttpStatus;
@@ -16,20 +17,27 @@ import java.util.List;
 @RequestMapping("/mensajes")
 public class MensajeController {
     private final MensajeService mensajeService;
+    private final RegistroIdempotencia registroIdempotencia;
 
-    public MensajeController(MensajeService mensajeService) {
+    public MensajeController(MensajeService mensajeService, RegistroIdempotencia registroIdempotencia) {
         this.mensajeService = mensajeService;
+        this.registroIdempotencia = registroIdempotencia;
     }
 
     /**
      * Gestiona el envío de un mensaje procesándolo y devolviendo la respuesta.
      *
      * @param mensaje: el mensaje que se enviará, con detalles como remitente, destinatario, contenido y marca de tiempo.
+     * @param usuarioId: el UID del usuario autenticado, que delimita el ámbito de la clave de idempotencia.
+     * @param claveIdempotencia: opcional; si se repite, se devuelve el resultado de la primera petición sin volver a crearlo.
      * @return: una entidad de respuesta que contiene el mensaje enviado y un estado HTTP de CREADO.
      */
     @PostMapping
-    public ResponseEntity<Mensaje> enviarMensaje(@RequestBody Mensaje mensaje) {
-        return new ResponseEntity<>(mensajeService.mandarMensaje(mensaje), HttpStatus.CREATED);
+    public ResponseEntity<?> enviarMensaje(@RequestBody Mensaje mensaje,
+                                                 @RequestAttribute(value = "userId", required = false) String usuarioId,
+                                                 @RequestHeader(value = RegistroIdempotencia.CABECERA, required = false) String claveIdempotencia) {
+        return registroIdempotencia.ejecutar("POST /mensajes", usuarioId, claveIdempotencia, mensaje, HttpStatus.CREATED,
+                () -> mensajeService.mandarMensaje(mensaje));
     }
 
     /**
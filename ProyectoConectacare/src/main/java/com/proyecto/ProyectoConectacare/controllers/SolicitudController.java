@@ -3,8 +3,11 @@ package com.proyecto.ProyectoConectacare.controllers;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseAuthException;
 import com.google.firebase.auth.FirebaseToken;
+import com.proyecto.ProyectoConectacare.dto.CambiosDTO;
+import com.proyecto.ProyectoConectacare.dto.SolicitudConAnuncioDTO;
 import com.proyecto.ProyectoConectacare.dto.SolicitudConTrabajadorDTO;
 import com.proyecto.ProyectoConectacare.exception.PresentationException;
+import com.proyecto.ProyectoConectacare.idempotencia.RegistroIdempotencia;
 import com.proyecto.ProyectoConectacare.model.EstadoSolicitud;
 import com.proyecto.ProyectoConectacare.model.Solicitud;
 import com.proyecto.ProyectoConectacare.service.AnuncioService;
@@ -30,10 +33,13 @@ public class SolicitudController {
     private final SolicitudService solicitudService;
     private final AnuncioServiceImpl anuncioService; //esto es para que no se creen si no existen
     private final FirebaseAuth firebaseAuth;
-    public SolicitudController(SolicitudService solicitudService, AnuncioServiceImpl anuncioService,FirebaseAuth firebaseAuth) {
+    private final RegistroIdempotencia registroIdempotencia;
+    public SolicitudController(SolicitudService solicitudService, AnuncioServiceImpl anuncioService,FirebaseAuth firebaseAuth,
+                               RegistroIdempotencia registroIdempotencia) {
         this.solicitudService = solicitudService;
         this.anuncioService = anuncioService;
         this.firebaseAuth = firebaseAuth;
+        this.registroIdempotencia = registroIdempotencia;
     }
 
     /**
@@ -41,11 +47,13 @@ public class SolicitudController {
      *
      * @param token: el token de autorización proporcionado en el encabezado de la solicitud, que se espera siga el formato del token de portador.
      * @param solicitud: el objeto de Solicitud que se creará, proporcionado en el cuerpo de la solicitud.
+     * @param claveIdempotencia: opcional; si se repite, se devuelve el resultado de la primera petición sin volver a crearlo.
      * @return: una ResponseEntity que contiene el objeto de Solicitud creado y un estado HTTP CREADO.
      * @throws: PresentationException si el token proporcionado no es válido.
      */
     @PostMapping
-    public ResponseEntity<Solicitud> crearSolicitud(@RequestHeader("Authorization") String token,@RequestBody Solicitud solicitud) {
+    public ResponseEntity<?> crearSolicitud(@RequestHeader("Authorization") String token,@RequestBody Solicitud solicitud,
+                                                    @RequestHeader(value = RegistroIdempotencia.CABECERA, required = false) String claveIdempotencia) {
         try {
             if (token.startsWith("Bearer ")) {
                 token = token.substring(7);
@@ -55,9 +63,8 @@ public class SolicitudController {
             String trabajadorId = decodedToken.getUid();
 
             solicitud.setTrabajadorId(trabajadorId);
-            solicitud = solicitudService.createSolicitud(solicitud);
-
-            return new ResponseEntity<>(solicitud, HttpStatus.CREATED);
+            return registroIdempotencia.ejecutar("POST /solicitudes", trabajadorId, claveIdempotencia, solicitud, HttpStatus.CREATED,
+                    () -> solicitudService.createSolicitud(solicitud));
 
         } catch (FirebaseAuthException e) {
             throw new PresentationException("Token inválido", HttpStatus.UNAUTHORIZED);
@@ -121,6 +128,47 @@ public class SolicitudController {
             throw new PresentationException("Token inválido", HttpStatus.UNAUTHORIZED);
         }
     }
+    /**
+     * Recupera las solicitudes del trabajador autenticado junto con el resumen de cada anuncio (nombre del cliente
+     * y categorías) y si ya están evaluadas, para no pedir /anuncios/{id} por cada solicitud.
+     *
+     * @param token: el token de autorización en el encabezado "Authorization". Debe ser un token Bearer.
+     * @return ResponseEntity: contiene la lista de solicitudes enriquecidas si el token es válido.
+     */
+    @GetMapping("/mias/detalle")
+    public ResponseEntity<List<SolicitudConAnuncioDTO>> obtenerMisSolicitudesDetalladas(@RequestHeader("Authorization") String token) {
+        try {
+            if (token.startsWith("Bearer ")) {
+                token = token.substring(7);
+            }
+            FirebaseToken decodedToken = firebaseAuth.verifyIdToken(token);
+            return ResponseEntity.ok(solicitudService.getSolicitudesDetalladasByTrabajadorId(decodedToken.getUid()));
+        } catch (FirebaseAuthException e) {
+            throw new PresentationException("Token inválido", HttpStatus.UNAUTHORIZED);
+        }
+    }
+
+    /**
+     * Sincronización incremental de las solicitudes del trabajador autenticado.
+     *
+     * @param token: el token de autorización en el encabezado "Authorization". Debe ser un token Bearer.
+     * @param since: el cursor devuelto por la sincronización anterior (milisegundos desde epoch).
+     * @return las solicitudes modificadas, los IDs eliminados y el nuevo cursor.
+     */
+    @GetMapping(value = "/mias", params = "since")
+    public ResponseEntity<CambiosDTO<Solicitud>> obtenerCambiosMisSolicitudes(@RequestHeader("Authorization") String token,
+                                                                               @RequestParam long since) {
+        try {
+            if (token.startsWith("Bearer ")) {
+                token = token.substring(7);
+            }
+            FirebaseToken decodedToken = firebaseAuth.verifyIdToken(token);
+            return ResponseEntity.ok(solicitudService.getSolicitudesByTrabajadorIdDesde(decodedToken.getUid(), since));
+        } catch (FirebaseAuthException e) {
+            throw new PresentationException("Token inválido", HttpStatus.UNAUTHORIZED);
+        }
+    }
+
     /**
      * Recupera una lista de solicitudes de trabajo relacionadas con los anuncios del cliente actual
      * según el token de autorización proporcionado.
@@ -145,6 +193,28 @@ public class SolicitudController {
         }
     }
 
+    /**
+     * Sincronización incremental de las solicitudes recibidas en los anuncios del cliente autenticado.
+     * Las solicitudes evaluadas desde el cursor se devuelven como eliminadas, igual que desaparecen de la lista completa.
+     *
+     * @param token: el token de autorización JWT con el prefijo "Bearer".
+     * @param since: el cursor devuelto por la sincronización anterior (milisegundos desde epoch).
+     * @return: las solicitudes modificadas, los IDs que hay que quitar y el nuevo cursor.
+     */
+    @GetMapping(value = "/cliente", params = "since")
+    public CambiosDTO<SolicitudConTrabajadorDTO> obtenerCambiosSolicitudesParaMisAnuncios(@RequestHeader("Authorization") String token,
+                                                                                        @RequestParam long since) {
+        try {
+            if (token.startsWith("Bearer ")) {
+                token = token.substring(7);
+            }
+            FirebaseToken decoded = firebaseAuth.verifyIdToken(token);
+            return solicitudService.getSolicitudesByClienteIdDesde(decoded.getUid(), since);
+        } catch (FirebaseAuthException e) {
+            throw new PresentationException("Token inválido", HttpStatus.UNAUTHORIZED);
+        }
+    }
+
     /**
      * Actualiza el estado de una solicitud específica por su ID.
      *
@@ -184,7 +254,7 @@ public class SolicitudController {
                 throw new PresentationException("No autorizado", HttpStatus.FORBIDDEN);
             }
 
-            return ResponseEntity.ok(solicitudService.marcarComoCompletado(id));
+            return ResponseEntity.ok(solicitudService.marcarComoCompletado(id, solicitud));
 
         } catch (FirebaseAuthException e) {
             throw new PresentationException("Error de autenticación", HttpStatus.UNAUTHORIZED);
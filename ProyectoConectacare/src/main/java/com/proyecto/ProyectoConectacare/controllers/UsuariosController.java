@@ -1,10 +1,13 @@
 package com.proyecto.ProyectoConectacare.controllers;
 
 import com.google.firebase.auth.*;
+import com.proyecto.ProyectoConectacare.cache.IndiceEmails;
 import com.proyecto.ProyectoConectacare.dto.ClienteDTO;
+import com.proyecto.ProyectoConectacare.dto.LoteIdsDTO;
+import com.proyecto.ProyectoConectacare.dto.ProyeccionUsuario;
 import com.proyecto.ProyectoConectacare.dto.TrabajadorDTO;
+import com.proyecto.ProyectoConectacare.dto.UsuarioVersionado;
 import com.proyecto.ProyectoConectacare.exception.PresentationException;
-import com.proyecto.ProyectoConectacare.model.Evento;
 import com.proyecto.ProyectoConectacare.model.Rol;
 import com.proyecto.ProyectoConectacare.model.Usuario;
 import com.proyecto.ProyectoConectacare.service.LogEstadisticaService;
@@ -14,6 +17,7 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -32,11 +36,14 @@ public class UsuariosController {
     private final UsuarioService usuarioService;
     private final FirebaseAuth firebaseAuth;
     private final LogEstadisticaService logEstadisticasService;
+    private final IndiceEmails indiceEmails;
 
-    public UsuariosController(UsuarioService usuarioService, FirebaseAuth firebaseAuth, LogEstadisticaService logEstadisticasService) {
+    public UsuariosController(UsuarioService usuarioService, FirebaseAuth firebaseAuth, LogEstadisticaService logEstadisticasService,
+                              IndiceEmails indiceEmails) {
         this.usuarioService = usuarioService;
         this.firebaseAuth = firebaseAuth;
         this.logEstadisticasService = logEstadisticasService;
+        this.indiceEmails = indiceEmails;
     }
 
 
@@ -152,16 +159,30 @@ public class UsuariosController {
     }
 
     /**
-     * Recupera un usuario por su identificador único.
+     * Recupera varios usuarios en una sola petición, para que el frontend no pida los nombres uno a uno.
      *
-     * @param id el identificador único del usuario a recuperar
-     * @return una ResponseEntity que contiene el usuario si se encuentra, o un estado HTTP apropiado si no
+     * @param lote los identificadores de los usuarios (como máximo {@link LoteIdsDTO#MAX_IDS}).
+     * @return un mapa del ID al usuario; los IDs que no existen no aparecen en la respuesta.
      */
-    @GetMapping("/{id}")
-    public ResponseEntity<Usuario> obtenerUsuario(@PathVariable String id) {
-        Usuario usuario = usuarioService.getUsuarioById(id);
+    @PostMapping("/batch")
+    public ResponseEntity<Map<String, Usuario>> obtenerUsuariosPorLote(@Valid @RequestBody LoteIdsDTO lote) {
+        return ResponseEntity.ok(usuarioService.getUsuariosByIds(lote.getIds()));
+    }
 
-        return ResponseEntity.ok(usuario);
+    /**
+     * Recupera un usuario por su ID.
+     *
+     * @param id el identificador del usuario.
+     * @param fields opcional; campos a devolver separados por comas, o una proyección predefinida ("admin", "tarjetaTrabajador").
+     * @return el usuario completo o, si se indica fields, solo los campos pedidos.
+     */
+    @GetMapping("/{id}")
+    public ResponseEntity<?> obtenerUsuario(@PathVariable String id, @RequestParam(required = false) String fields) {
+        List<String> campos = ProyeccionUsuario.resolver(fields);
+        if (campos != null) {
+            return ResponseEntity.ok(usuarioService.getUsuarioById(id, campos));
+        }
+        return conVersion(usuarioService.getUsuarioVersionado(id));
     }
 
     /**
@@ -174,13 +195,16 @@ public class UsuariosController {
      * @param id El identificador único del usuario que se actualizará.
      * @param updates Un mapa que contiene los campos y valores que se actualizarán para el usuario.
      * @param token El token de autorización del encabezado de la solicitud.
-     * @return Una ResponseEntity que contiene la información actualizada del usuario.
+     * @param ifMatch opcional; el ETag devuelto al leer el usuario. Si se envía, la actualización solo se aplica
+     * si el usuario no ha cambiado desde entonces y, si no, se responde 412.
+     * @return Una ResponseEntity que contiene la información actualizada del usuario y su nuevo ETag.
      * @throws FirebaseAuthException Si hay un error al validar el token.
      */
     @PutMapping("/{id}")
     public ResponseEntity<Usuario> actualizarUsuario(
             @PathVariable String id,
-            @RequestBody Map<String, Object> updates, @RequestHeader("Authorization") String token
+            @RequestBody Map<String, Object> updates, @RequestHeader("Authorization") String token,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch
             ) throws FirebaseAuthException {
 
 
@@ -194,13 +218,58 @@ public class UsuariosController {
         }
 
         // Actualizar solo campos permitidos según el rol
-        Usuario usuarioActualizado = usuarioService.updateUsuario(id, updates);
-        return ResponseEntity.ok(usuarioActualizado);
+        return conVersion(usuarioService.updateUsuario(id, updates, versionDeIfMatch(ifMatch)));
+    }
+
+    /**
+     * Responde con el usuario y su ETag, que es la versión (updateTime) del documento del que se ha obtenido
+     * ese mismo usuario.
+     */
+    private static ResponseEntity<Usuario> conVersion(UsuarioVersionado versionado) {
+        ResponseEntity.BodyBuilder respuesta = ResponseEntity.ok();
+        if (versionado.version() != 0L) {
+            respuesta.eTag(String.valueOf(versionado.version()));
+        }
+        return respuesta.body(versionado.usuario());
+    }
+
+    /**
+     * Interpreta la cabecera If-Match. "*" o su ausencia no exigen ninguna versión.
+     *
+     * @throws PresentationException 412 si el valor no es un ETag emitido por este servicio.
+     */
+    private static Long versionDeIfMatch(String ifMatch) {
+        if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        String valor = ifMatch.trim();
+        if (valor.startsWith("W/")) {
+            valor = valor.substring(2);
+        }
+        valor = valor.replace("\"", "");
+        try {
+            return Long.parseLong(valor);
+        } catch (NumberFormatException e) {
+            throw new PresentationException("Cabecera If-Match no válida", HttpStatus.PRECONDITION_FAILED);
+        }
+    }
+
+    /**
+     * Obtiene del token la hora del inicio de sesión (`auth_time`, en segundos), que se mantiene al renovar el token;
+     * si falta se usa la de emisión (`iat`).
+     */
+    private static long inicioSesion(FirebaseToken token) {
+        Object valor = token.getClaims().get("auth_time");
+        if (!(valor instanceof Number)) {
+            valor = token.getClaims().get("iat");
+        }
+        return valor instanceof Number numero ? numero.longValue() : 0L;
     }
 
 
     /**
      * Recupera la información del usuario actual basándose en el token de autorización proporcionado.
+     * El evento INICIO_SESION se registra una vez por inicio de sesión real, no en cada llamada.
      *
      * @param token: el token de autorización del encabezado de la solicitud, utilizado para verificar e identificar al usuario.
      * @return: una ResponseEntity que contiene la información del usuario si el token es válido.
@@ -217,7 +286,7 @@ public class UsuariosController {
 
             Usuario usuario = usuarioService.getUsuarioById(uid);
 
-            logEstadisticasService.registrarEvento(usuario, Evento.INICIO_SESION);
+            logEstadisticasService.registrarInicioSesion(usuario, inicioSesion(decoded));
             return ResponseEntity.ok(usuario);
         } catch (FirebaseAuthException e) {
             throw new PresentationException("Token inválido", HttpStatus.UNAUTHORIZED);
@@ -225,6 +294,8 @@ public class UsuariosController {
     }
     /**
      * Verifica si un correo electrónico ya está registrado en Firebase Authentication.
+     * Primero se consulta el índice local de emails: los que el índice descarta se responden sin llamar a Firebase,
+     * y solo los que pueden existir se confirman con Firebase Auth.
      *
      * @param email Correo electrónico a verificar
      * @return true si ya existe, false si no
@@ -232,9 +303,14 @@ public class UsuariosController {
 
     @GetMapping("/email-existe") // Endpoint ahora público
     public ResponseEntity<Map<String, Object>> verificarEmail(@RequestParam String email) {
+        Boolean local = indiceEmails.consultar(email);
+        if (local != null) {
+            return ResponseEntity.ok(Map.of("existe", local));
+        }
         try {
             UserRecord userRecord = FirebaseAuth.getInstance().getUserByEmail(email);
             // Si no lanza excepción, el email existe
+            indiceEmails.recordar(email, true);
             return ResponseEntity.ok(Map.of("existe", true));
         } catch (FirebaseAuthException e) {
             // Comprueba los códigos de error exactos que devuelve tu versión del SDK de Admin de Firebase
@@ -242,6 +318,7 @@ public class UsuariosController {
                     "user-not-found".equalsIgnoreCase(String.valueOf(e.getErrorCode())) ||
                     "USER_NOT_FOUND".equalsIgnoreCase(String.valueOf(e.getErrorCode()))) {
                 // Email no existe
+                indiceEmails.recordar(email, false);
                 return ResponseEntity.ok(Map.of("existe", false));
             }
             // Otro error de Firebase al intentar buscar el email
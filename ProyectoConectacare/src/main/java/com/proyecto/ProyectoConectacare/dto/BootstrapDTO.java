@@ -0,0 +1,56 @@
+package com.proyecto.ProyectoConectacare.dto;
+
+import com.proyecto.ProyectoConectacare.model.Usuario;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Respuesta de GET /bootstrap: todos los datos del panel inicial del usuario autenticado en una sola respuesta.
+ *
+ * - `usuario`: el perfil del usuario autenticado.
+ * - `secciones`: los datos del panel según su rol (por ejemplo, "anuncios" o "solicitudes"), por nombre.
+ * - `errores`: el mensaje de error de cada sección que no se ha podido cargar.
+ * - `parcial`: true si falta alguna sección; el frontend puede pedirla después con su endpoint habitual.
+ */
+public class BootstrapDTO {
+    private Usuario usuario;
+    private Map<String, Object> secciones = new LinkedHashMap<>();
+    private Map<String, String> errores = new LinkedHashMap<>();
+    private boolean parcial;
+
+    public BootstrapDTO() {
+    }
+
+    public Usuario getUsuario() {
+        return usuario;
+    }
+
+    public void setUsuario(Usuario usuario) {
+        this.usuario = usuario;
+    }
+
+    public Map<String, Object> getSecciones() {
+        return secciones;
+    }
+
+    public void setSecciones(Map<String, Object> secciones) {
+        this.secciones = secciones;
+    }
+
+    public Map<String, String> getErrores() {
+        return errores;
+    }
+
+    public void setErrores(Map<String, String> errores) {
+        this.errores = errores;
+    }
+
+    public boolean isParcial() {
+        return parcial;
+    }
+
+    public void setParcial(boolean parcial) {
+        this.parcial = parcial;
+    }
+}
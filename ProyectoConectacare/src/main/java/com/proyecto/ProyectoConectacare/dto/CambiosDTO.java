@@ -0,0 +1,55 @@
+package com.proyecto.ProyectoConectacare.dto;
+
+import java.util.List;
+
+/**
+ * Respuesta de los endpoints de sincronización incremental (`?since=`).
+ *
+ * - `cambiados`: los elementos creados o modificados desde el cursor recibido.
+ * - `eliminados`: los IDs de los elementos que el cliente debe quitar de su copia local.
+ * - `cursor`: el valor que el cliente debe enviar como `since` en la siguiente sincronización
+ *   (milisegundos desde epoch, según el reloj de Firestore).
+ *
+ * Un mismo elemento puede llegar en dos sincronizaciones seguidas si se escribió justo en el instante del cursor;
+ * el cliente debe aplicar los cambios como sustituciones por ID.
+ *
+ * @param <T> el tipo de los elementos sincronizados.
+ */
+public class CambiosDTO<T> {
+    private List<T> cambiados;
+    private List<String> eliminados;
+    private long cursor;
+
+    public CambiosDTO() {
+    }
+
+    public CambiosDTO(List<T> cambiados, List<String> eliminados, long cursor) {
+        this.cambiados = cambiados;
+        this.eliminados = eliminados;
+        this.cursor = cursor;
+    }
+
+    public List<T> getCambiados() {
+        return cambiados;
+    }
+
+    public void setCambiados(List<T> cambiados) {
+        this.cambiados = cambiados;
+    }
+
+    public List<String> getEliminados() {
+        return eliminados;
+    }
+
+    public void setEliminados(List<String> eliminados) {
+        this.eliminados = eliminados;
+    }
+
+    public long getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(long cursor) {
+        this.cursor = cursor;
+    }
+}
@@ -15,6 +15,8 @@ public class EvaluacionDTO {
 
     private Date fechaEvaluacion;
     private String nombreCliente;
+    // true si no se ha cargado el nombre del cliente por falta de tiempo en la petición
+    private boolean parcial;
 
     public String getId() {
         return id;
@@ -55,4 +57,12 @@ public class EvaluacionDTO {
     public void setNombreCliente(String nombreCliente) {
         this.nombreCliente = nombreCliente;
     }
+
+    public boolean isParcial() {
+        return parcial;
+    }
+
+    public void setParcial(boolean parcial) {
+        this.parcial = parcial;
+    }
 }
@@ -0,0 +1,30 @@
+package com.proyecto.ProyectoConectacare.dto;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+
+import java.util.List;
+
+/**
+ * Cuerpo de las peticiones de consulta por lotes (por ejemplo, POST /usuarios/batch).
+ * Agrupa en una sola petición los identificadores que el frontend consultaría uno a uno.
+ * El número de identificadores está limitado para que cada lote se resuelva con pocas lecturas a Firestore.
+ */
+public class LoteIdsDTO {
+    public static final int MAX_IDS = 100;
+
+    @NotEmpty
+    @Size(max = MAX_IDS)
+    private List<String> ids;
+
+    public LoteIdsDTO() {
+    }
+
+    public List<String> getIds() {
+        return ids;
+    }
+
+    public void setIds(List<String> ids) {
+        this.ids = ids;
+    }
+}
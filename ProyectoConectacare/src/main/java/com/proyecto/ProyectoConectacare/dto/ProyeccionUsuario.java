@@ -0,0 +1,104 @@
+package com.proyecto.ProyectoConectacare.dto;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.proyecto.ProyectoConectacare.exception.PresentationException;
+import com.proyecto.ProyectoConectacare.model.Usuario;
+import org.springframework.http.HttpStatus;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Selección de campos de un Usuario para las respuestas que admiten el parámetro `fields=`.
+ *
+ * El parámetro acepta una lista de campos separados por comas (por ejemplo, `fields=id,nombre,rol`) o el nombre
+ * de una proyección predefinida:
+ * - `admin`: los campos que muestra el listado de usuarios del panel de administración.
+ * - `tarjetaTrabajador`: los campos de la tarjeta con la que se presenta a un trabajador.
+ *
+ * La lista de campos se traslada a Firestore (Query.select o DocumentReference.get con FieldMask), de modo que
+ * solo viajan los campos pedidos, y la respuesta se serializa como un mapa con esos campos.
+ * El campo `password` nunca se puede pedir.
+ */
+public final class ProyeccionUsuario {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    public static final Set<String> CAMPOS_PERMITIDOS = Set.of(
+            "id", "nombre", "apellido", "telefono", "email", "rol",
+            "direccion", "necesidades", "disponibilidad", "estudios", "experiencia", "habilidades");
+
+    private static final Map<String, List<String>> PREDEFINIDAS = Map.of(
+            "admin", List.of("id", "nombre", "apellido", "email", "rol", "telefono"),
+            "tarjetaTrabajador", List.of("id", "nombre", "apellido", "disponibilidad", "experiencia", "habilidades"));
+
+    private ProyeccionUsuario() {
+    }
+
+    /**
+     * Interpreta el valor del parámetro `fields`.
+     *
+     * @param fields el valor recibido; puede ser null.
+     * @return la lista de campos pedidos, o null si no se ha pedido ninguna proyección (se devuelve el usuario completo).
+     * @throws PresentationException con estado 400 si se pide un campo desconocido o no permitido.
+     */
+    public static List<String> resolver(String fields) {
+        if (fields == null || fields.isBlank()) {
+            return null;
+        }
+        List<String> predefinida = PREDEFINIDAS.get(fields.trim());
+        if (predefinida != null) {
+            return predefinida;
+        }
+        Set<String> campos = new LinkedHashSet<>();
+        for (String campo : fields.split(",")) {
+            String nombre = campo.trim();
+            if (nombre.isEmpty()) {
+                continue;
+            }
+            if (!CAMPOS_PERMITIDOS.contains(nombre)) {
+                throw new PresentationException("Campo no permitido en fields: " + nombre, HttpStatus.BAD_REQUEST);
+            }
+            campos.add(nombre);
+        }
+        if (campos.isEmpty()) {
+            return null;
+        }
+        return new ArrayList<>(campos);
+    }
+
+    /**
+     * @return los campos que hay que pedir a Firestore; el id no es un campo del documento.
+     */
+    public static String[] camposDocumento(List<String> campos) {
+        return campos.stream().filter(c -> !"id".equals(c)).toArray(String[]::new);
+    }
+
+    /**
+     * Construye la respuesta a partir de un documento leído con proyección.
+     */
+    public static Map<String, Object> desdeDocumento(DocumentSnapshot doc, List<String> campos) {
+        Map<String, Object> resultado = new LinkedHashMap<>();
+        for (String campo : campos) {
+            resultado.put(campo, "id".equals(campo) ? doc.getId() : doc.get(campo));
+        }
+        return resultado;
+    }
+
+    /**
+     * Construye la respuesta a partir de un Usuario completo, por ejemplo, cuando ya está en caché.
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> desdeUsuario(Usuario usuario, List<String> campos) {
+        Map<String, Object> completo = MAPPER.convertValue(usuario, Map.class);
+        Map<String, Object> resultado = new LinkedHashMap<>();
+        for (String campo : campos) {
+            resultado.put(campo, completo.get(campo));
+        }
+        return resultado;
+    }
+}
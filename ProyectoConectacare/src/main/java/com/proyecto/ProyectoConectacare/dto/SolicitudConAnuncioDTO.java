@@ -0,0 +1,139 @@
+package com.proyecto.ProyectoConectacare.dto;
+
+import com.proyecto.ProyectoConectacare.model.EstadoSolicitud;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Representa una solicitud de un trabajador junto con el resumen del anuncio al que se presentó, para el panel
+ * del trabajador (GET /solicitudes/mias/detalle).
+ *
+ * La clase contiene:
+ * - Los datos de la solicitud: identificadores, fecha, estado e indicador de completada.
+ * - El resumen del anuncio: nombre del cliente y categorías de servicio (hogar, personal, acompañamiento y salud).
+ * - Un indicador `evaluada` que vale true si el cliente ya ha evaluado la solicitud.
+ * - Un indicador `anuncioEncontrado` que vale false si el anuncio ya no existe; en ese caso el resumen va vacío.
+ */
+public class SolicitudConAnuncioDTO {
+    private String id;
+    private String anuncioId;
+    private String clienteId;
+    private Date fechaSolicitud;
+    private EstadoSolicitud estado;
+    private boolean completado;
+    private boolean evaluada;
+    private boolean anuncioEncontrado;
+    private String nombreCliente;
+    private List<String> hogar;
+    private List<String> personal;
+    private List<String> acompanamiento;
+    private List<String> salud;
+
+    public SolicitudConAnuncioDTO() {
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getAnuncioId() {
+        return anuncioId;
+    }
+
+    public void setAnuncioId(String anuncioId) {
+        this.anuncioId = anuncioId;
+    }
+
+    public String getClienteId() {
+        return clienteId;
+    }
+
+    public void setClienteId(String clienteId) {
+        this.clienteId = clienteId;
+    }
+
+    public Date getFechaSolicitud() {
+        return fechaSolicitud;
+    }
+
+    public void setFechaSolicitud(Date fechaSolicitud) {
+        this.fechaSolicitud = fechaSolicitud;
+    }
+
+    public EstadoSolicitud getEstado() {
+        return estado;
+    }
+
+    public void setEstado(EstadoSolicitud estado) {
+        this.estado = estado;
+    }
+
+    public boolean isCompletado() {
+        return completado;
+    }
+
+    public void setCompletado(boolean completado) {
+        this.completado = completado;
+    }
+
+    public boolean isEvaluada() {
+        return evaluada;
+    }
+
+    public void setEvaluada(boolean evaluada) {
+        this.evaluada = evaluada;
+    }
+
+    public boolean isAnuncioEncontrado() {
+        return anuncioEncontrado;
+    }
+
+    public void setAnuncioEncontrado(boolean anuncioEncontrado) {
+        this.anuncioEncontrado = anuncioEncontrado;
+    }
+
+    public String getNombreCliente() {
+        return nombreCliente;
+    }
+
+    public void setNombreCliente(String nombreCliente) {
+        this.nombreCliente = nombreCliente;
+    }
+
+    public List<String> getHogar() {
+        return hogar;
+    }
+
+    public void setHogar(List<String> hogar) {
+        this.hogar = hogar;
+    }
+
+    public List<String> getPersonal() {
+        return personal;
+    }
+
+    public void setPersonal(List<String> personal) {
+        this.personal = personal;
+    }
+
+    public List<String> getAcompanamiento() {
+        return acompanamiento;
+    }
+
+    public void setAcompanamiento(List<String> acompanamiento) {
+        this.acompanamiento = acompanamiento;
+    }
+
+    public List<String> getSalud() {
+        return salud;
+    }
+
+    public void setSalud(List<String> salud) {
+        this.salud = salud;
+    }
+}
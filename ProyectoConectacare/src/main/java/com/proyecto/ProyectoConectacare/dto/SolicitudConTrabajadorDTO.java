@@ -17,6 +17,8 @@ import java.util.List;
  * habilidades, formación y experiencia.
  * - El estado actual de la solicitud mediante la enumeración EstadoSolicitud.
  * - Indicadores que indican si el proceso de solicitud se ha completado o si existe una evaluación.
+ * - Un indicador `parcial` que vale true cuando los datos del trabajador no se han cargado porque la petición
+ * se estaba quedando sin tiempo.
  *
  * Esta clase facilita la transferencia de datos entre las capas de la aplicación y sirve como objeto intermediario para operaciones como la creación, recuperación y gestión de solicitudes de empleo con información del trabajador.
  */
@@ -34,6 +36,7 @@ public class SolicitudConTrabajadorDTO {
     private EstadoSolicitud estado;
     private boolean completado;
     private boolean evaluacionExistente;
+    private boolean parcial;
 
     public boolean isCompletado() {
         return completado;
@@ -51,6 +54,14 @@ public class SolicitudConTrabajadorDTO {
         this.evaluacionExistente = evaluacionExistente;
     }
 
+    public boolean isParcial() {
+        return parcial;
+    }
+
+    public void setParcial(boolean parcial) {
+        this.parcial = parcial;
+    }
+
     public SolicitudConTrabajadorDTO() {
     }
 
@@ -0,0 +1,13 @@
+package com.proyecto.ProyectoConectacare.dto;
+
+import com.proyecto.ProyectoConectacare.model.Usuario;
+
+/**
+ * Usuario junto con la versión (updateTime en microsegundos) del documento del que se ha obtenido, que se usa
+ * como ETag. Ambos salen de la misma lectura o escritura, así que siempre se corresponden.
+ *
+ * @param usuario el usuario.
+ * @param version la versión de su documento en Firestore, o 0 si no se conoce.
+ */
+public record UsuarioVersionado(Usuario usuario, long version) {
+}
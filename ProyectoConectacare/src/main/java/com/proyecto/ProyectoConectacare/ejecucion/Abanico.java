@@ -0,0 +1,270 @@
+package com.proyecto.ProyectoConectacare.ejecucion;
+
+import com.proyecto.ProyectoConectacare.exception.PresentationException;
+import com.proyecto.ProyectoConectacare.peticion.PlazoPeticion;
+import org.springframework.http.HttpStatus;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Ejecución en paralelo ("fan-out") de varias consultas independientes dentro de un compartimento.
+ *
+ * Uso:
+ * <pre>
+ *     Abanico abanico = compartimentos.abanico(Prioridad.INTERACTIVO);
+ *     Abanico.Rama&lt;List&lt;Anuncio&gt;&gt; anuncios = abanico.lanzar("anuncios", () -> anuncioService.getAnunciosByClienteId(uid));
+ *     Abanico.Rama&lt;List&lt;Solicitud&gt;&gt; solicitudes = abanico.lanzar("solicitudes", 2000, ...);
+ *     abanico.esperarTodas();
+ * </pre>
+ *
+ * Las ramas se ejecutan en el pool acotado del compartimento y heredan el plazo de la petición y la prioridad.
+ * Cada rama puede tener además un plazo propio, que se aplica como plazo de la petición dentro de la rama
+ * (las esperas a Firestore se recortan a él) y como límite de espera del hilo que la lanzó.
+ *
+ * Hay dos formas de esperar:
+ * - `esperarTodas` aplica semántica de fallo parcial: espera a cada rama como mucho hasta su plazo, cancela las
+ *   que no han terminado y guarda el error de cada rama fallida, sin que una rama afecte a las demás.
+ * - `esperarTodasOFallar` aplica semántica de todo o nada: en cuanto una rama falla o agota su plazo, cancela
+ *   las demás y lanza ese error.
+ *
+ * Mientras espera, el hilo que lanzó el abanico ejecuta él mismo las ramas que siguen en la cola del pool. Así un
+ * abanico lanzado desde un hilo del mismo compartimento (por ejemplo, el CSV del panel de administración, que ya
+ * se ejecuta en ADMIN) no se queda bloqueado esperando a hilos que nunca quedan libres.
+ *
+ * Se ha optado por un pool acotado en lugar de StructuredTaskScope porque en Java 21 sigue siendo una API
+ * en vista previa; el abanico cumple el mismo papel: ninguna rama sobrevive a la llamada que la lanzó.
+ */
+public final class Abanico {
+    private final CompartimentosEjecucion compartimentos;
+    private final Prioridad prioridad;
+    private final List<Rama<?>> ramas = new ArrayList<>();
+    /** Un permiso por cada rama que termina; despierta al hilo que espera en esperarTodasOFallar. */
+    private final Semaphore terminadas = new Semaphore(0);
+
+    Abanico(CompartimentosEjecucion compartimentos, Prioridad prioridad) {
+        this.compartimentos = compartimentos;
+        this.prioridad = prioridad;
+    }
+
+    /**
+     * Lanza una rama sin más plazo que el de la petición. Si el compartimento está saturado, la rama queda
+     * fallida sin ejecutarse.
+     *
+     * @param nombre nombre de la rama, usado para informar de los errores.
+     * @param tarea la consulta que se ejecuta en la rama.
+     * @return la rama, cuyo resultado se consulta tras esperar.
+     */
+    public <T> Rama<T> lanzar(String nombre, Supplier<T> tarea) {
+        return lanzar(nombre, 0, tarea);
+    }
+
+    /**
+     * Lanza una rama con un plazo propio, que nunca supera el de la petición.
+     *
+     * @param nombre nombre de la rama, usado para informar de los errores.
+     * @param timeoutMs plazo de la rama en milisegundos desde ahora; 0 o negativo para usar solo el de la petición.
+     * @param tarea la consulta que se ejecuta en la rama.
+     * @return la rama, cuyo resultado se consulta tras esperar.
+     */
+    public <T> Rama<T> lanzar(String nombre, long timeoutMs, Supplier<T> tarea) {
+        PlazoPeticion.Plazo plazo = plazoRama(timeoutMs);
+        Future<T> future;
+        try {
+            future = compartimentos.lanzar(prioridad, plazo, tarea, terminadas::release);
+        } catch (PresentationException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        Rama<T> rama = new Rama<>(nombre, future, plazo);
+        ramas.add(rama);
+        return rama;
+    }
+
+    private static PlazoPeticion.Plazo plazoRama(long timeoutMs) {
+        PlazoPeticion.Plazo peticion = PlazoPeticion.actual();
+        if (timeoutMs <= 0) {
+            return peticion;
+        }
+        long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        if (peticion == null) {
+            return new PlazoPeticion.Plazo(limite, 0);
+        }
+        return new PlazoPeticion.Plazo(Math.min(limite, peticion.limiteNanos()), peticion.margenNanos());
+    }
+
+    /**
+     * Espera a todas las ramas, cada una como mucho hasta su plazo. Nunca lanza los errores de las ramas: quedan
+     * registrados en cada una y se pueden consultar con {@link #errores()}.
+     */
+    public void esperarTodas() {
+        while (ejecutarUnaEncolada()) {
+            // el propio hilo adelanta las ramas que nadie ha empezado
+        }
+        for (Rama<?> rama : ramas) {
+            rama.esperar(rama.restanteNanos());
+        }
+    }
+
+    /**
+     * Espera a todas las ramas y falla en cuanto una de ellas falla o agota su plazo; en ese caso cancela
+     * las ramas pendientes antes de lanzar el error.
+     *
+     * @throws PresentationException el error de la primera rama fallida, o 504 si una rama ha agotado su plazo.
+     */
+    public void esperarTodasOFallar() {
+        try {
+            while (true) {
+                long proximoPlazo = Long.MAX_VALUE;
+                boolean pendientes = false;
+                for (Rama<?> rama : ramas) {
+                    if (!rama.terminada && rama.future.isDone()) {
+                        rama.recoger();
+                    }
+                    if (rama.terminada) {
+                        if (rama.error != null) {
+                            throw rama.error;
+                        }
+                        continue;
+                    }
+                    long restante = rama.restanteNanos();
+                    if (restante <= 0) {
+                        rama.error = new PresentationException("La consulta '" + rama.nombre + "' ha superado su plazo",
+                                HttpStatus.GATEWAY_TIMEOUT);
+                        rama.terminada = true;
+                        throw rama.error;
+                    }
+                    proximoPlazo = Math.min(proximoPlazo, restante);
+                    pendientes = true;
+                }
+                if (!pendientes) {
+                    return;
+                }
+                if (!ejecutarUnaEncolada()) {
+                    terminadas.tryAcquire(proximoPlazo, TimeUnit.NANOSECONDS);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PresentationException("Tarea interrumpida", HttpStatus.INTERNAL_SERVER_ERROR);
+        } finally {
+            cancelarPendientes();
+        }
+    }
+
+    /**
+     * Ejecuta en el hilo actual la primera rama que siga en la cola del compartimento.
+     *
+     * @return true si se ha ejecutado alguna.
+     */
+    private boolean ejecutarUnaEncolada() {
+        for (Rama<?> rama : ramas) {
+            if (!rama.future.isDone() && rama.future instanceof FutureTask<?> tarea
+                    && compartimentos.retirarDeCola(prioridad, tarea)) {
+                tarea.run();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void cancelarPendientes() {
+        for (Rama<?> rama : ramas) {
+            if (!rama.future.isDone()) {
+                rama.future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * @return el mensaje de error de cada rama fallida, por nombre de rama.
+     */
+    public Map<String, String> errores() {
+        Map<String, String> errores = new LinkedHashMap<>();
+        for (Rama<?> rama : ramas) {
+            if (rama.error != null) {
+                errores.put(rama.nombre, rama.error.getMessage());
+            }
+        }
+        return errores;
+    }
+
+    /**
+     * Una consulta lanzada en el abanico.
+     */
+    public static final class Rama<T> {
+        private final String nombre;
+        private final Future<T> future;
+        private final PlazoPeticion.Plazo plazo;
+        private T valor;
+        private RuntimeException error;
+        private boolean terminada;
+
+        private Rama(String nombre, Future<T> future, PlazoPeticion.Plazo plazo) {
+            this.nombre = nombre;
+            this.future = future;
+            this.plazo = plazo;
+        }
+
+        long restanteNanos() {
+            return plazo == null ? Long.MAX_VALUE : plazo.restanteNanos();
+        }
+
+        void esperar(long timeoutNanos) {
+            if (terminada) {
+                return;
+            }
+            terminada = true;
+            try {
+                valor = future.get(Math.max(1, timeoutNanos), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                error = new PresentationException("La consulta '" + nombre + "' ha superado su plazo", HttpStatus.GATEWAY_TIMEOUT);
+            } catch (CancellationException e) {
+                error = new PresentationException("La consulta '" + nombre + "' se ha cancelado", HttpStatus.GATEWAY_TIMEOUT);
+            } catch (ExecutionException e) {
+                error = CompartimentosEjecucion.desenvolver(e);
+            } catch (InterruptedException e) {
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+                error = new PresentationException("Tarea interrumpida", HttpStatus.INTERNAL_SERVER_ERROR);
+            }
+        }
+
+        /**
+         * Guarda el resultado de una rama que ya ha terminado.
+         */
+        void recoger() {
+            esperar(0);
+        }
+
+        public String getNombre() {
+            return nombre;
+        }
+
+        /**
+         * @return el resultado de la rama, o null si ha fallado.
+         */
+        public T valor() {
+            return valor;
+        }
+
+        public boolean correcta() {
+            return error == null;
+        }
+
+        public RuntimeException error() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package com.proyecto.ProyectoConectacare.ejecucion;
+
+import com.proyecto.ProyectoConectacare.exception.PresentationException;
+import com.proyecto.ProyectoConectacare.metricas.FuenteMetricas;
+import com.proyecto.ProyectoConectacare.peticion.PlazoPeticion;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Compartimentos ("bulkheads") que separan el trabajo por prioridad, para que una exportación o un listado
+ * completo del panel de administración no degrade la latencia del resto de usuarios.
+ *
+ * Cada prioridad ({@link Prioridad}) tiene:
+ * - Un pool de hilos propio con una cola acotada; si la cola está llena, el trabajo se rechaza con un 503
+ *   en lugar de acumularse.
+ * - Una cuota de llamadas simultáneas a Firestore, que AccesoFirestore solicita antes de cada llamada.
+ * - Métricas de tareas enviadas, rechazadas y completadas, y de esperas por cuota de Firestore.
+ *
+ * Bajo presión se frena primero el trabajo de menor prioridad: las prioridades ADMIN y FONDO solo pueden usar
+ * permisos globales de Firestore mientras quede libre la reserva destinada al tráfico interactivo.
+ *
+ * Los hilos del servidor web se consideran INTERACTIVO. Las tareas enviadas a un compartimento heredan el plazo
+ * de la petición ({@link PlazoPeticion}) que las envía.
+ */
+@Component
+public class CompartimentosEjecucion implements FuenteMetricas {
+    private static final Logger logger = LoggerFactory.getLogger(CompartimentosEjecucion.class);
+    private static final ThreadLocal<Prioridad> PRIORIDAD = new ThreadLocal<>();
+    private static final long ESPERA_ENTRE_INTENTOS_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    /**
+     * Valores por defecto de cada prioridad: hilos, tamaño de cola y cuota de Firestore.
+     *
+     * FONDO comparte sus hilos entre tareas largas (la reconstrucción nocturna de estadísticas, la reconciliación
+     * del volcado de cachés) y escrituras cortas que van detrás de una petición (respuestas idempotentes, eventos,
+     * contadores, índices). Con 4 hilos la reconstrucción usa como mucho 3 a la vez
+     * (conectacare.estadisticas.reconstruccion.paralelismo) y siempre queda uno para las escrituras cortas.
+     * La cola admite ráfagas de unas 100 escrituras y la cuota de Firestore deja una llamada más que hilos para
+     * las que se lanzan desde un abanico.
+     */
+    private static final Map<Prioridad, int[]> DEFECTO = Map.of(
+            Prioridad.INTERACTIVO, new int[]{16, 200, 64},
+            Prioridad.ADMIN, new int[]{2, 4, 12},
+            Prioridad.FONDO, new int[]{4, 100, 6});
+
+    /**
+     * Permiso para realizar una llamada a Firestore; se debe cerrar al terminar la llamada.
+     */
+    public interface Permiso extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private final Map<Prioridad, Compartimento> compartimentos = new EnumMap<>(Prioridad.class);
+    private final Semaphore firestoreGlobal;
+    private final int totalFirestore;
+    private final int reservaInteractiva;
+
+    public CompartimentosEjecucion(Environment environment,
+                                   @Value("${conectacare.compartimentos.firestore.total:64}") int totalFirestore,
+                                   @Value("${conectacare.compartimentos.firestore.reserva-interactiva:16}") int reservaInteractiva) {
+        this.totalFirestore = totalFirestore;
+        this.reservaInteractiva = reservaInteractiva;
+        this.firestoreGlobal = new Semaphore(totalFirestore);
+        for (Prioridad prioridad : Prioridad.values()) {
+            int[] defecto = DEFECTO.get(prioridad);
+            String prefijo = "conectacare.compartimentos." + prioridad.clave() + ".";
+            compartimentos.put(prioridad, new Compartimento(prioridad,
+                    environment.getProperty(prefijo + "hilos", Integer.class, defecto[0]),
+                    environment.getProperty(prefijo + "cola", Integer.class, defecto[1]),
+                    environment.getProperty(prefijo + "cuota-firestore", Integer.class, defecto[2])));
+        }
+    }
+
+    /**
+     * @return la prioridad del hilo actual (INTERACTIVO si no se ha establecido ninguna).
+     */
+    public static Prioridad prioridadActual() {
+        Prioridad prioridad = PRIORIDAD.get();
+        return prioridad != null ? prioridad : Prioridad.INTERACTIVO;
+    }
+
+    /**
+     * @return el número de hilos del compartimento indicado.
+     */
+    public int hilos(Prioridad prioridad) {
+        return compartimentos.get(prioridad).pool.getMaximumPoolSize();
+    }
+
+    /**
+     * Ejecuta una tarea en el compartimento indicado y espera su resultado, como mucho hasta el plazo de la petición.
+     * Si el hilo actual ya pertenece a ese compartimento, la tarea se ejecuta directamente.
+     *
+     * @param prioridad compartimento en el que ejecutar la tarea.
+     * @param tarea la tarea; puede lanzar PresentationException.
+     * @return el resultado de la tarea.
+     * @param <T> el tipo del resultado.
+     * @throws PresentationException 503 si el compartimento está saturado, 504 si vence el plazo de la petición,
+     * o la propia excepción de la tarea.
+     */
+    public <T> T ejecutar(Prioridad prioridad, Supplier<T> tarea) {
+        if (PRIORIDAD.get() == prioridad) {
+            return tarea.get();
+        }
+        Compartimento compartimento = compartimentos.get(prioridad);
+        PlazoPeticion.Plazo plazo = PlazoPeticion.actual();
+        Future<T> future;
+        try {
+            future = compartimento.pool.submit(() -> conContexto(prioridad, plazo, tarea));
+            compartimento.enviadas.increment();
+        } catch (RejectedExecutionException e) {
+            compartimento.rechazadas.increment();
+            throw new PresentationException("Servidor ocupado, inténtelo de nuevo en unos segundos", HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        try {
+            return future.get(Math.max(1, PlazoPeticion.restanteNanos()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new PresentationException("Plazo de la petición agotado", HttpStatus.GATEWAY_TIMEOUT);
+        } catch (ExecutionException e) {
+            throw desenvolver(e);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new PresentationException("Tarea interrumpida", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Lanza una tarea en el compartimento indicado y devuelve su Future sin esperar, aunque el hilo actual ya
+     * pertenezca a ese compartimento.
+     *
+     * @param prioridad compartimento en el que ejecutar la tarea.
+     * @param tarea la tarea.
+     * @return el Future de la tarea, que hereda el plazo de la petición y la prioridad.
+     * @throws PresentationException 503 si el compartimento está saturado.
+     */
+    public <T> Future<T> lanzar(Prioridad prioridad, Supplier<T> tarea) {
+        return lanzar(prioridad, PlazoPeticion.actual(), tarea, () -> {
+        });
+    }
+
+    /**
+     * Variante usada por {@link Abanico}: la tarea se ejecuta con el plazo indicado (el de la rama) y, al terminar
+     * o cancelarse, se invoca alTerminar, cuando el resultado ya es visible en el Future.
+     */
+    <T> FutureTask<T> lanzar(Prioridad prioridad, PlazoPeticion.Plazo plazo, Supplier<T> tarea, Runnable alTerminar) {
+        Compartimento compartimento = compartimentos.get(prioridad);
+        FutureTask<T> future = new FutureTask<>(() -> conContexto(prioridad, plazo, tarea)) {
+            @Override
+            protected void done() {
+                alTerminar.run();
+            }
+        };
+        try {
+            compartimento.pool.execute(future);
+            compartimento.enviadas.increment();
+            return future;
+        } catch (RejectedExecutionException e) {
+            compartimento.rechazadas.increment();
+            throw new PresentationException("Servidor ocupado, inténtelo de nuevo en unos segundos", HttpStatus.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    /**
+     * Saca de la cola del compartimento una tarea que todavía no ha empezado, para que la ejecute el hilo que
+     * la espera en lugar de quedarse bloqueado (por ejemplo, un abanico lanzado desde un hilo del mismo pool).
+     *
+     * @return true si la tarea estaba en cola y se ha retirado.
+     */
+    boolean retirarDeCola(Prioridad prioridad, Runnable tarea) {
+        return compartimentos.get(prioridad).pool.remove(tarea);
+    }
+
+    /**
+     * Crea un abanico para lanzar varias consultas independientes en paralelo dentro del compartimento indicado.
+     */
+    public Abanico abanico(Prioridad prioridad) {
+        return new Abanico(this, prioridad);
+    }
+
+    /**
+     * Envía una tarea al compartimento indicado sin esperar su resultado.
+     *
+     * @param prioridad compartimento en el que ejecutar la tarea.
+     * @param tarea la tarea.
+     * @return true si se ha aceptado; false si la cola del compartimento estaba llena.
+     */
+    public boolean enviar(Prioridad prioridad, Runnable tarea) {
+        Compartimento compartimento = compartimentos.get(prioridad);
+        PlazoPeticion.Plazo plazo = PlazoPeticion.actual();
+        try {
+            compartimento.pool.execute(() -> conContexto(prioridad, plazo, () -> {
+                tarea.run();
+                return null;
+            }));
+            compartimento.enviadas.increment();
+            return true;
+        } catch (RejectedExecutionException e) {
+            compartimento.rechazadas.increment();
+            logger.warn("Tarea rechazada en el compartimento {}: cola llena", prioridad);
+            return false;
+        }
+    }
+
+    /**
+     * Obtiene la excepción original de una tarea, para relanzarla tal cual en el hilo que espera.
+     */
+    static RuntimeException desenvolver(ExecutionException e) {
+        Throwable causa = e.getCause();
+        if (causa instanceof RuntimeException runtime) {
+            return runtime;
+        }
+        if (causa instanceof Error error) {
+            throw error;
+        }
+        return new PresentationException("Error ejecutando la tarea", HttpStatus.INTERNAL_SERVER_ERROR);
+    }
+
+    /**
+     * Ejecuta la tarea con la prioridad y el plazo indicados y después restaura los del hilo, que puede ser el
+     * de una petición si la tarea se ha retirado de la cola para ejecutarla directamente.
+     */
+    private <T> T conContexto(Prioridad prioridad, PlazoPeticion.Plazo plazo, Supplier<T> tarea) {
+        Prioridad prioridadAnterior = PRIORIDAD.get();
+        PlazoPeticion.Plazo plazoAnterior = PlazoPeticion.actual();
+        PRIORIDAD.set(prioridad);
+        PlazoPeticion.establecer(plazo);
+        try {
+            return tarea.get();
+        } finally {
+            compartimentos.get(prioridad).completadas.increment();
+            PlazoPeticion.establecer(plazoAnterior);
+            if (prioridadAnterior == null) {
+                PRIORIDAD.remove();
+            } else {
+                PRIORIDAD.set(prioridadAnterior);
+            }
+        }
+    }
+
+    /**
+     * Reserva un hueco para una llamada a Firestore según la prioridad del hilo actual.
+     *
+     * @param timeoutNanos tiempo máximo de espera por el permiso.
+     * @return el permiso, o null si no se ha obtenido a tiempo.
+     * @throws InterruptedException si el hilo es interrumpido mientras espera.
+     */
+    public Permiso adquirirFirestore(long timeoutNanos) throws InterruptedException {
+        Prioridad prioridad = prioridadActual();
+        Compartimento compartimento = compartimentos.get(prioridad);
+        long limite = System.nanoTime() + timeoutNanos;
+        if (!compartimento.cuotaFirestore.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS)) {
+            compartimento.sinCuotaFirestore.increment();
+            return null;
+        }
+        boolean global = prioridad == Prioridad.INTERACTIVO
+                ? firestoreGlobal.tryAcquire(Math.max(0, limite - System.nanoTime()), TimeUnit.NANOSECONDS)
+                : adquirirFueraDeReserva(compartimento, limite);
+        if (!global) {
+            compartimento.cuotaFirestore.release();
+            compartimento.sinCuotaFirestore.increment();
+            return null;
+        }
+        compartimento.llamadasFirestore.incrementAndGet();
+        return () -> {
+            compartimento.llamadasFirestore.decrementAndGet();
+            firestoreGlobal.release();
+            compartimento.cuotaFirestore.release();
+        };
+    }
+
+    /**
+     * Las prioridades bajas solo toman un permiso global si quedan más libres que la reserva interactiva;
+     * mientras no sea así, esperan en intervalos cortos.
+     */
+    private boolean adquirirFueraDeReserva(Compartimento compartimento, long limite) throws InterruptedException {
+        boolean frenada = false;
+        while (true) {
+            if (firestoreGlobal.availablePermits() > reservaInteractiva && firestoreGlobal.tryAcquire()) {
+                return true;
+            }
+            if (!frenada) {
+                compartimento.frenadasPorReserva.increment();
+                frenada = true;
+            }
+            if (System.nanoTime() >= limite) {
+                return false;
+            }
+            LockSupport.parkNanos(ESPERA_ENTRE_INTENTOS_NANOS);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    @PreDestroy
+    public void cerrar() {
+        compartimentos.values().forEach(c -> c.pool.shutdownNow());
+    }
+
+    @Override
+    public String getNombreMetricas() {
+        return "compartimentos";
+    }
+
+    @Override
+    public Map<String, Object> getMetricas() {
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        metricas.put("firestoreTotal", totalFirestore);
+        metricas.put("firestoreLibres", firestoreGlobal.availablePermits());
+        metricas.put("reservaInteractiva", reservaInteractiva);
+        compartimentos.forEach((prioridad, c) -> metricas.put(prioridad.clave(), c.metricas()));
+        return metricas;
+    }
+
+    /**
+     * Pool, cuota de Firestore y contadores de una prioridad.
+     */
+    private static final class Compartimento {
+        final ThreadPoolExecutor pool;
+        final Semaphore cuotaFirestore;
+        final int cuota;
+        final AtomicInteger llamadasFirestore = new AtomicInteger();
+        final LongAdder enviadas = new LongAdder();
+        final LongAdder rechazadas = new LongAdder();
+        final LongAdder completadas = new LongAdder();
+        final LongAdder sinCuotaFirestore = new LongAdder();
+        final LongAdder frenadasPorReserva = new LongAdder();
+
+        Compartimento(Prioridad prioridad, int hilos, int cola, int cuota) {
+            AtomicInteger contador = new AtomicInteger();
+            this.pool = new ThreadPoolExecutor(hilos, hilos, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(cola),
+                    r -> {
+                        Thread hilo = new Thread(r, "compartimento-" + prioridad.clave() + "-" + contador.incrementAndGet());
+                        hilo.setDaemon(true);
+                        return hilo;
+                    },
+                    new ThreadPoolExecutor.AbortPolicy());
+            this.pool.allowCoreThreadTimeOut(true);
+            this.cuota = cuota;
+            this.cuotaFirestore = new Semaphore(cuota);
+        }
+
+        Map<String, Object> metricas() {
+            Map<String, Object> valores = new LinkedHashMap<>();
+            valores.put("hilosActivos", pool.getActiveCount());
+            valores.put("enCola", pool.getQueue().size());
+            valores.put("enviadas", enviadas.sum());
+            valores.put("rechazadas", rechazadas.sum());
+            valores.put("completadas", completadas.sum());
+            valores.put("cuotaFirestore", cuota);
+            valores.put("llamadasFirestoreEnCurso", llamadasFirestore.get());
+            valores.put("sinCuotaFirestore", sinCuotaFirestore.sum());
+            valores.put("frenadasPorReserva", frenadasPorReserva.sum());
+            return valores;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.proyecto.ProyectoConectacare.ejecucion;
+
+/**
+ * Prioridad del trabajo que se está ejecutando, usada para aislarlo en su propio compartimento
+ * ({@link CompartimentosEjecucion}).
+ *
+ * - INTERACTIVO: peticiones de usuarios de la aplicación; es la prioridad por defecto de los hilos del servidor web.
+ * - ADMIN: operaciones del panel de administración que recorren colecciones completas (listados, estadísticas, CSV).
+ * - FONDO: tareas en segundo plano, como la reconciliación de cachés o los trabajos programados.
+ */
+public enum Prioridad {
+    INTERACTIVO, ADMIN, FONDO;
+
+    /**
+     * @return el nombre de la prioridad en minúsculas, tal y como aparece en las propiedades de configuración.
+     */
+    public String clave() {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,132 @@
+package com.proyecto.ProyectoConectacare.eventos;
+
+import com.google.common.hash.Hashing;
+import com.proyecto.ProyectoConectacare.metricas.FuenteMetricas;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Deduplicación de los eventos INICIO_SESION. La SPA llama a `/usuarios/yo` en cada carga y refresco de página,
+ * y antes cada llamada se registraba como un inicio de sesión.
+ *
+ * Un inicio de sesión real se identifica por el UID y el `auth_time` del token de Firebase, que es la hora a la que
+ * el usuario se autenticó y no cambia al renovar el token (a diferencia de `iat`, que se usa solo si falta
+ * `auth_time`). Cada par (uid, auth_time) genera un único evento dentro de la ventana configurada.
+ *
+ * Estructura: la ventana se divide en {@link #CUBETAS} cubetas de tiempo consecutivas en un array circular. Cada
+ * cubeta guarda solo un resumen de 64 bits de cada clave vista durante su intervalo; al avanzar el tiempo, la cubeta
+ * más antigua se sustituye por una vacía, así que la memoria solo depende de los inicios de sesión de la ventana y
+ * no hace falta ninguna tarea de limpieza. Con más de `max-claves` en la ventana los eventos dejan de deduplicarse
+ * (se registran todos) en lugar de crecer sin límite.
+ */
+@Component
+public class DeduplicadorInicios implements FuenteMetricas {
+    private static final int CUBETAS = 12;
+
+    private record Cubeta(long indice, Set<Long> claves) {
+    }
+
+    private final long anchoCubetaMs;
+    private final int maxClaves;
+    private final AtomicReferenceArray<Cubeta> cubetas = new AtomicReferenceArray<>(CUBETAS);
+    private final AtomicInteger clavesEnVentana = new AtomicInteger();
+
+    private final LongAdder registrados = new LongAdder();
+    private final LongAdder suprimidos = new LongAdder();
+    private final LongAdder sinDeduplicar = new LongAdder();
+
+    public DeduplicadorInicios(@Value("${conectacare.eventos.inicios.ventana-ms:43200000}") long ventanaMs,
+                               @Value("${conectacare.eventos.inicios.max-claves:200000}") int maxClaves) {
+        this.anchoCubetaMs = Math.max(1, ventanaMs / CUBETAS);
+        this.maxClaves = maxClaves;
+    }
+
+    /**
+     * Indica si un inicio de sesión es nuevo y lo anota.
+     *
+     * @param usuarioId el UID del usuario.
+     * @param inicioSesion el `auth_time` del token en segundos (o `iat` si falta).
+     * @return true si hay que registrar el evento; false si ya se registró dentro de la ventana.
+     */
+    public boolean esNuevo(String usuarioId, long inicioSesion) {
+        long clave = Hashing.murmur3_128().newHasher()
+                .putString(usuarioId, StandardCharsets.UTF_8)
+                .putLong(inicioSesion)
+                .hash().asLong();
+        long actual = System.currentTimeMillis() / anchoCubetaMs;
+        for (int i = 1; i < CUBETAS; i++) {
+            Cubeta anterior = cubetas.get(Math.floorMod(actual - i, CUBETAS));
+            if (anterior != null && anterior.indice() == actual - i && anterior.claves().contains(clave)) {
+                suprimidos.increment();
+                return false;
+            }
+        }
+        Cubeta cubeta = cubetaActual(actual);
+        if (clavesEnVentana.get() >= maxClaves) {
+            if (cubeta.claves().contains(clave)) {
+                suprimidos.increment();
+                return false;
+            }
+            sinDeduplicar.increment();
+            return true;
+        }
+        if (!cubeta.claves().add(clave)) {
+            suprimidos.increment();
+            return false;
+        }
+        clavesEnVentana.incrementAndGet();
+        registrados.increment();
+        return true;
+    }
+
+    /**
+     * Devuelve la cubeta del intervalo actual, sustituyendo la que ocupaba su posición si era de una vuelta anterior.
+     */
+    private Cubeta cubetaActual(long actual) {
+        int posicion = Math.floorMod(actual, CUBETAS);
+        while (true) {
+            Cubeta cubeta = cubetas.get(posicion);
+            if (cubeta != null && cubeta.indice() == actual) {
+                return cubeta;
+            }
+            Cubeta nueva = new Cubeta(actual, ConcurrentHashMap.newKeySet());
+            if (cubetas.compareAndSet(posicion, cubeta, nueva)) {
+                // Se recalcula en lugar de restar, para no arrastrar desvíos de altas concurrentes con el cambio
+                int total = 0;
+                for (int i = 1; i < CUBETAS; i++) {
+                    Cubeta anterior = cubetas.get(Math.floorMod(actual - i, CUBETAS));
+                    if (anterior != null && anterior.indice() == actual - i) {
+                        total += anterior.claves().size();
+                    }
+                }
+                clavesEnVentana.set(total);
+                return nueva;
+            }
+        }
+    }
+
+    @Override
+    public String getNombreMetricas() {
+        return "deduplicacionInicios";
+    }
+
+    @Override
+    public Map<String, Object> getMetricas() {
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        metricas.put("ventanaMs", anchoCubetaMs * CUBETAS);
+        metricas.put("clavesEnVentana", clavesEnVentana.get());
+        metricas.put("registrados", registrados.sum());
+        metricas.put("suprimidos", suprimidos.sum());
+        metricas.put("sinDeduplicar", sinDeduplicar.sum());
+        return metricas;
+    }
+}
@@ -0,0 +1,147 @@
+package com.proyecto.ProyectoConectacare.eventos;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * Diario local de eventos pendientes sobre un fichero mapeado en memoria (FileChannel.map), para que los eventos
+ * aceptados y aún no escritos en Firestore sobrevivan a una caída del proceso.
+ *
+ * Formato (big endian):
+ * - Cabecera: número mágico y la secuencia del último evento confirmado en Firestore.
+ * - Registros consecutivos: secuencia, longitud y datos. Detrás del último registro se deja una secuencia 0 como
+ *   marca de fin, para no leer como válidos los restos de una vuelta anterior.
+ *
+ * Las secuencias son crecientes y los eventos se escriben en Firestore en ese mismo orden, así que basta con guardar
+ * la última confirmada. Cuando todo lo anotado está confirmado, se vuelve a escribir desde el principio del fichero;
+ * si el fichero se llena con eventos pendientes, los siguientes eventos no se anotan (siguen en la cola en memoria).
+ *
+ * Al ser un mapeo del fichero, los datos están en la caché de páginas del sistema en cuanto se escriben: sobreviven
+ * a la caída del proceso, pero no a la de la máquina salvo que el sistema los haya llevado ya a disco.
+ */
+final class DiarioEventos implements Closeable {
+    private static final int MAGICO = 0x43434531; // "CCE1"
+    private static final int POSICION_CONFIRMADO = 4;
+    private static final int TAMANO_CABECERA = 12;
+    private static final int TAMANO_CABECERA_REGISTRO = 12;
+
+    record Registro(long secuencia, byte[] datos) {
+    }
+
+    private final FileChannel canal;
+    private final MappedByteBuffer mapa;
+    private int posicion = TAMANO_CABECERA;
+    private long ultimaSecuencia;
+    private long confirmadoHasta;
+
+    private DiarioEventos(FileChannel canal, MappedByteBuffer mapa) {
+        this.canal = canal;
+        this.mapa = mapa;
+    }
+
+    /**
+     * Abre el diario, creándolo si no existe.
+     */
+    static DiarioEventos abrir(Path ruta, int tamanoBytes) throws IOException {
+        if (ruta.getParent() != null) {
+            Files.createDirectories(ruta.getParent());
+        }
+        FileChannel canal = FileChannel.open(ruta, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            int tamano = (int) Math.max(tamanoBytes, canal.size());
+            DiarioEventos diario = new DiarioEventos(canal, canal.map(FileChannel.MapMode.READ_WRITE, 0, tamano));
+            if (diario.mapa.getInt(0) != MAGICO) {
+                diario.mapa.putInt(0, MAGICO);
+                diario.mapa.putLong(POSICION_CONFIRMADO, 0L);
+                diario.mapa.putLong(TAMANO_CABECERA, 0L);
+            }
+            return diario;
+        } catch (IOException | RuntimeException e) {
+            canal.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Lee los registros anotados y no confirmados, y deja el diario listo para seguir anotando detrás de ellos.
+     */
+    synchronized List<Registro> pendientes() {
+        confirmadoHasta = mapa.getLong(POSICION_CONFIRMADO);
+        ultimaSecuencia = confirmadoHasta;
+        List<Registro> pendientes = new ArrayList<>();
+        int actual = TAMANO_CABECERA;
+        long anterior = 0;
+        while (actual + TAMANO_CABECERA_REGISTRO <= mapa.capacity()) {
+            long secuencia = mapa.getLong(actual);
+            int longitud = mapa.getInt(actual + 8);
+            if (secuencia <= anterior || longitud <= 0 || actual + TAMANO_CABECERA_REGISTRO + longitud > mapa.capacity()) {
+                break;
+            }
+            byte[] datos = new byte[longitud];
+            mapa.get(actual + TAMANO_CABECERA_REGISTRO, datos);
+            if (secuencia > confirmadoHasta) {
+                pendientes.add(new Registro(secuencia, datos));
+            }
+            anterior = secuencia;
+            ultimaSecuencia = Math.max(ultimaSecuencia, secuencia);
+            actual += TAMANO_CABECERA_REGISTRO + longitud;
+        }
+        posicion = pendientes.isEmpty() ? TAMANO_CABECERA : actual;
+        return pendientes;
+    }
+
+    /**
+     * Anota un evento y, sin soltar el cerrojo del diario, lo entrega a la cola con su secuencia. Así el orden de la
+     * cola coincide con el de las secuencias, que es lo que permite confirmar por prefijo.
+     *
+     * @param datos el evento serializado.
+     * @param encolar recibe la secuencia asignada, o 0 si el diario está lleno y el evento no se ha anotado.
+     */
+    synchronized void anotarYEncolar(byte[] datos, LongConsumer encolar) {
+        int fin = posicion + TAMANO_CABECERA_REGISTRO + datos.length;
+        if (fin + 8 > mapa.capacity()) {
+            encolar.accept(0L);
+            return;
+        }
+        long secuencia = ++ultimaSecuencia;
+        mapa.putLong(fin, 0L); // marca de fin antes de publicar el registro
+        mapa.put(posicion + TAMANO_CABECERA_REGISTRO, datos);
+        mapa.putInt(posicion + 8, datos.length);
+        mapa.putLong(posicion, secuencia);
+        posicion = fin;
+        encolar.accept(secuencia);
+    }
+
+    /**
+     * Marca como escritos en Firestore todos los eventos hasta la secuencia indicada.
+     */
+    synchronized void confirmarHasta(long secuencia) {
+        if (secuencia <= confirmadoHasta) {
+            return;
+        }
+        confirmadoHasta = secuencia;
+        mapa.putLong(POSICION_CONFIRMADO, secuencia);
+        if (confirmadoHasta >= ultimaSecuencia) {
+            posicion = TAMANO_CABECERA;
+            mapa.putLong(TAMANO_CABECERA, 0L);
+        }
+    }
+
+    synchronized int ocupacionBytes() {
+        return posicion - TAMANO_CABECERA;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mapa.force();
+        canal.close();
+    }
+}
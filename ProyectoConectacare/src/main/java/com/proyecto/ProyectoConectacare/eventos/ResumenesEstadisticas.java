@@ -0,0 +1,352 @@
+package com.proyecto.ProyectoConectacare.eventos;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Precondition;
+import com.google.cloud.firestore.SetOptions;
+import com.google.cloud.firestore.WriteBatch;
+import com.proyecto.ProyectoConectacare.ejecucion.Abanico;
+import com.proyecto.ProyectoConectacare.ejecucion.CompartimentosEjecucion;
+import com.proyecto.ProyectoConectacare.ejecucion.Prioridad;
+import com.proyecto.ProyectoConectacare.exception.PresentationException;
+import com.proyecto.ProyectoConectacare.firestore.AccesoFirestore;
+import com.proyecto.ProyectoConectacare.model.Evento;
+import com.proyecto.ProyectoConectacare.model.LogEstadisticas;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resúmenes por hora y por día de los eventos de estadísticas, para consultar series temporales leyendo un documento
+ * por intervalo en lugar de recorrer "logEstadisticas".
+ *
+ * Funcionamiento:
+ * - Colección "resumenEstadisticas": un documento por intervalo, con ID `HORA_2026-10-19T11Z` (horas UTC) o
+ *   `DIA_2026-10-19` (días en la zona `conectacare.estadisticas.zona`), los campos `granularidad` e `inicio` y
+ *   un contador por cada {@link Evento}.
+ * - {@link TuberiaEventos} añade los incrementos al mismo WriteBatch que escribe los eventos. Todos los eventos de un
+ *   lote se cuentan en la hora y el día de la escritura, que es lo que guarda el campo `fecha` de cada evento, así
+ *   que cada lote toca solo dos documentos de resumen.
+ * - La reconstrucción recalcula los resúmenes de un rango de días desde los eventos, varios días en paralelo. Cada
+ *   día lee primero sus resúmenes, luego cuenta sus eventos y escribe con la precondición de las versiones leídas:
+ *   si entretanto llega un lote, la escritura se rechaza y se repite, así que no se pierden incrementos.
+ * - Cada noche se reconstruyen los dos últimos días, lo que corrige las desviaciones que pueden dejar los incrementos
+ *   (por ejemplo, un lote que se reintenta tras confirmarse sin que llegara la respuesta).
+ *
+ * La zona configurada debe tener un desfase de horas enteras, para que cada hora UTC caiga entera dentro de un día.
+ */
+@Component
+public class ResumenesEstadisticas {
+    private static final Logger logger = LoggerFactory.getLogger(ResumenesEstadisticas.class);
+    private static final String COLECCION = "resumenEstadisticas";
+    private static final String COLECCION_EVENTOS = "logEstadisticas";
+    private static final DateTimeFormatter FORMATO_HORA = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH'Z'").withZone(ZoneOffset.UTC);
+    private static final int MAX_INTERVALOS = 24 * 93;
+    private static final int MAX_DIAS_RECONSTRUCCION = 366;
+    private static final int MAX_INTENTOS_DIA = 3;
+    private static final int TAMANO_GET_ALL = 300;
+
+    public enum Granularidad {
+        HORA, DIA
+    }
+
+    private final Firestore db;
+    private final AccesoFirestore accesoFirestore;
+    private final CompartimentosEjecucion compartimentos;
+    private final ZoneId zona;
+    private final int paralelismo;
+
+    public ResumenesEstadisticas(Firestore db, AccesoFirestore accesoFirestore, CompartimentosEjecucion compartimentos,
+                                 @Value("${conectacare.estadisticas.zona:Europe/Madrid}") String zona,
+                                 @Value("${conectacare.estadisticas.reconstruccion.paralelismo:3}") int paralelismo) {
+        this.db = db;
+        this.accesoFirestore = accesoFirestore;
+        this.compartimentos = compartimentos;
+        this.zona = ZoneId.of(zona);
+        this.paralelismo = Math.max(1, paralelismo);
+    }
+
+    /**
+     * Añade al lote los incrementos de los resúmenes de la hora y el día del instante indicado.
+     *
+     * @param lote el lote que escribe los eventos.
+     * @param eventos los eventos del lote.
+     * @param instante el instante de la escritura, en milisegundos.
+     */
+    void contar(WriteBatch lote, List<LogEstadisticas> eventos, long instante) {
+        Map<String, Long> porEvento = new HashMap<>();
+        for (LogEstadisticas evento : eventos) {
+            if (evento.getEvento() != null) {
+                porEvento.merge(evento.getEvento().name(), 1L, Long::sum);
+            }
+        }
+        if (porEvento.isEmpty()) {
+            return;
+        }
+        Instant momento = Instant.ofEpochMilli(instante);
+        incrementar(lote, Granularidad.HORA, momento.truncatedTo(ChronoUnit.HOURS), porEvento);
+        incrementar(lote, Granularidad.DIA, momento.atZone(zona).toLocalDate().atStartOfDay(zona).toInstant(), porEvento);
+    }
+
+    private void incrementar(WriteBatch lote, Granularidad granularidad, Instant inicio, Map<String, Long> porEvento) {
+        Map<String, Object> datos = new HashMap<>();
+        datos.put("granularidad", granularidad.name());
+        datos.put("inicio", Timestamp.of(Date.from(inicio)));
+        porEvento.forEach((evento, cantidad) -> datos.put(evento, FieldValue.increment(cantidad)));
+        lote.set(db.collection(COLECCION).document(idDe(granularidad, inicio)), datos, SetOptions.merge());
+    }
+
+    /**
+     * Devuelve la serie de un rango de días, con un elemento por intervalo (también los que no tienen eventos).
+     * Lee un documento por intervalo, en bloques con Firestore.getAll.
+     *
+     * @param desde el primer día, incluido.
+     * @param hasta el último día, incluido.
+     * @param granularidad HORA o DIA.
+     * @return por cada intervalo, su inicio (ISO-8601) y el número de eventos de cada tipo.
+     * @throws PresentationException 400 si el rango no es válido o tiene demasiados intervalos.
+     */
+    public List<Map<String, Object>> serie(LocalDate desde, LocalDate hasta, Granularidad granularidad) {
+        List<Instant> inicios = intervalos(desde, hasta, granularidad);
+        if (inicios.size() > MAX_INTERVALOS) {
+            throw new PresentationException("El rango pedido tiene más de " + MAX_INTERVALOS + " intervalos", HttpStatus.BAD_REQUEST);
+        }
+        Map<String, DocumentSnapshot> documentos = new HashMap<>();
+        try {
+            for (int i = 0; i < inicios.size(); i += TAMANO_GET_ALL) {
+                DocumentReference[] refs = inicios.subList(i, Math.min(i + TAMANO_GET_ALL, inicios.size())).stream()
+                        .map(inicio -> db.collection(COLECCION).document(idDe(granularidad, inicio)))
+                        .toArray(DocumentReference[]::new);
+                for (DocumentSnapshot doc : accesoFirestore.leer(COLECCION + ".getAll", () -> db.getAll(refs))) {
+                    documentos.put(doc.getId(), doc);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PresentationException("Error al obtener la serie de estadísticas", HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (ExecutionException e) {
+            throw new PresentationException("Error al obtener la serie de estadísticas", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+
+        List<Map<String, Object>> serie = new ArrayList<>(inicios.size());
+        for (Instant inicio : inicios) {
+            DocumentSnapshot doc = documentos.get(idDe(granularidad, inicio));
+            Map<String, Object> punto = new LinkedHashMap<>();
+            punto.put("inicio", inicio.toString());
+            for (Evento evento : Evento.values()) {
+                Long cantidad = doc != null && doc.exists() ? doc.getLong(evento.name()) : null;
+                punto.put(evento.name(), cantidad != null ? cantidad : 0L);
+            }
+            serie.add(punto);
+        }
+        return serie;
+    }
+
+    /**
+     * Reconstrucción nocturna de los resúmenes de ayer y hoy.
+     */
+    @Scheduled(cron = "${conectacare.estadisticas.reconstruccion.cron:0 30 3 * * *}")
+    public void reconstruirPeriodicamente() {
+        compartimentos.enviar(Prioridad.FONDO, () -> {
+            try {
+                LocalDate hoy = LocalDate.now(zona);
+                reconstruir(hoy.minusDays(1), hoy, Prioridad.FONDO);
+            } catch (Exception e) {
+                logger.warn("No se pudieron reconstruir los resúmenes de estadísticas: {}", e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Recalcula desde los eventos los resúmenes por hora y por día de un rango de días, varios días en paralelo.
+     *
+     * @param desde el primer día, incluido.
+     * @param hasta el último día, incluido.
+     * @param prioridad el compartimento en el que se lanzan los días.
+     * @return un resumen con los días reconstruidos y los que no se han podido reconstruir, con su error.
+     * @throws PresentationException 400 si el rango no es válido o supera MAX_DIAS_RECONSTRUCCION días.
+     */
+    public Map<String, Object> reconstruir(LocalDate desde, LocalDate hasta, Prioridad prioridad) {
+        List<Instant> dias = intervalos(desde, hasta, Granularidad.DIA);
+        if (dias.size() > MAX_DIAS_RECONSTRUCCION) {
+            throw new PresentationException("No se pueden reconstruir más de " + MAX_DIAS_RECONSTRUCCION + " días a la vez", HttpStatus.BAD_REQUEST);
+        }
+        long inicio = System.nanoTime();
+        int reconstruidos = 0;
+        Map<String, String> errores = new LinkedHashMap<>();
+        // Por tandas, para no llenar la cola del compartimento con todo el rango; una tanda mayor que los hilos
+        // del compartimento solo dejaría ramas esperando en la cola
+        int tanda = Math.min(paralelismo, compartimentos.hilos(prioridad));
+        for (int i = 0; i < dias.size(); i += tanda) {
+            Abanico abanico = compartimentos.abanico(prioridad);
+            List<Abanico.Rama<Integer>> ramas = new ArrayList<>();
+            for (Instant dia : dias.subList(i, Math.min(i + tanda, dias.size()))) {
+                LocalDate fecha = dia.atZone(zona).toLocalDate();
+                ramas.add(abanico.lanzar(fecha.toString(), () -> reconstruirDia(fecha)));
+            }
+            abanico.esperarTodas();
+            for (Abanico.Rama<Integer> rama : ramas) {
+                if (rama.correcta()) {
+                    reconstruidos++;
+                }
+            }
+            errores.putAll(abanico.errores());
+        }
+        logger.info("Resúmenes de estadísticas reconstruidos: {} de {} días en {} ms.", reconstruidos, dias.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio));
+
+        Map<String, Object> resumen = new LinkedHashMap<>();
+        resumen.put("dias", dias.size());
+        resumen.put("reconstruidos", reconstruidos);
+        resumen.put("errores", errores);
+        return resumen;
+    }
+
+    /**
+     * Reescribe los resúmenes de un día (el del día y los de sus horas) a partir de sus eventos.
+     *
+     * @return el número de eventos del día.
+     */
+    int reconstruirDia(LocalDate dia) {
+        Instant inicio = dia.atStartOfDay(zona).toInstant();
+        Instant fin = dia.plusDays(1).atStartOfDay(zona).toInstant();
+        List<Instant> horas = new ArrayList<>();
+        for (Instant hora = inicio.truncatedTo(ChronoUnit.HOURS); hora.isBefore(fin); hora = hora.plus(1, ChronoUnit.HOURS)) {
+            horas.add(hora);
+        }
+        try {
+            for (int intento = 1; intento <= MAX_INTENTOS_DIA; intento++) {
+                // Los resúmenes se leen antes que los eventos: cualquier lote posterior cambia su versión
+                Map<String, DocumentReference> refs = new LinkedHashMap<>();
+                refs.put(idDe(Granularidad.DIA, inicio), db.collection(COLECCION).document(idDe(Granularidad.DIA, inicio)));
+                for (Instant hora : horas) {
+                    refs.put(idDe(Granularidad.HORA, hora), db.collection(COLECCION).document(idDe(Granularidad.HORA, hora)));
+                }
+                DocumentReference[] arrayRefs = refs.values().toArray(DocumentReference[]::new);
+                Map<String, DocumentSnapshot> actuales = new HashMap<>();
+                for (DocumentSnapshot doc : accesoFirestore.leer(COLECCION + ".getAll", () -> db.getAll(arrayRefs))) {
+                    actuales.put(doc.getId(), doc);
+                }
+
+                Map<String, Map<String, Long>> recuento = new HashMap<>();
+                int eventos = 0;
+                for (DocumentSnapshot doc : accesoFirestore.leer(COLECCION_EVENTOS + ".porFecha", () -> db.collection(COLECCION_EVENTOS)
+                        .whereGreaterThanOrEqualTo("fecha", Date.from(inicio))
+                        .whereLessThan("fecha", Date.from(fin))
+                        .select("evento", "fecha")
+                        .get()).getDocuments()) {
+                    Date fecha = doc.getDate("fecha");
+                    String evento = doc.getString("evento");
+                    if (fecha == null || evento == null) {
+                        continue;
+                    }
+                    eventos++;
+                    recuento.computeIfAbsent(idDe(Granularidad.DIA, inicio), k -> new HashMap<>()).merge(evento, 1L, Long::sum);
+                    recuento.computeIfAbsent(idDe(Granularidad.HORA, fecha.toInstant().truncatedTo(ChronoUnit.HOURS)), k -> new HashMap<>())
+                            .merge(evento, 1L, Long::sum);
+                }
+
+                WriteBatch lote = db.batch();
+                boolean cambios = false;
+                for (Map.Entry<String, DocumentReference> entrada : refs.entrySet()) {
+                    String id = entrada.getKey();
+                    Map<String, Long> cuentas = recuento.getOrDefault(id, Map.of());
+                    DocumentSnapshot actual = actuales.get(id);
+                    Map<String, Object> datos = new HashMap<>();
+                    for (Evento evento : Evento.values()) {
+                        datos.put(evento.name(), cuentas.getOrDefault(evento.name(), 0L));
+                    }
+                    if (actual != null && actual.exists()) {
+                        lote.update(entrada.getValue(), datos, Precondition.updatedAt(actual.getUpdateTime()));
+                        cambios = true;
+                    } else if (!cuentas.isEmpty()) {
+                        boolean esDia = id.startsWith(Granularidad.DIA.name());
+                        datos.put("granularidad", esDia ? Granularidad.DIA.name() : Granularidad.HORA.name());
+                        datos.put("inicio", Timestamp.of(Date.from(esDia ? inicio : horaDe(id, horas))));
+                        lote.create(entrada.getValue(), datos);
+                        cambios = true;
+                    }
+                }
+                if (!cambios) {
+                    return eventos;
+                }
+                try {
+                    accesoFirestore.escribir(COLECCION + ".reconstruir", lote::commit);
+                    return eventos;
+                } catch (ExecutionException e) {
+                    String codigo = AccesoFirestore.codigoDe(e);
+                    if (!"FAILED_PRECONDITION".equals(codigo) && !"ALREADY_EXISTS".equals(codigo)) {
+                        throw e;
+                    }
+                    logger.debug("Resúmenes del día {} modificados durante la reconstrucción (intento {})", dia, intento);
+                }
+            }
+            throw new PresentationException("Los resúmenes del día " + dia + " siguen cambiando, inténtelo más tarde", HttpStatus.CONFLICT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PresentationException("Reconstrucción interrumpida", HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (ExecutionException e) {
+            throw new PresentationException("Error al reconstruir los resúmenes del día " + dia, HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    private Instant horaDe(String id, List<Instant> horas) {
+        for (Instant hora : horas) {
+            if (idDe(Granularidad.HORA, hora).equals(id)) {
+                return hora;
+            }
+        }
+        throw new IllegalArgumentException(id);
+    }
+
+    /**
+     * @return el inicio de cada intervalo de la granularidad indicada entre el principio de `desde` y el final de `hasta`.
+     */
+    private List<Instant> intervalos(LocalDate desde, LocalDate hasta, Granularidad granularidad) {
+        if (desde == null || hasta == null || hasta.isBefore(desde)) {
+            throw new PresentationException("Rango de fechas no válido", HttpStatus.BAD_REQUEST);
+        }
+        if (ChronoUnit.DAYS.between(desde, hasta) > MAX_DIAS_RECONSTRUCCION) {
+            throw new PresentationException("El rango pedido es demasiado largo", HttpStatus.BAD_REQUEST);
+        }
+        List<Instant> inicios = new ArrayList<>();
+        if (granularidad == Granularidad.DIA) {
+            for (LocalDate dia = desde; !dia.isAfter(hasta); dia = dia.plusDays(1)) {
+                inicios.add(dia.atStartOfDay(zona).toInstant());
+            }
+        } else {
+            Instant fin = hasta.plusDays(1).atStartOfDay(zona).toInstant();
+            for (Instant hora = desde.atStartOfDay(zona).toInstant().truncatedTo(ChronoUnit.HOURS); hora.isBefore(fin); hora = hora.plus(1, ChronoUnit.HOURS)) {
+                inicios.add(hora);
+            }
+        }
+        return inicios;
+    }
+
+    private String idDe(Granularidad granularidad, Instant inicio) {
+        return granularidad == Granularidad.DIA
+                ? Granularidad.DIA.name() + "_" + inicio.atZone(zona).toLocalDate()
+                : Granularidad.HORA.name() + "_" + FORMATO_HORA.format(inicio);
+    }
+}
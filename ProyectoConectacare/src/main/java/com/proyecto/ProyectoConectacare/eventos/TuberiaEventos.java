@@ -0,0 +1,356 @@
+package com.proyecto.ProyectoConectacare.eventos;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.WriteBatch;
+import com.proyecto.ProyectoConectacare.ejecucion.CompartimentosEjecucion;
+import com.proyecto.ProyectoConectacare.ejecucion.Prioridad;
+import com.proyecto.ProyectoConectacare.firestore.AccesoFirestore;
+import com.proyecto.ProyectoConectacare.metricas.FuenteMetricas;
+import com.proyecto.ProyectoConectacare.model.LogEstadisticas;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Escritura asíncrona y por lotes de los eventos de estadísticas (colección "logEstadisticas").
+ *
+ * Antes cada evento lanzaba su propio `add` a Firestore sin esperar ni limitar nada, así que una ráfaga de inicios
+ * de sesión dejaba un número ilimitado de escrituras en vuelo. Ahora:
+ * - Los eventos entran en una cola acotada sin cerrojos (ConcurrentLinkedDeque con un contador atómico de tamaño).
+ * - La cola se vacía en el compartimento FONDO en WriteBatch de hasta `tamano-lote` eventos: en cuanto hay un lote
+ *   completo, y como mucho cada `intervalo-ms` para los que quedan. Solo hay un vaciado a la vez, así que nunca hay
+ *   más de un lote en vuelo.
+ * - Con la cola llena se aplica la política `politica-desbordamiento`: DESCARTAR_NUEVO rechaza el evento que llega
+ *   y DESCARTAR_ANTIGUO saca el más antiguo para hacerle sitio. Ambos casos se cuentan en las métricas.
+ * - Si un lote falla, sus eventos vuelven al principio de la cola en el mismo orden y se reintentan en el siguiente
+ *   ciclo; los que ya no caben se descartan y se cuentan.
+ * - El campo `fecha` lo pone Firestore (@ServerTimestamp) al escribir; `registradoEn` guarda la hora a la que se
+ *   produjo el evento, que es la que cuenta si el evento se escribe más tarde (reintento o recuperación del diario).
+ * - Cada evento recibe un ID de documento al encolarse, así que reescribirlo tras un reintento o al recuperar el
+ *   diario no lo duplica.
+ * - Cada lote incrementa en la misma escritura los resúmenes por hora y por día ({@link ResumenesEstadisticas}).
+ *
+ * Opcionalmente (`conectacare.eventos.diario.habilitado`) cada evento se anota antes en un diario local mapeado en
+ * memoria ({@link DiarioEventos}); al arrancar se reencolan los que no llegaron a escribirse. Con el diario activo,
+ * anotar y encolar se hace bajo el cerrojo del diario para que el orden de la cola coincida con el de las secuencias.
+ *
+ * Se usa WriteBatch en lugar de BulkWriter porque es lo que usa el resto del servicio y un lote es una sola
+ * llamada a Firestore que pasa por AccesoFirestore (plazos, reintentos y cortocircuito).
+ */
+@Component
+public class TuberiaEventos implements FuenteMetricas {
+    private static final Logger logger = LoggerFactory.getLogger(TuberiaEventos.class);
+    private static final String COLECCION = "logEstadisticas";
+    private static final int MAX_ESCRITURAS_LOTE = 500;
+    private static final int ESCRITURAS_RESUMEN = 2; // resumen de la hora y del día, ver ResumenesEstadisticas
+    private static final long ESPERA_CIERRE_MS = 5000;
+
+    public enum PoliticaDesbordamiento {
+        DESCARTAR_NUEVO, DESCARTAR_ANTIGUO
+    }
+
+    private record Pendiente(String docId, LogEstadisticas log, long secuencia) {
+    }
+
+    private final Firestore db;
+    private final AccesoFirestore accesoFirestore;
+    private final CompartimentosEjecucion compartimentos;
+    private final ObjectMapper objectMapper;
+    private final ResumenesEstadisticas resumenes;
+    private final int capacidad;
+    private final int tamanoLote;
+    private final PoliticaDesbordamiento politica;
+    private final boolean diarioHabilitado;
+    private final String rutaDiario;
+    private final int tamanoDiarioBytes;
+
+    private final ConcurrentLinkedDeque<Pendiente> cola = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger tamano = new AtomicInteger();
+    private final AtomicBoolean vaciando = new AtomicBoolean();
+    private volatile DiarioEventos diario;
+
+    private final LongAdder encolados = new LongAdder();
+    private final LongAdder descartadosNuevos = new LongAdder();
+    private final LongAdder descartadosAntiguos = new LongAdder();
+    private final LongAdder descartadosTrasFallo = new LongAdder();
+    private final LongAdder escritos = new LongAdder();
+    private final LongAdder lotes = new LongAdder();
+    private final LongAdder lotesFallidos = new LongAdder();
+    private final LongAdder sinDiario = new LongAdder();
+    private final LongAdder recuperados = new LongAdder();
+
+    public TuberiaEventos(Firestore db, AccesoFirestore accesoFirestore, CompartimentosEjecucion compartimentos,
+                          ObjectMapper objectMapper, ResumenesEstadisticas resumenes,
+                          @Value("${conectacare.eventos.capacidad:10000}") int capacidad,
+                          @Value("${conectacare.eventos.tamano-lote:400}") int tamanoLote,
+                          @Value("${conectacare.eventos.politica-desbordamiento:DESCARTAR_NUEVO}") PoliticaDesbordamiento politica,
+                          @Value("${conectacare.eventos.diario.habilitado:false}") boolean diarioHabilitado,
+                          @Value("${conectacare.eventos.diario.ruta:${java.io.tmpdir}/conectacare-eventos.diario}") String rutaDiario,
+                          @Value("${conectacare.eventos.diario.tamano-mb:16}") int tamanoDiarioMb) {
+        this.db = db;
+        this.accesoFirestore = accesoFirestore;
+        this.compartimentos = compartimentos;
+        this.objectMapper = objectMapper;
+        this.resumenes = resumenes;
+        this.capacidad = Math.max(1, capacidad);
+        this.tamanoLote = Math.max(1, Math.min(tamanoLote, MAX_ESCRITURAS_LOTE - ESCRITURAS_RESUMEN));
+        this.politica = politica;
+        this.diarioHabilitado = diarioHabilitado;
+        this.rutaDiario = rutaDiario;
+        this.tamanoDiarioBytes = tamanoDiarioMb * 1024 * 1024;
+    }
+
+    /**
+     * Abre el diario, si está habilitado, y reencola los eventos que quedaron sin escribir.
+     * Un diario ilegible se registra y se ignora: la tubería funciona igual, solo en memoria.
+     */
+    @PostConstruct
+    public void iniciar() {
+        if (!diarioHabilitado) {
+            return;
+        }
+        DiarioEventos abierto = null;
+        try {
+            abierto = DiarioEventos.abrir(Paths.get(rutaDiario), tamanoDiarioBytes);
+            for (DiarioEventos.Registro registro : abierto.pendientes()) {
+                String[] partes = new String(registro.datos(), StandardCharsets.UTF_8).split("\n", 2);
+                LogEstadisticas log = objectMapper.readValue(partes[1], LogEstadisticas.class);
+                if (reservarHueco()) {
+                    cola.offerLast(new Pendiente(partes[0], log, registro.secuencia()));
+                    recuperados.increment();
+                }
+            }
+            diario = abierto;
+            if (recuperados.sum() > 0) {
+                logger.info("Recuperados {} eventos pendientes del diario {}.", recuperados.sum(), rutaDiario);
+                compartimentos.enviar(Prioridad.FONDO, this::vaciar);
+            }
+        } catch (Exception e) {
+            logger.warn("No se pudo abrir el diario de eventos {}: {}. Los eventos solo se guardan en memoria.", rutaDiario, e.getMessage());
+            if (abierto != null) {
+                try {
+                    abierto.close();
+                } catch (Exception ignorada) {
+                    // el diario ya no se usa
+                }
+            }
+        }
+    }
+
+    /**
+     * Acepta un evento para escribirlo en segundo plano. Nunca bloquea ni lanza excepciones.
+     *
+     * @param log el evento; `fecha` se ignora y la pone Firestore al escribir.
+     * @return true si se ha encolado; false si se ha descartado por la política de desbordamiento.
+     */
+    public boolean encolar(LogEstadisticas log) {
+        if (!reservarHueco()) {
+            return false;
+        }
+        log.setFecha(null);
+        String docId = UUID.randomUUID().toString();
+        DiarioEventos diarioActual = diario;
+        if (diarioActual == null) {
+            cola.offerLast(new Pendiente(docId, log, 0L));
+        } else {
+            byte[] datos;
+            try {
+                datos = (docId + "\n" + objectMapper.writeValueAsString(log)).getBytes(StandardCharsets.UTF_8);
+            } catch (Exception e) {
+                datos = null;
+            }
+            if (datos == null) {
+                sinDiario.increment();
+                cola.offerLast(new Pendiente(docId, log, 0L));
+            } else {
+                diarioActual.anotarYEncolar(datos, secuencia -> {
+                    if (secuencia == 0L) {
+                        sinDiario.increment();
+                    }
+                    cola.offerLast(new Pendiente(docId, log, secuencia));
+                });
+            }
+        }
+        encolados.increment();
+        if (tamano.get() >= tamanoLote) {
+            programarVaciado();
+        }
+        return true;
+    }
+
+    /**
+     * Reserva un hueco en la cola aplicando la política de desbordamiento.
+     */
+    private boolean reservarHueco() {
+        if (tamano.incrementAndGet() <= capacidad) {
+            return true;
+        }
+        if (politica == PoliticaDesbordamiento.DESCARTAR_ANTIGUO && cola.pollFirst() != null) {
+            tamano.decrementAndGet();
+            descartadosAntiguos.increment();
+            return true;
+        }
+        tamano.decrementAndGet();
+        descartadosNuevos.increment();
+        return false;
+    }
+
+    /**
+     * Vacía periódicamente lo que haya en la cola aunque no llegue a un lote completo.
+     */
+    @Scheduled(fixedDelayString = "${conectacare.eventos.intervalo-ms:2000}")
+    public void vaciarPeriodicamente() {
+        if (!cola.isEmpty()) {
+            programarVaciado();
+        }
+    }
+
+    private void programarVaciado() {
+        if (!vaciando.get()) {
+            compartimentos.enviar(Prioridad.FONDO, this::vaciar);
+        }
+    }
+
+    /**
+     * Escribe la cola en lotes hasta dejarla vacía o hasta que un lote falle. Solo un hilo vacía a la vez.
+     */
+    void vaciar() {
+        if (!vaciando.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            while (true) {
+                List<Pendiente> lote = new ArrayList<>(tamanoLote);
+                Pendiente pendiente;
+                while (lote.size() < tamanoLote && (pendiente = cola.pollFirst()) != null) {
+                    tamano.decrementAndGet();
+                    lote.add(pendiente);
+                }
+                if (lote.isEmpty() || !escribir(lote)) {
+                    return;
+                }
+            }
+        } finally {
+            vaciando.set(false);
+        }
+    }
+
+    private boolean escribir(List<Pendiente> pendientes) {
+        WriteBatch lote = db.batch();
+        long ultimaSecuencia = 0L;
+        for (Pendiente pendiente : pendientes) {
+            lote.set(db.collection(COLECCION).document(pendiente.docId()), pendiente.log());
+            ultimaSecuencia = Math.max(ultimaSecuencia, pendiente.secuencia());
+        }
+        resumenes.contar(lote, pendientes.stream().map(Pendiente::log).toList(), System.currentTimeMillis());
+        try {
+            accesoFirestore.escribir(COLECCION + ".lote", lote::commit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            devolverACola(pendientes);
+            return false;
+        } catch (Exception e) {
+            lotesFallidos.increment();
+            logger.warn("No se pudo escribir un lote de {} eventos de estadísticas: {}", pendientes.size(), e.getMessage());
+            devolverACola(pendientes);
+            return false;
+        }
+        lotes.increment();
+        escritos.add(pendientes.size());
+        DiarioEventos diarioActual = diario;
+        if (diarioActual != null && ultimaSecuencia > 0) {
+            diarioActual.confirmarHasta(ultimaSecuencia);
+        }
+        return true;
+    }
+
+    /**
+     * Devuelve un lote fallido al principio de la cola, en su orden original, hasta donde quepa.
+     */
+    private void devolverACola(List<Pendiente> pendientes) {
+        for (int i = pendientes.size() - 1; i >= 0; i--) {
+            if (tamano.incrementAndGet() <= capacidad) {
+                cola.offerFirst(pendientes.get(i));
+            } else {
+                tamano.decrementAndGet();
+                descartadosTrasFallo.add(i + 1L);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Escribe lo que quede en la cola al detener la aplicación y cierra el diario.
+     */
+    @PreDestroy
+    public void detener() {
+        long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ESPERA_CIERRE_MS);
+        while (vaciando.get() && System.nanoTime() < limite) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        vaciar();
+        DiarioEventos diarioActual = diario;
+        diario = null;
+        if (diarioActual != null) {
+            try {
+                diarioActual.close();
+            } catch (Exception e) {
+                logger.warn("No se pudo cerrar el diario de eventos: {}", e.getMessage());
+            }
+        }
+        if (!cola.isEmpty()) {
+            logger.warn("Se detiene la aplicación con {} eventos de estadísticas sin escribir.", tamano.get());
+        }
+    }
+
+    @Override
+    public String getNombreMetricas() {
+        return "eventos";
+    }
+
+    @Override
+    public Map<String, Object> getMetricas() {
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        metricas.put("enCola", tamano.get());
+        metricas.put("capacidad", capacidad);
+        metricas.put("politica", politica.name());
+        metricas.put("encolados", encolados.sum());
+        metricas.put("escritos", escritos.sum());
+        metricas.put("lotes", lotes.sum());
+        metricas.put("lotesFallidos", lotesFallidos.sum());
+        metricas.put("descartadosNuevos", descartadosNuevos.sum());
+        metricas.put("descartadosAntiguos", descartadosAntiguos.sum());
+        metricas.put("descartadosTrasFallo", descartadosTrasFallo.sum());
+        DiarioEventos diarioActual = diario;
+        metricas.put("diario", diarioActual != null);
+        if (diarioActual != null) {
+            metricas.put("diarioOcupacionBytes", diarioActual.ocupacionBytes());
+            metricas.put("sinDiario", sinDiario.sum());
+            metricas.put("recuperados", recuperados.sum());
+        }
+        return metricas;
+    }
+}
@@ -0,0 +1,335 @@
+package com.proyecto.ProyectoConectacare.firestore;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.gax.rpc.ApiException;
+import com.proyecto.ProyectoConectacare.ejecucion.CompartimentosEjecucion;
+import com.proyecto.ProyectoConectacare.exception.PresentationException;
+import com.proyecto.ProyectoConectacare.metricas.FuenteMetricas;
+import com.proyecto.ProyectoConectacare.peticion.PlazoPeticion;
+import io.grpc.StatusRuntimeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Punto único por el que pasan todas las esperas sobre llamadas a Firestore de la capa de servicios.
+ *
+ * Responsabilidades:
+ * - Tiempo máximo de espera por operación, en lugar de bloquear el hilo indefinidamente con future.get().
+ * - Un cortocircuito por colección que, cuando Firestore falla repetidamente, rechaza las llamadas al instante
+ *   con un 503 en lugar de acumular hilos esperando.
+ * - Reintentos con espera exponencial y jitter, solo para lecturas idempotentes y para la contención
+ *   de transacciones (ABORTED) en escrituras.
+ * - Cuota de llamadas simultáneas según la prioridad del hilo ({@link CompartimentosEjecucion}), para que el trabajo
+ *   de administración o en segundo plano no ocupe toda la capacidad hacia Firestore.
+ * - Métricas por operación: llamadas, errores, timeouts, reintentos, rechazos y latencias.
+ *
+ * Las operaciones se nombran como "coleccion.accion" (por ejemplo, "usuarios.get"); la parte anterior al punto
+ * identifica el cortocircuito. El tiempo máximo de una operación concreta se puede ajustar con la propiedad
+ * `conectacare.firestore.timeout-ms.<operacion>`.
+ *
+ * Si el hilo atiende una petición con plazo ({@link PlazoPeticion}), la espera nunca supera el tiempo que le queda
+ * a la petición y, una vez vencido, no se lanzan llamadas nuevas: el trabajo de una petición abandonada se corta
+ * en la siguiente llamada a Firestore. Estos cortes no cuentan como fallo para el cortocircuito.
+ *
+ * Los métodos conservan la firma de future.get() (InterruptedException y ExecutionException), de modo que los
+ * servicios mantienen su gestión de errores; los timeouts y los rechazos del cortocircuito se notifican como
+ * PresentationException con estado 504 y 503 respectivamente.
+ */
+@Component
+public class AccesoFirestore implements FuenteMetricas {
+    private static final Logger logger = LoggerFactory.getLogger(AccesoFirestore.class);
+
+    /** Códigos que indican un problema de infraestructura y cuentan como fallo para el cortocircuito. */
+    private static final Set<String> CODIGOS_FALLO = Set.of("UNAVAILABLE", "DEADLINE_EXCEEDED", "RESOURCE_EXHAUSTED", "INTERNAL", "UNKNOWN");
+    /** Códigos que se pueden reintentar en una lectura idempotente. */
+    private static final Set<String> CODIGOS_REINTENTABLES_LECTURA = Set.of("UNAVAILABLE", "DEADLINE_EXCEEDED", "RESOURCE_EXHAUSTED", "INTERNAL", "ABORTED");
+    /** Códigos que se pueden reintentar en una escritura: solo la contención de transacciones. */
+    private static final Set<String> CODIGOS_REINTENTABLES_ESCRITURA = Set.of("ABORTED");
+
+    private enum Tipo { LECTURA, ESCRITURA }
+
+    /**
+     * Un intento de llamada que debe terminar en el tiempo indicado.
+     */
+    @FunctionalInterface
+    private interface Intento<T> {
+        T ejecutar(long timeoutNanos) throws InterruptedException, ExecutionException, TimeoutException;
+    }
+
+    private final LecturasHedge lecturasHedge;
+    private final CompartimentosEjecucion compartimentos;
+    private final Environment environment;
+    private final long timeoutLecturaMs;
+    private final long timeoutEscrituraMs;
+    private final int maxIntentos;
+    private final long esperaBaseMs;
+    private final long esperaMaximaMs;
+    private final int umbralFallos;
+    private final long aperturaMs;
+    private final ConcurrentHashMap<String, Long> timeoutsPorOperacion = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CircuitoFirestore> circuitos = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, MetricasOperacion> metricas = new ConcurrentHashMap<>();
+
+    public AccesoFirestore(LecturasHedge lecturasHedge, CompartimentosEjecucion compartimentos, Environment environment,
+                           @Value("${conectacare.firestore.timeout-lectura-ms:5000}") long timeoutLecturaMs,
+                           @Value("${conectacare.firestore.timeout-escritura-ms:10000}") long timeoutEscrituraMs,
+                           @Value("${conectacare.firestore.reintentos.max-intentos:3}") int maxIntentos,
+                           @Value("${conectacare.firestore.reintentos.espera-base-ms:50}") long esperaBaseMs,
+                           @Value("${conectacare.firestore.reintentos.espera-maxima-ms:1000}") long esperaMaximaMs,
+                           @Value("${conectacare.firestore.circuito.umbral-fallos:5}") int umbralFallos,
+                           @Value("${conectacare.firestore.circuito.apertura-ms:10000}") long aperturaMs) {
+        this.lecturasHedge = lecturasHedge;
+        this.compartimentos = compartimentos;
+        this.environment = environment;
+        this.timeoutLecturaMs = timeoutLecturaMs;
+        this.timeoutEscrituraMs = timeoutEscrituraMs;
+        this.maxIntentos = maxIntentos;
+        this.esperaBaseMs = esperaBaseMs;
+        this.esperaMaximaMs = esperaMaximaMs;
+        this.umbralFallos = umbralFallos;
+        this.aperturaMs = aperturaMs;
+    }
+
+    /**
+     * Espera el resultado de una lectura idempotente, con timeout, cortocircuito y reintentos.
+     *
+     * @param operacion nombre de la operación con el formato "coleccion.accion".
+     * @param llamada función que lanza la lectura; se vuelve a invocar en cada reintento.
+     * @return el resultado de la lectura.
+     * @param <T> el tipo del resultado.
+     * @throws InterruptedException si el hilo es interrumpido mientras espera.
+     * @throws ExecutionException si la lectura falla tras agotar los reintentos.
+     */
+    public <T> T leer(String operacion, Supplier<ApiFuture<T>> llamada) throws InterruptedException, ExecutionException {
+        return ejecutar(operacion, Tipo.LECTURA, timeout -> esperar(llamada.get(), timeout));
+    }
+
+    /**
+     * Igual que {@link #leer}, pero aplicando hedging (si está habilitado) a cada intento.
+     * Solo debe usarse con lecturas idempotentes de un documento.
+     *
+     * @param operacion nombre de la operación con el formato "coleccion.accion".
+     * @param llamada función que lanza la lectura; puede invocarse varias veces.
+     * @return el resultado de la lectura.
+     * @param <T> el tipo del resultado.
+     * @throws InterruptedException si el hilo es interrumpido mientras espera.
+     * @throws ExecutionException si la lectura falla tras agotar los reintentos.
+     */
+    public <T> T leerConHedge(String operacion, Supplier<ApiFuture<T>> llamada) throws InterruptedException, ExecutionException {
+        return ejecutar(operacion, Tipo.LECTURA, timeout -> lecturasHedge.leer(operacion, llamada, timeout));
+    }
+
+    /**
+     * Espera el resultado de una escritura o transacción, con timeout y cortocircuito.
+     * Solo se reintenta si Firestore devuelve ABORTED (contención en una transacción).
+     *
+     * @param operacion nombre de la operación con el formato "coleccion.accion".
+     * @param llamada función que lanza la escritura.
+     * @return el resultado de la escritura.
+     * @param <T> el tipo del resultado.
+     * @throws InterruptedException si el hilo es interrumpido mientras espera.
+     * @throws ExecutionException si la escritura falla.
+     */
+    public <T> T escribir(String operacion, Supplier<ApiFuture<T>> llamada) throws InterruptedException, ExecutionException {
+        return ejecutar(operacion, Tipo.ESCRITURA, timeout -> esperar(llamada.get(), timeout));
+    }
+
+    private <T> T ejecutar(String operacion, Tipo tipo, Intento<T> intento) throws InterruptedException, ExecutionException {
+        CircuitoFirestore circuito = circuitos.computeIfAbsent(coleccionDe(operacion),
+                k -> new CircuitoFirestore(umbralFallos, aperturaMs));
+        MetricasOperacion m = metricas.computeIfAbsent(operacion, k -> new MetricasOperacion());
+        long inicio = System.nanoTime();
+        long timeoutOperacion = TimeUnit.MILLISECONDS.toNanos(timeoutMs(operacion, tipo));
+        long restantePeticion = PlazoPeticion.restanteNanos();
+        m.llamadas.increment();
+        if (restantePeticion <= 0) {
+            m.cortadasPorPlazo.increment();
+            throw new PresentationException("Plazo de la petición agotado", HttpStatus.GATEWAY_TIMEOUT);
+        }
+        boolean limitadoPorPeticion = restantePeticion < timeoutOperacion;
+        long limite = inicio + Math.min(timeoutOperacion, restantePeticion);
+        for (int numeroIntento = 1; ; numeroIntento++) {
+            CircuitoFirestore.Paso paso = circuito.permitir();
+            if (paso == CircuitoFirestore.Paso.RECHAZADA) {
+                m.rechazadas.increment();
+                throw new PresentationException("Servicio de datos no disponible temporalmente", HttpStatus.SERVICE_UNAVAILABLE);
+            }
+            // Si el intento se abandona sin que Firestore responda (sin cuota, plazo de la petición, interrupción...),
+            // la llamada de prueba del circuito semiabierto, si era suya, se libera en el finally
+            boolean registrado = false;
+            CompartimentosEjecucion.Permiso permiso = null;
+            long espera;
+            try {
+                permiso = compartimentos.adquirirFirestore(Math.max(0, limite - System.nanoTime()));
+                if (permiso == null) {
+                    // La prioridad del hilo ha agotado su cuota de llamadas simultáneas a Firestore
+                    m.sinCuota.increment();
+                    throw new PresentationException("Servicio de datos saturado, inténtelo de nuevo en unos segundos", HttpStatus.SERVICE_UNAVAILABLE);
+                }
+                T resultado = intento.ejecutar(Math.max(1, limite - System.nanoTime()));
+                registrado = true;
+                circuito.exito();
+                m.registrarLatencia(System.nanoTime() - inicio);
+                return resultado;
+            } catch (TimeoutException e) {
+                if (limitadoPorPeticion) {
+                    // Se ha agotado el plazo de la petición, no el de Firestore
+                    m.cortadasPorPlazo.increment();
+                    throw new PresentationException("Plazo de la petición agotado", HttpStatus.GATEWAY_TIMEOUT);
+                }
+                registrado = true;
+                circuito.fallo(paso);
+                m.timeouts.increment();
+                logger.warn("Timeout en la operación de Firestore '{}' tras {} ms", operacion,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio));
+                throw new PresentationException("Tiempo de espera agotado al acceder a los datos", HttpStatus.GATEWAY_TIMEOUT);
+            } catch (ExecutionException e) {
+                String codigo = codigoDe(e);
+                registrado = true;
+                if (CODIGOS_FALLO.contains(codigo)) {
+                    circuito.fallo(paso);
+                } else {
+                    circuito.exito();
+                }
+                Set<String> reintentables = tipo == Tipo.LECTURA ? CODIGOS_REINTENTABLES_LECTURA : CODIGOS_REINTENTABLES_ESCRITURA;
+                espera = esperaAntesDeReintento(numeroIntento);
+                if (numeroIntento >= maxIntentos || !reintentables.contains(codigo)
+                        || System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(espera) >= limite) {
+                    m.errores.increment();
+                    throw e;
+                }
+                m.reintentos.increment();
+                logger.debug("Reintentando operación de Firestore '{}' (intento {}, código {}) en {} ms", operacion, numeroIntento + 1, codigo, espera);
+            } finally {
+                if (permiso != null) {
+                    permiso.close();
+                }
+                if (!registrado && paso == CircuitoFirestore.Paso.PRUEBA) {
+                    circuito.liberarPrueba();
+                }
+            }
+            // La espera entre intentos se hace sin ocupar cuota de Firestore
+            Thread.sleep(espera);
+        }
+    }
+
+    private static <T> T esperar(ApiFuture<T> future, long timeoutNanos) throws InterruptedException, ExecutionException, TimeoutException {
+        try {
+            return future.get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException | InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        }
+    }
+
+    /**
+     * Espera exponencial con "full jitter": un valor aleatorio entre 0 y base * 2^(intento - 1), acotado al máximo.
+     */
+    private long esperaAntesDeReintento(int numeroIntento) {
+        long techo = Math.min(esperaMaximaMs, esperaBaseMs << Math.min(numeroIntento - 1, 20));
+        return ThreadLocalRandom.current().nextLong(techo + 1);
+    }
+
+    private long timeoutMs(String operacion, Tipo tipo) {
+        return timeoutsPorOperacion.computeIfAbsent(operacion, op -> environment.getProperty(
+                "conectacare.firestore.timeout-ms." + op, Long.class,
+                tipo == Tipo.LECTURA ? timeoutLecturaMs : timeoutEscrituraMs));
+    }
+
+    private static String coleccionDe(String operacion) {
+        int punto = operacion.indexOf('.');
+        return punto > 0 ? operacion.substring(0, punto) : operacion;
+    }
+
+    /**
+     * Obtiene el código de estado gRPC de un error de Firestore recorriendo su cadena de causas.
+     *
+     * @param error el error a analizar.
+     * @return el nombre del código (por ejemplo, "UNAVAILABLE"), o "UNKNOWN" si no se puede determinar.
+     */
+    public static String codigoDe(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof ApiException apiException) {
+                return apiException.getStatusCode().getCode().name();
+            }
+            if (t instanceof StatusRuntimeException statusException) {
+                return statusException.getStatus().getCode().name();
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return "UNKNOWN";
+    }
+
+    @Override
+    public String getNombreMetricas() {
+        return "firestore";
+    }
+
+    @Override
+    public Map<String, Object> getMetricas() {
+        Map<String, Object> resultado = new LinkedHashMap<>();
+        Map<String, Object> porCircuito = new LinkedHashMap<>();
+        circuitos.forEach((coleccion, circuito) -> porCircuito.put(coleccion,
+                Map.of("estado", circuito.estado().name(), "aperturas", circuito.aperturas())));
+        Map<String, Object> porOperacion = new LinkedHashMap<>();
+        metricas.forEach((operacion, m) -> porOperacion.put(operacion, m.instantanea()));
+        resultado.put("circuitos", porCircuito);
+        resultado.put("operaciones", porOperacion);
+        return resultado;
+    }
+
+    /**
+     * Contadores de una operación concreta.
+     */
+    private static final class MetricasOperacion {
+        final LongAdder llamadas = new LongAdder();
+        final LongAdder errores = new LongAdder();
+        final LongAdder timeouts = new LongAdder();
+        final LongAdder reintentos = new LongAdder();
+        final LongAdder rechazadas = new LongAdder();
+        final LongAdder cortadasPorPlazo = new LongAdder();
+        final LongAdder sinCuota = new LongAdder();
+        final LongAdder completadas = new LongAdder();
+        final LongAdder latenciaTotalNanos = new LongAdder();
+        final LongAccumulator latenciaMaximaNanos = new LongAccumulator(Math::max, 0);
+
+        void registrarLatencia(long nanos) {
+            completadas.increment();
+            latenciaTotalNanos.add(nanos);
+            latenciaMaximaNanos.accumulate(nanos);
+        }
+
+        Map<String, Object> instantanea() {
+            long n = completadas.sum();
+            Map<String, Object> valores = new LinkedHashMap<>();
+            valores.put("llamadas", llamadas.sum());
+            valores.put("errores", errores.sum());
+            valores.put("timeouts", timeouts.sum());
+            valores.put("reintentos", reintentos.sum());
+            valores.put("rechazadasPorCircuito", rechazadas.sum());
+            valores.put("cortadasPorPlazoPeticion", cortadasPorPlazo.sum());
+            valores.put("rechazadasPorCuota", sinCuota.sum());
+            valores.put("latenciaMediaMs", n == 0 ? 0.0 : latenciaTotalNanos.sum() / (double) n / 1_000_000.0);
+            valores.put("latenciaMaximaMs", latenciaMaximaNanos.get() / 1_000_000.0);
+            return valores;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.proyecto.ProyectoConectacare.firestore;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cortocircuito ("circuit breaker") asociado a una colección de Firestore.
+ *
+ * Estados:
+ * - CERRADO: las llamadas pasan con normalidad.
+ * - ABIERTO: tras varios fallos de infraestructura consecutivos, las llamadas se rechazan sin llegar a Firestore
+ *   durante un tiempo.
+ * - SEMIABIERTO: pasado ese tiempo se deja pasar una única llamada de prueba; si va bien se cierra y si falla se vuelve a abrir.
+ */
+final class CircuitoFirestore {
+
+    enum Estado { CERRADO, ABIERTO, SEMIABIERTO }
+
+    /**
+     * Respuesta de {@link #permitir()}: si la llamada se rechaza, pasa con normalidad o es la llamada de prueba del
+     * circuito semiabierto (y por tanto debe registrar su resultado o liberar la prueba).
+     */
+    enum Paso { RECHAZADA, NORMAL, PRUEBA }
+
+    private final int umbralFallos;
+    private final long aperturaMs;
+    private final AtomicInteger fallosConsecutivos = new AtomicInteger();
+    private final AtomicBoolean pruebaEnCurso = new AtomicBoolean();
+    private final LongAdder aperturas = new LongAdder();
+    private volatile long abiertoHasta;
+
+    CircuitoFirestore(int umbralFallos, long aperturaMs) {
+        this.umbralFallos = umbralFallos;
+        this.aperturaMs = aperturaMs;
+    }
+
+    /**
+     * @return RECHAZADA si el circuito está abierto o ya hay una prueba en curso, PRUEBA si la llamada es la de
+     * prueba del circuito semiabierto y NORMAL en otro caso.
+     */
+    Paso permitir() {
+        if (abiertoHasta == 0) {
+            return Paso.NORMAL;
+        }
+        if (System.currentTimeMillis() < abiertoHasta) {
+            return Paso.RECHAZADA;
+        }
+        return pruebaEnCurso.compareAndSet(false, true) ? Paso.PRUEBA : Paso.RECHAZADA;
+    }
+
+    /**
+     * Registra que Firestore ha respondido (aunque sea con un error de negocio, como NOT_FOUND).
+     */
+    void exito() {
+        fallosConsecutivos.set(0);
+        abiertoHasta = 0;
+        pruebaEnCurso.set(false);
+    }
+
+    /**
+     * Registra un fallo de infraestructura (timeout, UNAVAILABLE...). Si falla la llamada de prueba, el circuito
+     * se vuelve a abrir; las demás solo lo abren al alcanzar el umbral de fallos consecutivos.
+     *
+     * @param paso lo que devolvió {@link #permitir()} para esta llamada.
+     */
+    void fallo(Paso paso) {
+        if (paso == Paso.PRUEBA || fallosConsecutivos.incrementAndGet() >= umbralFallos) {
+            abiertoHasta = System.currentTimeMillis() + aperturaMs;
+            fallosConsecutivos.set(0);
+            pruebaEnCurso.set(false);
+            aperturas.increment();
+        }
+    }
+
+    /**
+     * Libera la llamada de prueba sin registrar resultado, cuando se abandona por motivos ajenos a Firestore
+     * (por ejemplo, porque ha vencido el plazo de la petición). Solo debe llamarla quien obtuvo {@link Paso#PRUEBA}:
+     * si lo hiciera otra llamada, dejaría pasar una segunda prueba mientras la primera sigue en curso.
+     */
+    void liberarPrueba() {
+        pruebaEnCurso.set(false);
+    }
+
+    Estado estado() {
+        if (abiertoHasta == 0) {
+            return Estado.CERRADO;
+        }
+        return System.currentTimeMillis() < abiertoHasta ? Estado.ABIERTO : Estado.SEMIABIERTO;
+    }
+
+    long aperturas() {
+        return aperturas.sum();
+    }
+}
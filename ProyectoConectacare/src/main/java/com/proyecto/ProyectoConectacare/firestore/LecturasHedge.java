@@ -0,0 +1,235 @@
+package com.proyecto.ProyectoConectacare.firestore;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.proyecto.ProyectoConectacare.metricas.FuenteMetricas;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Componente que aplica "hedging" a lecturas idempotentes de Firestore para recortar la latencia de cola (p99).
+ *
+ * Funcionamiento:
+ * - Para cada operación se guarda una ventana con las latencias recientes de la lectura principal.
+ * - Si la lectura principal no ha terminado cuando se alcanza el percentil configurado de esa ventana,
+ *   se lanza una segunda lectura idéntica; se devuelve la que termine antes y la otra se cancela.
+ * - La ventana solo mide la lectura principal, también cuando gana la secundaria: en ese caso la principal sigue
+ *   en curso hasta que termina (y se registra lo que ha tardado) o hasta el timeout, momento en el que se cancela
+ *   y cuenta como el timeout completo. Si se midiera la ganadora, cada hedge rebajaría el percentil y se lanzarían
+ *   cada vez más.
+ * - Un presupuesto limita las lecturas duplicadas a un porcentaje del total, para no multiplicar la carga
+ *   justo cuando Firestore va lento.
+ *
+ * Es opcional (propiedad `conectacare.firestore.hedging.habilitado`) y solo debe usarse con lecturas idempotentes,
+ * como la obtención de un documento por ID. La lectura se recibe como un Supplier de ApiFuture, por lo que se puede
+ * medir con un sustituto que inyecte latencia artificial sin necesidad de Firestore.
+ */
+@Component
+public class LecturasHedge implements FuenteMetricas {
+    private static final int TAMANO_VENTANA = 256;
+    private static final int RECALCULO_CADA = 32;
+
+    private final boolean habilitado;
+    private final double percentil;
+    private final double presupuesto;
+    private final int muestrasMinimas;
+    private final ConcurrentHashMap<String, VentanaLatencias> ventanas = new ConcurrentHashMap<>();
+    private final AtomicLong lecturas = new AtomicLong();
+    private final AtomicLong hedgesEnviados = new AtomicLong();
+    private final LongAdder hedgesGanadores = new LongAdder();
+    private final LongAdder hedgesDenegados = new LongAdder();
+
+    public LecturasHedge(@Value("${conectacare.firestore.hedging.habilitado:false}") boolean habilitado,
+                         @Value("${conectacare.firestore.hedging.percentil:95}") double percentil,
+                         @Value("${conectacare.firestore.hedging.presupuesto:0.05}") double presupuesto,
+                         @Value("${conectacare.firestore.hedging.muestras-minimas:50}") int muestrasMinimas) {
+        this.habilitado = habilitado;
+        this.percentil = percentil;
+        this.presupuesto = presupuesto;
+        this.muestrasMinimas = muestrasMinimas;
+    }
+
+    /**
+     * Ejecuta una lectura idempotente, lanzando una segunda lectura idéntica si la primera tarda más de lo habitual.
+     * Normalmente se invoca a través de {@link AccesoFirestore#leerConHedge}, que aporta el timeout y los reintentos.
+     *
+     * @param operacion nombre de la operación (por ejemplo, "usuarios.get"), usado para agrupar latencias.
+     * @param lectura función que lanza la lectura y devuelve su ApiFuture; puede invocarse dos veces.
+     * @param timeoutNanos tiempo máximo de espera total.
+     * @return el resultado de la primera lectura que termine correctamente.
+     * @param <T> el tipo del resultado.
+     * @throws InterruptedException si el hilo es interrumpido mientras espera.
+     * @throws ExecutionException si todas las lecturas lanzadas fallan.
+     * @throws TimeoutException si ninguna lectura termina dentro del tiempo máximo.
+     */
+    public <T> T leer(String operacion, Supplier<ApiFuture<T>> lectura, long timeoutNanos)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long inicio = System.nanoTime();
+        long limite = inicio + timeoutNanos;
+        ApiFuture<T> principal = lectura.get();
+        if (!habilitado) {
+            return esperar(principal, limite);
+        }
+        lecturas.incrementAndGet();
+        VentanaLatencias ventana = ventanas.computeIfAbsent(operacion, k -> new VentanaLatencias());
+        long umbral = ventana.umbralNanos();
+        if (umbral <= 0 || umbral >= timeoutNanos) {
+            T resultado = esperar(principal, limite);
+            ventana.registrar(System.nanoTime() - inicio, percentil, muestrasMinimas);
+            return resultado;
+        }
+        try {
+            T resultado = principal.get(umbral, TimeUnit.NANOSECONDS);
+            ventana.registrar(System.nanoTime() - inicio, percentil, muestrasMinimas);
+            return resultado;
+        } catch (TimeoutException e) {
+            if (!reservarHedge()) {
+                hedgesDenegados.increment();
+                T resultado = esperar(principal, limite);
+                ventana.registrar(System.nanoTime() - inicio, percentil, muestrasMinimas);
+                return resultado;
+            }
+        }
+        ApiFuture<T> secundaria = lectura.get();
+        CompletableFuture<T> ganadora = new CompletableFuture<>();
+        AtomicInteger fallos = new AtomicInteger();
+        Runnable medirPrincipal = () -> ventana.registrar(System.nanoTime() - inicio, percentil, muestrasMinimas);
+        ApiFutures.addCallback(principal, callback(ganadora, fallos, medirPrincipal), MoreExecutors.directExecutor());
+        ApiFutures.addCallback(secundaria, callback(ganadora, fallos, null), MoreExecutors.directExecutor());
+        try {
+            return ganadora.get(Math.max(1, limite - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } finally {
+            secundaria.cancel(false);
+            if (!principal.isDone()) {
+                cancelarAlLimite(principal, limite, () -> ventana.registrar(timeoutNanos, percentil, muestrasMinimas));
+            }
+        }
+    }
+
+    /**
+     * Deja terminar la lectura principal que ha perdido frente a la secundaria para poder medirla, pero la cancela
+     * al llegar al límite de tiempo de la lectura.
+     */
+    private static void cancelarAlLimite(ApiFuture<?> principal, long limite, Runnable alCancelar) {
+        Runnable cancelar = () -> {
+            if (principal.cancel(false)) {
+                alCancelar.run();
+            }
+        };
+        long restante = limite - System.nanoTime();
+        if (restante <= 0) {
+            cancelar.run();
+        } else {
+            CompletableFuture.delayedExecutor(restante, TimeUnit.NANOSECONDS).execute(cancelar);
+        }
+    }
+
+    private static <T> T esperar(ApiFuture<T> future, long limite) throws InterruptedException, ExecutionException, TimeoutException {
+        try {
+            return future.get(Math.max(1, limite - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException | InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        }
+    }
+
+    /**
+     * @param alCompletar medición de la lectura principal; null en la secundaria.
+     */
+    private <T> ApiFutureCallback<T> callback(CompletableFuture<T> ganadora, AtomicInteger fallos, Runnable alCompletar) {
+        return new ApiFutureCallback<>() {
+            @Override
+            public void onSuccess(T resultado) {
+                if (alCompletar != null) {
+                    alCompletar.run();
+                }
+                if (ganadora.complete(resultado) && alCompletar == null) {
+                    hedgesGanadores.increment();
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                // Solo se propaga el error cuando fallan las dos lecturas
+                if (fallos.incrementAndGet() == 2) {
+                    ganadora.completeExceptionally(t);
+                }
+            }
+        };
+    }
+
+    /**
+     * Reserva una lectura duplicada si no se ha superado el presupuesto sobre el total de lecturas.
+     */
+    private boolean reservarHedge() {
+        while (true) {
+            long enviados = hedgesEnviados.get();
+            if (enviados + 1 > presupuesto * lecturas.get()) {
+                return false;
+            }
+            if (hedgesEnviados.compareAndSet(enviados, enviados + 1)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public String getNombreMetricas() {
+        return "hedging";
+    }
+
+    @Override
+    public Map<String, Object> getMetricas() {
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        metricas.put("habilitado", habilitado);
+        metricas.put("lecturas", lecturas.get());
+        metricas.put("hedgesEnviados", hedgesEnviados.get());
+        metricas.put("hedgesGanadores", hedgesGanadores.sum());
+        metricas.put("hedgesDenegadosPorPresupuesto", hedgesDenegados.sum());
+        Map<String, Object> umbrales = new LinkedHashMap<>();
+        ventanas.forEach((operacion, ventana) -> umbrales.put(operacion, ventana.umbralNanos() / 1_000_000.0));
+        metricas.put("umbralesMs", umbrales);
+        return metricas;
+    }
+
+    /**
+     * Ventana circular con las últimas latencias de una operación. El percentil se recalcula cada pocas muestras
+     * para no ordenar la ventana en cada lectura.
+     */
+    private static final class VentanaLatencias {
+        private final long[] muestras = new long[TAMANO_VENTANA];
+        private final AtomicLong registradas = new AtomicLong();
+        private volatile long umbralNanos;
+
+        void registrar(long latenciaNanos, double percentil, int muestrasMinimas) {
+            long n = registradas.getAndIncrement();
+            muestras[(int) (n % TAMANO_VENTANA)] = latenciaNanos;
+            if (n + 1 >= muestrasMinimas && (n + 1) % RECALCULO_CADA == 0) {
+                int llenas = (int) Math.min(n + 1, TAMANO_VENTANA);
+                long[] copia = Arrays.copyOf(muestras, llenas);
+                Arrays.sort(copia);
+                int indice = (int) Math.min(llenas - 1, Math.ceil(percentil / 100.0 * llenas) - 1);
+                umbralNanos = copia[Math.max(0, indice)];
+            }
+        }
+
+        long umbralNanos() {
+            return umbralNanos;
+        }
+    }
+}
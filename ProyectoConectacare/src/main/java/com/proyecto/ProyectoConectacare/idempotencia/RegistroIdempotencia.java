@@ -0,0 +1,220 @@
+package com.proyecto.ProyectoConectacare.idempotencia;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.common.hash.Hashing;
+import com.proyecto.ProyectoConectacare.cache.LecturasCoalescidas;
+import com.proyecto.ProyectoConectacare.cache.RegistroCaches;
+import com.proyecto.ProyectoConectacare.ejecucion.CompartimentosEjecucion;
+import com.proyecto.ProyectoConectacare.ejecucion.Prioridad;
+import com.proyecto.ProyectoConectacare.exception.PresentationException;
+import com.proyecto.ProyectoConectacare.firestore.AccesoFirestore;
+import com.proyecto.ProyectoConectacare.metricas.FuenteMetricas;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Soporte de la cabecera `Idempotency-Key` en los endpoints de creación (solicitudes, mensajes, anuncios y
+ * evaluaciones), para que los reintentos de las apps móviles tras un timeout no creen documentos duplicados.
+ *
+ * Funcionamiento:
+ * - La clave se combina con la operación y el usuario autenticado, de modo que dos usuarios no comparten claves.
+ * - Si la clave ya se ha usado, se devuelve la respuesta guardada sin volver a escribir en Firestore. Se guarda el
+ *   JSON tal como lo genera el ObjectMapper de la API y se devuelve sin volver a deserializarlo, para que la
+ *   repetición sea idéntica a la primera respuesta (incluidos los campos de solo lectura). Por eso las peticiones
+ *   con clave siempre responden en JSON, aunque se acepten otros formatos.
+ * - Las peticiones simultáneas con la misma clave se agrupan con LecturasCoalescidas: solo una ejecuta la escritura
+ *   y las demás reciben su resultado.
+ * - Las respuestas se guardan en la caché local `idempotencia` (acotada y con TTL) y, en segundo plano
+ *   (compartimento FONDO), en la colección "idempotencia" de Firestore, que sirve tras un reinicio. Si la cola de
+ *   FONDO está llena, se guarda en el propio hilo de la petición en lugar de perderla.
+ * - Se guarda también una huella del cuerpo de la petición; reutilizar una clave con otro cuerpo se rechaza con 422.
+ *
+ * Notas:
+ * - Los documentos tienen el campo `expiraEn`; para que Firestore los borre solo, hay que crear una política TTL
+ *   sobre ese campo en la colección "idempotencia". Mientras tanto, los caducados se ignoran al leerlos.
+ * - Si la escritura falla no se guarda nada, y el reintento vuelve a ejecutarla.
+ * - Una petición sin cabecera se ejecuta como antes.
+ */
+@Component
+public class RegistroIdempotencia implements FuenteMetricas {
+    private static final Logger logger = LoggerFactory.getLogger(RegistroIdempotencia.class);
+    public static final String CABECERA = "Idempotency-Key";
+    private static final String COLECCION = "idempotencia";
+    private static final int LONGITUD_MAXIMA_CLAVE = 255;
+    private static final String HUELLA = "huella";
+    private static final String CUERPO = "cuerpo";
+
+    private final Firestore db;
+    private final AccesoFirestore accesoFirestore;
+    private final RegistroCaches caches;
+    private final LecturasCoalescidas lecturasCoalescidas;
+    private final CompartimentosEjecucion compartimentos;
+    private final ObjectMapper objectMapper;
+    private final long ttlMs;
+
+    private final LongAdder ejecutadas = new LongAdder();
+    private final LongAdder repetidas = new LongAdder();
+    private final LongAdder conflictos = new LongAdder();
+    private final LongAdder sinGuardar = new LongAdder();
+
+    public RegistroIdempotencia(Firestore db, AccesoFirestore accesoFirestore, RegistroCaches caches,
+                                LecturasCoalescidas lecturasCoalescidas, CompartimentosEjecucion compartimentos,
+                                ObjectMapper objectMapper,
+                                @Value("${conectacare.idempotencia.ttl-horas:24}") long ttlHoras) {
+        this.db = db;
+        this.accesoFirestore = accesoFirestore;
+        this.caches = caches;
+        this.lecturasCoalescidas = lecturasCoalescidas;
+        this.compartimentos = compartimentos;
+        this.objectMapper = objectMapper;
+        this.ttlMs = TimeUnit.HOURS.toMillis(ttlHoras);
+    }
+
+    /**
+     * Ejecuta una escritura una sola vez por clave de idempotencia.
+     *
+     * @param operacion identificador de la operación, por ejemplo "POST /solicitudes".
+     * @param usuarioId el UID del usuario autenticado (puede ser null en rutas sin usuario).
+     * @param clave el valor de la cabecera Idempotency-Key, o null si no se ha enviado.
+     * @param peticion el cuerpo de la petición, del que se calcula la huella.
+     * @param estado el estado HTTP de la respuesta.
+     * @param escritura la escritura que se protege.
+     * @return la respuesta con el resultado de la escritura; con clave, el JSON guardado tal cual.
+     * @throws PresentationException 400 si la clave es demasiado larga, 422 si se reutiliza con otro cuerpo,
+     * o el error de la propia escritura.
+     */
+    public <T> ResponseEntity<?> ejecutar(String operacion, String usuarioId, String clave, Object peticion,
+                                          HttpStatus estado, Supplier<T> escritura) {
+        if (clave == null || clave.isBlank()) {
+            return ResponseEntity.status(estado).body(escritura.get());
+        }
+        if (clave.length() > LONGITUD_MAXIMA_CLAVE) {
+            throw new PresentationException("La cabecera " + CABECERA + " no puede superar " + LONGITUD_MAXIMA_CLAVE + " caracteres",
+                    HttpStatus.BAD_REQUEST);
+        }
+        String id = resumen(operacion + "\n" + (usuarioId != null ? usuarioId : "") + "\n" + clave.trim());
+        String huella = resumen(aJson(peticion));
+        Map<String, String> guardada = lecturasCoalescidas.ejecutar(COLECCION + "/" + id,
+                () -> resolver(id, operacion, usuarioId, huella, escritura));
+        if (!huella.equals(guardada.get(HUELLA))) {
+            conflictos.increment();
+            throw new PresentationException("La clave " + CABECERA + " ya se ha usado con una petición distinta",
+                    HttpStatus.UNPROCESSABLE_ENTITY);
+        }
+        String cuerpo = guardada.get(CUERPO);
+        if (cuerpo == null) {
+            logger.error("La respuesta guardada de {} ({}) no tiene cuerpo", operacion, id);
+            throw new PresentationException("Error al recuperar la respuesta guardada", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+        return ResponseEntity.status(estado).contentType(MediaType.APPLICATION_JSON).body(cuerpo);
+    }
+
+    private <T> Map<String, String> resolver(String id, String operacion, String usuarioId, String huella, Supplier<T> escritura) {
+        Map<String, String> local = caches.idempotencia().get(id);
+        if (local != null) {
+            repetidas.increment();
+            return local;
+        }
+        Map<String, String> remota = leerDeFirestore(id);
+        if (remota != null) {
+            repetidas.increment();
+            return remota;
+        }
+
+        T resultado = escritura.get();
+        ejecutadas.increment();
+        Map<String, String> guardada = new HashMap<>();
+        guardada.put(HUELLA, huella);
+        guardada.put(CUERPO, aJson(resultado));
+        long expiraEn = System.currentTimeMillis() + ttlMs;
+        caches.idempotencia().putHasta(id, guardada, 0L, expiraEn);
+        if (!compartimentos.enviar(Prioridad.FONDO, () -> guardarEnFirestore(id, operacion, usuarioId, guardada, expiraEn))) {
+            // Sin el documento, un reintento tras un reinicio volvería a ejecutar la escritura
+            guardarEnFirestore(id, operacion, usuarioId, guardada, expiraEn);
+        }
+        return guardada;
+    }
+
+    private Map<String, String> leerDeFirestore(String id) {
+        try {
+            DocumentSnapshot doc = accesoFirestore.leer(COLECCION + ".get", () -> db.collection(COLECCION).document(id).get());
+            Timestamp expiraEn = doc.exists() ? doc.getTimestamp("expiraEn") : null;
+            if (expiraEn == null || expiraEn.toDate().getTime() <= System.currentTimeMillis()) {
+                return null;
+            }
+            Map<String, String> guardada = new HashMap<>();
+            guardada.put(HUELLA, doc.getString(HUELLA));
+            guardada.put(CUERPO, doc.getString(CUERPO));
+            caches.idempotencia().putHasta(id, guardada, RegistroCaches.version(doc), expiraEn.toDate().getTime());
+            return guardada;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PresentationException("Error al comprobar la clave de idempotencia", HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (ExecutionException e) {
+            // Sin poder comprobar la clave no se ejecuta la escritura, para no duplicarla
+            throw new PresentationException("Error al comprobar la clave de idempotencia", HttpStatus.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    private void guardarEnFirestore(String id, String operacion, String usuarioId, Map<String, String> guardada, long expiraEn) {
+        Map<String, Object> datos = new HashMap<>(guardada);
+        datos.put("operacion", operacion);
+        datos.put("usuarioId", usuarioId);
+        datos.put("creadoEn", FieldValue.serverTimestamp());
+        datos.put("expiraEn", Timestamp.ofTimeMicroseconds(TimeUnit.MILLISECONDS.toMicros(expiraEn)));
+        try {
+            accesoFirestore.escribir(COLECCION + ".guardar", () -> db.collection(COLECCION).document(id).set(datos));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            sinGuardar.increment();
+            logger.warn("No se pudo guardar en Firestore la respuesta de {} ({}): {}", operacion, id, e.getMessage());
+        }
+    }
+
+    private String aJson(Object valor) {
+        try {
+            return objectMapper.writeValueAsString(valor);
+        } catch (JsonProcessingException e) {
+            throw new PresentationException("Error al serializar la petición", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    private static String resumen(String texto) {
+        return Hashing.sha256().hashString(texto, StandardCharsets.UTF_8).toString();
+    }
+
+    @Override
+    public String getNombreMetricas() {
+        return "idempotencia";
+    }
+
+    @Override
+    public Map<String, Object> getMetricas() {
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        metricas.put("ejecutadas", ejecutadas.sum());
+        metricas.put("repetidas", repetidas.sum());
+        metricas.put("conflictos", conflictos.sum());
+        metricas.put("sinGuardar", sinGuardar.sum());
+        return metricas;
+    }
+}
@@ -0,0 +1,22 @@
+package com.proyecto.ProyectoConectacare.metricas;
+
+import java.util.Map;
+
+/**
+ * La interfaz FuenteMetricas la implementan los componentes que exponen contadores internos
+ * (cachés, coalescencia de lecturas, acceso a Firestore...).
+ *
+ * Todas las fuentes registradas como beans se agregan en el endpoint de administración `/admin/metricas`.
+ */
+public interface FuenteMetricas {
+
+    /**
+     * @return el nombre con el que se agrupan las métricas de esta fuente.
+     */
+    String getNombreMetricas();
+
+    /**
+     * @return una instantánea de los valores actuales de las métricas.
+     */
+    Map<String, Object> getMetricas();
+}
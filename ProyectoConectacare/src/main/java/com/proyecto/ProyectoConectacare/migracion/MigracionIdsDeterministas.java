@@ -0,0 +1,374 @@
+package com.proyecto.ProyectoConectacare.migracion;
+
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Precondition;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.WriteBatch;
+import com.proyecto.ProyectoConectacare.cache.IndiceExistencia;
+import com.proyecto.ProyectoConectacare.ejecucion.CompartimentosEjecucion;
+import com.proyecto.ProyectoConectacare.ejecucion.Prioridad;
+import com.proyecto.ProyectoConectacare.exception.PresentationException;
+import com.proyecto.ProyectoConectacare.firestore.AccesoFirestore;
+import com.proyecto.ProyectoConectacare.model.Solicitud;
+import com.proyecto.ProyectoConectacare.peticion.PlazoPeticion;
+import com.proyecto.ProyectoConectacare.sincronizacion.RegistroEliminaciones;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Migración de las solicitudes y evaluaciones creadas con IDs aleatorios a los IDs deterministas actuales:
+ * "anuncioId_trabajadorId" para las solicitudes ({@link Solicitud#idPara}) y el ID de la solicitud para las evaluaciones.
+ *
+ * Por cada solicitud que se mueve, en un mismo WriteBatch:
+ * - Se crea el documento nuevo con create() y se elimina el antiguo, dejando su lápida en RegistroEliminaciones
+ *   para que los clientes con sincronización incremental lo borren.
+ * - Se mueven sus evaluaciones, con el solicitudId nuevo y también con lápida.
+ * - Se actualiza el solicitudEvaluadaId de los chats que apuntaban a ella.
+ * Después se mueven, igual, las evaluaciones cuya solicitud ya tenía un ID determinista.
+ *
+ * Cada borrado lleva la precondición de que el documento no haya cambiado desde que se leyó: si la aplicación lo
+ * modifica durante la migración, el lote falla con FAILED_PRECONDITION en lugar de copiar datos obsoletos y borrar
+ * los nuevos. Los documentos de ese lote se devuelven en `conflictos` y los demás lotes siguen adelante.
+ *
+ * Los documentos que chocan (dos solicitudes del mismo trabajador al mismo anuncio, o dos evaluaciones de la misma
+ * solicitud) no se tocan y se devuelven en `duplicados` para revisarlos a mano.
+ *
+ * La migración se ejecuta como un trabajo en segundo plano en el compartimento ADMIN ({@link #lanzar}); su estado
+ * y su resumen se consultan con {@link #estado}. Se puede repetir: solo procesa los documentos que todavía no tienen
+ * el ID determinista, así que tras un corte o con conflictos basta con volver a lanzarla.
+ */
+@Component
+public class MigracionIdsDeterministas {
+    private static final Logger logger = LoggerFactory.getLogger(MigracionIdsDeterministas.class);
+    private static final String COLECCION_SOLICITUDES = "solicitudes";
+    private static final String COLECCION_EVALUACIONES = "evaluaciones";
+    private static final String COLECCION_CHATS = "chats";
+    private static final int MAX_ESCRITURAS_LOTE = 450; // Firestore admite 500 escrituras por lote
+    private static final int TAMANO_WHERE_IN = 30;
+    private static final int MAX_DUPLICADOS_INFORMADOS = 100;
+
+    private final Firestore db;
+    private final AccesoFirestore accesoFirestore;
+    private final RegistroEliminaciones registroEliminaciones;
+    private final IndiceExistencia indiceExistencia;
+    private final CompartimentosEjecucion compartimentos;
+    private final AtomicBoolean enCurso = new AtomicBoolean();
+    private volatile Map<String, Object> ultimoEstado = Map.of("estado", "SIN_EJECUTAR");
+
+    public MigracionIdsDeterministas(Firestore db, AccesoFirestore accesoFirestore, RegistroEliminaciones registroEliminaciones,
+                                     IndiceExistencia indiceExistencia, CompartimentosEjecucion compartimentos) {
+        this.db = db;
+        this.accesoFirestore = accesoFirestore;
+        this.registroEliminaciones = registroEliminaciones;
+        this.indiceExistencia = indiceExistencia;
+        this.compartimentos = compartimentos;
+    }
+
+    /**
+     * Documento que se mueve a un ID nuevo, junto con los cambios que dependen de él.
+     */
+    private record Movimiento(QueryDocumentSnapshot origen, String idNuevo, List<Movimiento> evaluaciones,
+                              List<DocumentReference> chats) {
+        int escrituras() {
+            return 3 + evaluaciones.size() * 3 + chats.size();
+        }
+    }
+
+    /**
+     * Lanza la migración en segundo plano, en el compartimento ADMIN y sin el plazo de la petición que la pide.
+     *
+     * @param simular si es true, solo calcula qué se movería, sin escribir.
+     * @return el estado inicial del trabajo (EN_CURSO).
+     * @throws PresentationException 409 si ya hay una migración en curso, o 503 si el compartimento está saturado.
+     */
+    public Map<String, Object> lanzar(boolean simular) {
+        if (!enCurso.compareAndSet(false, true)) {
+            throw new PresentationException("Ya hay una migración en curso", HttpStatus.CONFLICT);
+        }
+        Map<String, Object> anterior = ultimoEstado;
+        Date iniciadaEn = new Date();
+        ultimoEstado = estado("EN_CURSO", simular, iniciadaEn, null);
+        PlazoPeticion.Plazo plazo = PlazoPeticion.actual();
+        PlazoPeticion.limpiar();
+        boolean aceptada;
+        try {
+            aceptada = compartimentos.enviar(Prioridad.ADMIN, () -> ejecutar(simular, iniciadaEn));
+        } finally {
+            PlazoPeticion.establecer(plazo);
+        }
+        if (!aceptada) {
+            ultimoEstado = anterior;
+            enCurso.set(false);
+            throw new PresentationException("No se puede lanzar la migración ahora; inténtelo de nuevo más tarde", HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        return ultimoEstado;
+    }
+
+    /**
+     * @return el estado de la última migración lanzada: SIN_EJECUTAR, EN_CURSO, COMPLETADA o FALLIDA, con su
+     * resumen o su error.
+     */
+    public Map<String, Object> estado() {
+        return ultimoEstado;
+    }
+
+    private void ejecutar(boolean simular, Date iniciadaEn) {
+        try {
+            ultimoEstado = estado("COMPLETADA", simular, iniciadaEn, Map.of("resumen", migrar(simular)));
+        } catch (RuntimeException e) {
+            ultimoEstado = estado("FALLIDA", simular, iniciadaEn, Map.of("error", String.valueOf(e.getMessage())));
+        } finally {
+            enCurso.set(false);
+        }
+    }
+
+    private static Map<String, Object> estado(String estado, boolean simular, Date iniciadaEn, Map<String, Object> resultado) {
+        Map<String, Object> mapa = new LinkedHashMap<>();
+        mapa.put("estado", estado);
+        mapa.put("simulacion", simular);
+        mapa.put("iniciadaEn", iniciadaEn);
+        if (resultado != null) {
+            mapa.put("finalizadaEn", new Date());
+            mapa.putAll(resultado);
+        }
+        return Collections.unmodifiableMap(mapa);
+    }
+
+    /**
+     * Ejecuta la migración en el hilo actual.
+     *
+     * @param simular si es true, solo calcula qué se movería, sin escribir.
+     * @return un resumen con los documentos movidos (o que se moverían), los duplicados encontrados y los
+     * documentos que no se han movido porque cambiaron durante la migración.
+     * @throws PresentationException si falla la lectura o alguna escritura; lo ya escrito queda migrado.
+     */
+    Map<String, Object> migrar(boolean simular) {
+        try {
+            List<QueryDocumentSnapshot> solicitudes = accesoFirestore.leer("solicitudes.listar",
+                    () -> db.collection(COLECCION_SOLICITUDES).get()).getDocuments();
+            List<QueryDocumentSnapshot> evaluaciones = accesoFirestore.leer("evaluaciones.listar",
+                    () -> db.collection(COLECCION_EVALUACIONES).get()).getDocuments();
+            List<String> duplicados = new ArrayList<>();
+
+            Set<String> idsSolicitudes = new HashSet<>();
+            solicitudes.forEach(doc -> idsSolicitudes.add(doc.getId()));
+            Set<String> idsEvaluaciones = new HashSet<>();
+            Map<String, List<QueryDocumentSnapshot>> evaluacionesPorSolicitud = new HashMap<>();
+            for (QueryDocumentSnapshot doc : evaluaciones) {
+                idsEvaluaciones.add(doc.getId());
+                String solicitudId = doc.getString("solicitudId");
+                if (solicitudId != null) {
+                    evaluacionesPorSolicitud.computeIfAbsent(solicitudId, k -> new ArrayList<>()).add(doc);
+                }
+            }
+
+            // 1. Solicitudes con ID aleatorio, agrupadas por su ID determinista
+            Map<String, List<QueryDocumentSnapshot>> solicitudesPorDestino = new LinkedHashMap<>();
+            for (QueryDocumentSnapshot doc : solicitudes) {
+                String anuncioId = doc.getString("anuncioId");
+                String trabajadorId = doc.getString("trabajadorId");
+                if (anuncioId == null || trabajadorId == null) {
+                    continue;
+                }
+                String destino = Solicitud.idPara(anuncioId, trabajadorId);
+                if (!destino.equals(doc.getId())) {
+                    solicitudesPorDestino.computeIfAbsent(destino, k -> new ArrayList<>()).add(doc);
+                }
+            }
+            List<Movimiento> movimientos = new ArrayList<>();
+            Set<String> solicitudesMovidas = new HashSet<>();
+            for (Map.Entry<String, List<QueryDocumentSnapshot>> e : solicitudesPorDestino.entrySet()) {
+                String destino = e.getKey();
+                List<Movimiento> dependientes = new ArrayList<>();
+                boolean choca = idsSolicitudes.contains(destino) || e.getValue().size() > 1;
+                if (!choca) {
+                    List<QueryDocumentSnapshot> suyas = evaluacionesPorSolicitud.getOrDefault(e.getValue().get(0).getId(), List.of());
+                    choca = suyas.size() > 1 || idsEvaluaciones.contains(destino);
+                    suyas.forEach(ev -> dependientes.add(new Movimiento(ev, destino, List.of(), List.of())));
+                }
+                if (choca) {
+                    e.getValue().forEach(doc -> anotarDuplicado(duplicados, COLECCION_SOLICITUDES + "/" + doc.getId()));
+                    continue;
+                }
+                QueryDocumentSnapshot origen = e.getValue().get(0);
+                movimientos.add(new Movimiento(origen, destino, dependientes, new ArrayList<>()));
+                solicitudesMovidas.add(origen.getId());
+            }
+            asignarChats(movimientos);
+
+            // 2. Evaluaciones de solicitudes que no se mueven y cuyo ID no es el de su solicitud
+            List<Movimiento> evaluacionesSueltas = new ArrayList<>();
+            for (Map.Entry<String, List<QueryDocumentSnapshot>> e : evaluacionesPorSolicitud.entrySet()) {
+                String solicitudId = e.getKey();
+                if (solicitudesMovidas.contains(solicitudId)) {
+                    continue;
+                }
+                List<QueryDocumentSnapshot> pendientes = e.getValue().stream().filter(ev -> !ev.getId().equals(solicitudId)).toList();
+                if (pendientes.isEmpty()) {
+                    continue;
+                }
+                if (idsEvaluaciones.contains(solicitudId) || pendientes.size() > 1) {
+                    pendientes.forEach(ev -> anotarDuplicado(duplicados, COLECCION_EVALUACIONES + "/" + ev.getId()));
+                    continue;
+                }
+                evaluacionesSueltas.add(new Movimiento(pendientes.get(0), solicitudId, List.of(), List.of()));
+            }
+
+            List<String> conflictos = new ArrayList<>();
+            if (!simular) {
+                escribir(movimientos, evaluacionesSueltas, conflictos);
+            }
+            int evaluacionesMovidas = 0;
+            int chatsActualizados = 0;
+            int movidas = 0;
+            for (Movimiento m : movimientos) {
+                if (!conflictos.contains(ruta(COLECCION_SOLICITUDES, m))) {
+                    movidas++;
+                    evaluacionesMovidas += m.evaluaciones().size();
+                    chatsActualizados += m.chats().size();
+                }
+            }
+            for (Movimiento ev : evaluacionesSueltas) {
+                if (!conflictos.contains(ruta(COLECCION_EVALUACIONES, ev))) {
+                    evaluacionesMovidas++;
+                }
+            }
+
+            Map<String, Object> resumen = new LinkedHashMap<>();
+            resumen.put("simulacion", simular);
+            resumen.put("solicitudesMovidas", movidas);
+            resumen.put("evaluacionesMovidas", evaluacionesMovidas);
+            resumen.put("chatsActualizados", chatsActualizados);
+            resumen.put("duplicados", duplicados);
+            resumen.put("conflictos", conflictos);
+            logger.info("Migración a IDs deterministas{}: {}", simular ? " (simulación)" : "", resumen);
+            return resumen;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PresentationException("Migración interrumpida", HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (ExecutionException e) {
+            logger.error("Error durante la migración a IDs deterministas: {}", e.getMessage(), e);
+            throw new PresentationException("Error durante la migración; se puede volver a lanzar", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Busca los chats cuyo solicitudEvaluadaId apunta a una solicitud que se va a mover.
+     */
+    private void asignarChats(List<Movimiento> movimientos) throws InterruptedException, ExecutionException {
+        Map<String, Movimiento> porIdAntiguo = new HashMap<>();
+        movimientos.forEach(m -> porIdAntiguo.put(m.origen().getId(), m));
+        List<String> ids = new ArrayList<>(porIdAntiguo.keySet());
+        for (int i = 0; i < ids.size(); i += TAMANO_WHERE_IN) {
+            List<String> tramo = ids.subList(i, Math.min(i + TAMANO_WHERE_IN, ids.size()));
+            for (QueryDocumentSnapshot chat : accesoFirestore.leer("chats.porSolicitudEvaluada", () -> db.collection(COLECCION_CHATS)
+                    .whereIn("solicitudEvaluadaId", new ArrayList<>(tramo))
+                    .get()).getDocuments()) {
+                porIdAntiguo.get(chat.getString("solicitudEvaluadaId")).chats().add(chat.getReference());
+            }
+        }
+    }
+
+    /**
+     * Escribe los movimientos por lotes. Si un lote falla porque alguno de sus documentos ha cambiado (o el destino
+     * ya existe), sus documentos se anotan en `conflictos` y se sigue con los demás lotes.
+     */
+    private void escribir(List<Movimiento> movimientos, List<Movimiento> evaluacionesSueltas, List<String> conflictos)
+            throws InterruptedException, ExecutionException {
+        WriteBatch lote = db.batch();
+        List<String> enLote = new ArrayList<>();
+        int escrituras = 0;
+        for (Movimiento m : movimientos) {
+            if (escrituras + m.escrituras() > MAX_ESCRITURAS_LOTE) {
+                confirmar(lote, enLote, conflictos);
+                lote = db.batch();
+                enLote = new ArrayList<>();
+                escrituras = 0;
+            }
+            mover(lote, COLECCION_SOLICITUDES, m.origen(), m.idNuevo(), Map.of());
+            for (Movimiento ev : m.evaluaciones()) {
+                mover(lote, COLECCION_EVALUACIONES, ev.origen(), ev.idNuevo(), Map.of("solicitudId", m.idNuevo()));
+            }
+            for (DocumentReference chat : m.chats()) {
+                lote.update(chat, "solicitudEvaluadaId", m.idNuevo());
+            }
+            enLote.add(ruta(COLECCION_SOLICITUDES, m));
+            escrituras += m.escrituras();
+        }
+        for (Movimiento ev : evaluacionesSueltas) {
+            if (escrituras + 3 > MAX_ESCRITURAS_LOTE) {
+                confirmar(lote, enLote, conflictos);
+                lote = db.batch();
+                enLote = new ArrayList<>();
+                escrituras = 0;
+            }
+            mover(lote, COLECCION_EVALUACIONES, ev.origen(), ev.idNuevo(), Map.of());
+            enLote.add(ruta(COLECCION_EVALUACIONES, ev));
+            escrituras += 3;
+        }
+        if (escrituras > 0) {
+            confirmar(lote, enLote, conflictos);
+        }
+        movimientos.forEach(m -> {
+            if (!m.evaluaciones().isEmpty() && !conflictos.contains(ruta(COLECCION_SOLICITUDES, m))) {
+                indiceExistencia.registrarEvaluacion(m.idNuevo());
+            }
+        });
+    }
+
+    /**
+     * Añade al lote la copia del documento con el ID nuevo (create, que falla si ya existe), el borrado del original
+     * (solo si no ha cambiado desde que se leyó) y su lápida.
+     */
+    private void mover(WriteBatch lote, String coleccion, DocumentSnapshot origen, String idNuevo, Map<String, Object> cambios) {
+        Map<String, Object> datos = new HashMap<>(origen.getData());
+        datos.putAll(cambios);
+        datos.put("id", idNuevo);
+        datos.put("updatedAt", FieldValue.serverTimestamp());
+        lote.create(db.collection(coleccion).document(idNuevo), datos);
+        lote.delete(origen.getReference(), Precondition.updatedAt(origen.getUpdateTime()));
+        registroEliminaciones.registrar(lote, coleccion, origen.getId(), origen.getString("clienteId"), origen.getString("trabajadorId"));
+    }
+
+    private void confirmar(WriteBatch lote, List<String> enLote, List<String> conflictos)
+            throws InterruptedException, ExecutionException {
+        try {
+            accesoFirestore.escribir("migracion.ids", lote::commit);
+        } catch (ExecutionException e) {
+            String codigo = AccesoFirestore.codigoDe(e);
+            if (!"FAILED_PRECONDITION".equals(codigo) && !"ALREADY_EXISTS".equals(codigo)) {
+                throw e;
+            }
+            logger.warn("Lote de la migración descartado ({}): {} documentos cambiaron durante la migración", codigo, enLote.size());
+            conflictos.addAll(enLote);
+        }
+    }
+
+    private static String ruta(String coleccion, Movimiento movimiento) {
+        return coleccion + "/" + movimiento.origen().getId();
+    }
+
+    private static void anotarDuplicado(List<String> duplicados, String ruta) {
+        if (duplicados.size() < MAX_DUPLICADOS_INFORMADOS) {
+            duplicados.add(ruta);
+        }
+    }
+}
@@ -1,7 +1,13 @@
 package com.proyecto.ProyectoConectacare.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.cloud.firestore.annotation.Exclude;
+import com.google.cloud.firestore.annotation.ServerTimestamp;
 
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -18,6 +24,12 @@ public class Anuncio {
     private List<String> acompanamiento;
     private List<String> salud;
     private String comentarios;
+    @ServerTimestamp
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Date updatedAt; // Fecha de la última escritura, para la sincronización incremental
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Map<String, Long> contadoresSolicitudes; // Solo en los listados por cliente; no se guarda en el anuncio
 
     public Anuncio() {
     }
@@ -85,4 +97,25 @@ public class Anuncio {
     public void setComentarios(String comentarios) {
         this.comentarios = comentarios;
     }
+
+    public Date getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Date updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    /**
+     * @return el número de solicitudes del anuncio: `total` y una entrada por cada EstadoSolicitud.
+     */
+    @Exclude
+    public Map<String, Long> getContadoresSolicitudes() {
+        return contadoresSolicitudes;
+    }
+
+    @Exclude
+    public void setContadoresSolicitudes(Map<String, Long> contadoresSolicitudes) {
+        this.contadoresSolicitudes = contadoresSolicitudes;
+    }
 }
@@ -1,5 +1,8 @@
 package com.proyecto.ProyectoConectacare.model;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 /**
  * La enumeración EstadoSolicitud representa los posibles estados de una solicitud de servicio.
  * Se utiliza para definir y gestionar el ciclo de vida y el estado actual de una solicitud específica.
@@ -8,9 +11,34 @@ package com.proyecto.ProyectoConectacare.model;
  * - PENDIENTE: Indica que la solicitud está pendiente y a la espera de una acción o decisión.
  * - ACEPTADA: Indica que la solicitud ha sido aceptada.
  * - RECHAZADA: Indica que la solicitud ha sido rechazada.
+ *
+ * Transiciones permitidas:
+ * - PENDIENTE -> ACEPTADA o RECHAZADA.
+ * - ACEPTADA -> RECHAZADA (el cliente cancela un servicio ya aceptado).
+ * - RECHAZADA es un estado final.
+ * Repetir el estado actual se admite, para que reintentar la misma petición no sea un error.
  */
 public enum EstadoSolicitud {
     PENDIENTE, ACEPTADA, RECHAZADA;
 
+    /**
+     * @return los estados a los que se puede pasar desde este.
+     */
+    public Set<EstadoSolicitud> siguientes() {
+        return switch (this) {
+            case PENDIENTE -> EnumSet.of(ACEPTADA, RECHAZADA);
+            case ACEPTADA -> EnumSet.of(RECHAZADA);
+            case RECHAZADA -> EnumSet.noneOf(EstadoSolicitud.class);
+        };
+    }
 
+    /**
+     * Indica si una solicitud en este estado puede pasar al estado indicado.
+     *
+     * @param destino el estado nuevo.
+     * @return true si la transición está permitida o si el estado no cambia.
+     */
+    public boolean puedeCambiarA(EstadoSolicitud destino) {
+        return destino != null && (destino == this || siguientes().contains(destino));
+    }
 }
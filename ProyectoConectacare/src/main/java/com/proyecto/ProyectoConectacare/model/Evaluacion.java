@@ -1,5 +1,6 @@
 package com.proyecto.ProyectoConectacare.model;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.cloud.firestore.annotation.ServerTimestamp;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
@@ -37,6 +38,9 @@ public class Evaluacion {
     private Date fechaEvaluacion;
     private String solicitudId;
     private String nombreCliente;
+    @ServerTimestamp
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Date updatedAt; // Fecha de la última escritura, para la sincronización incremental
 
     public Evaluacion() {
     }
@@ -102,4 +106,12 @@ public class Evaluacion {
     public void setNombreCliente(String nombreCliente) {
         this.nombreCliente = nombreCliente;
     }
+
+    public Date getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Date updatedAt) {
+        this.updatedAt = updatedAt;
+    }
 }
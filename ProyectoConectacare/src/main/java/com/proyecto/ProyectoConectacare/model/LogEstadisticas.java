@@ -11,6 +11,7 @@ public class LogEstadisticas {
     private String email;
     private String nombre;
     private Evento evento;
+    private Date registradoEn; // Hora a la que se produjo el evento; fecha es la de escritura en Firestore
 
     public LogEstadisticas() {
     }
@@ -54,4 +55,12 @@ public class LogEstadisticas {
     public void setEvento(Evento evento) {
         this.evento = evento;
     }
+
+    public Date getRegistradoEn() {
+        return registradoEn;
+    }
+
+    public void setRegistradoEn(Date registradoEn) {
+        this.registradoEn = registradoEn;
+    }
 }
@@ -1,5 +1,6 @@
 package com.proyecto.ProyectoConectacare.model;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.cloud.firestore.annotation.ServerTimestamp;
 
 
@@ -11,7 +12,7 @@ import java.util.Date;
  * Está diseñada para gestionar la interacción entre clientes y trabajadores dentro de un sistema.
  *
  * Esta clase incluye información como:
- * - El ID de la solicitud.
+ * - El ID de la solicitud, que se deriva del anuncio y del trabajador (ver {@link #idPara(String, String)}).
  * - El ID del anuncio asociado.
  * - El ID del trabajador que creó la solicitud.
  * - El ID del cliente propietario del anuncio.
@@ -30,6 +31,20 @@ public class Solicitud {
     private EstadoSolicitud estado;
     private String clienteId;
     private boolean completado;
+    @ServerTimestamp
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Date updatedAt; // Fecha de la última escritura, para la sincronización incremental
+
+    /**
+     * Calcula el ID del documento de la solicitud de un trabajador a un anuncio. Al ser determinista, Firestore
+     * rechaza con create() una segunda solicitud del mismo trabajador al mismo anuncio sin necesidad de consultarlo.
+     *
+     * @return "anuncioId_trabajadorId".
+     */
+    public static String idPara(String anuncioId, String trabajadorId) {
+        return anuncioId + "_" + trabajadorId;
+    }
+
     public String getClienteId() {
         return clienteId;
     }
@@ -86,4 +101,12 @@ public class Solicitud {
 
     public Solicitud() {
     }
+
+    public Date getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Date updatedAt) {
+        this.updatedAt = updatedAt;
+    }
 }
@@ -1,5 +1,6 @@
 package com.proyecto.ProyectoConectacare.model;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import jakarta.validation.constraints.Email;
 import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
@@ -19,7 +20,7 @@ import java.util.Objects;
  * - `apellido`: El apellido del usuario.
  * - `telefono`: El número de teléfono de contacto del usuario. No debe estar vacío.
  * - `email`: La dirección de correo electrónico del usuario. Debe ser válida y no estar vacía.
- * - `password`: La contraseña de la cuenta del usuario.
+ * - `password`: La contraseña de la cuenta del usuario. Solo se acepta en la entrada; nunca se serializa en las respuestas.
  * - `rol`: El rol asignado al usuario (p. ej., CLIENTE, TRABAJADOR, ADMINISTRADOR). No debe ser nulo.
  *
  * Atributos adicionales para el rol CLIENTE:
@@ -52,6 +53,7 @@ public class Usuario {
     private String email;
 
 
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
     private String password;
 
     @NotNull(message = "El rol es obligatorio")
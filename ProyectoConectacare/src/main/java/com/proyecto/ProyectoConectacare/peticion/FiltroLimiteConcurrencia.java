@@ -0,0 +1,114 @@
+package com.proyecto.ProyectoConectacare.peticion;
+
+import com.proyecto.ProyectoConectacare.metricas.FuenteMetricas;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Filtro que limita el número de peticiones simultáneas por grupo de endpoints ({@link GrupoEndpoint})
+ * y descarta al instante las que superan el límite, en lugar de dejar que todas acaben en timeout.
+ *
+ * Cada grupo tiene su propio {@link LimitadorAdaptativo}, que ajusta el límite según la latencia observada.
+ * Las peticiones rechazadas reciben un 503 con la cabecera `Retry-After`.
+ *
+ * Configuración (por grupo: publico, lectura, escritura, admin):
+ * - `conectacare.concurrencia.habilitado`: activa o desactiva el filtro.
+ * - `conectacare.concurrencia.<grupo>.inicial|minimo|maximo`: límites del grupo.
+ * - `conectacare.concurrencia.tolerancia`, `suavizado`, `ventana-ms`: parámetros del algoritmo.
+ * - `conectacare.concurrencia.retry-after-s`: valor de la cabecera Retry-After.
+ *
+ * Se ejecuta después de {@link FiltroPlazoPeticion} y antes de Spring Security, de modo que una petición
+ * rechazada no llega a verificar el token ni a leer de Firestore.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 20)
+public class FiltroLimiteConcurrencia extends OncePerRequestFilter implements FuenteMetricas {
+    private static final Logger logger = LoggerFactory.getLogger(FiltroLimiteConcurrencia.class);
+
+    /** Límites por defecto de cada grupo: inicial, mínimo y máximo. */
+    private static final Map<GrupoEndpoint, int[]> LIMITES_DEFECTO = Map.of(
+            GrupoEndpoint.PUBLICO, new int[]{20, 5, 100},
+            GrupoEndpoint.LECTURA, new int[]{50, 10, 400},
+            GrupoEndpoint.ESCRITURA, new int[]{20, 5, 200},
+            GrupoEndpoint.ADMIN, new int[]{4, 1, 20});
+
+    private final boolean habilitado;
+    private final long retryAfterSegundos;
+    private final Map<GrupoEndpoint, LimitadorAdaptativo> limitadores = new EnumMap<>(GrupoEndpoint.class);
+
+    public FiltroLimiteConcurrencia(Environment environment,
+                                    @Value("${conectacare.concurrencia.habilitado:true}") boolean habilitado,
+                                    @Value("${conectacare.concurrencia.tolerancia:1.5}") double tolerancia,
+                                    @Value("${conectacare.concurrencia.suavizado:0.2}") double suavizado,
+                                    @Value("${conectacare.concurrencia.ventana-ms:1000}") long ventanaMs,
+                                    @Value("${conectacare.concurrencia.muestras-minimas:10}") int muestrasMinimas,
+                                    @Value("${conectacare.concurrencia.retry-after-s:1}") long retryAfterSegundos) {
+        this.habilitado = habilitado;
+        this.retryAfterSegundos = retryAfterSegundos;
+        for (GrupoEndpoint grupo : GrupoEndpoint.values()) {
+            int[] defecto = LIMITES_DEFECTO.get(grupo);
+            String prefijo = "conectacare.concurrencia." + grupo.clave() + ".";
+            limitadores.put(grupo, new LimitadorAdaptativo(
+                    environment.getProperty(prefijo + "inicial", Integer.class, defecto[0]),
+                    environment.getProperty(prefijo + "minimo", Integer.class, defecto[1]),
+                    environment.getProperty(prefijo + "maximo", Integer.class, defecto[2]),
+                    tolerancia, suavizado, ventanaMs, muestrasMinimas));
+        }
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (!habilitado) {
+            chain.doFilter(request, response);
+            return;
+        }
+        GrupoEndpoint grupo = GrupoEndpoint.de(request);
+        LimitadorAdaptativo limitador = limitadores.get(grupo);
+        if (!limitador.adquirir()) {
+            logger.debug("Petición {} {} rechazada: límite de concurrencia del grupo {} alcanzado ({})",
+                    request.getMethod(), request.getRequestURI(), grupo, limitador.limite());
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader("Retry-After", String.valueOf(retryAfterSegundos));
+            response.setContentType("application/json");
+            response.getWriter().write("{\"error\": \"Servidor ocupado, inténtelo de nuevo en unos segundos\"}");
+            return;
+        }
+        long inicio = System.nanoTime();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            int estado = response.getStatus();
+            boolean caida = estado == HttpServletResponse.SC_SERVICE_UNAVAILABLE || estado == HttpServletResponse.SC_GATEWAY_TIMEOUT;
+            limitador.liberar(System.nanoTime() - inicio, caida);
+        }
+    }
+
+    @Override
+    public String getNombreMetricas() {
+        return "limiteConcurrencia";
+    }
+
+    @Override
+    public Map<String, Object> getMetricas() {
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        metricas.put("habilitado", habilitado);
+        limitadores.forEach((grupo, limitador) -> metricas.put(grupo.clave(), limitador.metricas()));
+        return metricas;
+    }
+}
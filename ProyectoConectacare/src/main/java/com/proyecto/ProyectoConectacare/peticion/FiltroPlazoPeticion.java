@@ -0,0 +1,97 @@
+package com.proyecto.ProyectoConectacare.peticion;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Filtro que fija el plazo de cada petición HTTP ({@link PlazoPeticion}) antes de que entre en la cadena de
+ * Spring Security, de modo que también la carga del usuario autenticado respeta el plazo.
+ *
+ * El plazo se calcula así:
+ * - El plazo de la ruta es el valor configurado para el prefijo de ruta más largo que coincida
+ *   (`conectacare.plazo.por-ruta[/admin/usuarios/csv]=60000`) o, en su defecto, el valor por defecto, acotado
+ *   en ambos casos al máximo configurado.
+ * - Si el cliente envía la cabecera `X-Request-Timeout-Ms`, el plazo es el menor entre ese valor y el de la ruta:
+ *   la cabecera solo puede acortarlo, nunca alargarlo.
+ *
+ * Al terminar la petición el plazo se elimina del hilo, ya que los hilos del servidor se reutilizan.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+public class FiltroPlazoPeticion extends OncePerRequestFilter {
+    public static final String CABECERA_PLAZO = "X-Request-Timeout-Ms";
+
+    private final long defectoMs;
+    private final long maximoMs;
+    private final long margenOpcionalesMs;
+    private final Map<String, Long> porRuta;
+
+    public FiltroPlazoPeticion(Environment environment,
+                               @Value("${conectacare.plazo.defecto-ms:15000}") long defectoMs,
+                               @Value("${conectacare.plazo.maximo-ms:60000}") long maximoMs,
+                               @Value("${conectacare.plazo.margen-opcionales-ms:500}") long margenOpcionalesMs) {
+        this.defectoMs = defectoMs;
+        this.maximoMs = maximoMs;
+        this.margenOpcionalesMs = margenOpcionalesMs;
+        // Se ordenan los prefijos de más largo a más corto para quedarse con el más específico
+        Map<String, Long> configurados = Binder.get(environment)
+                .bind("conectacare.plazo.por-ruta", Bindable.mapOf(String.class, Long.class))
+                .orElse(Map.of());
+        this.porRuta = new LinkedHashMap<>();
+        configurados.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByKey(Comparator.comparingInt(String::length)).reversed())
+                .forEach(e -> porRuta.put(e.getKey(), e.getValue()));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        PlazoPeticion.establecer(calcularPlazoMs(request), margenOpcionalesMs);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            PlazoPeticion.limpiar();
+        }
+    }
+
+    long calcularPlazoMs(HttpServletRequest request) {
+        long plazoRuta = Math.min(plazoRutaMs(request), maximoMs);
+        String cabecera = request.getHeader(CABECERA_PLAZO);
+        if (cabecera != null) {
+            try {
+                long solicitado = Long.parseLong(cabecera.trim());
+                if (solicitado > 0) {
+                    return Math.min(solicitado, plazoRuta);
+                }
+            } catch (NumberFormatException e) {
+                // Cabecera mal formada: se ignora y se usa el plazo de la ruta
+            }
+        }
+        return plazoRuta;
+    }
+
+    private long plazoRutaMs(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        for (Map.Entry<String, Long> entrada : porRuta.entrySet()) {
+            if (path.startsWith(entrada.getKey())) {
+                return entrada.getValue();
+            }
+        }
+        return defectoMs;
+    }
+}
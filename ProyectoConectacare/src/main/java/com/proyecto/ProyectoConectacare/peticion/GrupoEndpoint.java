@@ -0,0 +1,55 @@
+package com.proyecto.ProyectoConectacare.peticion;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Grupos de endpoints con un comportamiento de carga parecido, usados para repartir límites entre ellos.
+ *
+ * - PUBLICO: rutas sin autenticación (comprobación de email, valoración media, documentación).
+ * - LECTURA: peticiones GET autenticadas.
+ * - ESCRITURA: peticiones autenticadas que modifican datos (POST, PUT, DELETE...).
+ * - ADMIN: cualquier ruta bajo `/admin`, que suele implicar lecturas de colecciones completas.
+ */
+public enum GrupoEndpoint {
+    PUBLICO, LECTURA, ESCRITURA, ADMIN;
+
+    private static final List<String> PREFIJOS_PUBLICOS = List.of(
+            "/api/public", "/swagger-ui", "/swagger-resources", "/v3/api-docs", "/webjars");
+
+    private static final Set<String> CONSULTAS_POR_LOTE = Set.of("/usuarios/batch", "/anuncios/batch", "/evaluaciones/evaluadas");
+
+    /**
+     * Clasifica una petición en su grupo a partir de la ruta y el método HTTP.
+     *
+     * @param request la petición HTTP.
+     * @return el grupo al que pertenece la petición.
+     */
+    public static GrupoEndpoint de(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        String method = request.getMethod();
+        boolean lectura = "GET".equalsIgnoreCase(method) || "HEAD".equalsIgnoreCase(method) || "OPTIONS".equalsIgnoreCase(method)
+                || CONSULTAS_POR_LOTE.contains(path); // Consultas por lotes: usan POST por el cuerpo, pero solo leen
+        if (path.startsWith("/admin")) {
+            return ADMIN;
+        }
+        if (lectura && ("/usuarios/email-existe".equals(path) || "/evaluaciones/media".equals(path))) {
+            return PUBLICO;
+        }
+        for (String prefijo : PREFIJOS_PUBLICOS) {
+            if (path.startsWith(prefijo)) {
+                return PUBLICO;
+            }
+        }
+        return lectura ? LECTURA : ESCRITURA;
+    }
+
+    /**
+     * @return el nombre del grupo en minúsculas, tal y como aparece en las propiedades de configuración.
+     */
+    public String clave() {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,172 @@
+package com.proyecto.ProyectoConectacare.peticion;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Límite de concurrencia adaptativo de un grupo de endpoints, basado en el gradiente de latencias.
+ *
+ * Funcionamiento:
+ * - Se mantienen dos medias de la latencia: la de la ventana actual (corta) y una media móvil lenta (larga),
+ *   que representa la latencia "sin cola".
+ * - Al cerrar cada ventana, el gradiente largo / corto (acotado entre 0,5 y 1) indica si se está formando cola:
+ *   si la latencia corta crece respecto a la larga, el límite baja; si se mantiene, el límite crece poco a poco
+ *   gracias a un margen de cola proporcional a la raíz cuadrada del límite.
+ * - Si en la ventana hubo respuestas 503/504 (timeouts o cortocircuito), el límite se reduce directamente.
+ * - Cuando toca bajar (caídas o gradiente menor que 1), el límite baja al menos en uno: con límites pequeños el
+ *   redondeo (o el margen de cola, que con un límite de 4 compensa un gradiente de 0,5) lo dejaría igual.
+ * - El límite solo crece si en la ventana llegó a usarse al menos la mitad, para no inflarlo con poco tráfico.
+ *
+ * La adquisición y liberación de permisos no usa bloqueos; el recálculo lo hace un único hilo por ventana.
+ */
+final class LimitadorAdaptativo {
+    private static final double GRADIENTE_MINIMO = 0.5;
+    private static final double PESO_MEDIA_LARGA = 0.05;
+    private static final double REDUCCION_POR_CAIDA = 0.9;
+
+    private final int minimo;
+    private final int maximo;
+    private final double tolerancia;
+    private final double suavizado;
+    private final long ventanaNanos;
+    private final int muestrasMinimas;
+
+    private final AtomicInteger enVuelo = new AtomicInteger();
+    private volatile int limite;
+    private final ReentrantLock recalculo = new ReentrantLock();
+    private volatile long inicioVentana = System.nanoTime();
+    private final LongAdder sumaRttVentana = new LongAdder();
+    private final LongAdder muestrasVentana = new LongAdder();
+    private final LongAdder caidasVentana = new LongAdder();
+    private final LongAccumulator maxEnVueloVentana = new LongAccumulator(Math::max, 0);
+    private double rttLargoNanos;
+    private volatile double rttCortoNanos;
+
+    private final LongAdder aceptadas = new LongAdder();
+    private final LongAdder rechazadas = new LongAdder();
+    private final LongAdder subidas = new LongAdder();
+    private final LongAdder bajadas = new LongAdder();
+
+    LimitadorAdaptativo(int inicial, int minimo, int maximo, double tolerancia, double suavizado,
+                        long ventanaMs, int muestrasMinimas) {
+        this.minimo = minimo;
+        this.maximo = maximo;
+        this.tolerancia = tolerancia;
+        this.suavizado = suavizado;
+        this.ventanaNanos = TimeUnit.MILLISECONDS.toNanos(ventanaMs);
+        this.muestrasMinimas = muestrasMinimas;
+        this.limite = Math.max(minimo, Math.min(maximo, inicial));
+    }
+
+    /**
+     * Intenta reservar un hueco para una petición.
+     *
+     * @return true si la petición puede pasar; false si se ha alcanzado el límite.
+     */
+    boolean adquirir() {
+        while (true) {
+            int actual = enVuelo.get();
+            if (actual >= limite) {
+                rechazadas.increment();
+                return false;
+            }
+            if (enVuelo.compareAndSet(actual, actual + 1)) {
+                aceptadas.increment();
+                maxEnVueloVentana.accumulate(actual + 1);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Libera el hueco de una petición terminada y registra su latencia.
+     *
+     * @param rttNanos duración de la petición.
+     * @param caida true si la petición terminó por sobrecarga (503/504).
+     */
+    void liberar(long rttNanos, boolean caida) {
+        enVuelo.decrementAndGet();
+        sumaRttVentana.add(rttNanos);
+        muestrasVentana.increment();
+        if (caida) {
+            caidasVentana.increment();
+        }
+        long ahora = System.nanoTime();
+        if (ahora - inicioVentana >= ventanaNanos && muestrasVentana.sum() >= muestrasMinimas && recalculo.tryLock()) {
+            try {
+                if (ahora - inicioVentana >= ventanaNanos) {
+                    recalcular(ahora);
+                }
+            } finally {
+                recalculo.unlock();
+            }
+        }
+    }
+
+    private void recalcular(long ahora) {
+        long muestras = muestrasVentana.sumThenReset();
+        long suma = sumaRttVentana.sumThenReset();
+        long caidas = caidasVentana.sumThenReset();
+        long maxEnVuelo = maxEnVueloVentana.getThenReset();
+        inicioVentana = ahora;
+        if (muestras == 0) {
+            return;
+        }
+        double corto = (double) suma / muestras;
+        rttCortoNanos = corto;
+        if (rttLargoNanos == 0) {
+            rttLargoNanos = corto;
+        } else {
+            rttLargoNanos = rttLargoNanos * (1 - PESO_MEDIA_LARGA) + corto * PESO_MEDIA_LARGA;
+        }
+        // Si la latencia ha bajado de forma sostenida, la media larga la sigue para no quedarse en un valor viejo
+        if (corto < rttLargoNanos) {
+            rttLargoNanos = Math.max(corto, rttLargoNanos * 0.9);
+        }
+
+        int anterior = limite;
+        double nuevo;
+        boolean bajar;
+        if (caidas > 0) {
+            nuevo = anterior * REDUCCION_POR_CAIDA;
+            bajar = true;
+        } else {
+            double gradiente = Math.max(GRADIENTE_MINIMO, Math.min(1.0, tolerancia * rttLargoNanos / corto));
+            nuevo = anterior * gradiente + Math.sqrt(anterior);
+            if (maxEnVuelo < anterior / 2) {
+                nuevo = Math.min(nuevo, anterior);
+            }
+            nuevo = anterior * (1 - suavizado) + nuevo * suavizado;
+            bajar = gradiente < 1.0;
+        }
+        long calculado = bajar ? Math.min(anterior - 1, (long) Math.floor(nuevo)) : Math.round(nuevo);
+        int redondeado = (int) Math.max(minimo, Math.min(maximo, calculado));
+        if (redondeado > anterior) {
+            subidas.increment();
+        } else if (redondeado < anterior) {
+            bajadas.increment();
+        }
+        limite = redondeado;
+    }
+
+    int limite() {
+        return limite;
+    }
+
+    Map<String, Object> metricas() {
+        Map<String, Object> valores = new LinkedHashMap<>();
+        valores.put("limite", limite);
+        valores.put("enVuelo", enVuelo.get());
+        valores.put("aceptadas", aceptadas.sum());
+        valores.put("rechazadas", rechazadas.sum());
+        valores.put("subidasLimite", subidas.sum());
+        valores.put("bajadasLimite", bajadas.sum());
+        valores.put("rttCortoMs", rttCortoNanos / 1_000_000.0);
+        return valores;
+    }
+}
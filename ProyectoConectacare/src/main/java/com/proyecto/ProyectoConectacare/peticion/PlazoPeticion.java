@@ -0,0 +1,93 @@
+package com.proyecto.ProyectoConectacare.peticion;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plazo (deadline) de la petición HTTP que se está atendiendo en el hilo actual.
+ *
+ * Lo fija {@link FiltroPlazoPeticion} al comienzo de cada petición, a partir de la cabecera
+ * `X-Request-Timeout-Ms` o del valor por defecto del endpoint, y se consulta desde las capas inferiores:
+ * - AccesoFirestore limita cada espera al tiempo que le queda a la petición y no lanza llamadas nuevas
+ *   cuando el plazo ya ha vencido.
+ * - Los servicios omiten los pasos opcionales de enriquecimiento (nombres, perfiles...) cuando queda poco margen
+ *   y marcan el DTO como parcial.
+ *
+ * Si el hilo no tiene plazo (tareas programadas, arranque...), no se aplica ningún límite adicional.
+ * Para trabajo que salte a otro hilo, se puede capturar el plazo con {@link #actual()} y restaurarlo con
+ * {@link #establecer(Plazo)}.
+ */
+public final class PlazoPeticion {
+
+    /**
+     * Instante límite de una petición (en la escala de System.nanoTime) y margen por debajo del cual
+     * se omiten los pasos opcionales.
+     */
+    public record Plazo(long limiteNanos, long margenNanos) {
+        public long restanteNanos() {
+            return limiteNanos - System.nanoTime();
+        }
+    }
+
+    private static final ThreadLocal<Plazo> PLAZO = new ThreadLocal<>();
+
+    private PlazoPeticion() {
+    }
+
+    /**
+     * Fija el plazo del hilo actual.
+     *
+     * @param duracionMs tiempo disponible para la petición, desde ahora.
+     * @param margenMs margen por debajo del cual se omiten los pasos opcionales.
+     */
+    public static void establecer(long duracionMs, long margenMs) {
+        PLAZO.set(new Plazo(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(duracionMs),
+                TimeUnit.MILLISECONDS.toNanos(margenMs)));
+    }
+
+    /**
+     * Restaura un plazo capturado en otro hilo; con null se elimina el plazo.
+     */
+    public static void establecer(Plazo plazo) {
+        if (plazo == null) {
+            PLAZO.remove();
+        } else {
+            PLAZO.set(plazo);
+        }
+    }
+
+    /**
+     * @return el plazo del hilo actual, o null si no tiene.
+     */
+    public static Plazo actual() {
+        return PLAZO.get();
+    }
+
+    public static void limpiar() {
+        PLAZO.remove();
+    }
+
+    /**
+     * @return los nanosegundos que le quedan a la petición, o Long.MAX_VALUE si el hilo no tiene plazo.
+     */
+    public static long restanteNanos() {
+        Plazo plazo = PLAZO.get();
+        return plazo == null ? Long.MAX_VALUE : plazo.restanteNanos();
+    }
+
+    /**
+     * @return true si el hilo tiene un plazo y ya ha vencido.
+     */
+    public static boolean vencido() {
+        return restanteNanos() <= 0;
+    }
+
+    /**
+     * Indica si queda tiempo suficiente para un paso opcional, como completar un DTO con datos de otra colección.
+     *
+     * @return true si el hilo no tiene plazo o si el tiempo restante supera el margen configurado.
+     */
+    public static boolean permiteOpcionales() {
+        Plazo plazo = PLAZO.get();
+        return plazo == null || plazo.restanteNanos() > plazo.margenNanos();
+    }
+}
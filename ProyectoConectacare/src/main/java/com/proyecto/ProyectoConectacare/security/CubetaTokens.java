@@ -0,0 +1,54 @@
+package com.proyecto.ProyectoConectacare.security;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cubeta de tokens sin bloqueos, implementada con el algoritmo GCRA ("generic cell rate algorithm").
+ *
+ * En lugar de guardar el número de tokens y la fecha de la última recarga (dos valores que habría que actualizar
+ * a la vez), se guarda un único instante teórico de llegada (TAT) en un AtomicLong:
+ * - Cada petición admitida adelanta el TAT un intervalo de emisión (1 / recarga por segundo).
+ * - Se admite la petición si el TAT resultante no supera el instante actual más la ráfaga permitida
+ *   (capacidad * intervalo).
+ * Es equivalente a una cubeta de tokens de esa capacidad y ritmo de recarga, y se actualiza con un único CAS.
+ */
+final class CubetaTokens {
+    // System.nanoTime() puede ser negativo: se parte del mínimo para que una cubeta nueva esté llena
+    private final AtomicLong tat = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Resultado de consumir un token: si se admite la petición, los tokens que quedan y el tiempo hasta
+     * que la cubeta vuelva a estar llena (o hasta el siguiente token, si se ha rechazado).
+     */
+    record Consumo(boolean admitido, long restantes, long esperaNanos) {
+    }
+
+    Consumo consumir(long ahora, long intervaloNanos, long rafagaNanos) {
+        while (true) {
+            long actual = tat.get();
+            long base = Math.max(actual, ahora);
+            long nuevo = base + intervaloNanos;
+            long ocupado = nuevo - ahora;
+            if (ocupado > rafagaNanos) {
+                return new Consumo(false, 0, ocupado - rafagaNanos);
+            }
+            if (tat.compareAndSet(actual, nuevo)) {
+                return new Consumo(true, (rafagaNanos - ocupado) / intervaloNanos, ocupado);
+            }
+        }
+    }
+
+    /**
+     * @return true si la cubeta está llena en el instante indicado, es decir, no se ha usado recientemente.
+     */
+    boolean inactiva(long ahora) {
+        return tat.get() <= ahora;
+    }
+
+    /**
+     * @return el instante teórico de llegada actual; cuanto más antiguo, más llena está la cubeta.
+     */
+    long tat() {
+        return tat.get();
+    }
+}
@@ -0,0 +1,300 @@
+package com.proyecto.ProyectoConectacare.security;
+
+import com.proyecto.ProyectoConectacare.metricas.FuenteMetricas;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Filtro de limitación de tasa ("rate limiting") que se ejecuta después de {@link FirebaseFiltroAutenticacion}.
+ *
+ * Antes de la autenticación va un primer control por IP ({@link #filtroPorIp()}) con una política holgada
+ * (`conectacare.rate-limit.ip-por-defecto`): así una avalancha de peticiones recibe 429 sin llegar a verificar el
+ * token ni a buscar al usuario en Firestore. Comparte las cubetas con este filtro, con claves propias.
+ *
+ * Funcionamiento:
+ * - Cada petición se asocia a la primera política cuya ruta y método coincidan, o a la política por defecto
+ *   (pública o autenticada).
+ * - La clave de la cubeta es el UID que deja el filtro de Firebase en el atributo `userId` una vez verificado el
+ *   token o, en las rutas públicas, la IP del cliente. Nunca se usa nada del token sin verificar: si la clave
+ *   saliera de la cabecera, un cliente podría estrenar cubeta en cada petición con una firma inventada.
+ * - La IP es la que añade el proxy de confianza por la derecha de `X-Forwarded-For` (las entradas de la izquierda
+ *   las puede escribir el propio cliente) o, sin proxy, la dirección remota de la conexión.
+ * - Cada clave tiene una {@link CubetaTokens} por política; si está vacía, se responde 429 con `Retry-After`.
+ * - En todas las respuestas se añaden las cabeceras `RateLimit-Limit`, `RateLimit-Remaining` y `RateLimit-Reset`.
+ *
+ * Las peticiones con un token inválido las rechaza antes el filtro de Firebase (la firma se comprueba en local con
+ * las claves públicas cacheadas, sin acceder a Firestore).
+ *
+ * La memoria está acotada: cada minuto se eliminan las cubetas inactivas (llenas) y, si se alcanza el máximo
+ * de cubetas, se desalojan en ese momento las inactivas y, si no basta, las menos ocupadas. Las claves nuevas
+ * siempre tienen su propia cubeta.
+ *
+ * Las políticas se pueden redefinir con propiedades del tipo
+ * `conectacare.rate-limit.politicas.emailExiste=GET /usuarios/email-existe 10 1`
+ * (método o *, prefijo de ruta, capacidad y recarga por segundo).
+ */
+@Component
+public class FiltroLimiteTasa extends OncePerRequestFilter implements FuenteMetricas {
+    private static final Logger logger = LoggerFactory.getLogger(FiltroLimiteTasa.class);
+
+    /**
+     * Política de limitación: método (o * para cualquiera), prefijo de ruta, capacidad y recarga por segundo.
+     */
+    record Politica(String nombre, String metodo, String ruta, long capacidad, double recargaPorSegundo,
+                    long intervaloNanos, long rafagaNanos, LongAdder admitidas, LongAdder rechazadas) {
+
+        static Politica de(String nombre, String metodo, String ruta, long capacidad, double recargaPorSegundo) {
+            long intervalo = (long) (TimeUnit.SECONDS.toNanos(1) / recargaPorSegundo);
+            return new Politica(nombre, metodo, ruta, capacidad, recargaPorSegundo, intervalo, intervalo * capacidad,
+                    new LongAdder(), new LongAdder());
+        }
+
+        boolean aplica(String metodoPeticion, String path) {
+            return ("*".equals(metodo) || metodo.equalsIgnoreCase(metodoPeticion)) && path.startsWith(ruta);
+        }
+    }
+
+    private final boolean habilitado;
+    private final boolean confiarXForwardedFor;
+    private final int proxiesConfiables;
+    private final int maxCubetas;
+    private final List<Politica> politicas = new ArrayList<>();
+    private final Politica porDefectoPublica;
+    private final Politica porDefectoAutenticada;
+    private final Politica porIp;
+    private final FiltroPorIp filtroPorIp = new FiltroPorIp();
+    private final ConcurrentHashMap<String, CubetaTokens> cubetas = new ConcurrentHashMap<>();
+    private final LongAdder desalojadas = new LongAdder();
+    private final LongAdder desalojosForzados = new LongAdder();
+    private final AtomicBoolean desalojando = new AtomicBoolean();
+
+    public FiltroLimiteTasa(Environment environment,
+                            @Value("${conectacare.rate-limit.habilitado:true}") boolean habilitado,
+                            @Value("${conectacare.rate-limit.confiar-x-forwarded-for:false}") boolean confiarXForwardedFor,
+                            @Value("${conectacare.rate-limit.proxies-confiables:1}") int proxiesConfiables,
+                            @Value("${conectacare.rate-limit.max-cubetas:100000}") int maxCubetas) {
+        this.habilitado = habilitado;
+        this.confiarXForwardedFor = confiarXForwardedFor;
+        this.proxiesConfiables = Math.max(1, proxiesConfiables);
+        this.maxCubetas = maxCubetas;
+
+        Map<String, String> definiciones = new LinkedHashMap<>();
+        definiciones.put("emailExiste", "GET /usuarios/email-existe 10 1");
+        definiciones.put("valoracionMedia", "GET /evaluaciones/media 30 5");
+        definiciones.put("mensajes", "POST /mensajes 20 1");
+        definiciones.putAll(Binder.get(environment)
+                .bind("conectacare.rate-limit.politicas", Bindable.mapOf(String.class, String.class))
+                .orElse(Map.of()));
+        definiciones.forEach((nombre, definicion) -> politicas.add(parsear(nombre, definicion)));
+        this.porDefectoPublica = parsear("publicaPorDefecto",
+                environment.getProperty("conectacare.rate-limit.publica-por-defecto", "* / 60 10"));
+        this.porDefectoAutenticada = parsear("autenticadaPorDefecto",
+                environment.getProperty("conectacare.rate-limit.autenticada-por-defecto", "* / 120 20"));
+        this.porIp = parsear("ipPorDefecto",
+                environment.getProperty("conectacare.rate-limit.ip-por-defecto", "* / 300 50"));
+    }
+
+    /**
+     * Filtro que limita por IP antes de {@link FirebaseFiltroAutenticacion}. No es un bean para que Spring Boot
+     * no lo registre también como filtro del contenedor; lo añade {@code SecurityConfig} a la cadena de seguridad.
+     */
+    public OncePerRequestFilter filtroPorIp() {
+        return filtroPorIp;
+    }
+
+    private class FiltroPorIp extends OncePerRequestFilter {
+        @Override
+        protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+                throws ServletException, IOException {
+            if (!habilitado || "OPTIONS".equalsIgnoreCase(request.getMethod())) {
+                chain.doFilter(request, response);
+                return;
+            }
+            if (limitar(request, response, porIp, porIp.nombre() + "|ip:" + ipCliente(request))) {
+                chain.doFilter(request, response);
+            }
+        }
+    }
+
+    private static Politica parsear(String nombre, String definicion) {
+        String[] partes = definicion.trim().split("\\s+");
+        if (partes.length != 4) {
+            throw new IllegalArgumentException("Política de rate limit '" + nombre + "' mal formada: " + definicion);
+        }
+        return Politica.de(nombre, partes[0], partes[1], Long.parseLong(partes[2]), Double.parseDouble(partes[3]));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (!habilitado || "OPTIONS".equalsIgnoreCase(request.getMethod())) {
+            chain.doFilter(request, response);
+            return;
+        }
+        // Solo lo pone el filtro de Firebase tras verificar el token
+        Object uid = request.getAttribute("userId");
+        Politica politica = buscarPolitica(request.getMethod(), ruta(request), uid != null);
+        String clave = politica.nombre() + "|" + (uid != null ? "u:" + uid : "ip:" + ipCliente(request));
+        if (limitar(request, response, politica, clave)) {
+            chain.doFilter(request, response);
+        }
+    }
+
+    /**
+     * Consume un token de la cubeta de la clave y añade las cabeceras de rate limit. Si no quedan, responde 429 y
+     * devuelve false para que la petición no siga por la cadena.
+     */
+    private boolean limitar(HttpServletRequest request, HttpServletResponse response, Politica politica, String clave)
+            throws IOException {
+        long ahora = System.nanoTime();
+        CubetaTokens.Consumo consumo = cubeta(clave, politica).consumir(ahora, politica.intervaloNanos(), politica.rafagaNanos());
+        response.setHeader("RateLimit-Limit", String.valueOf(politica.capacidad()));
+        response.setHeader("RateLimit-Remaining", String.valueOf(consumo.restantes()));
+        response.setHeader("RateLimit-Reset", String.valueOf(segundosHacia(consumo.esperaNanos())));
+        if (!consumo.admitido()) {
+            politica.rechazadas().increment();
+            logger.debug("Petición {} {} rechazada por la política de rate limit '{}'", request.getMethod(), ruta(request),
+                    politica.nombre());
+            response.setStatus(429);
+            response.setHeader("Retry-After", String.valueOf(segundosHacia(consumo.esperaNanos())));
+            response.setContentType("application/json");
+            response.getWriter().write("{\"error\": \"Demasiadas peticiones, inténtelo de nuevo más tarde\"}");
+            return false;
+        }
+        politica.admitidas().increment();
+        return true;
+    }
+
+    private static String ruta(HttpServletRequest request) {
+        return request.getRequestURI().substring(request.getContextPath().length());
+    }
+
+    private Politica buscarPolitica(String metodo, String path, boolean autenticada) {
+        for (Politica politica : politicas) {
+            if (politica.aplica(metodo, path)) {
+                return politica;
+            }
+        }
+        return autenticada ? porDefectoAutenticada : porDefectoPublica;
+    }
+
+    private CubetaTokens cubeta(String clave, Politica politica) {
+        CubetaTokens cubeta = cubetas.get(clave);
+        if (cubeta != null) {
+            return cubeta;
+        }
+        if (cubetas.size() >= maxCubetas) {
+            desalojarPorCapacidad(System.nanoTime());
+        }
+        return cubetas.computeIfAbsent(clave, k -> new CubetaTokens());
+    }
+
+    /**
+     * Elimina las cubetas que no se han usado desde que se llenaron por completo.
+     */
+    @Scheduled(fixedDelayString = "${conectacare.rate-limit.desalojo-ms:60000}")
+    public void desalojarInactivas() {
+        long ahora = System.nanoTime();
+        int antes = cubetas.size();
+        cubetas.entrySet().removeIf(e -> e.getValue().inactiva(ahora));
+        desalojadas.add(Math.max(0, antes - cubetas.size()));
+    }
+
+    /**
+     * Libera sitio al alcanzar el máximo de cubetas: primero las inactivas y, si no basta para bajar al 90 % del
+     * máximo, las más cercanas a estar llenas (TAT más antiguo), que son las que menos estado pierden al borrarse.
+     * Solo desaloja un hilo a la vez; los demás siguen creando su cubeta y el máximo se puede superar brevemente.
+     */
+    void desalojarPorCapacidad(long ahora) {
+        if (!desalojando.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            desalojarInactivas();
+            int sobrantes = cubetas.size() - maxCubetas * 9 / 10;
+            if (sobrantes <= 0) {
+                return;
+            }
+            long[] tats = cubetas.values().stream().mapToLong(CubetaTokens::tat).sorted().toArray();
+            long umbral = tats[Math.min(sobrantes, tats.length) - 1];
+            int antes = cubetas.size();
+            cubetas.values().removeIf(c -> c.tat() <= umbral);
+            int eliminadas = Math.max(0, antes - cubetas.size());
+            desalojadas.add(eliminadas);
+            desalojosForzados.add(eliminadas);
+            logger.warn("Rate limit: alcanzado el máximo de {} cubetas, desalojadas {} activas", maxCubetas, eliminadas);
+        } finally {
+            desalojando.set(false);
+        }
+    }
+
+    /**
+     * IP del cliente: con proxy, la entrada de `X-Forwarded-For` que añadió el proxy de confianza más externo
+     * (contando desde la derecha); las anteriores las controla el cliente y no sirven como clave.
+     */
+    String ipCliente(HttpServletRequest request) {
+        if (confiarXForwardedFor) {
+            // En Render las peticiones llegan a través de un proxy que añade la IP de origen al final
+            String reenviada = request.getHeader("X-Forwarded-For");
+            if (reenviada != null && !reenviada.isBlank()) {
+                String[] saltos = reenviada.split(",");
+                String ip = saltos[Math.max(0, saltos.length - proxiesConfiables)].trim();
+                if (!ip.isEmpty()) {
+                    return ip;
+                }
+            }
+        }
+        return request.getRemoteAddr();
+    }
+
+    private static long segundosHacia(long nanos) {
+        return Math.max(0, (nanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Override
+    public String getNombreMetricas() {
+        return "rateLimit";
+    }
+
+    @Override
+    public Map<String, Object> getMetricas() {
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        metricas.put("habilitado", habilitado);
+        metricas.put("cubetas", cubetas.size());
+        metricas.put("desalojadas", desalojadas.sum());
+        metricas.put("desalojosForzados", desalojosForzados.sum());
+        List<Politica> todas = new ArrayList<>(politicas);
+        todas.add(porDefectoPublica);
+        todas.add(porDefectoAutenticada);
+        todas.add(porIp);
+        for (Politica politica : todas) {
+            metricas.put(politica.nombre(), Map.of(
+                    "capacidad", politica.capacidad(),
+                    "recargaPorSegundo", politica.recargaPorSegundo(),
+                    "admitidas", politica.admitidas().sum(),
+                    "rechazadas", politica.rechazadas().sum()));
+        }
+        return metricas;
+    }
+}
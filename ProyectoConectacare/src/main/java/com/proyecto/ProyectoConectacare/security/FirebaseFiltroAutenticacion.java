@@ -3,6 +3,7 @@ package com.proyecto.ProyectoConectacare.security;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseAuthException;
 import com.google.firebase.auth.FirebaseToken;
+import com.proyecto.ProyectoConectacare.exception.PresentationException;
 import com.proyecto.ProyectoConectacare.model.Usuario;
 import com.proyecto.ProyectoConectacare.service.UsuarioService;
 import jakarta.servlet.FilterChain;
@@ -11,6 +12,7 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
@@ -144,6 +146,14 @@ public class FirebaseFiltroAutenticacion extends OncePerRequestFilter {
         } catch (FirebaseAuthException e) {
             logger.warn("Token de Firebase inválido o error al verificar: " + e.getMessage());
             enviarError(response, HttpServletResponse.SC_UNAUTHORIZED, "Token de Firebase inválido o expirado");
+        } catch (PresentationException e) {
+            // Por ejemplo, el plazo de la petición se agotó o Firestore no está disponible al cargar el usuario
+            logger.warn("No se pudo cargar el usuario autenticado: {}", e.getMessage());
+            if (e.getHttpStatus() == HttpStatus.NOT_FOUND) {
+                enviarError(response, HttpServletResponse.SC_FORBIDDEN, "Usuario (UID del token) no encontrado en la base de datos local.");
+            } else {
+                enviarError(response, e.getHttpStatus().value(), e.getMessage());
+            }
         } catch (Exception e) {
             logger.error("Error inesperado en el filtro de autenticación de Firebase: ", e);
             enviarError(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Error interno del servidor durante la autenticación");
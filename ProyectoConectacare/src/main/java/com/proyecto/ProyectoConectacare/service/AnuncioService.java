@@ -1,8 +1,11 @@
 package com.proyecto.ProyectoConectacare.service;
 
+import com.proyecto.ProyectoConectacare.dto.CambiosDTO;
 import com.proyecto.ProyectoConectacare.model.Anuncio;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * La interfaz AnuncioService define las operaciones para gestionar y recuperar entidades "Anuncio".
@@ -12,7 +15,9 @@ import java.util.List;
 public interface AnuncioService {
     Anuncio crearAnuncio(String clienteId, Anuncio anuncio);
     Anuncio getAnuncioById(String id);
+    Map<String, Anuncio> getAnunciosByIds(Collection<String> ids);
     List<Anuncio> getAllAnuncios();
+    CambiosDTO<Anuncio> getAnunciosDesde(long since);
     List<Anuncio> getAnunciosByClienteId(String clienteId);
     int contarTotalAnuncios();
 }
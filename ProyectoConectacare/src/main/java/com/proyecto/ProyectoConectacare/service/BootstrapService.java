@@ -0,0 +1,11 @@
+package com.proyecto.ProyectoConectacare.service;
+
+import com.proyecto.ProyectoConectacare.dto.BootstrapDTO;
+
+/**
+ * La interfaz BootstrapService define la obtención, en una sola llamada, de los datos que necesita el panel
+ * inicial de un usuario tras iniciar sesión.
+ */
+public interface BootstrapService {
+    BootstrapDTO cargarPanel(String usuarioId);
+}
@@ -4,6 +4,7 @@ import com.proyecto.ProyectoConectacare.dto.EvaluacionDTO;
 import com.proyecto.ProyectoConectacare.model.Evaluacion;
 
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -17,6 +18,7 @@ public interface EvaluacionService {
     Evaluacion getEvaluacionById(String id);
     List<EvaluacionDTO> getEvaluacionesByTrabajadorId(String trabajadorId);
     boolean existeEvaluacionPorSolicitud(String solicitudId);
+    Map<String, Boolean> existenEvaluacionesPorSolicitudes(Collection<String> solicitudIds);
     List<Evaluacion> getAllEvaluaciones();
     Map<String, Object> getValoracionMedia();
 }
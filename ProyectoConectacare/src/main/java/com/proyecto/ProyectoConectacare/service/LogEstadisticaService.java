@@ -6,4 +6,6 @@ import com.proyecto.ProyectoConectacare.model.Usuario;
 public interface LogEstadisticaService {
 
     void registrarEvento(Usuario usuario, Evento tipoEvento);
+
+    void registrarInicioSesion(Usuario usuario, long inicioSesion);
 }
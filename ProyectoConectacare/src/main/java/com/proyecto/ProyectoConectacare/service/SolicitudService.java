@@ -1,5 +1,7 @@
 package com.proyecto.ProyectoConectacare.service;
 
+import com.proyecto.ProyectoConectacare.dto.CambiosDTO;
+import com.proyecto.ProyectoConectacare.dto.SolicitudConAnuncioDTO;
 import com.proyecto.ProyectoConectacare.dto.SolicitudConTrabajadorDTO;
 import com.proyecto.ProyectoConectacare.model.EstadoSolicitud;
 import com.proyecto.ProyectoConectacare.model.Solicitud;
@@ -16,7 +18,10 @@ public interface SolicitudService {
     Solicitud getSolicitudById(String id);
     List<Solicitud> getSolicitudesByAnuncioId(String anuncioId);
     List<Solicitud> getSolicitudesByTrabajadorId(String trabajadorId);
+    List<SolicitudConAnuncioDTO> getSolicitudesDetalladasByTrabajadorId(String trabajadorId);
     List<SolicitudConTrabajadorDTO> getSolicitudesByClienteId(String clienteId);
+    CambiosDTO<Solicitud> getSolicitudesByTrabajadorIdDesde(String trabajadorId, long since);
+    CambiosDTO<SolicitudConTrabajadorDTO> getSolicitudesByClienteIdDesde(String clienteId, long since);
     Solicitud actualizarEstadoSolicitud(String solicitudId, EstadoSolicitud nuevoEstado);
-    Solicitud marcarComoCompletado(String solicitudId);
+    Solicitud marcarComoCompletado(String solicitudId, Solicitud actual);
 }
@@ -1,7 +1,9 @@
 package com.proyecto.ProyectoConectacare.service;
 
+import com.proyecto.ProyectoConectacare.dto.UsuarioVersionado;
 import com.proyecto.ProyectoConectacare.model.Usuario;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -13,7 +15,12 @@ import java.util.Map;
 public interface UsuarioService {
     Usuario createUsuario(Usuario usuario);
     Usuario updateUsuario(String id, Map<String, Object> updates);
+    UsuarioVersionado updateUsuario(String id, Map<String, Object> updates, Long versionEsperada);
     Usuario getUsuarioById(String id);
+    UsuarioVersionado getUsuarioVersionado(String id);
+    Map<String, Usuario> getUsuariosByIds(Collection<String> ids);
     List<Usuario> getAllUsuarios();
+    List<Map<String, Object>> getAllUsuarios(List<String> campos);
+    Map<String, Object> getUsuarioById(String id, List<String> campos);
     void deleteUsuario(String id);
 }
@@ -1,12 +1,14 @@
 package com.proyecto.ProyectoConectacare.service.impl;
 
-import com.google.api.core.ApiFuture;
 import com.google.cloud.firestore.Firestore;
 
 import com.google.cloud.firestore.Query;
 import com.google.cloud.firestore.QuerySnapshot;
 import com.opencsv.CSVWriter;
+import com.proyecto.ProyectoConectacare.ejecucion.Abanico;
+import com.proyecto.ProyectoConectacare.ejecucion.CompartimentosEjecucion;
 import com.proyecto.ProyectoConectacare.exception.PresentationException;
+import com.proyecto.ProyectoConectacare.firestore.AccesoFirestore;
 import com.proyecto.ProyectoConectacare.model.Anuncio;
 import com.proyecto.ProyectoConectacare.model.Rol;
 import com.proyecto.ProyectoConectacare.model.Usuario;
@@ -15,6 +17,7 @@ import com.proyecto.ProyectoConectacare.service.AnuncioService;
 import com.proyecto.ProyectoConectacare.service.UsuarioService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 
@@ -24,7 +27,9 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
 
 @Service
 public class AdminServiceImpl implements AdminService {
@@ -32,13 +37,21 @@ public class AdminServiceImpl implements AdminService {
     private final UsuarioService usuarioService;
     private Firestore db;
     private final AnuncioService anuncioService;
+    private final AccesoFirestore accesoFirestore;
     private static final String COLECCION_LOGS = "logEstadisticas";
     private static final String EVENTO_INICIO_SESION = "INICIO_SESION";
     private static final String EVENTO_REGISTRO_NUEVO = "REGISTRO";
-    public AdminServiceImpl(UsuarioService usuarioService, Firestore db, AnuncioService anuncioService) {
+    private final CompartimentosEjecucion compartimentos;
+    private final long timeoutConsultaMs;
+    public AdminServiceImpl(UsuarioService usuarioService, Firestore db, AnuncioService anuncioService,
+                            AccesoFirestore accesoFirestore, CompartimentosEjecucion compartimentos,
+                            @Value("${conectacare.admin.timeout-consulta-ms:8000}") long timeoutConsultaMs) {
         this.usuarioService = usuarioService;
         this.db = db;
         this.anuncioService = anuncioService;
+        this.accesoFirestore = accesoFirestore;
+        this.compartimentos = compartimentos;
+        this.timeoutConsultaMs = timeoutConsultaMs;
     }
     /**
      * Obtiene una lista de todos los usuarios.
@@ -75,12 +88,9 @@ public class AdminServiceImpl implements AdminService {
             Query query = db.collection(COLECCION_LOGS)
                     .whereEqualTo("evento", nombreEvento);
 
-            // 2. Ejecutar la consulta (asíncrona)
-            ApiFuture<QuerySnapshot> future = query.get();
-
-            // 3. Obtener el resultado de forma síncrona (esperar)
+            // 2. Ejecutar la consulta y esperar el resultado con timeout y reintentos
             // Esto puede lanzar InterruptedException o ExecutionException
-            QuerySnapshot querySnapshot = future.get();
+            QuerySnapshot querySnapshot = accesoFirestore.leer("logEstadisticas.contar", query::get);
 
             // 4. Obtener el tamaño (número de documentos)
             int count = querySnapshot.size();
@@ -95,6 +105,9 @@ public class AdminServiceImpl implements AdminService {
             logger.error("❌ Error durante la ejecución del conteo para evento '{}'", nombreEvento, e);
             // La causa real está en e.getCause()
             throw new PresentationException("Error al obtener estadísticas: " + nombreEvento, HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (PresentationException e) {
+            // Timeout o cortocircuito abierto: se conserva el estado HTTP original
+            throw e;
         } catch (Exception e) {
             // Captura para cualquier otro error inesperado
             logger.error("❌ Error inesperado al contar evento '{}'", nombreEvento, e);
@@ -143,31 +156,29 @@ public class AdminServiceImpl implements AdminService {
             };
             csvWriter.writeNext(cabecera);
 
-            // 3. Obtener estadísticas generales (puede lanzar PresentationException)
-            int totalIniciosSesion = this.contarInicioSesion();
-            int totalRegistros = this.contarRegistros();
-            int totalAnunciosGeneral = anuncioService.contarTotalAnuncios();
+            // 3. Obtener estadísticas generales y los anuncios de todos los clientes en paralelo
+            // (puede lanzar PresentationException; si una consulta falla se cancelan las demás)
+            Abanico abanico = compartimentos.abanico(CompartimentosEjecucion.prioridadActual());
+            Abanico.Rama<Integer> inicios = abanico.lanzar("iniciosSesion", timeoutConsultaMs, this::contarInicioSesion);
+            Abanico.Rama<Integer> registros = abanico.lanzar("registros", timeoutConsultaMs, this::contarRegistros);
+            Abanico.Rama<List<Anuncio>> anuncios = abanico.lanzar("anuncios", timeoutConsultaMs, anuncioService::getAllAnuncios);
+            abanico.esperarTodasOFallar();
+            int totalIniciosSesion = inicios.valor();
+            int totalRegistros = registros.valor();
+            int totalAnunciosGeneral = anuncios.valor().size();
+
+            // Un solo listado agrupado por cliente en lugar de una consulta por usuario
+            Map<String, Long> anunciosPorCliente = anuncios.valor().stream()
+                    .filter(a -> a.getClienteId() != null)
+                    .collect(Collectors.groupingBy(Anuncio::getClienteId, Collectors.counting()));
 
             // 4. Iterar sobre usuarios y escribir filas
             for (Usuario usuario : usuarios) {
-                int anunciosPorEsteUsuario = 0; // Valor por defecto
+                long anunciosPorEsteUsuario = 0; // Valor por defecto
 
                 // Calcular anuncios solo para roles relevantes
-                if (usuario.getRol() == Rol.CLIENTE) { // Ajusta si es necesario
-                    try {
-                        // Obtener tamaño de la lista de anuncios del usuario
-                        anunciosPorEsteUsuario = anuncioService.getAnunciosByClienteId(usuario.getId()).size();
-                    } catch (PresentationException e) {
-                        // Error específico al obtener anuncios de UN usuario: loguear y continuar
-                        logger.warn("No se pudo contar anuncios para usuario {} [{}]: {}. Usando 0.",
-                                usuario.getEmail(), usuario.getId(), e.getMessage());
-                        // anunciosPorEsteUsuario ya es 0, no hace falta reasignar
-                    } catch (Exception e) {
-                        // Otro error inesperado para este usuario: loguear y continuar
-                        logger.error("Error inesperado contando anuncios para usuario {} [{}]: {}",
-                                usuario.getEmail(), usuario.getId(), e.getMessage(), e);
-                        // anunciosPorEsteUsuario ya es 0
-                    }
+                if (usuario.getRol() == Rol.CLIENTE && usuario.getId() != null) {
+                    anunciosPorEsteUsuario = anunciosPorCliente.getOrDefault(usuario.getId(), 0L);
                 }
 
                 // Preparar y escribir la fila del usuario
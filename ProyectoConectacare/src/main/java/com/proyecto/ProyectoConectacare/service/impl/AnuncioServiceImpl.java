@@ -4,14 +4,30 @@ import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.DocumentSnapshot;
 import com.google.cloud.firestore.Firestore;
 import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.firestore.WriteResult;
+import com.proyecto.ProyectoConectacare.cache.IndiceExistencia;
+import com.proyecto.ProyectoConectacare.cache.LecturasCoalescidas;
+import com.proyecto.ProyectoConectacare.cache.RegistroCaches;
+import com.proyecto.ProyectoConectacare.contadores.ContadoresSolicitudes;
+import com.proyecto.ProyectoConectacare.dto.CambiosDTO;
 import com.proyecto.ProyectoConectacare.exception.PresentationException;
+import com.proyecto.ProyectoConectacare.firestore.AccesoFirestore;
 import com.proyecto.ProyectoConectacare.model.Anuncio;
 import com.proyecto.ProyectoConectacare.service.AnuncioService;
+import com.proyecto.ProyectoConectacare.sincronizacion.RegistroEliminaciones;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
@@ -19,9 +35,23 @@ import java.util.stream.Collectors;
 public class AnuncioServiceImpl implements AnuncioService {
     private static final String COLECCION = "anuncios";
     private final Firestore db;
+    private final RegistroCaches caches;
+    private final LecturasCoalescidas lecturasCoalescidas;
+    private final AccesoFirestore accesoFirestore;
+    private final IndiceExistencia indiceExistencia;
+    private final RegistroEliminaciones registroEliminaciones;
+    private final ContadoresSolicitudes contadoresSolicitudes;
 
-    public AnuncioServiceImpl(Firestore db) {
+    public AnuncioServiceImpl(Firestore db, RegistroCaches caches, LecturasCoalescidas lecturasCoalescidas,
+                              AccesoFirestore accesoFirestore, IndiceExistencia indiceExistencia,
+                              RegistroEliminaciones registroEliminaciones, ContadoresSolicitudes contadoresSolicitudes) {
         this.db = db;
+        this.caches = caches;
+        this.lecturasCoalescidas = lecturasCoalescidas;
+        this.accesoFirestore = accesoFirestore;
+        this.indiceExistencia = indiceExistencia;
+        this.registroEliminaciones = registroEliminaciones;
+        this.contadoresSolicitudes = contadoresSolicitudes;
     }
 
     /**
@@ -39,13 +69,17 @@ public class AnuncioServiceImpl implements AnuncioService {
         anuncio.setClienteId(clienteId); // UID correcto del cliente
 
         try {
-            DocumentSnapshot clienteDoc = db.collection("usuarios").document(clienteId).get().get();
+            DocumentSnapshot clienteDoc = accesoFirestore.leer("usuarios.get", () -> db.collection("usuarios").document(clienteId).get());
             String nombreCliente = clienteDoc.getString("nombre");
             anuncio.setNombreCliente(nombreCliente);
             DocumentReference docRef = db.collection(COLECCION).document();
             anuncio.setId(docRef.getId());
+            anuncio.setUpdatedAt(null); // Lo rellena Firestore con la hora del servidor
 
-            docRef.set(anuncio).get();
+            WriteResult resultado = accesoFirestore.escribir("anuncios.crear", () -> docRef.set(anuncio));
+            caches.anuncios().put(anuncio.getId(), anuncio, RegistroCaches.version(resultado.getUpdateTime()));
+            caches.listados().invalidar(RegistroCaches.CLAVE_TODOS);
+            indiceExistencia.registrarAnuncio(anuncio.getId());
             return anuncio;
         } catch (InterruptedException | ExecutionException e) {
             throw new PresentationException("Error al crear anuncio", HttpStatus.INTERNAL_SERVER_ERROR);
@@ -61,10 +95,16 @@ public class AnuncioServiceImpl implements AnuncioService {
      */
     @Override
     public Anuncio getAnuncioById(String id) {
+        Anuncio enCache = caches.anuncios().get(id);
+        if (enCache != null) {
+            return enCache;
+        }
         try {
-            DocumentSnapshot document = db.collection(COLECCION).document(id).get().get();
+            DocumentSnapshot document = accesoFirestore.leerConHedge("anuncios.get", () -> db.collection(COLECCION).document(id).get());
             if (document.exists()) {
-                return document.toObject(Anuncio.class);
+                Anuncio anuncio = document.toObject(Anuncio.class);
+                caches.anuncios().put(id, anuncio, RegistroCaches.version(document));
+                return anuncio;
             }
             throw new PresentationException("Anuncio no encontrado", HttpStatus.NOT_FOUND);
         } catch (InterruptedException | ExecutionException e) {
@@ -72,25 +112,107 @@ public class AnuncioServiceImpl implements AnuncioService {
         }
     }
 
+    /**
+     * Recupera varios anuncios a la vez. Los que están en caché no se leen; el resto se obtiene con una única
+     * llamada a Firestore.getAll. Los IDs que el índice de existencia sabe inexistentes ni siquiera se piden.
+     *
+     * @param ids los identificadores de los anuncios; se ignoran los duplicados y los vacíos.
+     * @return un mapa del ID al anuncio, en el orden recibido; los anuncios que no existen no aparecen.
+     * @throws PresentationException si hay un error durante la lectura.
+     */
+    @Override
+    public Map<String, Anuncio> getAnunciosByIds(Collection<String> ids) {
+        Map<String, Anuncio> encontrados = new LinkedHashMap<>();
+        List<DocumentReference> pendientes = new ArrayList<>();
+        for (String id : new LinkedHashSet<>(ids)) {
+            if (id == null || id.isBlank() || Boolean.FALSE.equals(indiceExistencia.anuncioExiste(id))) {
+                continue;
+            }
+            Anuncio enCache = caches.anuncios().get(id);
+            encontrados.put(id, enCache);
+            if (enCache == null) {
+                pendientes.add(db.collection(COLECCION).document(id));
+            }
+        }
+        if (!pendientes.isEmpty()) {
+            try {
+                DocumentReference[] refs = pendientes.toArray(DocumentReference[]::new);
+                for (DocumentSnapshot doc : accesoFirestore.leer("anuncios.getAll", () -> db.getAll(refs))) {
+                    if (doc.exists()) {
+                        Anuncio anuncio = doc.toObject(Anuncio.class);
+                        caches.anuncios().put(doc.getId(), anuncio, RegistroCaches.version(doc));
+                        encontrados.put(doc.getId(), anuncio);
+                    }
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                throw new PresentationException("Error al obtener anuncios", HttpStatus.INTERNAL_SERVER_ERROR);
+            }
+        }
+        encontrados.values().removeIf(Objects::isNull);
+        return encontrados;
+    }
+
     /**
      * Recupera todos los anuncios de la base de datos.
      * El método recupera todos los documentos de la colección de anuncios, los convierte en objetos Anuncio,
      * les asigna sus IDs de documento únicos y los devuelve como una lista.
+     * Las peticiones simultáneas comparten una única lectura de la colección.
      *
      * @return Una lista de objetos Anuncio recuperados de la base de datos.
      * @throws PresentationException Si se produce un error durante el proceso de recuperación.
      */
     @Override
     public List<Anuncio> getAllAnuncios() {
+        List<Anuncio> enCache = caches.listados().get(RegistroCaches.CLAVE_TODOS);
+        if (enCache != null) {
+            return enCache;
+        }
+        return lecturasCoalescidas.ejecutar(COLECCION + "/" + RegistroCaches.CLAVE_TODOS, this::leerTodosLosAnuncios);
+    }
+
+    private List<Anuncio> leerTodosLosAnuncios() {
         try {
-            return db.collection(COLECCION).get().get().getDocuments()
+            List<Anuncio> anuncios = accesoFirestore.leer("anuncios.listar", () -> db.collection(COLECCION).get()).getDocuments()
                     .stream()
                     .map(doc -> {
                         Anuncio anuncio = doc.toObject(Anuncio.class);
                         anuncio.setId(doc.getId());
+                        caches.anuncios().put(doc.getId(), anuncio, RegistroCaches.version(doc));
                         return anuncio;
                     })
                     .collect(Collectors.toList());
+            caches.listados().put(RegistroCaches.CLAVE_TODOS, anuncios, 0L);
+            return anuncios;
+        } catch (InterruptedException | ExecutionException e) {
+            throw new PresentationException("Error al obtener anuncios", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Variante incremental de {@link #getAllAnuncios()}: devuelve solo los anuncios creados o modificados desde el
+     * cursor, junto con los IDs de los eliminados en ese intervalo.
+     *
+     * @param since el cursor de la sincronización anterior, en milisegundos desde epoch.
+     * @return los cambios y el nuevo cursor.
+     * @throws PresentationException si el cursor no es válido o se produce un error durante la consulta.
+     */
+    @Override
+    public CambiosDTO<Anuncio> getAnunciosDesde(long since) {
+        Date desde = registroEliminaciones.validarCursor(since);
+        try {
+            QuerySnapshot cambiados = accesoFirestore.leer("anuncios.desde", () -> db.collection(COLECCION)
+                    .whereGreaterThanOrEqualTo("updatedAt", desde)
+                    .get());
+            QuerySnapshot lapidas = accesoFirestore.leer("eliminaciones.anuncios",
+                    () -> registroEliminaciones.consultaDesde(COLECCION, null, null, desde).get());
+            List<Anuncio> anuncios = cambiados.getDocuments().stream()
+                    .map(doc -> {
+                        Anuncio anuncio = doc.toObject(Anuncio.class);
+                        anuncio.setId(doc.getId());
+                        return anuncio;
+                    })
+                    .collect(Collectors.toList());
+            return new CambiosDTO<>(anuncios, RegistroEliminaciones.ids(lapidas), RegistroEliminaciones.cursor(cambiados, lapidas));
         } catch (InterruptedException | ExecutionException e) {
             throw new PresentationException("Error al obtener anuncios", HttpStatus.INTERNAL_SERVER_ERROR);
         }
@@ -98,6 +220,7 @@ public class AnuncioServiceImpl implements AnuncioService {
 
     /**
      * Recupera una lista de objetos Anuncio asociados a un clienteId determinado.
+     * Cada anuncio incluye sus contadores de solicitudes por estado, leídos de todos los anuncios en una sola llamada.
      *
      * @param clienteId: el ID del cliente cuyos anuncios asociados se recuperarán.
      * @return: una lista de objetos Anuncio asociados al clienteId especificado.
@@ -105,28 +228,44 @@ public class AnuncioServiceImpl implements AnuncioService {
      */
     @Override
     public List<Anuncio> getAnunciosByClienteId(String clienteId) {
+        List<Anuncio> anuncios;
         try {
-            return db.collection(COLECCION)
+            anuncios = accesoFirestore.leer("anuncios.porCliente", () -> db.collection(COLECCION)
                     .whereEqualTo("clienteId", clienteId)
-                    .get().get().getDocuments()
+                    .get()).getDocuments()
                     .stream()
                     .map(doc -> doc.toObject(Anuncio.class))
                     .collect(Collectors.toList());
         } catch (InterruptedException | ExecutionException e) {
             throw new PresentationException("Error al obtener anuncios", HttpStatus.INTERNAL_SERVER_ERROR);
         }
+        Map<String, Map<String, Long>> contadores = contadoresSolicitudes.leer(anuncios.stream().map(Anuncio::getId).toList());
+        anuncios.forEach(anuncio -> anuncio.setContadoresSolicitudes(contadores.get(anuncio.getId())));
+        return anuncios;
     }
 
     /**
      * Comprueba la existencia de un anuncio en la base de datos mediante su identificador.
+     * Se responde desde el índice de existencia en memoria y solo se consulta Firestore si el índice aún no está listo.
      *
      * @param anuncioId: el identificador único del anuncio a comprobar.
      * @return true si el anuncio existe, false en caso contrario.
      * @throws PresentationException si se produce un error al acceder a la base de datos.
      */
     public boolean existeAnuncio(String anuncioId) {
+        if (caches.anuncios().get(anuncioId) != null) {
+            return true;
+        }
+        Boolean enIndice = indiceExistencia.anuncioExiste(anuncioId);
+        if (enIndice != null) {
+            return enIndice;
+        }
         try {
-            return db.collection("anuncios").document(anuncioId).get().get().exists();
+            boolean existe = accesoFirestore.leer("anuncios.existe", () -> db.collection("anuncios").document(anuncioId).get()).exists();
+            if (existe) {
+                indiceExistencia.registrarAnuncio(anuncioId);
+            }
+            return existe;
         } catch (InterruptedException | ExecutionException e) {
             throw new PresentationException("Error verificando anuncio", HttpStatus.INTERNAL_SERVER_ERROR);
         }
@@ -135,13 +274,14 @@ public class AnuncioServiceImpl implements AnuncioService {
 
     /**
      * Cuenta el número total de anuncios en la base de datos.
+     * Reutiliza el listado completo de anuncios, que se mantiene en caché durante un breve periodo.
      *
      * @return El número total de anuncios encontrados en la base de datos.
      * @throws PresentationException si se produce un error al recuperar los datos.
      */
     public int contarTotalAnuncios() {
         try {
-            return db.collection("anuncios").get().get().getDocuments().size();
+            return getAllAnuncios().size();
         } catch (Exception e) {
             throw new PresentationException("Error al contar anuncios", HttpStatus.INTERNAL_SERVER_ERROR);
         }
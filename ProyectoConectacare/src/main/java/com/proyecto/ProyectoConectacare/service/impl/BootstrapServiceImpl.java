@@ -0,0 +1,100 @@
+package com.proyecto.ProyectoConectacare.service.impl;
+
+import com.proyecto.ProyectoConectacare.dto.BootstrapDTO;
+import com.proyecto.ProyectoConectacare.ejecucion.Abanico;
+import com.proyecto.ProyectoConectacare.ejecucion.CompartimentosEjecucion;
+import com.proyecto.ProyectoConectacare.ejecucion.Prioridad;
+import com.proyecto.ProyectoConectacare.exception.PresentationException;
+import com.proyecto.ProyectoConectacare.model.Usuario;
+import com.proyecto.ProyectoConectacare.service.AnuncioService;
+import com.proyecto.ProyectoConectacare.service.BootstrapService;
+import com.proyecto.ProyectoConectacare.service.EvaluacionService;
+import com.proyecto.ProyectoConectacare.service.SolicitudService;
+import com.proyecto.ProyectoConectacare.service.UsuarioService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Implementación de BootstrapService. Primero se carga el usuario, porque su rol decide qué secciones lleva el
+ * panel; después las secciones se consultan en paralelo en el compartimento INTERACTIVO.
+ *
+ * Secciones por rol:
+ * - CLIENTE: sus anuncios y las solicitudes recibidas en ellos (las mismas que /anuncios/cliente/{id} y /solicitudes/cliente).
+ * - TRABAJADOR: sus solicitudes, sus evaluaciones y los anuncios publicados (/solicitudes/mias, /evaluaciones/mias y /anuncios).
+ * - ADMINISTRADOR: el total de anuncios y la valoración media global.
+ *
+ * Si una sección falla o no termina dentro del plazo de la petición, se omite y se informa en `errores`;
+ * solo un fallo al cargar el usuario hace fallar la petición completa.
+ */
+@Service
+public class BootstrapServiceImpl implements BootstrapService {
+    private static final Logger logger = LoggerFactory.getLogger(BootstrapServiceImpl.class);
+
+    private final UsuarioService usuarioService;
+    private final AnuncioService anuncioService;
+    private final SolicitudService solicitudService;
+    private final EvaluacionService evaluacionService;
+    private final CompartimentosEjecucion compartimentos;
+
+    public BootstrapServiceImpl(UsuarioService usuarioService, AnuncioService anuncioService, SolicitudService solicitudService,
+                                EvaluacionService evaluacionService, CompartimentosEjecucion compartimentos) {
+        this.usuarioService = usuarioService;
+        this.anuncioService = anuncioService;
+        this.solicitudService = solicitudService;
+        this.evaluacionService = evaluacionService;
+        this.compartimentos = compartimentos;
+    }
+
+    /**
+     * Carga el panel inicial del usuario indicado.
+     *
+     * @param usuarioId el UID del usuario autenticado.
+     * @return el usuario y las secciones de su panel, con los errores de las secciones que no se han podido cargar.
+     * @throws PresentationException si no se puede cargar el usuario.
+     */
+    @Override
+    public BootstrapDTO cargarPanel(String usuarioId) {
+        Usuario usuario = usuarioService.getUsuarioById(usuarioId);
+        if (usuario == null || usuario.getRol() == null) {
+            throw new PresentationException("Usuario no encontrado", HttpStatus.NOT_FOUND);
+        }
+
+        Abanico abanico = compartimentos.abanico(Prioridad.INTERACTIVO);
+        Map<String, Abanico.Rama<?>> ramas = new LinkedHashMap<>();
+        switch (usuario.getRol()) {
+            case CLIENTE -> {
+                ramas.put("anuncios", abanico.lanzar("anuncios", () -> anuncioService.getAnunciosByClienteId(usuarioId)));
+                ramas.put("solicitudes", abanico.lanzar("solicitudes", () -> solicitudService.getSolicitudesByClienteId(usuarioId)));
+            }
+            case TRABAJADOR -> {
+                ramas.put("solicitudes", abanico.lanzar("solicitudes", () -> solicitudService.getSolicitudesByTrabajadorId(usuarioId)));
+                ramas.put("evaluaciones", abanico.lanzar("evaluaciones", () -> evaluacionService.getEvaluacionesByTrabajadorId(usuarioId)));
+                ramas.put("anuncios", abanico.lanzar("anuncios", anuncioService::getAllAnuncios));
+            }
+            case ADMINISTRADOR -> {
+                ramas.put("totalAnuncios", abanico.lanzar("totalAnuncios", anuncioService::contarTotalAnuncios));
+                ramas.put("valoracionMedia", abanico.lanzar("valoracionMedia", evaluacionService::getValoracionMedia));
+            }
+        }
+        abanico.esperarTodas();
+
+        BootstrapDTO panel = new BootstrapDTO();
+        panel.setUsuario(usuario);
+        ramas.forEach((nombre, rama) -> {
+            if (rama.correcta()) {
+                panel.getSecciones().put(nombre, rama.valor());
+            }
+        });
+        panel.setErrores(abanico.errores());
+        panel.setParcial(!panel.getErrores().isEmpty());
+        if (panel.isParcial()) {
+            logger.warn("Panel inicial parcial para {}: {}", usuarioId, panel.getErrores());
+        }
+        return panel;
+    }
+}
@@ -1,12 +1,19 @@
 package com.proyecto.ProyectoConectacare.service.impl;
 
 import com.google.cloud.firestore.*;
+import com.proyecto.ProyectoConectacare.cache.IndiceExistencia;
+import com.proyecto.ProyectoConectacare.cache.LecturasCoalescidas;
+import com.proyecto.ProyectoConectacare.cache.RegistroCaches;
 import com.proyecto.ProyectoConectacare.dto.EvaluacionDTO;
 import com.proyecto.ProyectoConectacare.exception.PresentationException;
+import com.proyecto.ProyectoConectacare.firestore.AccesoFirestore;
 import com.proyecto.ProyectoConectacare.model.Evaluacion;
+import com.proyecto.ProyectoConectacare.peticion.PlazoPeticion;
 import com.proyecto.ProyectoConectacare.model.Usuario;
 import com.proyecto.ProyectoConectacare.service.EvaluacionService;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 
@@ -16,80 +23,108 @@ import java.util.stream.Collectors;
 
 @Service
 public class EvaluacionServiceImpl implements EvaluacionService {
+    private static final Logger logger = LoggerFactory.getLogger(EvaluacionServiceImpl.class);
     private static final String COLECCION = "evaluaciones";
     private static final String COLECCION_CHATS = "chats";
+    private static final int TAMANO_WHERE_IN = 30; // Máximo de valores que admite Firestore en un whereIn
     private final Firestore db;
+    private final RegistroCaches caches;
+    private final LecturasCoalescidas lecturasCoalescidas;
+    private final AccesoFirestore accesoFirestore;
+    private final IndiceExistencia indiceExistencia;
 
-    public EvaluacionServiceImpl(Firestore db) {
+    public EvaluacionServiceImpl(Firestore db, RegistroCaches caches, LecturasCoalescidas lecturasCoalescidas,
+                                 AccesoFirestore accesoFirestore, IndiceExistencia indiceExistencia) {
         this.db = db;
+        this.caches = caches;
+        this.lecturasCoalescidas = lecturasCoalescidas;
+        this.accesoFirestore = accesoFirestore;
+        this.indiceExistencia = indiceExistencia;
     }
 
     /**
      * Crea una nueva Evaluación y la almacena en la base de datos.
      *
+     * La evaluación y la marca de "evaluado" en el chat entre el cliente y el trabajador se escriben en un único
+     * WriteBatch, de modo que no puede quedar una sin la otra. La marca es un update, que solo se aplica a un chat
+     * existente (el que se crea al aceptar la solicitud); si el chat no existe, el lote se rechaza entero y la
+     * evaluación se guarda sola, como antes, sin crear un chat nuevo.
+     *
+     * El ID de la evaluación es el de su solicitud y se crea con create(), así que una segunda evaluación de la
+     * misma solicitud la rechaza Firestore en la misma escritura, sin consultarlo antes.
+     *
      * @param evaluacion el objeto de Evaluación que se creará y guardará.
-     * @return la Evaluación recién creada con su ID generado.
-     * @throws PresentationException si hay un error durante el proceso de creación.
+     * @return la Evaluación recién creada, con el ID de su solicitud.
+     * @throws PresentationException 409 si la solicitud ya está evaluada, o si hay un error durante el proceso de creación.
      */
     @Override
     public Evaluacion createEvaluacion(Evaluacion evaluacion) {
-        DocumentReference docRef = null; // Para tener acceso en el catch si es necesario
+        if (evaluacion.getSolicitudId() == null || evaluacion.getSolicitudId().isBlank()) {
+            throw new PresentationException("La evaluación debe indicar la solicitud", HttpStatus.BAD_REQUEST);
+        }
         try {
-            docRef = db.collection(COLECCION).document();
+            DocumentReference docRef = db.collection(COLECCION).document(evaluacion.getSolicitudId());
             evaluacion.setId(docRef.getId());
-            docRef.set(evaluacion).get(); // Espera a que la evaluación se cree
-
-            System.out.println("DEBUG Servicio: Evaluación creada con ID: " + evaluacion.getId());
+            evaluacion.setUpdatedAt(null); // Lo rellena Firestore con la hora del servidor
+
+            WriteBatch lote = db.batch();
+            lote.create(docRef, evaluacion);
+            boolean conChat = marcarChatComoEvaluado(lote, evaluacion.getClienteId(), evaluacion.getTrabajadorId(),
+                    evaluacion.getSolicitudId());
+            try {
+                accesoFirestore.escribir("evaluaciones.crear", lote::commit);
+            } catch (ExecutionException e) {
+                if (!conChat || !"NOT_FOUND".equals(AccesoFirestore.codigoDe(e))) {
+                    throw e;
+                }
+                logger.warn("No existe el chat de la solicitud {}; la evaluación se guarda sin marcarlo", evaluacion.getSolicitudId());
+                accesoFirestore.escribir("evaluaciones.crear", () -> docRef.create(evaluacion));
+            }
 
-            // Llamar a marcar el chat DESPUÉS de confirmar la creación de la evaluación
-            marcarChatComoEvaluadoTrasCreacion(evaluacion.getClienteId(), evaluacion.getTrabajadorId(), evaluacion.getSolicitudId());
+            logger.debug("Evaluación creada con ID {}", evaluacion.getId());
+            caches.agregados().invalidar(RegistroCaches.CLAVE_VALORACION_MEDIA);
+            indiceExistencia.registrarEvaluacion(evaluacion.getSolicitudId());
 
             return evaluacion;
-        } catch (InterruptedException | ExecutionException e) {
-            // Es importante loguear qué operación falló
-            String operation = (docRef != null && evaluacion.getId() != null) ? "marcar chat" : "crear evaluación";
-            System.err.println("ERROR CRÍTICO en createEvaluacion durante " + operation + ": " + e.getMessage());
-            e.printStackTrace();
-            throw new PresentationException("Error durante la creación de la evaluación o tareas posteriores", HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (ExecutionException e) {
+            if ("ALREADY_EXISTS".equals(AccesoFirestore.codigoDe(e))) {
+                throw new PresentationException("Esta solicitud ya ha sido evaluada", HttpStatus.CONFLICT);
+            }
+            logger.error("Error creando la evaluación de la solicitud {}", evaluacion.getSolicitudId(), e);
+            throw new PresentationException("Error durante la creación de la evaluación", HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Creación de la evaluación de la solicitud {} interrumpida", evaluacion.getSolicitudId());
+            throw new PresentationException("Error durante la creación de la evaluación", HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (PresentationException e) {
+            throw e;
         } catch (Exception e) { // Otra captura genérica por si acaso
-            System.err.println("ERROR INESPERADO en createEvaluacion: " + e.getMessage());
-            e.printStackTrace();
+            logger.error("Error inesperado creando la evaluación de la solicitud {}", evaluacion.getSolicitudId(), e);
             throw new PresentationException("Error inesperado durante el proceso de evaluación", HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
-    private void marcarChatComoEvaluadoTrasCreacion(String clienteId, String trabajadorId, String solicitudIdRelacionada) {
-        if (clienteId == null || trabajadorId == null) {
-            System.err.println("ERROR CRÍTICO en Servicio: ClienteId o TrabajadorId es null. No se puede marcar el chat para la solicitud: " + solicitudIdRelacionada);
-            return;
-        }
-        System.out.println("DEBUG Servicio: Intentando marcar chat. ClienteID: " + clienteId + ", TrabajadorID: " + trabajadorId + ", SolicitudID: " + solicitudIdRelacionada);
-
-        try {
-            String chatId = Arrays.stream(new String[]{clienteId, trabajadorId})
-                    .sorted()
-                    .collect(Collectors.joining("_"));
-            System.out.println("DEBUG Servicio: ChatID construido: " + chatId);
-
-            DocumentReference chatRef = db.collection(COLECCION_CHATS).document(chatId);
-            Map<String, Object> updates = new HashMap<>();
-            updates.put("evaluadoPorCliente", true); // Booleano
-            updates.put("solicitudEvaluadaId", solicitudIdRelacionada);
-
-
-            chatRef.update(updates).get();
-
-
-
-        } catch (ExecutionException e) {
-            System.err.println("ERROR CRÍTICO en Servicio (ExecutionException) al marcar el chat para solicitud " + solicitudIdRelacionada + " como evaluado: " + e.getMessage());
-
-        } catch (InterruptedException e) {
-            System.err.println("ERROR CRÍTICO en Servicio (InterruptedException) al marcar el chat para solicitud " + solicitudIdRelacionada + " como evaluado: " + e.getMessage());
-
-        } catch (Exception e) {
-            System.err.println("ERROR CRÍTICO en Servicio (Exception Genérica) al marcar el chat para solicitud " + solicitudIdRelacionada + " como evaluado: " + e.getMessage());
 
+    /**
+     * Añade al lote la marca de evaluado en el chat asociado a la solicitud. Es un update: si el chat no existe,
+     * Firestore rechaza el lote con NOT_FOUND.
+     *
+     * @return true si se ha añadido la marca; false si falta el cliente o el trabajador.
+     */
+    private boolean marcarChatComoEvaluado(WriteBatch lote, String clienteId, String trabajadorId, String solicitudIdRelacionada) {
+        if (clienteId == null || trabajadorId == null) {
+            logger.error("Falta el cliente o el trabajador; no se puede marcar el chat de la solicitud {}", solicitudIdRelacionada);
+            return false;
         }
+        String chatId = Arrays.stream(new String[]{clienteId, trabajadorId})
+                .sorted()
+                .collect(Collectors.joining("_"));
+
+        DocumentReference chatRef = db.collection(COLECCION_CHATS).document(chatId);
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("evaluadoPorCliente", true); // Booleano
+        updates.put("solicitudEvaluadaId", solicitudIdRelacionada);
+        lote.update(chatRef, updates);
+        return true;
     }
     /**
      * Recupera un objeto de evaluación de la base de datos mediante su identificador único.
@@ -101,7 +136,7 @@ public class EvaluacionServiceImpl implements EvaluacionService {
     @Override
     public Evaluacion getEvaluacionById(String id) {
         try {
-            DocumentSnapshot document = db.collection(COLECCION).document(id).get().get();
+            DocumentSnapshot document = accesoFirestore.leer("evaluaciones.get", () -> db.collection(COLECCION).document(id).get());
             if (document.exists()) {
                 return document.toObject(Evaluacion.class);
             }
@@ -114,16 +149,23 @@ public class EvaluacionServiceImpl implements EvaluacionService {
     /**
      * Recupera una lista de objetos de evaluación asociados a un trabajadorId específico.
      *
+     * Las peticiones simultáneas para el mismo trabajador comparten una única lectura.
+     *
      * @param trabajadorId: el identificador único del trabajador cuyas evaluaciones se recuperarán.
      * @return: una lista de objetos de evaluación correspondientes al trabajadorId especificado.
      * @throws: PresentationException si se produce un error durante el proceso de recuperación.
      */
     @Override
     public List<EvaluacionDTO> getEvaluacionesByTrabajadorId(String trabajadorId) {
+        return lecturasCoalescidas.ejecutar(COLECCION + "/trabajador/" + trabajadorId,
+                () -> leerEvaluacionesDeTrabajador(trabajadorId));
+    }
+
+    private List<EvaluacionDTO> leerEvaluacionesDeTrabajador(String trabajadorId) {
         try {
-            List<QueryDocumentSnapshot> docs = db.collection("evaluaciones")
+            List<QueryDocumentSnapshot> docs = accesoFirestore.leer("evaluaciones.porTrabajador", () -> db.collection("evaluaciones")
                     .whereEqualTo("trabajadorId", trabajadorId)
-                    .get().get().getDocuments();
+                    .get()).getDocuments();
 
             List<EvaluacionDTO> evaluacionesDTO = new ArrayList<>();
 
@@ -131,12 +173,18 @@ public class EvaluacionServiceImpl implements EvaluacionService {
                 Evaluacion ev = doc.toObject(Evaluacion.class);
                 String clienteId = ev.getClienteId();
 
-                DocumentSnapshot clienteDoc = db.collection("usuarios").document(clienteId).get().get();
-                String nombreCliente = clienteDoc.exists() && clienteDoc.contains("nombre")
-                        ? clienteDoc.getString("nombre")
-                        : "Desconocido";
-
                 EvaluacionDTO dto = new EvaluacionDTO();
+                String nombreCliente = null;
+                if (PlazoPeticion.permiteOpcionales()) {
+                    DocumentSnapshot clienteDoc = accesoFirestore.leer("usuarios.get", () -> db.collection("usuarios").document(clienteId).get());
+                    nombreCliente = clienteDoc.exists() && clienteDoc.contains("nombre")
+                            ? clienteDoc.getString("nombre")
+                            : "Desconocido";
+                } else {
+                    // Queda poco tiempo: se devuelve la evaluación sin el nombre del cliente
+                    dto.setParcial(true);
+                }
+
                 dto.setId(doc.getId());
                 dto.setComentario(ev.getComentario());
                 dto.setEstrellas(ev.getEstrellas());
@@ -148,6 +196,8 @@ public class EvaluacionServiceImpl implements EvaluacionService {
 
             return evaluacionesDTO;
 
+        } catch (PresentationException e) {
+            throw e;
         } catch (Exception e) {
             throw new PresentationException("Error al obtener valoraciones", HttpStatus.INTERNAL_SERVER_ERROR);
         }
@@ -155,21 +205,73 @@ public class EvaluacionServiceImpl implements EvaluacionService {
 
     @Override
     public boolean existeEvaluacionPorSolicitud(String solicitudId) {
+        // Primero el índice en memoria; Firestore solo mientras el índice no está construido
+        Boolean enIndice = indiceExistencia.solicitudEvaluada(solicitudId);
+        if (enIndice != null) {
+            return enIndice;
+        }
         // Consulta directa en Firestore para evitar traer todas las evaluaciones
         CollectionReference evaluacionesRef =db.collection(COLECCION);
         Query query = evaluacionesRef.whereEqualTo("solicitudId", solicitudId).limit(1);
 
         try {
-            return !query.get().get().isEmpty(); // Si hay al menos 1 documento, retorna true
+            boolean existe = !accesoFirestore.leer("evaluaciones.existePorSolicitud", query::get).isEmpty(); // Si hay al menos 1 documento, retorna true
+            if (existe) {
+                indiceExistencia.registrarEvaluacion(solicitudId);
+            }
+            return existe;
+        } catch (PresentationException e) {
+            throw e;
         } catch (Exception e) {
             throw new RuntimeException("Error al verificar evaluación", e);
         }
     }
 
+    /**
+     * Indica, para cada solicitud, si ya tiene una evaluación. Se responde desde el índice de existencia y las
+     * solicitudes que el índice no sabe resolver se consultan juntas con whereIn, en trozos del tamaño que
+     * admite Firestore, en lugar de una consulta por solicitud.
+     *
+     * @param solicitudIds los identificadores de las solicitudes; se ignoran los duplicados y los vacíos.
+     * @return un mapa del ID de solicitud a true si está evaluada, en el orden recibido.
+     * @throws PresentationException si hay un error durante la consulta.
+     */
+    @Override
+    public Map<String, Boolean> existenEvaluacionesPorSolicitudes(Collection<String> solicitudIds) {
+        Map<String, Boolean> resultado = new LinkedHashMap<>();
+        List<String> pendientes = new ArrayList<>();
+        for (String solicitudId : new LinkedHashSet<>(solicitudIds)) {
+            if (solicitudId == null || solicitudId.isBlank()) {
+                continue;
+            }
+            Boolean enIndice = indiceExistencia.solicitudEvaluada(solicitudId);
+            resultado.put(solicitudId, Boolean.TRUE.equals(enIndice));
+            if (enIndice == null) {
+                pendientes.add(solicitudId);
+            }
+        }
+        try {
+            for (int i = 0; i < pendientes.size(); i += TAMANO_WHERE_IN) {
+                List<String> trozo = pendientes.subList(i, Math.min(i + TAMANO_WHERE_IN, pendientes.size()));
+                for (DocumentSnapshot doc : accesoFirestore.leer("evaluaciones.existenPorSolicitudes", () -> db.collection(COLECCION)
+                        .whereIn("solicitudId", new ArrayList<>(trozo))
+                        .select("solicitudId")
+                        .get()).getDocuments()) {
+                    String solicitudId = doc.getString("solicitudId");
+                    resultado.put(solicitudId, true);
+                    indiceExistencia.registrarEvaluacion(solicitudId);
+                }
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new PresentationException("Error al verificar evaluaciones", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+        return resultado;
+    }
+
     @Override
     public List<Evaluacion> getAllEvaluaciones() {
         try {
-            return db.collection(COLECCION).get().get().getDocuments()
+            return accesoFirestore.leer("evaluaciones.listar", () -> db.collection(COLECCION).get()).getDocuments()
                     .stream()
                     .map(doc -> doc.toObject(Evaluacion.class))
                     .collect(Collectors.toList());
@@ -180,6 +282,10 @@ public class EvaluacionServiceImpl implements EvaluacionService {
 
     @Override
     public Map<String, Object> getValoracionMedia() {
+        Map<String, Object> enCache = caches.agregados().get(RegistroCaches.CLAVE_VALORACION_MEDIA);
+        if (enCache != null) {
+            return enCache;
+        }
         List<Evaluacion> todasLasEvaluaciones = this.getAllEvaluaciones(); // Reutilizamos el método que ya tienes
 
         Map<String, Object> resultado = new HashMap<>();
@@ -208,6 +314,7 @@ public class EvaluacionServiceImpl implements EvaluacionService {
         resultado.put("mediaEstrellas", media); // Usamos la media sin formatear aquí
         resultado.put("totalValoraciones", todasLasEvaluaciones.size());
 
+        caches.agregados().put(RegistroCaches.CLAVE_VALORACION_MEDIA, resultado, 0L);
         return resultado;
 
     }
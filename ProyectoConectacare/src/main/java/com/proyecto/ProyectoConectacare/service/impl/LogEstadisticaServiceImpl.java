@@ -1,6 +1,7 @@
 package com.proyecto.ProyectoConectacare.service.impl;
 
-import com.google.cloud.firestore.Firestore;
+import com.proyecto.ProyectoConectacare.eventos.DeduplicadorInicios;
+import com.proyecto.ProyectoConectacare.eventos.TuberiaEventos;
 import com.proyecto.ProyectoConectacare.model.Evento;
 import com.proyecto.ProyectoConectacare.model.LogEstadisticas;
 import com.proyecto.ProyectoConectacare.model.Usuario;
@@ -9,15 +10,23 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import java.util.Date;
+
 @Service
 public class LogEstadisticaServiceImpl  implements LogEstadisticaService {
     private static final Logger logger = LoggerFactory.getLogger(LogEstadisticaServiceImpl.class);
-    private final Firestore db;
-    private final String COLECCION_LOGS = "logEstadisticas";
+    private final TuberiaEventos tuberiaEventos;
+    private final DeduplicadorInicios deduplicadorInicios;
 
-    public LogEstadisticaServiceImpl(Firestore db) {
-        this.db = db;
+    public LogEstadisticaServiceImpl(TuberiaEventos tuberiaEventos, DeduplicadorInicios deduplicadorInicios) {
+        this.tuberiaEventos = tuberiaEventos;
+        this.deduplicadorInicios = deduplicadorInicios;
     }
+
+    /**
+     * Registra un evento de estadísticas sin esperar a Firestore: el evento se encola y se escribe por lotes
+     * en segundo plano (ver {@link TuberiaEventos}). Si la cola está llena, el evento se descarta y se cuenta.
+     */
     @Override
     public void registrarEvento(Usuario usuario, Evento tipoEvento) {
         if (usuario == null || usuario.getId() == null) {
@@ -30,11 +39,14 @@ public class LogEstadisticaServiceImpl  implements LogEstadisticaService {
             log.setEmail(usuario.getEmail());
             log.setNombre(usuario.getNombre()); // O concatenar nombre y apellido
             log.setEvento(tipoEvento);
+            log.setRegistradoEn(new Date());
 
-
-            // Guardar de forma asíncrona
-            db.collection(COLECCION_LOGS).add(log);
-            logger.info("Evento '{}' registrado para usuario ID: {}", tipoEvento, usuario.getId());
+            // Guardar de forma asíncrona, por lotes
+            if (tuberiaEventos.encolar(log)) {
+                logger.debug("Evento '{}' encolado para usuario ID: {}", tipoEvento, usuario.getId());
+            } else {
+                logger.debug("Evento '{}' descartado para usuario ID {}: cola de eventos llena", tipoEvento, usuario.getId());
+            }
 
         } catch (Exception e) {
             // Loguear el error pero no lanzar excepción para no afectar flujo principal
@@ -42,4 +54,22 @@ public class LogEstadisticaServiceImpl  implements LogEstadisticaService {
         }
     }
 
+    /**
+     * Registra un evento INICIO_SESION solo la primera vez que se ve cada inicio de sesión real dentro de la ventana
+     * de deduplicación (ver {@link DeduplicadorInicios}); las recargas de la SPA con el mismo token no cuentan.
+     *
+     * @param usuario el usuario autenticado.
+     * @param inicioSesion el `auth_time` del token en segundos (o `iat` si falta).
+     */
+    @Override
+    public void registrarInicioSesion(Usuario usuario, long inicioSesion) {
+        if (usuario == null || usuario.getId() == null) {
+            logger.warn("Intento de registrar inicio de sesión para usuario nulo o sin ID.");
+            return;
+        }
+        if (deduplicadorInicios.esNuevo(usuario.getId(), inicioSesion)) {
+            registrarEvento(usuario, Evento.INICIO_SESION);
+        }
+    }
+
 }
@@ -3,6 +3,7 @@ package com.proyecto.ProyectoConectacare.service.impl;
 import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.Firestore;
 import com.proyecto.ProyectoConectacare.exception.PresentationException;
+import com.proyecto.ProyectoConectacare.firestore.AccesoFirestore;
 import com.proyecto.ProyectoConectacare.model.Mensaje;
 import com.proyecto.ProyectoConectacare.service.MensajeService;
 
@@ -18,9 +19,11 @@ import java.util.stream.Collectors;
 public class MensajeServiceImpl implements MensajeService {
     private static final String COLECCION = "mensajes";
     private final Firestore db;
+    private final AccesoFirestore accesoFirestore;
 
-    public MensajeServiceImpl(Firestore db) {
+    public MensajeServiceImpl(Firestore db, AccesoFirestore accesoFirestore) {
         this.db = db;
+        this.accesoFirestore = accesoFirestore;
     }
 
     /**
@@ -37,8 +40,10 @@ public class MensajeServiceImpl implements MensajeService {
             DocumentReference docRef = db.collection(COLECCION).document();
             mensaje.setId(docRef.getId());
             mensaje.setFechaEnvio(new Date());  // Firebase puede poner la fecha automáticamente
-            docRef.set(mensaje).get();
+            accesoFirestore.escribir("mensajes.crear", () -> docRef.set(mensaje));
             return mensaje;
+        } catch (PresentationException e) {
+            throw e;
         } catch (Exception e) {
             throw new PresentationException("Error enviando mensaje", HttpStatus.INTERNAL_SERVER_ERROR);
         }
@@ -59,13 +64,15 @@ public class MensajeServiceImpl implements MensajeService {
             // Simplificamos la consulta usando un identificador único de conversación
             String conversacionId = generarIdConversacion(usuario1Id, usuario2Id);
 
-            return db.collection(COLECCION)
+            return accesoFirestore.leer("mensajes.porConversacion", () -> db.collection(COLECCION)
                     .whereEqualTo("conversacionId", conversacionId)
                     .orderBy("fecha")
-                    .get().get().getDocuments()
+                    .get()).getDocuments()
                     .stream()
                     .map(doc -> doc.toObject(Mensaje.class))
                     .collect(Collectors.toList());
+        } catch (PresentationException e) {
+            throw e;
         } catch (Exception e) {
             throw new PresentationException("Error obteniendo mensajes", HttpStatus.INTERNAL_SERVER_ERROR);
         }
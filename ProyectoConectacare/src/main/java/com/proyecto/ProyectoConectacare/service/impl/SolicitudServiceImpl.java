@@ -4,11 +4,23 @@ import com.google.cloud.firestore.*;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseAuthException;
 import com.google.firebase.auth.FirebaseToken;
+import com.proyecto.ProyectoConectacare.cache.IndiceExistencia;
+import com.proyecto.ProyectoConectacare.cache.RegistroCaches;
+import com.proyecto.ProyectoConectacare.contadores.ContadoresSolicitudes;
+import com.proyecto.ProyectoConectacare.dto.CambiosDTO;
+import com.proyecto.ProyectoConectacare.dto.SolicitudConAnuncioDTO;
 import com.proyecto.ProyectoConectacare.dto.SolicitudConTrabajadorDTO;
 import com.proyecto.ProyectoConectacare.exception.PresentationException;
+import com.proyecto.ProyectoConectacare.firestore.AccesoFirestore;
+import com.proyecto.ProyectoConectacare.model.Anuncio;
 import com.proyecto.ProyectoConectacare.model.EstadoSolicitud;
 import com.proyecto.ProyectoConectacare.model.Solicitud;
+import com.proyecto.ProyectoConectacare.peticion.PlazoPeticion;
+import com.proyecto.ProyectoConectacare.service.AnuncioService;
 import com.proyecto.ProyectoConectacare.service.SolicitudService;
+import com.proyecto.ProyectoConectacare.sincronizacion.RegistroEliminaciones;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
@@ -21,15 +33,30 @@ import java.util.stream.Collectors;
 
 @Service
 public class SolicitudServiceImpl implements SolicitudService {
+    private static final Logger logger = LoggerFactory.getLogger(SolicitudServiceImpl.class);
     private static final String COLECCION = "solicitudes";
     private final Firestore db;
     private static final String COLECCION_ANUNCIOS = "anuncios";
     private static final String COLECCION_EVALUACIONES = "evaluaciones";
     private static final String COLECCION_USUARIOS = "usuarios";
-
-    public SolicitudServiceImpl(Firestore db) {
+    private static final int MAX_INTENTOS_TRANSICION = 5;
+    private final AccesoFirestore accesoFirestore;
+    private final RegistroCaches caches;
+    private final IndiceExistencia indiceExistencia;
+    private final RegistroEliminaciones registroEliminaciones;
+    private final AnuncioService anuncioService;
+    private final ContadoresSolicitudes contadoresSolicitudes;
+
+    public SolicitudServiceImpl(Firestore db, AccesoFirestore accesoFirestore, RegistroCaches caches,
+                                IndiceExistencia indiceExistencia, RegistroEliminaciones registroEliminaciones,
+                                AnuncioService anuncioService, ContadoresSolicitudes contadoresSolicitudes) {
         this.db = db;
-
+        this.accesoFirestore = accesoFirestore;
+        this.caches = caches;
+        this.indiceExistencia = indiceExistencia;
+        this.registroEliminaciones = registroEliminaciones;
+        this.anuncioService = anuncioService;
+        this.contadoresSolicitudes = contadoresSolicitudes;
     }
 
     /**
@@ -44,29 +71,51 @@ public class SolicitudServiceImpl implements SolicitudService {
      */
     @Override
     public Solicitud createSolicitud(Solicitud solicitud) {
+        if (solicitud.getAnuncioId() == null || solicitud.getAnuncioId().isBlank() || solicitud.getTrabajadorId() == null) {
+            throw new PresentationException("La solicitud debe indicar el anuncio", HttpStatus.BAD_REQUEST);
+        }
         try {
-            // 1. Obtener el anuncio relacionado
-            DocumentSnapshot anuncioDoc = db.collection("anuncios")
-                    .document(solicitud.getAnuncioId())
-                    .get().get();
-
-            if (!anuncioDoc.exists()) {
+            // 1. Comprobar el anuncio en el índice de existencia; si no consta, no hace falta ir a Firestore
+            if (Boolean.FALSE.equals(indiceExistencia.anuncioExiste(solicitud.getAnuncioId()))) {
                 throw new PresentationException("Anuncio no encontrado", HttpStatus.NOT_FOUND);
             }
 
-            // 2. Asignar clienteId desde el anuncio
-            String clienteId = anuncioDoc.getString("clienteId");
+            // 2. Asignar clienteId desde el anuncio, en caché si está; si no, se lee el documento
+            String clienteId;
+            Anuncio anuncioCacheado = caches.anuncios().get(solicitud.getAnuncioId());
+            if (anuncioCacheado != null) {
+                clienteId = anuncioCacheado.getClienteId();
+            } else {
+                DocumentSnapshot anuncioDoc = accesoFirestore.leer("anuncios.get", () -> db.collection("anuncios")
+                        .document(solicitud.getAnuncioId())
+                        .get());
+                if (!anuncioDoc.exists()) {
+                    throw new PresentationException("Anuncio no encontrado", HttpStatus.NOT_FOUND);
+                }
+                clienteId = anuncioDoc.getString("clienteId");
+            }
             solicitud.setClienteId(clienteId);
 
-            // 3. Crear la solicitud
-            DocumentReference docRef = db.collection(COLECCION).document();
+            // 3. Crear la solicitud con un ID determinista: create() falla si el trabajador ya se había apuntado,
+            //    y entonces tampoco se aplica el incremento del contador del anuncio, que va en el mismo lote
+            DocumentReference docRef = db.collection(COLECCION).document(Solicitud.idPara(solicitud.getAnuncioId(), solicitud.getTrabajadorId()));
             solicitud.setId(docRef.getId());
             solicitud.setEstado(EstadoSolicitud.PENDIENTE);
-            docRef.set(solicitud).get();
+            solicitud.setUpdatedAt(null); // Lo rellena Firestore con la hora del servidor
+            WriteBatch lote = db.batch();
+            lote.create(docRef, solicitud);
+            contadoresSolicitudes.contarAlta(lote, solicitud.getAnuncioId());
+            accesoFirestore.escribir("solicitudes.crear", lote::commit);
 
             return solicitud;
 
-        } catch (InterruptedException | ExecutionException e) {
+        } catch (ExecutionException e) {
+            if ("ALREADY_EXISTS".equals(AccesoFirestore.codigoDe(e))) {
+                throw new PresentationException("Ya existe una solicitud tuya para este anuncio", HttpStatus.CONFLICT);
+            }
+            throw new PresentationException("Error al crear solicitud", HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new PresentationException("Error al crear solicitud", HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
@@ -81,7 +130,7 @@ public class SolicitudServiceImpl implements SolicitudService {
     @Override
     public Solicitud getSolicitudById(String id) {
         try {
-            DocumentSnapshot document = db.collection(COLECCION).document(id).get().get();
+            DocumentSnapshot document = accesoFirestore.leerConHedge("solicitudes.get", () -> db.collection(COLECCION).document(id).get());
             if (document.exists()) {
                 return document.toObject(Solicitud.class);
             }
@@ -101,9 +150,9 @@ public class SolicitudServiceImpl implements SolicitudService {
     @Override
     public List<Solicitud> getSolicitudesByAnuncioId(String anuncioId) {
         try {
-            return db.collection(COLECCION)
+            return accesoFirestore.leer("solicitudes.porAnuncio", () -> db.collection(COLECCION)
                     .whereEqualTo("anuncioId", anuncioId)
-                    .get().get().getDocuments()
+                    .get()).getDocuments()
                     .stream()
                     .map(doc -> doc.toObject(Solicitud.class))
                     .collect(Collectors.toList());
@@ -122,9 +171,9 @@ public class SolicitudServiceImpl implements SolicitudService {
     @Override
     public List<Solicitud> getSolicitudesByTrabajadorId(String trabajadorId) {
         try {
-            return db.collection(COLECCION)
+            return accesoFirestore.leer("solicitudes.porTrabajador", () -> db.collection(COLECCION)
                     .whereEqualTo("trabajadorId", trabajadorId)
-                    .get().get().getDocuments()
+                    .get()).getDocuments()
                     .stream()
                     .map(doc -> {
                         Solicitud s = doc.toObject(Solicitud.class);
@@ -136,6 +185,73 @@ public class SolicitudServiceImpl implements SolicitudService {
             throw new PresentationException("Error al obtener solicitudes", HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
+    /**
+     * Recupera las solicitudes del trabajador junto con el resumen de su anuncio y si ya están evaluadas.
+     * El número de lecturas a Firestore no depende del número de solicitudes:
+     * 1. Una consulta con las solicitudes del trabajador.
+     * 2. Una lectura por lotes (getAll) de los anuncios que no están en caché.
+     * 3. Solo si el índice de existencia no está listo, una consulta con las evaluaciones del trabajador.
+     *
+     * @param trabajadorId el ID del trabajador.
+     * @return la lista de solicitudes enriquecidas.
+     * @throws PresentationException si se produce un error durante la recuperación.
+     */
+    @Override
+    public List<SolicitudConAnuncioDTO> getSolicitudesDetalladasByTrabajadorId(String trabajadorId) {
+        List<Solicitud> solicitudes = getSolicitudesByTrabajadorId(trabajadorId);
+        if (solicitudes.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<String, Anuncio> anuncios = anuncioService.getAnunciosByIds(solicitudes.stream()
+                .map(Solicitud::getAnuncioId)
+                .collect(Collectors.toList()));
+
+        Map<String, Boolean> evaluadas = new HashMap<>();
+        boolean faltanEvaluaciones = false;
+        for (Solicitud solicitud : solicitudes) {
+            Boolean enIndice = indiceExistencia.solicitudEvaluada(solicitud.getId());
+            if (enIndice == null) {
+                faltanEvaluaciones = true;
+            } else {
+                evaluadas.put(solicitud.getId(), enIndice);
+            }
+        }
+        if (faltanEvaluaciones) {
+            try {
+                accesoFirestore.leer("evaluaciones.solicitudesPorTrabajador", () -> db.collection(COLECCION_EVALUACIONES)
+                                .whereEqualTo("trabajadorId", trabajadorId)
+                                .select("solicitudId")
+                                .get()).getDocuments()
+                        .forEach(doc -> evaluadas.put(doc.getString("solicitudId"), true));
+            } catch (InterruptedException | ExecutionException e) {
+                throw new PresentationException("Error al verificar evaluaciones", HttpStatus.INTERNAL_SERVER_ERROR);
+            }
+        }
+
+        List<SolicitudConAnuncioDTO> dtos = new ArrayList<>();
+        for (Solicitud solicitud : solicitudes) {
+            SolicitudConAnuncioDTO dto = new SolicitudConAnuncioDTO();
+            dto.setId(solicitud.getId());
+            dto.setAnuncioId(solicitud.getAnuncioId());
+            dto.setClienteId(solicitud.getClienteId());
+            dto.setFechaSolicitud(solicitud.getFechaSolicitud());
+            dto.setEstado(solicitud.getEstado());
+            dto.setCompletado(solicitud.isCompletado());
+            dto.setEvaluada(Boolean.TRUE.equals(evaluadas.get(solicitud.getId())));
+            Anuncio anuncio = anuncios.get(solicitud.getAnuncioId());
+            if (anuncio != null) {
+                dto.setAnuncioEncontrado(true);
+                dto.setNombreCliente(anuncio.getNombreCliente());
+                dto.setHogar(anuncio.getHogar());
+                dto.setPersonal(anuncio.getPersonal());
+                dto.setAcompanamiento(anuncio.getAcompanamiento());
+                dto.setSalud(anuncio.getSalud());
+            }
+            dtos.add(dto);
+        }
+        return dtos;
+    }
+
     /**
      * Recupera una lista de objetos "SolicitudConTrabajadorDTO" asociados a un ID de cliente específico.
      * El método obtiene datos de varias colecciones, incluyendo "anuncios", "solicitudes",
@@ -144,15 +260,16 @@ public class SolicitudServiceImpl implements SolicitudService {
      * @param clienteId El identificador único del cliente cuyas solicitudes se recuperarán.
      * @return Una lista de objetos "SolicitudConTrabajadorDTO" asociados al ID de cliente especificado.
      * Si no se encuentran solicitudes, se devuelve una lista vacía.
+     * Si la petición se queda sin tiempo, los datos del trabajador se omiten y el DTO se marca como parcial.
      * @throws PresentationException Si se produce algún error durante la recuperación de la base de datos o la asignación de datos.
      */
     @Override
     public List<SolicitudConTrabajadorDTO> getSolicitudesByClienteId(String clienteId) {
         try {
             // 1. Obtener los IDs de los anuncios del cliente
-            List<String> misAnunciosIds = db.collection(COLECCION_ANUNCIOS)
+            List<String> misAnunciosIds = accesoFirestore.leer("anuncios.porCliente", () -> db.collection(COLECCION_ANUNCIOS)
                     .whereEqualTo("clienteId", clienteId)
-                    .get().get().getDocuments()
+                    .get()).getDocuments()
                     .stream()
                     .map(DocumentSnapshot::getId)
                     .collect(Collectors.toList()); // Usar collect(Collectors.toList()) para compatibilidad
@@ -162,9 +279,9 @@ public class SolicitudServiceImpl implements SolicitudService {
             }
 
             // 2. Obtener todas las solicitudes para esos anuncios
-            List<QueryDocumentSnapshot> solicitudDocumentos = db.collection(COLECCION)
+            List<QueryDocumentSnapshot> solicitudDocumentos = accesoFirestore.leer("solicitudes.porAnuncios", () -> db.collection(COLECCION)
                     .whereIn("anuncioId", misAnunciosIds)
-                    .get().get().getDocuments();
+                    .get()).getDocuments();
 
             List<SolicitudConTrabajadorDTO> dtosNoEvaluadas = new ArrayList<>();
 
@@ -173,53 +290,154 @@ public class SolicitudServiceImpl implements SolicitudService {
                 solicitud.setId(doc.getId()); // Asegurar que el ID esté presente
 
                 // 3. Verificar si existe una evaluación para esta solicitud
-                boolean existeEvaluacion;
-                try {
-                    // Hacemos una consulta a la colección 'evaluaciones' para ver si hay algún
-                    // documento con el 'solicitudId' actual. Usamos limit(1) porque solo
-                    // necesitamos saber si existe al menos uno.
-                    existeEvaluacion = !db.collection(COLECCION_EVALUACIONES)
-                            .whereEqualTo("solicitudId", solicitud.getId())
-                            .limit(1)
-                            .get().get().isEmpty();
-                } catch (InterruptedException | ExecutionException e) {
-                    // Si hay un error al verificar la evaluación, por precaución, podríamos
-                    // omitir esta solicitud o loguear y decidir. Aquí la omitimos para
-                    // evitar mostrar una evaluada por error.
-                    System.err.println("Error al verificar evaluación para solicitud " + solicitud.getId() + ": " + e.getMessage() + ". Omitiendo.");
-                    continue;
-                }
+                Boolean existeEvaluacion = existeEvaluacion(solicitud.getId());
 
-                // 4. Si ya existe una evaluación, saltamos esta solicitud
-                if (existeEvaluacion) {
+                // 4. Si ya existe una evaluación (o no se ha podido comprobar), saltamos esta solicitud
+                if (existeEvaluacion == null || existeEvaluacion) {
                     continue;
                 }
 
                 // 5. Si no hay evaluación, procedemos a obtener datos del trabajador y crear el DTO
-                DocumentSnapshot trabajadorDoc = null;
-                if (solicitud.getTrabajadorId() != null && !solicitud.getTrabajadorId().isEmpty()){
-                    try {
-                        trabajadorDoc = db.collection(COLECCION_USUARIOS)
-                                .document(solicitud.getTrabajadorId())
-                                .get().get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        System.err.println("Error obteniendo datos del trabajador " + solicitud.getTrabajadorId() + ": " + e.getMessage());
-                        // trabajadorDoc permanecerá null, mapToDto debe manejarlo
-                    }
-                }
-
-                SolicitudConTrabajadorDTO dto = mapToDto(solicitud, trabajadorDoc);
-                dto.setCompletado(solicitud.isCompletado()); // isCompletado() es el getter para boolean
-                dto.setEvaluacionExistente(false); // Ya filtramos, así que sabemos que no existe evaluación
-
-                dtosNoEvaluadas.add(dto);
+                dtosNoEvaluadas.add(construirDtoNoEvaluada(solicitud));
             }
             return dtosNoEvaluadas;
 
+        } catch (PresentationException e) {
+            throw e;
         } catch (Exception e) { // Captura más general para la lógica principal
             throw new PresentationException("Error al obtener solicitudes del cliente: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
+    /**
+     * Variante incremental de {@link #getSolicitudesByTrabajadorId(String)}: devuelve solo las solicitudes del
+     * trabajador modificadas desde el cursor y las eliminadas en ese intervalo.
+     *
+     * @param trabajadorId el ID del trabajador.
+     * @param since el cursor de la sincronización anterior, en milisegundos desde epoch.
+     * @return los cambios y el nuevo cursor.
+     * @throws PresentationException si el cursor no es válido o se produce un error durante la consulta.
+     */
+    @Override
+    public CambiosDTO<Solicitud> getSolicitudesByTrabajadorIdDesde(String trabajadorId, long since) {
+        Date desde = registroEliminaciones.validarCursor(since);
+        try {
+            QuerySnapshot cambiadas = accesoFirestore.leer("solicitudes.porTrabajadorDesde", () -> db.collection(COLECCION)
+                    .whereEqualTo("trabajadorId", trabajadorId)
+                    .whereGreaterThanOrEqualTo("updatedAt", desde)
+                    .get());
+            QuerySnapshot lapidas = accesoFirestore.leer("eliminaciones.solicitudes",
+                    () -> registroEliminaciones.consultaDesde(COLECCION, "trabajadorId", trabajadorId, desde).get());
+            List<Solicitud> solicitudes = cambiadas.getDocuments().stream()
+                    .map(doc -> {
+                        Solicitud s = doc.toObject(Solicitud.class);
+                        s.setId(doc.getId());
+                        return s;
+                    })
+                    .collect(Collectors.toList());
+            return new CambiosDTO<>(solicitudes, RegistroEliminaciones.ids(lapidas), RegistroEliminaciones.cursor(cambiadas, lapidas));
+        } catch (InterruptedException | ExecutionException e) {
+            throw new PresentationException("Error al obtener solicitudes", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Variante incremental de {@link #getSolicitudesByClienteId(String)}. Además de las solicitudes borradas,
+     * se devuelven como eliminadas las que se han evaluado desde el cursor, porque dejan de aparecer en la lista.
+     *
+     * @param clienteId el ID del cliente.
+     * @param since el cursor de la sincronización anterior, en milisegundos desde epoch.
+     * @return los cambios y el nuevo cursor.
+     * @throws PresentationException si el cursor no es válido o se produce un error durante la consulta.
+     */
+    @Override
+    public CambiosDTO<SolicitudConTrabajadorDTO> getSolicitudesByClienteIdDesde(String clienteId, long since) {
+        Date desde = registroEliminaciones.validarCursor(since);
+        try {
+            QuerySnapshot cambiadas = accesoFirestore.leer("solicitudes.porClienteDesde", () -> db.collection(COLECCION)
+                    .whereEqualTo("clienteId", clienteId)
+                    .whereGreaterThanOrEqualTo("updatedAt", desde)
+                    .get());
+            QuerySnapshot evaluadas = accesoFirestore.leer("evaluaciones.porClienteDesde", () -> db.collection(COLECCION_EVALUACIONES)
+                    .whereEqualTo("clienteId", clienteId)
+                    .whereGreaterThanOrEqualTo("updatedAt", desde)
+                    .select("solicitudId")
+                    .get());
+            QuerySnapshot lapidas = accesoFirestore.leer("eliminaciones.solicitudes",
+                    () -> registroEliminaciones.consultaDesde(COLECCION, "clienteId", clienteId, desde).get());
+
+            Set<String> eliminadas = new LinkedHashSet<>(RegistroEliminaciones.ids(lapidas));
+            evaluadas.getDocuments().forEach(doc -> eliminadas.add(doc.getString("solicitudId")));
+            List<SolicitudConTrabajadorDTO> dtos = new ArrayList<>();
+            for (QueryDocumentSnapshot doc : cambiadas.getDocuments()) {
+                Solicitud solicitud = doc.toObject(Solicitud.class);
+                solicitud.setId(doc.getId());
+                if (eliminadas.contains(solicitud.getId())) {
+                    continue;
+                }
+                Boolean existeEvaluacion = existeEvaluacion(solicitud.getId());
+                if (existeEvaluacion == null || existeEvaluacion) {
+                    eliminadas.add(solicitud.getId());
+                    continue;
+                }
+                dtos.add(construirDtoNoEvaluada(solicitud));
+            }
+            return new CambiosDTO<>(dtos, new ArrayList<>(eliminadas), RegistroEliminaciones.cursor(cambiadas, evaluadas, lapidas));
+        } catch (InterruptedException | ExecutionException e) {
+            throw new PresentationException("Error al obtener solicitudes del cliente", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Comprueba si una solicitud ya tiene evaluación, primero en el índice de existencia y si no en Firestore.
+     *
+     * @return true o false, o null si no se ha podido comprobar (en ese caso la solicitud se omite por precaución).
+     */
+    private Boolean existeEvaluacion(String solicitudId) {
+        Boolean enIndice = indiceExistencia.solicitudEvaluada(solicitudId);
+        if (enIndice != null) {
+            return enIndice;
+        }
+        try {
+            // Hacemos una consulta a la colección 'evaluaciones' para ver si hay algún
+            // documento con el 'solicitudId' actual. Usamos limit(1) porque solo
+            // necesitamos saber si existe al menos uno.
+            return !accesoFirestore.leer("evaluaciones.existePorSolicitud", () -> db.collection(COLECCION_EVALUACIONES)
+                    .whereEqualTo("solicitudId", solicitudId)
+                    .limit(1)
+                    .get()).isEmpty();
+        } catch (InterruptedException | ExecutionException e) {
+            // Si hay un error al verificar la evaluación, la omitimos para evitar mostrar una evaluada por error.
+            System.err.println("Error al verificar evaluación para solicitud " + solicitudId + ": " + e.getMessage() + ". Omitiendo.");
+            return null;
+        }
+    }
+
+    /**
+     * Construye el DTO de una solicitud sin evaluar, con los datos del trabajador si queda tiempo en la petición.
+     */
+    private SolicitudConTrabajadorDTO construirDtoNoEvaluada(Solicitud solicitud) {
+        DocumentSnapshot trabajadorDoc = null;
+        boolean parcial = !PlazoPeticion.permiteOpcionales();
+        if (!parcial && solicitud.getTrabajadorId() != null && !solicitud.getTrabajadorId().isEmpty()){
+            try {
+                trabajadorDoc = accesoFirestore.leer("usuarios.get", () -> db.collection(COLECCION_USUARIOS)
+                        .document(solicitud.getTrabajadorId())
+                        .get());
+            } catch (InterruptedException | ExecutionException e) {
+                System.err.println("Error obteniendo datos del trabajador " + solicitud.getTrabajadorId() + ": " + e.getMessage());
+                // trabajadorDoc permanecerá null, mapToDto debe manejarlo
+            }
+        }
+
+        SolicitudConTrabajadorDTO dto = mapToDto(solicitud, trabajadorDoc);
+        if (parcial) {
+            dto.setTrabajadorNombre(null); // No se ha consultado, no es que no exista
+            dto.setParcial(true);
+        }
+        dto.setCompletado(solicitud.isCompletado()); // isCompletado() es el getter para boolean
+        dto.setEvaluacionExistente(false); // Ya filtramos, así que sabemos que no existe evaluación
+        return dto;
+    }
     /**
      * Asigna una Solicitud y su DocumentSnapshot asociado de un trabajador a una SolicitudConTrabajadorDTO.
      *
@@ -235,7 +453,7 @@ public class SolicitudServiceImpl implements SolicitudService {
         dto.setFechaSolicitud(solicitud.getFechaSolicitud());
         dto.setEstado(solicitud.getEstado());
 
-        if (trabajadorDoc.exists()) {
+        if (trabajadorDoc != null && trabajadorDoc.exists()) {
             dto.setTrabajadorNombre(trabajadorDoc.getString("nombre") + " " + trabajadorDoc.getString("apellido"));
             dto.setDisponibilidad(trabajadorDoc.getString("disponibilidad"));
             dto.setEstudios(trabajadorDoc.getString("estudios"));
@@ -257,73 +475,127 @@ public class SolicitudServiceImpl implements SolicitudService {
     }
 
     /**
-     * Marca una solicitud específica como completada en la base de datos y recupera el objeto de solicitud actualizado.
+     * Marca una solicitud específica como completada en la base de datos con una sola escritura. El resultado se
+     * obtiene aplicando el cambio a la solicitud que el llamante ya ha leído (para comprobar su propietario), en
+     * lugar de volver a leerla; si la solicitud se ha eliminado entretanto, la escritura falla con NOT_FOUND.
      *
      * @param solicitudId: el identificador de la solicitud que se marcará como completada.
+     * @param actual: la solicitud tal como la ha leído el llamante.
      * @return: el objeto de Solicitud actualizado después de que se haya marcado como completada.
-     * @throws: PresentationException si hay un error al actualizar la solicitud en la base de datos.
+     * @throws: PresentationException 404 si la solicitud ya no existe, o 500 si hay un error al actualizarla.
      */
-    public Solicitud marcarComoCompletado(String solicitudId) {
+    @Override
+    public Solicitud marcarComoCompletado(String solicitudId, Solicitud actual) {
         try {
-            DocumentReference docRef = db.collection("solicitudes").document(solicitudId);
-            docRef.update("completado", true).get();
-            return docRef.get().get().toObject(Solicitud.class);
-        } catch (InterruptedException | ExecutionException e) {
+            DocumentReference docRef = db.collection(COLECCION).document(solicitudId);
+            WriteResult resultado = accesoFirestore.escribir("solicitudes.completar",
+                    () -> docRef.update("completado", true, "updatedAt", FieldValue.serverTimestamp()));
+            actual.setId(solicitudId);
+            actual.setCompletado(true);
+            // serverTimestamp toma el instante de la escritura, que es el updateTime devuelto
+            actual.setUpdatedAt(resultado.getUpdateTime().toDate());
+            return actual;
+        } catch (ExecutionException e) {
+            if ("NOT_FOUND".equals(AccesoFirestore.codigoDe(e))) {
+                throw new PresentationException("Solicitud no encontrada", HttpStatus.NOT_FOUND);
+            }
+            throw new PresentationException("Error al actualizar solicitud", HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new PresentationException("Error al actualizar solicitud", HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
     /**
      * Actualiza el estado de una solicitud existente en la base de datos.
      *
+     * La transición se valida con {@link EstadoSolicitud#puedeCambiarA} y se aplica en un único WriteBatch junto con
+     * el contador de solicitudes del anuncio y el chat que se asegura al aceptar la solicitud, de modo que nunca queda
+     * una solicitud aceptada sin chat ni un contador que no refleje la transición.
+     * La escritura lleva la precondición Precondition.updatedAt con la versión leída: si otra petición cambia la
+     * solicitud entretanto, el lote se rechaza entero y se vuelve a leer y validar, hasta MAX_INTENTOS_TRANSICION
+     * veces. Se usa concurrencia optimista en lugar de una transacción para no bloquear el documento mientras
+     * se valida.
+     *
      * @param solicitudId El identificador único de la solicitud que se desea actualizar.
      * @param nuevoEstado El nuevo estado que se desea asignar a la solicitud.
-     * @return La solicitud actualizada con los datos más recientes desde la base de datos.
-     * @throws PresentationException Si ocurre un error durante la actualización o recuperación de la solicitud.
+     * @return La solicitud con el estado nuevo.
+     * @throws PresentationException 404 si la solicitud no existe, 409 si la transición no está permitida o la
+     * solicitud sigue cambiando tras todos los intentos, o 500 si ocurre un error durante la actualización.
      */
     @Override
     public Solicitud actualizarEstadoSolicitud(String solicitudId, EstadoSolicitud nuevoEstado) {
         try {
             DocumentReference docRef = db.collection(COLECCION).document(solicitudId);
-            DocumentSnapshot solicitudSnapshot = docRef.get().get(); // Espera a que se obtenga el snapshot
-            if (!solicitudSnapshot.exists()) {
+            for (int intento = 1; intento <= MAX_INTENTOS_TRANSICION; intento++) {
+                DocumentSnapshot solicitudSnapshot = accesoFirestore.leer("solicitudes.get", docRef::get);
+                if (!solicitudSnapshot.exists()) {
+                    throw new PresentationException("Solicitud con ID " + solicitudId + " no encontrada para actualizar estado.", HttpStatus.NOT_FOUND);
+                }
+                Solicitud solicitud = solicitudSnapshot.toObject(Solicitud.class);
+                if (solicitud == null) {
+                    throw new PresentationException("Error al mapear la solicitud desde Firestore para ID " + solicitudId, HttpStatus.INTERNAL_SERVER_ERROR);
+                }
+                solicitud.setId(solicitudSnapshot.getId());
 
-                throw new PresentationException("Solicitud con ID " + solicitudId + " no encontrada para actualizar estado.", HttpStatus.NOT_FOUND);
-            }
-            Solicitud solicitud = solicitudSnapshot.toObject(Solicitud.class);
-            if (solicitud == null) {
-                throw new PresentationException("Error al mapear la solicitud desde Firestore para ID " + solicitudId, HttpStatus.INTERNAL_SERVER_ERROR);
-            }
+                EstadoSolicitud actual = solicitud.getEstado() != null ? solicitud.getEstado() : EstadoSolicitud.PENDIENTE;
+                if (!actual.puedeCambiarA(nuevoEstado)) {
+                    throw new PresentationException("No se puede pasar una solicitud de " + actual + " a " + nuevoEstado, HttpStatus.CONFLICT);
+                }
+                if (actual == nuevoEstado) {
+                    return solicitud; // Reintento de una transición ya aplicada
+                }
 
-            solicitud.setId(solicitudSnapshot.getId());
-            Map<String, Object> updates = new HashMap<>();
-            updates.put("estado", nuevoEstado);
-            docRef.update(updates).get(); // Actualiza el estado de la solicitud
-
-            if (nuevoEstado == EstadoSolicitud.ACEPTADA) {
-                String clienteId = solicitud.getClienteId();
-                String trabajadorId = solicitud.getTrabajadorId();
-
-                if (clienteId != null && trabajadorId != null) {
-                    String chatId = Arrays.stream(new String[]{clienteId, trabajadorId})
-                            .sorted()
-                            .collect(Collectors.joining("_"));
-                    DocumentReference chatRef = db.collection("chats").document(chatId);
-                    Map<String, Object> chatUpdates = new HashMap<>();
-                    chatUpdates.put("participantes", Arrays.asList(clienteId, trabajadorId)); // Asegura participantes
-                    chatUpdates.put("evaluadoPorCliente", false);
-                    chatUpdates.put("solicitudEvaluadaId", null);
-                    chatRef.set(chatUpdates, SetOptions.merge()).get();
-                    System.out.println("Servicio: Chat " + chatId + " asegurado/reactivado para nueva solicitud ACEPTADA: " + solicitudId);
+                WriteBatch lote = db.batch();
+                Map<String, Object> updates = new HashMap<>();
+                updates.put("estado", nuevoEstado);
+                updates.put("updatedAt", FieldValue.serverTimestamp());
+                lote.update(docRef, updates, Precondition.updatedAt(solicitudSnapshot.getUpdateTime()));
+                contadoresSolicitudes.contarCambio(lote, solicitud.getAnuncioId(), actual, nuevoEstado);
+                if (nuevoEstado == EstadoSolicitud.ACEPTADA) {
+                    asegurarChat(lote, solicitud.getClienteId(), solicitud.getTrabajadorId());
+                }
+
+                try {
+                    List<WriteResult> resultados = accesoFirestore.escribir("solicitudes.actualizarEstado", lote::commit);
+                    solicitud.setEstado(nuevoEstado);
+                    solicitud.setUpdatedAt(resultados.get(0).getUpdateTime().toDate());
+                    return solicitud;
+                } catch (ExecutionException e) {
+                    if (!"FAILED_PRECONDITION".equals(AccesoFirestore.codigoDe(e))) {
+                        throw e;
+                    }
+                    logger.debug("Solicitud {} modificada durante la transición a {} (intento {})", solicitudId, nuevoEstado, intento);
                 }
             }
-            solicitud.setEstado(nuevoEstado);
-            return solicitud;
+            throw new PresentationException("La solicitud está siendo modificada, inténtelo de nuevo", HttpStatus.CONFLICT);
 
-        } catch (InterruptedException | ExecutionException e) {
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new PresentationException("Error al actualizar estado de solicitud", HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (ExecutionException e) {
+            throw new PresentationException("Error al actualizar estado de solicitud", HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (PresentationException e) {
+            throw e;
         } catch (Exception e) {
             throw new PresentationException("Error inesperado al actualizar estado de solicitud: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
 
+    /**
+     * Añade al lote la creación o reactivación del chat entre el cliente y el trabajador de una solicitud aceptada.
+     */
+    private void asegurarChat(WriteBatch lote, String clienteId, String trabajadorId) {
+        if (clienteId == null || trabajadorId == null) {
+            return;
+        }
+        String chatId = Arrays.stream(new String[]{clienteId, trabajadorId})
+                .sorted()
+                .collect(Collectors.joining("_"));
+        Map<String, Object> chatUpdates = new HashMap<>();
+        chatUpdates.put("participantes", Arrays.asList(clienteId, trabajadorId)); // Asegura participantes
+        chatUpdates.put("evaluadoPorCliente", false);
+        chatUpdates.put("solicitudEvaluadaId", null);
+        lote.set(db.collection("chats").document(chatId), chatUpdates, SetOptions.merge());
+    }
+
 }
@@ -1,10 +1,23 @@
 package com.proyecto.ProyectoConectacare.service.impl;
 
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.Timestamp;
 import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldMask;
 import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Precondition;
 import com.google.cloud.firestore.SetOptions;
+import com.google.cloud.firestore.WriteResult;
+import com.proyecto.ProyectoConectacare.cache.CacheLocal;
+import com.proyecto.ProyectoConectacare.cache.IndiceEmails;
+import com.proyecto.ProyectoConectacare.cache.LecturasCoalescidas;
+import com.proyecto.ProyectoConectacare.cache.RegistroCaches;
+import com.proyecto.ProyectoConectacare.dto.ProyeccionUsuario;
+import com.proyecto.ProyectoConectacare.dto.UsuarioVersionado;
 import com.proyecto.ProyectoConectacare.exception.PresentationException;
+import com.proyecto.ProyectoConectacare.firestore.AccesoFirestore;
 import com.proyecto.ProyectoConectacare.model.Evento;
 import com.proyecto.ProyectoConectacare.model.LogEstadisticas;
 import com.proyecto.ProyectoConectacare.model.Usuario;
@@ -15,8 +28,13 @@ import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
@@ -26,10 +44,22 @@ public class UsuarioServiceImpl implements UsuarioService {
     private Firestore db;
     private final String COLECCION = "usuarios";
     private final LogEstadisticaService logEstadisticasService;
+    private final RegistroCaches caches;
+    private final LecturasCoalescidas lecturasCoalescidas;
+    private final AccesoFirestore accesoFirestore;
+    private final IndiceEmails indiceEmails;
+    private final ObjectMapper objectMapper;
 
-    public UsuarioServiceImpl(Firestore db, LogEstadisticaService logEstadisticasService) {
+    public UsuarioServiceImpl(Firestore db, LogEstadisticaService logEstadisticasService, RegistroCaches caches,
+                              LecturasCoalescidas lecturasCoalescidas, AccesoFirestore accesoFirestore,
+                              IndiceEmails indiceEmails, ObjectMapper objectMapper) {
         this.db = db;
         this.logEstadisticasService = logEstadisticasService;
+        this.caches = caches;
+        this.lecturasCoalescidas = lecturasCoalescidas;
+        this.accesoFirestore = accesoFirestore;
+        this.indiceEmails = indiceEmails;
+        this.objectMapper = objectMapper;
     }
 
     /**
@@ -43,7 +73,9 @@ public class UsuarioServiceImpl implements UsuarioService {
     public Usuario createUsuario(Usuario usuario) {
         try {
             DocumentReference docRef = db.collection(COLECCION).document(usuario.getId());
-            docRef.set(usuario).get();
+            WriteResult resultado = accesoFirestore.escribir("usuarios.crear", () -> docRef.set(usuario));
+            caches.usuarios().put(usuario.getId(), usuario, RegistroCaches.version(resultado.getUpdateTime()));
+            indiceEmails.registrar(usuario.getEmail());
             logEstadisticasService.registrarEvento(usuario, Evento.REGISTRO);
             return usuario;
         } catch (InterruptedException | ExecutionException e) {
@@ -62,34 +94,151 @@ public class UsuarioServiceImpl implements UsuarioService {
      */
     @Override
     public Usuario updateUsuario(String id, Map<String, Object> updates) {
+        return updateUsuario(id, updates, null).usuario();
+    }
+
+    /**
+     * Actualiza un usuario con una sola escritura en Firestore siempre que sea posible.
+     *
+     * Los cambios se validan antes de escribir nada: cada campo debe ser una propiedad de primer nivel de Usuario
+     * (Firestore interpretaría "direccion.calle" como una ruta anidada y Jackson como un nombre literal) y los valores
+     * deben poder convertirse a su tipo.
+     *
+     * Si el usuario está en caché, la escritura lleva la precondición Precondition.updatedAt con la versión
+     * cacheada y el resultado se obtiene aplicando los cambios a esa copia, sin volver a leer el documento. Si la
+     * precondición falla porque la copia estaba desfasada, se descarta y se actualiza sin precondición, leyendo
+     * después el resultado como antes. Un usuario inexistente se detecta por el error NOT_FOUND de la propia
+     * escritura, sin lectura previa. Una vez confirmada la escritura ya no se responde con un error del cliente:
+     * si algo falla al actualizar la caché, se invalida la entrada y se lee el documento.
+     *
+     * @param id El identificador único del usuario que se actualizará.
+     * @param updates Los campos y valores a actualizar.
+     * @param versionEsperada versión del documento que el cliente ha enviado en If-Match, o null si no la exige.
+     * @return El usuario actualizado y la versión de la escritura (o de la lectura posterior).
+     * @throws PresentationException 400 si los cambios no son válidos, 404 si el usuario no existe, 412 si su
+     * versión no coincide con la esperada, o 500 si hay un error interno.
+     */
+    @Override
+    public UsuarioVersionado updateUsuario(String id, Map<String, Object> updates, Long versionEsperada) {
+        validarCambios(updates);
+        DocumentReference docRef = db.collection(COLECCION).document(id);
+        CacheLocal.Entrada<Usuario> enCache = caches.usuarios().getEntrada(id);
+        long precondicion = versionEsperada != null ? versionEsperada : enCache != null ? enCache.version() : 0L;
+        logger.debug("Iniciando actualización para el usuario: {} (versión esperada {})", id, precondicion);
         try {
-            logger.debug("Iniciando actualización para el usuario: {}", id);
-            DocumentReference docRef = db.collection(COLECCION).document(id);
+            if (precondicion != 0L) {
+                // La copia se calcula antes de escribir, para no tener que fusionar nada tras la confirmación
+                Usuario fusionado = enCache != null && enCache.version() == precondicion ? fusionar(enCache.valor(), updates) : null;
+                try {
+                    WriteResult resultado = accesoFirestore.escribir("usuarios.actualizar", () -> docRef.update(updates,
+                            Precondition.updatedAt(Timestamp.ofTimeMicroseconds(precondicion))));
+                    if (fusionado != null) {
+                        try {
+                            long version = RegistroCaches.version(resultado.getUpdateTime());
+                            caches.usuarios().put(id, fusionado, version);
+                            actualizarIndiceEmails(updates, enCache.valor().getEmail(), fusionado.getEmail());
+                            return new UsuarioVersionado(fusionado, version);
+                        } catch (RuntimeException e) {
+                            logger.warn("No se pudo actualizar la caché del usuario {} tras escribirlo; se vuelve a leer: {}", id, e.getMessage());
+                            return leerActualizado(docRef, updates, enCache.valor().getEmail());
+                        }
+                    }
+                    // La versión del cliente era la buena, pero no hay copia local sobre la que aplicar los cambios
+                    return leerActualizado(docRef, updates, null);
+                } catch (ExecutionException e) {
+                    String codigo = AccesoFirestore.codigoDe(e);
+                    if ("FAILED_PRECONDITION".equals(codigo) && versionEsperada != null) {
+                        throw new PresentationException("El usuario ha sido modificado por otra petición", HttpStatus.PRECONDITION_FAILED);
+                    }
+                    if (!"FAILED_PRECONDITION".equals(codigo)) {
+                        throw e;
+                    }
+                    logger.debug("Copia en caché desfasada del usuario {}; se actualiza sin precondición", id);
+                    caches.usuarios().invalidar(id);
+                }
+            }
 
-            // Verificar existencia
-            DocumentSnapshot snapshot = docRef.get().get();
-            if (!snapshot.exists()) {
+            // Sin copia local válida: escritura sin precondición y lectura del resultado.
+            // El email anterior solo hace falta (y solo se lee) si la actualización lo cambia
+            String emailAnterior = updates.containsKey("email")
+                    ? accesoFirestore.leer("usuarios.get", docRef::get).getString("email")
+                    : null;
+            accesoFirestore.escribir("usuarios.actualizar", () -> docRef.update(updates));
+            return leerActualizado(docRef, updates, emailAnterior);
+
+        } catch (ExecutionException e) {
+            if ("NOT_FOUND".equals(AccesoFirestore.codigoDe(e))) {
                 logger.error("Usuario no encontrado: {}", id);
                 throw new PresentationException("Usuario no encontrado", HttpStatus.NOT_FOUND);
             }
+            logger.error("Error al actualizar usuario: {}", e.getMessage(), e); // <-- Log detallado
+            throw new PresentationException("Error interno", HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Error al actualizar usuario: {}", e.getMessage(), e);
+            throw new PresentationException("Error interno", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
 
-            logger.debug("Campos a actualizar: {}", updates);
-            docRef.update(updates).get();
-            logger.debug("Campos actualizados correctamente");
+    /**
+     * Lee el usuario recién escrito. La entrada en caché se invalida antes, para que no quede una copia anterior
+     * a la escritura si la lectura falla.
+     */
+    private UsuarioVersionado leerActualizado(DocumentReference docRef, Map<String, Object> updates, String emailAnterior)
+            throws InterruptedException, ExecutionException {
+        caches.usuarios().invalidar(docRef.getId());
+        DocumentSnapshot updatedSnapshot = accesoFirestore.leer("usuarios.get", docRef::get);
+        Usuario actualizado = updatedSnapshot.toObject(Usuario.class);
+        long version = RegistroCaches.version(updatedSnapshot);
+        caches.usuarios().put(docRef.getId(), actualizado, version);
+        actualizarIndiceEmails(updates, emailAnterior, actualizado.getEmail());
+        return new UsuarioVersionado(actualizado, version);
+    }
 
-            DocumentSnapshot updatedSnapshot = docRef.get().get();
-            return updatedSnapshot.toObject(Usuario.class);
+    private void actualizarIndiceEmails(Map<String, Object> updates, String emailAnterior, String emailNuevo) {
+        if (updates.containsKey("email")) {
+            indiceEmails.eliminar(emailAnterior);
+            indiceEmails.registrar(emailNuevo);
+        }
+    }
 
-        } catch (InterruptedException | ExecutionException e) {
-            logger.error("Error al actualizar usuario: {}", e.getMessage(), e); // <-- Log detallado
-            throw new PresentationException("Error interno", HttpStatus.INTERNAL_SERVER_ERROR);
+    /**
+     * Comprueba, antes de escribir, que los cambios son campos de primer nivel y que sus valores se pueden convertir
+     * al tipo de cada campo de Usuario.
+     *
+     * @throws PresentationException 400 si no hay cambios o alguno no es válido.
+     */
+    private void validarCambios(Map<String, Object> updates) {
+        if (updates == null || updates.isEmpty()) {
+            throw new PresentationException("No hay campos que actualizar", HttpStatus.BAD_REQUEST);
         }
+        for (String campo : updates.keySet()) {
+            if (campo == null || campo.isBlank() || campo.contains(".")) {
+                throw new PresentationException("Campo de actualización no válido: " + campo, HttpStatus.BAD_REQUEST);
+            }
+        }
+        fusionar(new Usuario(), updates);
+    }
 
+    /**
+     * Aplica los cambios sobre una copia del usuario cacheado, que no se modifica porque otras peticiones
+     * pueden estar leyéndolo. La contraseña no se serializa, así que se copia aparte.
+     */
+    private Usuario fusionar(Usuario base, Map<String, Object> updates) {
+        try {
+            Usuario copia = objectMapper.convertValue(base, Usuario.class);
+            copia.setPassword(base.getPassword());
+            return objectMapper.updateValue(copia, updates);
+        } catch (JsonMappingException | IllegalArgumentException e) {
+            throw new PresentationException("Campos de actualización no válidos", HttpStatus.BAD_REQUEST);
+        }
     }
 
 
     /**
      * Recupera un usuario de la base de datos de Firestore según el identificador único proporcionado.
+     * Primero se consulta la caché en memoria, ya que este método se invoca en cada petición autenticada,
+     * y las lecturas simultáneas del mismo usuario se agrupan en una sola consulta a Firestore.
      *
      * @param id El identificador único del usuario que se recuperará.
      * @return El objeto Usuario que representa al usuario, si se encuentra.
@@ -97,11 +246,75 @@ public class UsuarioServiceImpl implements UsuarioService {
      */
     @Override
     public Usuario getUsuarioById(String id) {
+        return getUsuarioVersionado(id).usuario();
+    }
+
+    /**
+     * Recupera un usuario como {@link #getUsuarioById(String)}, junto con la versión de la entrada de caché o del
+     * documento del que se ha obtenido, que se usa como ETag.
+     *
+     * @param id El identificador único del usuario.
+     * @return el usuario y su versión.
+     * @throws PresentationException Si no se encuentra el usuario o si se produce un error interno.
+     */
+    @Override
+    public UsuarioVersionado getUsuarioVersionado(String id) {
+        CacheLocal.Entrada<Usuario> enCache = caches.usuarios().getEntrada(id);
+        if (enCache != null) {
+            return new UsuarioVersionado(enCache.valor(), enCache.version());
+        }
+        return lecturasCoalescidas.ejecutar(COLECCION + "/" + id, () -> leerUsuario(id));
+    }
+
+    /**
+     * Recupera varios usuarios a la vez. Los que están en caché no se leen; el resto se obtiene con una única
+     * llamada a Firestore.getAll, en lugar de una lectura por usuario.
+     *
+     * @param ids los identificadores de los usuarios; se ignoran los duplicados y los vacíos.
+     * @return un mapa del ID al usuario, en el orden recibido; los usuarios que no existen no aparecen.
+     * @throws PresentationException si hay un error durante la lectura.
+     */
+    @Override
+    public Map<String, Usuario> getUsuariosByIds(Collection<String> ids) {
+        Map<String, Usuario> encontrados = new LinkedHashMap<>();
+        List<DocumentReference> pendientes = new ArrayList<>();
+        for (String id : new LinkedHashSet<>(ids)) {
+            if (id == null || id.isBlank()) {
+                continue;
+            }
+            Usuario enCache = caches.usuarios().get(id);
+            encontrados.put(id, enCache);
+            if (enCache == null) {
+                pendientes.add(db.collection(COLECCION).document(id));
+            }
+        }
+        if (!pendientes.isEmpty()) {
+            try {
+                DocumentReference[] refs = pendientes.toArray(DocumentReference[]::new);
+                for (DocumentSnapshot doc : accesoFirestore.leer("usuarios.getAll", () -> db.getAll(refs))) {
+                    if (doc.exists()) {
+                        Usuario usuario = doc.toObject(Usuario.class);
+                        caches.usuarios().put(doc.getId(), usuario, RegistroCaches.version(doc));
+                        encontrados.put(doc.getId(), usuario);
+                    }
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                throw new PresentationException("Error al obtener usuarios", HttpStatus.INTERNAL_SERVER_ERROR);
+            }
+        }
+        encontrados.values().removeIf(Objects::isNull);
+        return encontrados;
+    }
+
+    private UsuarioVersionado leerUsuario(String id) {
         try {
-            DocumentSnapshot document = db.collection(COLECCION).document(id).get().get();
+            DocumentSnapshot document = accesoFirestore.leerConHedge("usuarios.get", () -> db.collection(COLECCION).document(id).get());
             if (document.exists()) {
                 System.out.println("Datos del documento: " + document.getData());
-                return document.toObject(Usuario.class);
+                Usuario usuario = document.toObject(Usuario.class);
+                long version = RegistroCaches.version(document);
+                caches.usuarios().put(id, usuario, version);
+                return new UsuarioVersionado(usuario, version);
             }
             throw new PresentationException("Usuario no encontrado", HttpStatus.NOT_FOUND);
         } catch (InterruptedException | ExecutionException e) {
@@ -118,15 +331,72 @@ public class UsuarioServiceImpl implements UsuarioService {
     @Override
     public List<Usuario> getAllUsuarios() {
         try {
-            return db.collection(COLECCION).get().get().getDocuments()
+            return accesoFirestore.leer("usuarios.listar", () -> db.collection(COLECCION).get()).getDocuments()
                     .stream()
-                    .map(doc -> doc.toObject(Usuario.class))
+                    .map(doc -> {
+                        Usuario usuario = doc.toObject(Usuario.class);
+                        caches.usuarios().put(doc.getId(), usuario, RegistroCaches.version(doc));
+                        return usuario;
+                    })
                     .collect(Collectors.toList());
         } catch (InterruptedException | ExecutionException e) {
             throw new PresentationException("Error al obtener usuarios", HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
 
+    /**
+     * Recupera todos los usuarios con solo los campos indicados. La proyección se aplica en Firestore con
+     * Query.select, por lo que el resto de campos no se transfieren. Estos resultados parciales no se guardan en caché.
+     *
+     * @param campos los campos pedidos, ya validados con {@link ProyeccionUsuario#resolver(String)}.
+     * @return una lista de mapas con los campos pedidos de cada usuario.
+     * @throws PresentationException si hay un error durante el proceso de recuperación.
+     */
+    @Override
+    public List<Map<String, Object>> getAllUsuarios(List<String> campos) {
+        try {
+            return accesoFirestore.leer("usuarios.listarProyectado", () -> db.collection(COLECCION)
+                            .select(ProyeccionUsuario.camposDocumento(campos))
+                            .get()).getDocuments()
+                    .stream()
+                    .map(doc -> ProyeccionUsuario.desdeDocumento(doc, campos))
+                    .collect(Collectors.toList());
+        } catch (InterruptedException | ExecutionException e) {
+            throw new PresentationException("Error al obtener usuarios", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Recupera un usuario con solo los campos indicados. Si el usuario completo está en caché se proyecta en memoria;
+     * si no, se lee de Firestore únicamente con esos campos (FieldMask).
+     *
+     * @param id el identificador del usuario.
+     * @param campos los campos pedidos, ya validados con {@link ProyeccionUsuario#resolver(String)}.
+     * @return un mapa con los campos pedidos.
+     * @throws PresentationException si el usuario no existe o hay un error durante la lectura.
+     */
+    @Override
+    public Map<String, Object> getUsuarioById(String id, List<String> campos) {
+        Usuario enCache = caches.usuarios().get(id);
+        if (enCache != null) {
+            return ProyeccionUsuario.desdeUsuario(enCache, campos);
+        }
+        String[] camposDocumento = ProyeccionUsuario.camposDocumento(campos);
+        if (camposDocumento.length == 0) {
+            return ProyeccionUsuario.desdeUsuario(getUsuarioById(id), campos);
+        }
+        try {
+            DocumentSnapshot document = accesoFirestore.leer("usuarios.getProyectado",
+                    () -> db.collection(COLECCION).document(id).get(FieldMask.of(camposDocumento)));
+            if (!document.exists()) {
+                throw new PresentationException("Usuario no encontrado", HttpStatus.NOT_FOUND);
+            }
+            return ProyeccionUsuario.desdeDocumento(document, campos);
+        } catch (InterruptedException | ExecutionException e) {
+            throw new PresentationException("Error al obtener usuario", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
     /**
      * Elimina un usuario de la colección especificada según el ID proporcionado.
      *
@@ -137,10 +407,13 @@ public class UsuarioServiceImpl implements UsuarioService {
     public void deleteUsuario(String id) {
         try {
             DocumentReference docRef = db.collection(COLECCION).document(id);
-            if (!docRef.get().get().exists()) {
+            DocumentSnapshot existente = accesoFirestore.leer("usuarios.get", docRef::get);
+            if (!existente.exists()) {
                 throw new PresentationException("Usuario no encontrado", HttpStatus.NOT_FOUND);
             }
-            docRef.delete().get();
+            accesoFirestore.escribir("usuarios.eliminar", docRef::delete);
+            caches.usuarios().invalidar(id);
+            indiceEmails.eliminar(existente.getString("email"));
         } catch (InterruptedException | ExecutionException e) {
             throw new PresentationException("Error al eliminar usuario", HttpStatus.INTERNAL_SERVER_ERROR);
         }
@@ -0,0 +1,167 @@
+package com.proyecto.ProyectoConectacare.sincronizacion;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.firestore.WriteBatch;
+import com.proyecto.ProyectoConectacare.ejecucion.CompartimentosEjecucion;
+import com.proyecto.ProyectoConectacare.ejecucion.Prioridad;
+import com.proyecto.ProyectoConectacare.exception.PresentationException;
+import com.proyecto.ProyectoConectacare.firestore.AccesoFirestore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Registro de eliminaciones ("lápidas") para la sincronización incremental.
+ *
+ * Cuando un documento de anuncios, solicitudes o evaluaciones se borra, el cambio no aparece en una consulta por
+ * `updatedAt`, así que se guarda un documento en la colección "eliminaciones" con la colección, el ID borrado,
+ * los propietarios (clienteId y trabajadorId, para filtrar por usuario) y la fecha de servidor del borrado.
+ *
+ * Las lápidas se conservan durante un periodo de retención (`conectacare.sincronizacion.retencion-dias`) y se purgan
+ * después en segundo plano. Un cursor más antiguo que ese periodo ya no garantiza ver todas las eliminaciones,
+ * por lo que se rechaza con 410 y el cliente debe volver a descargar la lista completa.
+ */
+@Component
+public class RegistroEliminaciones {
+    private static final Logger logger = LoggerFactory.getLogger(RegistroEliminaciones.class);
+    private static final String COLECCION = "eliminaciones";
+    private static final int TAMANO_LOTE_PURGA = 400;
+
+    private final Firestore db;
+    private final AccesoFirestore accesoFirestore;
+    private final CompartimentosEjecucion compartimentos;
+    private final long retencionMs;
+
+    public RegistroEliminaciones(Firestore db, AccesoFirestore accesoFirestore, CompartimentosEjecucion compartimentos,
+                                 @Value("${conectacare.sincronizacion.retencion-dias:30}") long retencionDias) {
+        this.db = db;
+        this.accesoFirestore = accesoFirestore;
+        this.compartimentos = compartimentos;
+        this.retencionMs = TimeUnit.DAYS.toMillis(retencionDias);
+    }
+
+    /**
+     * Comprueba que el cursor recibido está dentro del periodo de retención de las lápidas.
+     *
+     * @param since el cursor enviado por el cliente, en milisegundos desde epoch.
+     * @return el cursor como Date, listo para usarse en consultas.
+     * @throws PresentationException con estado 400 si es negativo, o 410 si es anterior a la retención.
+     */
+    public Date validarCursor(long since) {
+        if (since < 0) {
+            throw new PresentationException("El parámetro since no es válido", HttpStatus.BAD_REQUEST);
+        }
+        if (since < System.currentTimeMillis() - retencionMs) {
+            throw new PresentationException("Cursor de sincronización demasiado antiguo; descargue la lista completa", HttpStatus.GONE);
+        }
+        return new Date(since);
+    }
+
+    /**
+     * Añade a un lote de escritura la lápida de un documento borrado, para que se confirme junto con el borrado.
+     *
+     * @param lote el lote donde se borra el documento.
+     * @param coleccion la colección del documento borrado.
+     * @param documentoId el ID del documento borrado.
+     * @param clienteId el cliente propietario, o null.
+     * @param trabajadorId el trabajador asociado, o null.
+     */
+    public void registrar(WriteBatch lote, String coleccion, String documentoId, String clienteId, String trabajadorId) {
+        Map<String, Object> lapida = new HashMap<>();
+        lapida.put("coleccion", coleccion);
+        lapida.put("documentoId", documentoId);
+        lapida.put("clienteId", clienteId);
+        lapida.put("trabajadorId", trabajadorId);
+        lapida.put("eliminadoEn", FieldValue.serverTimestamp());
+        lote.set(db.collection(COLECCION).document(), lapida);
+    }
+
+    /**
+     * Consulta los IDs eliminados de una colección desde el cursor.
+     *
+     * @param coleccion la colección consultada.
+     * @param campoPropietario "clienteId" o "trabajadorId" para filtrar por usuario, o null para no filtrar.
+     * @param propietario el valor del filtro, si lo hay.
+     * @param desde el cursor de la sincronización.
+     * @return la consulta, para leerla con {@link #ids(QuerySnapshot)} junto con las demás de la sincronización.
+     */
+    public Query consultaDesde(String coleccion, String campoPropietario, String propietario, Date desde) {
+        Query query = db.collection(COLECCION).whereEqualTo("coleccion", coleccion);
+        if (campoPropietario != null) {
+            query = query.whereEqualTo(campoPropietario, propietario);
+        }
+        return query.whereGreaterThanOrEqualTo("eliminadoEn", desde).select("documentoId");
+    }
+
+    public static List<String> ids(QuerySnapshot lapidas) {
+        return lapidas.getDocuments().stream()
+                .map(doc -> doc.getString("documentoId"))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Calcula el cursor de una sincronización: el instante de lectura más antiguo de las consultas realizadas,
+     * para no saltarse ninguna escritura confirmada entre una consulta y otra.
+     */
+    public static long cursor(QuerySnapshot... consultas) {
+        long cursor = Long.MAX_VALUE;
+        for (QuerySnapshot consulta : consultas) {
+            Timestamp lectura = consulta.getReadTime();
+            cursor = Math.min(cursor, lectura.toDate().getTime());
+        }
+        return cursor;
+    }
+
+    /**
+     * Purga diariamente las lápidas que han superado el periodo de retención.
+     */
+    @Scheduled(initialDelayString = "${conectacare.sincronizacion.purga-ms:86400000}",
+            fixedDelayString = "${conectacare.sincronizacion.purga-ms:86400000}")
+    public void purgarPeriodicamente() {
+        compartimentos.enviar(Prioridad.FONDO, this::purgar);
+    }
+
+    void purgar() {
+        Date limite = new Date(System.currentTimeMillis() - retencionMs);
+        int purgadas = 0;
+        try {
+            while (true) {
+                List<QueryDocumentSnapshot> antiguas = accesoFirestore.leer("eliminaciones.antiguas", () -> db.collection(COLECCION)
+                        .whereLessThan("eliminadoEn", limite)
+                        .select("documentoId")
+                        .limit(TAMANO_LOTE_PURGA)
+                        .get()).getDocuments();
+                if (antiguas.isEmpty()) {
+                    break;
+                }
+                WriteBatch lote = db.batch();
+                antiguas.forEach(doc -> lote.delete(doc.getReference()));
+                accesoFirestore.escribir("eliminaciones.purgar", lote::commit);
+                purgadas += antiguas.size();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | PresentationException e) {
+            logger.warn("Error purgando lápidas de sincronización: {}", e.getMessage());
+        }
+        if (purgadas > 0) {
+            logger.info("Purgadas {} lápidas de sincronización anteriores a {}.", purgadas, limite);
+        }
+    }
+}
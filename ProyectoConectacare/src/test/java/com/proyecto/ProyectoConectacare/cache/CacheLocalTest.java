@@ -0,0 +1,70 @@
+package com.proyecto.ProyectoConectacare.cache;
+
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CacheLocalTest {
+
+	private static CacheLocal<String> cache(long ttlMs, int maxEntradas) {
+		return new CacheLocal<>("prueba", TypeFactory.defaultInstance().constructType(String.class), null, null,
+				ttlMs, maxEntradas);
+	}
+
+	@Test
+	void devuelveElValorHastaQueCaduca() {
+		CacheLocal<String> cache = cache(60_000, 10);
+		long ahora = System.currentTimeMillis();
+		cache.put("a", "valor", 1);
+		cache.putHasta("b", "caducado", 1, ahora - 1);
+
+		assertThat(cache.get("a")).isEqualTo("valor");
+		assertThat(cache.get("b")).isNull();
+		assertThat(cache.entradas()).doesNotContainKey("b");
+		assertThat(cache.getAciertos()).isEqualTo(1);
+		assertThat(cache.getFallos()).isEqualTo(1);
+	}
+
+	@Test
+	void noSustituyeUnaVersionPosteriorPorOtraAnterior() {
+		CacheLocal<String> cache = cache(60_000, 10);
+		cache.put("a", "nueva", 20);
+		cache.put("a", "antigua", 10);
+		assertThat(cache.getEntrada("a").valor()).isEqualTo("nueva");
+		assertThat(cache.getEntrada("a").version()).isEqualTo(20);
+
+		cache.put("a", "siguiente", 30);
+		assertThat(cache.get("a")).isEqualTo("siguiente");
+	}
+
+	@Test
+	void laVersionCeroYLasEntradasCaducadasSiempreSeSustituyen() {
+		CacheLocal<String> cache = cache(60_000, 10);
+		cache.put("a", "con version", 20);
+		cache.put("a", "sin version", 0);
+		assertThat(cache.get("a")).isEqualTo("sin version");
+
+		cache.putHasta("b", "caducada", 20, System.currentTimeMillis() - 1);
+		cache.put("b", "anterior pero vigente", 10);
+		assertThat(cache.get("b")).isEqualTo("anterior pero vigente");
+	}
+
+	@Test
+	void guardarNullInvalidaLaClave() {
+		CacheLocal<String> cache = cache(60_000, 10);
+		cache.put("a", "valor", 1);
+		cache.put("a", null, 2);
+		assertThat(cache.get("a")).isNull();
+	}
+
+	@Test
+	void noSuperaElMaximoDeEntradas() {
+		CacheLocal<String> cache = cache(60_000, 10);
+		for (int i = 0; i < 100; i++) {
+			cache.put("clave" + i, "valor" + i, i + 1);
+		}
+		assertThat(cache.size()).isLessThanOrEqualTo(10);
+		assertThat(cache.get("clave99")).isEqualTo("valor99");
+	}
+}
@@ -0,0 +1,88 @@
+package com.proyecto.ProyectoConectacare.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.proyecto.ProyectoConectacare.firestore.AccesoFirestore;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class IndiceEmailsTest {
+
+	private final AccesoFirestore accesoFirestore = mock(AccesoFirestore.class);
+	private final IndiceEmails indice = new IndiceEmails(mock(Firestore.class), accesoFirestore, null,
+			new RegistroCaches(new ObjectMapper()), 60_000);
+
+	private void construirCon(String... emails) throws Exception {
+		List<QueryDocumentSnapshot> docs = new ArrayList<>();
+		for (String email : emails) {
+			QueryDocumentSnapshot doc = mock(QueryDocumentSnapshot.class);
+			when(doc.getString("email")).thenReturn(email);
+			docs.add(doc);
+		}
+		QuerySnapshot usuarios = mock(QuerySnapshot.class);
+		when(usuarios.getDocuments()).thenReturn(docs);
+		when(accesoFirestore.<QuerySnapshot>leer(anyString(), any())).thenReturn(usuarios);
+		indice.reconstruir();
+	}
+
+	@Test
+	void sinFiltroConstruidoSeConfirmaTodoContraFirebase() throws Exception {
+		when(accesoFirestore.leer(anyString(), any())).thenThrow(new ExecutionException(new RuntimeException("sin red")));
+		indice.reconstruir();
+
+		assertThat(indice.consultar("ana@example.com")).isNull();
+		assertThat(indice.getMetricas()).containsEntry("listo", false);
+	}
+
+	@Test
+	void losEmailsQueElFiltroDescartaNoEstanRegistrados() throws Exception {
+		construirCon("Ana@Example.com", null, "luis@example.com");
+
+		assertThat(indice.consultar("nadie@example.com")).isFalse();
+		assertThat(indice.consultar(" ANA@example.com ")).isNull();
+		assertThat(indice.getMetricas())
+				.containsEntry("listo", true)
+				.containsEntry("emailsIndexados", 3)
+				.containsEntry("negativosLocales", 1L)
+				.containsEntry("confirmacionesFirebase", 1L);
+	}
+
+	@Test
+	void recuerdaLasConfirmacionesDeFirebase() throws Exception {
+		construirCon("ana@example.com");
+		indice.recordar("ana@example.com", true);
+		indice.recordar("falso.positivo@example.com", false);
+
+		assertThat(indice.consultar("Ana@example.com")).isTrue();
+		assertThat(indice.consultar("falso.positivo@example.com")).isFalse();
+		assertThat(indice.getMetricas()).containsEntry("aciertosCache", 2L);
+	}
+
+	@Test
+	void lasAltasSeVenSinEsperarALaReconstruccion() throws Exception {
+		construirCon();
+		indice.registrar("nueva@example.com");
+		assertThat(indice.consultar("nueva@example.com")).isTrue();
+
+		// Al eliminarla se olvida la caché, pero el filtro la conserva y hay que confirmar
+		indice.eliminar("nueva@example.com");
+		assertThat(indice.consultar("nueva@example.com")).isNull();
+	}
+
+	@Test
+	void unEmailVacioNoEstaRegistrado() {
+		assertThat(indice.consultar("  ")).isFalse();
+		assertThat(indice.consultar(null)).isFalse();
+	}
+}
@@ -0,0 +1,165 @@
+package com.proyecto.ProyectoConectacare.cache;
+
+import com.proyecto.ProyectoConectacare.exception.PresentationException;
+import com.proyecto.ProyectoConectacare.peticion.PlazoPeticion;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LecturasCoalescidasTest {
+
+	private final LecturasCoalescidas lecturas = new LecturasCoalescidas();
+	private final ExecutorService hilos = Executors.newCachedThreadPool();
+
+	@AfterEach
+	void cerrar() {
+		hilos.shutdownNow();
+		PlazoPeticion.limpiar();
+	}
+
+	/**
+	 * Lanza una lectura que no termina hasta que se abre el cerrojo, y espera a que haya empezado.
+	 */
+	private Future<String> lecturaBloqueada(CountDownLatch liberar, Runnable alTerminar) throws Exception {
+		CountDownLatch iniciada = new CountDownLatch(1);
+		Future<String> lider = hilos.submit(() -> lecturas.ejecutar("clave", () -> {
+			iniciada.countDown();
+			try {
+				liberar.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			alTerminar.run();
+			return "valor";
+		}));
+		assertThat(iniciada.await(5, TimeUnit.SECONDS)).isTrue();
+		return lider;
+	}
+
+	private void esperarCoalescidas(long cuantas) throws InterruptedException {
+		long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while ((long) lecturas.getMetricas().get("coalescidas") < cuantas && System.nanoTime() < limite) {
+			Thread.sleep(5);
+		}
+		assertThat(lecturas.getMetricas()).containsEntry("coalescidas", cuantas);
+	}
+
+	@Test
+	void lasLecturasSimultaneasSeEjecutanUnaVez() throws Exception {
+		CountDownLatch liberar = new CountDownLatch(1);
+		AtomicInteger ejecuciones = new AtomicInteger();
+		Future<String> lider = lecturaBloqueada(liberar, () -> {
+		});
+		Future<String> seguidor = hilos.submit(() -> lecturas.ejecutar("clave", () -> {
+			ejecuciones.incrementAndGet();
+			return "otro";
+		}));
+		esperarCoalescidas(1);
+		liberar.countDown();
+
+		assertThat(lider.get(5, TimeUnit.SECONDS)).isEqualTo("valor");
+		assertThat(seguidor.get(5, TimeUnit.SECONDS)).isEqualTo("valor");
+		assertThat(ejecuciones).hasValue(0);
+		assertThat(lecturas.getMetricas()).containsEntry("ejecutadas", 1L).containsEntry("enCurso", 0);
+	}
+
+	@Test
+	void losErroresSePropaganATodos() throws Exception {
+		CountDownLatch liberar = new CountDownLatch(1);
+		Future<String> lider = lecturaBloqueada(liberar, () -> {
+			throw new PresentationException("No encontrado", HttpStatus.NOT_FOUND);
+		});
+		Future<String> seguidor = hilos.submit(() -> lecturas.ejecutar("clave", () -> "otro"));
+		esperarCoalescidas(1);
+		liberar.countDown();
+
+		assertThatThrownBy(() -> lider.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(PresentationException.class);
+		assertThatThrownBy(() -> seguidor.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(PresentationException.class);
+		assertThat(lecturas.getMetricas()).containsEntry("fallidas", 1L);
+	}
+
+	@Test
+	void siSeCancelaLaLecturaCompartidaOtroLaReintenta() throws Exception {
+		CountDownLatch liberar = new CountDownLatch(1);
+		Future<String> lider = lecturaBloqueada(liberar, () -> {
+			throw new CancellationException("petición cancelada");
+		});
+		Future<String> seguidor = hilos.submit(() -> lecturas.ejecutar("clave", () -> "reintento"));
+		esperarCoalescidas(1);
+		liberar.countDown();
+
+		assertThatThrownBy(() -> lider.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(CancellationException.class);
+		assertThat(seguidor.get(5, TimeUnit.SECONDS)).isEqualTo("reintento");
+		assertThat(lecturas.getMetricas()).containsEntry("canceladas", 1L).containsEntry("ejecutadas", 2L);
+	}
+
+	@Test
+	void siAlQueLideraSeLeAgotaSuPlazoLosDemasReintentan() throws Exception {
+		CountDownLatch iniciada = new CountDownLatch(1);
+		CountDownLatch liberar = new CountDownLatch(1);
+		Future<String> lider = hilos.submit(() -> {
+			PlazoPeticion.establecer(50, 0);
+			try {
+				return lecturas.ejecutar("clave", () -> {
+					iniciada.countDown();
+					try {
+						liberar.await();
+						while (!PlazoPeticion.vencido()) {
+							Thread.sleep(5);
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					// Lo que lanzaría AccesoFirestore al recortar la espera al plazo de la petición
+					throw new PresentationException("Plazo de la petición agotado", HttpStatus.GATEWAY_TIMEOUT);
+				});
+			} finally {
+				PlazoPeticion.limpiar();
+			}
+		});
+		assertThat(iniciada.await(5, TimeUnit.SECONDS)).isTrue();
+		Future<String> sinPlazo = hilos.submit(() -> lecturas.ejecutar("clave", () -> "reintento"));
+		esperarCoalescidas(1);
+		liberar.countDown();
+
+		assertThatThrownBy(() -> lider.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(PresentationException.class);
+		assertThat(sinPlazo.get(5, TimeUnit.SECONDS)).isEqualTo("reintento");
+		assertThat(lecturas.getMetricas()).containsEntry("canceladas", 1L).containsEntry("fallidas", 0L);
+	}
+
+	@Test
+	void quienEsperaRespondeConSuPropioPlazoSinCancelarLaLectura() throws Exception {
+		CountDownLatch liberar = new CountDownLatch(1);
+		Future<String> lider = lecturaBloqueada(liberar, () -> {
+		});
+		Future<String> conPlazo = hilos.submit(() -> {
+			PlazoPeticion.establecer(50, 0);
+			try {
+				return lecturas.ejecutar("clave", () -> "otro");
+			} finally {
+				PlazoPeticion.limpiar();
+			}
+		});
+
+		assertThatThrownBy(() -> conPlazo.get(5, TimeUnit.SECONDS))
+				.hasCauseInstanceOf(PresentationException.class)
+				.satisfies(e -> assertThat(((PresentationException) e.getCause()).getHttpStatus())
+						.isEqualTo(HttpStatus.GATEWAY_TIMEOUT));
+		assertThat(lider.isDone()).isFalse();
+
+		liberar.countDown();
+		assertThat(lider.get(5, TimeUnit.SECONDS)).isEqualTo("valor");
+		assertThat(lecturas.getMetricas()).containsEntry("vencidas", 1L);
+	}
+}
@@ -0,0 +1,92 @@
+package com.proyecto.ProyectoConectacare.cache;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.proyecto.ProyectoConectacare.model.Anuncio;
+import com.proyecto.ProyectoConectacare.model.Rol;
+import com.proyecto.ProyectoConectacare.model.Usuario;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SnapshotCacheTest {
+
+	@TempDir
+	Path directorio;
+
+	// Como el de Spring Boot: ignora propiedades desconocidas
+	private final ObjectMapper objectMapper = new ObjectMapper()
+			.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+	@Test
+	void restauraTodosLosCamposAunqueSeanDeSoloLecturaOEscritura() throws Exception {
+		RegistroCaches caches = new RegistroCaches(objectMapper);
+		Path ruta = directorio.resolve("conectacare/cache.bin");
+		SnapshotCache snapshot = new SnapshotCache(caches, objectMapper, null, null, null, true, ruta.toString());
+
+		Usuario usuario = new Usuario();
+		usuario.setId("u1");
+		usuario.setNombre("Ana");
+		usuario.setEmail("ana@example.com");
+		usuario.setPassword("secreto");
+		usuario.setRol(Rol.CLIENTE);
+		Anuncio anuncio = new Anuncio();
+		anuncio.setId("a1");
+		anuncio.setClienteId("u1");
+		anuncio.setHogar(List.of("limpieza"));
+		anuncio.setUpdatedAt(new Date(1_700_000_000_000L));
+		anuncio.setContadoresSolicitudes(Map.of("total", 3L));
+		long expiraEn = System.currentTimeMillis() + 60_000;
+		caches.usuarios().putHasta("u1", usuario, 11, expiraEn);
+		caches.anuncios().putHasta("a1", anuncio, 22, expiraEn);
+		caches.agregados().put(RegistroCaches.CLAVE_VALORACION_MEDIA, Map.of("media", 4.5), 0);
+		caches.existenciaEmails().putHasta("caducado@example.com", true, 0, System.currentTimeMillis() - 1);
+
+		snapshot.volcar();
+		caches.todas().forEach(CacheLocal::invalidarTodo);
+		assertThat(snapshot.cargar()).isEqualTo(3);
+
+		CacheLocal.Entrada<Usuario> restaurado = caches.usuarios().getEntrada("u1");
+		assertThat(restaurado.version()).isEqualTo(11);
+		assertThat(restaurado.expiraEn()).isEqualTo(expiraEn);
+		assertThat(restaurado.valor().getPassword()).isEqualTo("secreto");
+		assertThat(restaurado.valor().getRol()).isEqualTo(Rol.CLIENTE);
+
+		Anuncio anuncioRestaurado = caches.anuncios().get("a1");
+		assertThat(anuncioRestaurado.getUpdatedAt()).isEqualTo(new Date(1_700_000_000_000L));
+		assertThat(anuncioRestaurado.getContadoresSolicitudes()).containsEntry("total", 3L);
+		assertThat(anuncioRestaurado.getHogar()).containsExactly("limpieza");
+		assertThat(caches.agregados().get(RegistroCaches.CLAVE_VALORACION_MEDIA)).containsEntry("media", 4.5);
+		assertThat(caches.existenciaEmails().entradas()).isEmpty();
+	}
+
+	@Test
+	void elVolcadoSoloLoPuedeLeerElPropietario() throws Exception {
+		RegistroCaches caches = new RegistroCaches(objectMapper);
+		Path ruta = directorio.resolve("privado/cache.bin");
+		new SnapshotCache(caches, objectMapper, null, null, null, true, ruta.toString()).volcar();
+
+		assertThat(Files.isRegularFile(ruta)).isTrue();
+		if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+			assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(ruta))).isEqualTo("rw-------");
+			assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(ruta.getParent()))).isEqualTo("rwx------");
+		}
+	}
+
+	@Test
+	void elMapperDeLaApiSigueOcultandoLaPassword() throws Exception {
+		SnapshotCache.mapperVolcado(objectMapper);
+		Usuario usuario = new Usuario();
+		usuario.setPassword("secreto");
+		assertThat(objectMapper.writeValueAsString(usuario)).doesNotContain("secreto");
+	}
+}
@@ -0,0 +1,140 @@
+package com.proyecto.ProyectoConectacare.dto;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.proyecto.ProyectoConectacare.model.Anuncio;
+import com.proyecto.ProyectoConectacare.model.EstadoSolicitud;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tamaño y coste de serialización de los listados más pesados (/anuncios y /solicitudes/anuncio/{id}) en JSON,
+ * CBOR y Smile, con 200 elementos por listado.
+ *
+ * Se ejecuta con el método main (desde el IDE o con
+ * `mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.proyecto.ProyectoConectacare.dto.FormatosBinariosBenchmark`).
+ * Antes de las mediciones de tiempo se imprime el tamaño en bytes de cada listado en cada formato.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatosBinariosBenchmark {
+    private static final int ELEMENTOS = 200;
+
+    @Param({"json", "cbor", "smile"})
+    public String formato;
+
+    @Param({"anuncios", "solicitudes"})
+    public String listado;
+
+    private ObjectMapper mapper;
+    private JavaType tipo;
+    private List<?> valores;
+    private byte[] serializado;
+
+    @Setup(Level.Trial)
+    public void preparar() throws IOException {
+        mapper = mapper(formato);
+        if (listado.equals("anuncios")) {
+            tipo = mapper.getTypeFactory().constructCollectionType(List.class, Anuncio.class);
+            valores = anuncios();
+        } else {
+            tipo = mapper.getTypeFactory().constructCollectionType(List.class, SolicitudConTrabajadorDTO.class);
+            valores = solicitudes();
+        }
+        serializado = mapper.writeValueAsBytes(valores);
+    }
+
+    @Benchmark
+    public byte[] serializar() throws IOException {
+        return mapper.writeValueAsBytes(valores);
+    }
+
+    @Benchmark
+    public List<?> deserializar() throws IOException {
+        return mapper.readValue(serializado, tipo);
+    }
+
+    private static ObjectMapper mapper(String formato) {
+        return switch (formato) {
+            case "cbor" -> new ObjectMapper(new CBORFactory());
+            case "smile" -> new ObjectMapper(new SmileFactory());
+            default -> new ObjectMapper();
+        };
+    }
+
+    static List<Anuncio> anuncios() {
+        List<Anuncio> anuncios = new ArrayList<>();
+        for (int i = 0; i < ELEMENTOS; i++) {
+            Anuncio anuncio = new Anuncio();
+            anuncio.setId("anuncio-" + i);
+            anuncio.setClienteId("cliente-" + (i % 50));
+            anuncio.setNombreCliente("Cliente " + (i % 50));
+            anuncio.setHogar(List.of("limpieza", "cocina", "compras"));
+            anuncio.setPersonal(List.of("aseo", "vestirse"));
+            anuncio.setAcompanamiento(List.of("paseos", "citas médicas"));
+            anuncio.setSalud(List.of("medicación"));
+            anuncio.setComentarios("Busco persona de confianza para las mañanas, de lunes a viernes. Anuncio " + i);
+            anuncio.setUpdatedAt(new Date(1_700_000_000_000L + i * 60_000L));
+            anuncio.setContadoresSolicitudes(Map.of("PENDIENTE", 3L, "ACEPTADA", 1L));
+            anuncios.add(anuncio);
+        }
+        return anuncios;
+    }
+
+    static List<SolicitudConTrabajadorDTO> solicitudes() {
+        List<SolicitudConTrabajadorDTO> solicitudes = new ArrayList<>();
+        for (int i = 0; i < ELEMENTOS; i++) {
+            SolicitudConTrabajadorDTO solicitud = new SolicitudConTrabajadorDTO();
+            solicitud.setId("solicitud-" + i);
+            solicitud.setAnuncioId("anuncio-" + (i % 20));
+            solicitud.setTrabajadorId("trabajador-" + i);
+            solicitud.setFechaSolicitud(new Date(1_700_000_000_000L + i * 60_000L));
+            solicitud.setTrabajadorNombre("Trabajador " + i);
+            solicitud.setApellido("García López");
+            solicitud.setDisponibilidad("Mañanas y fines de semana");
+            solicitud.setHabilidades(List.of("cocina", "primeros auxilios", "conducir"));
+            solicitud.setEstudios("Técnico en cuidados auxiliares de enfermería");
+            solicitud.setExperiencia("Cinco años cuidando a personas mayores en domicilios");
+            solicitud.setEstado(EstadoSolicitud.values()[i % EstadoSolicitud.values().length]);
+            solicitud.setCompletado(i % 3 == 0);
+            solicitud.setEvaluacionExistente(i % 6 == 0);
+            solicitudes.add(solicitud);
+        }
+        return solicitudes;
+    }
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        for (String formato : new String[]{"json", "cbor", "smile"}) {
+            ObjectMapper mapper = mapper(formato);
+            System.out.printf("%-6s anuncios: %7d bytes   solicitudes: %7d bytes%n", formato,
+                    mapper.writeValueAsBytes(anuncios()).length, mapper.writeValueAsBytes(solicitudes()).length);
+        }
+        new Runner(new OptionsBuilder().include(FormatosBinariosBenchmark.class.getSimpleName()).build()).run();
+    }
+}
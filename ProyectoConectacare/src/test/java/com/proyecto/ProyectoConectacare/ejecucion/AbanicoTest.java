@@ -0,0 +1,115 @@
+package com.proyecto.ProyectoConectacare.ejecucion;
+
+import com.proyecto.ProyectoConectacare.exception.PresentationException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AbanicoTest {
+
+	// ADMIN con un solo hilo: un abanico lanzado desde él solo avanza si el propio hilo ejecuta las ramas
+	private final CompartimentosEjecucion compartimentos = new CompartimentosEjecucion(new MockEnvironment()
+			.withProperty("conectacare.compartimentos.admin.hilos", "1")
+			.withProperty("conectacare.compartimentos.admin.cola", "10"), 64, 16);
+
+	@AfterEach
+	void cerrar() {
+		compartimentos.cerrar();
+	}
+
+	@Test
+	void elHiloQueEsperaEjecutaLasRamasEncoladas() {
+		List<String> hilos = compartimentos.ejecutar(Prioridad.ADMIN, () -> {
+			Abanico abanico = compartimentos.abanico(Prioridad.ADMIN);
+			List<Abanico.Rama<String>> ramas = new ArrayList<>();
+			for (int i = 0; i < 3; i++) {
+				ramas.add(abanico.lanzar("rama" + i, () -> Thread.currentThread().getName()));
+			}
+			abanico.esperarTodas();
+			List<String> nombres = new ArrayList<>();
+			ramas.forEach(rama -> nombres.add(rama.valor()));
+			nombres.add(Thread.currentThread().getName());
+			return nombres;
+		});
+
+		// Todas las ramas se han ejecutado en el único hilo de ADMIN, el mismo que lanzó el abanico
+		assertThat(hilos).hasSize(4).containsOnly(hilos.get(3));
+	}
+
+	@Test
+	void esperarTodasOFallarTambienEjecutaLasRamasEncoladas() {
+		int suma = compartimentos.ejecutar(Prioridad.ADMIN, () -> {
+			Abanico abanico = compartimentos.abanico(Prioridad.ADMIN);
+			Abanico.Rama<Integer> uno = abanico.lanzar("uno", () -> 1);
+			Abanico.Rama<Integer> dos = abanico.lanzar("dos", () -> 2);
+			abanico.esperarTodasOFallar();
+			return uno.valor() + dos.valor();
+		});
+		assertThat(suma).isEqualTo(3);
+	}
+
+	@Test
+	void unaRamaFallidaNoAfectaALasDemas() {
+		Abanico abanico = compartimentos.abanico(Prioridad.INTERACTIVO);
+		Abanico.Rama<String> correcta = abanico.lanzar("correcta", () -> "ok");
+		Abanico.Rama<String> fallida = abanico.lanzar("fallida", () -> {
+			throw new PresentationException("No encontrado", HttpStatus.NOT_FOUND);
+		});
+		abanico.esperarTodas();
+
+		assertThat(correcta.correcta()).isTrue();
+		assertThat(correcta.valor()).isEqualTo("ok");
+		assertThat(fallida.correcta()).isFalse();
+		assertThat(abanico.errores()).containsOnlyKeys("fallida").containsEntry("fallida", "No encontrado");
+	}
+
+	@Test
+	void unaRamaQueSuperaSuPlazoFallaCon504() {
+		CountDownLatch liberar = new CountDownLatch(1);
+		Abanico abanico = compartimentos.abanico(Prioridad.INTERACTIVO);
+		Abanico.Rama<String> lenta = abanico.lanzar("lenta", 50, () -> {
+			esperar(liberar);
+			return "tarde";
+		});
+		abanico.esperarTodas();
+		liberar.countDown();
+
+		assertThat(lenta.correcta()).isFalse();
+		assertThat(((PresentationException) lenta.error()).getHttpStatus()).isEqualTo(HttpStatus.GATEWAY_TIMEOUT);
+	}
+
+	@Test
+	void esperarTodasOFallarCancelaLasPendientesAlPrimerError() {
+		CountDownLatch liberar = new CountDownLatch(1);
+		Abanico abanico = compartimentos.abanico(Prioridad.INTERACTIVO);
+		Abanico.Rama<String> lenta = abanico.lanzar("lenta", () -> {
+			esperar(liberar);
+			return "tarde";
+		});
+		abanico.lanzar("fallida", () -> {
+			throw new PresentationException("Conflicto", HttpStatus.CONFLICT);
+		});
+
+		assertThatThrownBy(abanico::esperarTodasOFallar).isInstanceOfSatisfying(PresentationException.class,
+				e -> assertThat(e.getHttpStatus()).isEqualTo(HttpStatus.CONFLICT));
+		liberar.countDown();
+		assertThat(lenta.valor()).isNull();
+	}
+
+	private static void esperar(CountDownLatch cerrojo) {
+		try {
+			cerrojo.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
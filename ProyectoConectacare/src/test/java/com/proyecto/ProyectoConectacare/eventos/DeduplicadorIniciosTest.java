@@ -0,0 +1,56 @@
+package com.proyecto.ProyectoConectacare.eventos;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DeduplicadorIniciosTest {
+
+	private static final long UNA_HORA = TimeUnit.HOURS.toMillis(1);
+
+	@Test
+	void cadaInicioDeSesionSeRegistraUnaVez() {
+		DeduplicadorInicios deduplicador = new DeduplicadorInicios(UNA_HORA, 1000);
+
+		assertThat(deduplicador.esNuevo("u1", 1_700_000_000L)).isTrue();
+		// Refrescos de página y renovaciones del token mantienen el mismo auth_time
+		assertThat(deduplicador.esNuevo("u1", 1_700_000_000L)).isFalse();
+		assertThat(deduplicador.esNuevo("u1", 1_700_000_000L)).isFalse();
+		// Un nuevo inicio de sesión o de otro usuario sí cuenta
+		assertThat(deduplicador.esNuevo("u1", 1_700_003_600L)).isTrue();
+		assertThat(deduplicador.esNuevo("u2", 1_700_000_000L)).isTrue();
+
+		assertThat(deduplicador.getMetricas())
+				.containsEntry("registrados", 3L)
+				.containsEntry("suprimidos", 2L)
+				.containsEntry("clavesEnVentana", 3);
+	}
+
+	@Test
+	void trasLaVentanaSeVuelveARegistrar() throws InterruptedException {
+		// Ventana de 120 ms: cubetas de 10 ms
+		DeduplicadorInicios deduplicador = new DeduplicadorInicios(120, 1000);
+		assertThat(deduplicador.esNuevo("u1", 1L)).isTrue();
+		assertThat(deduplicador.esNuevo("u1", 1L)).isFalse();
+
+		Thread.sleep(300);
+		assertThat(deduplicador.esNuevo("u1", 1L)).isTrue();
+	}
+
+	@Test
+	void conLaVentanaLlenaDejaDeDeduplicarLasClavesNuevas() {
+		DeduplicadorInicios deduplicador = new DeduplicadorInicios(UNA_HORA, 2);
+		assertThat(deduplicador.esNuevo("u1", 1L)).isTrue();
+		assertThat(deduplicador.esNuevo("u2", 1L)).isTrue();
+
+		// Las claves ya vistas se siguen suprimiendo; las nuevas se registran todas, sin ocupar memoria
+		assertThat(deduplicador.esNuevo("u1", 1L)).isFalse();
+		assertThat(deduplicador.esNuevo("u3", 1L)).isTrue();
+		assertThat(deduplicador.esNuevo("u3", 1L)).isTrue();
+		assertThat(deduplicador.getMetricas())
+				.containsEntry("clavesEnVentana", 2)
+				.containsEntry("sinDeduplicar", 2L);
+	}
+}
@@ -0,0 +1,89 @@
+package com.proyecto.ProyectoConectacare.eventos;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DiarioEventosTest {
+
+	@TempDir
+	Path directorio;
+
+	private static long anotar(DiarioEventos diario, String evento) {
+		List<Long> secuencia = new ArrayList<>();
+		diario.anotarYEncolar(evento.getBytes(StandardCharsets.UTF_8), secuencia::add);
+		return secuencia.get(0);
+	}
+
+	private static List<String> datos(List<DiarioEventos.Registro> registros) {
+		return registros.stream().map(r -> new String(r.datos(), StandardCharsets.UTF_8)).toList();
+	}
+
+	/**
+	 * Simula una caída: el diario anterior no se cierra ni se fuerza a disco, solo se vuelve a abrir el fichero.
+	 */
+	private static DiarioEventos reabrir(Path ruta) throws Exception {
+		return DiarioEventos.abrir(ruta, 1024);
+	}
+
+	@Test
+	void trasUnaCaidaRecuperaLoAnotadoSinConfirmar() throws Exception {
+		Path ruta = directorio.resolve("eventos.diario");
+		DiarioEventos antes = DiarioEventos.abrir(ruta, 1024);
+		antes.pendientes();
+		assertThat(anotar(antes, "uno")).isEqualTo(1);
+		assertThat(anotar(antes, "dos")).isEqualTo(2);
+		assertThat(anotar(antes, "tres")).isEqualTo(3);
+		antes.confirmarHasta(1);
+
+		DiarioEventos despues = reabrir(ruta);
+		List<DiarioEventos.Registro> pendientes = despues.pendientes();
+		assertThat(pendientes).extracting(DiarioEventos.Registro::secuencia).containsExactly(2L, 3L);
+		assertThat(datos(pendientes)).containsExactly("dos", "tres");
+
+		// Se sigue anotando detrás de los pendientes, con secuencias nuevas
+		assertThat(anotar(despues, "cuatro")).isEqualTo(4);
+		despues.confirmarHasta(4);
+		despues.close();
+		assertThat(reabrir(ruta).pendientes()).isEmpty();
+	}
+
+	@Test
+	void alConfirmarloTodoVuelveAlPrincipioSinRecuperarRestos() throws Exception {
+		Path ruta = directorio.resolve("eventos.diario");
+		DiarioEventos antes = DiarioEventos.abrir(ruta, 1024);
+		antes.pendientes();
+		anotar(antes, "un evento largo");
+		anotar(antes, "otro evento largo");
+		antes.confirmarHasta(2);
+		assertThat(antes.ocupacionBytes()).isZero();
+
+		// Se escribe desde el principio del fichero, encima del primer registro
+		assertThat(anotar(antes, "corto")).isEqualTo(3);
+
+		DiarioEventos despues = reabrir(ruta);
+		List<DiarioEventos.Registro> pendientes = despues.pendientes();
+		// La marca de fin impide leer como pendientes los restos de la vuelta anterior
+		assertThat(pendientes).extracting(DiarioEventos.Registro::secuencia).containsExactly(3L);
+		assertThat(datos(pendientes)).containsExactly("corto");
+		assertThat(anotar(despues, "siguiente")).isEqualTo(4);
+	}
+
+	@Test
+	void conElDiarioLlenoLosEventosNoSeAnotan() throws Exception {
+		DiarioEventos diario = DiarioEventos.abrir(directorio.resolve("eventos.diario"), 64);
+		diario.pendientes();
+		// Cabecera de 12 bytes, 12 por registro y 8 de la marca de fin: cabe un evento de 20 bytes
+		assertThat(anotar(diario, "x".repeat(20))).isEqualTo(1);
+		assertThat(anotar(diario, "y")).isZero();
+
+		diario.confirmarHasta(1);
+		assertThat(anotar(diario, "y")).isEqualTo(2);
+	}
+}
@@ -0,0 +1,183 @@
+package com.proyecto.ProyectoConectacare.eventos;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.firestore.WriteBatch;
+import com.proyecto.ProyectoConectacare.ejecucion.CompartimentosEjecucion;
+import com.proyecto.ProyectoConectacare.exception.PresentationException;
+import com.proyecto.ProyectoConectacare.firestore.AccesoFirestore;
+import com.proyecto.ProyectoConectacare.model.Evento;
+import com.proyecto.ProyectoConectacare.model.LogEstadisticas;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ResumenesEstadisticasTest {
+
+	// 2026-03-29 (cambio a CEST) tiene 23 horas en Madrid y 2026-10-25 (vuelta a CET) tiene 25
+	private static final LocalDate CAMBIO_A_VERANO = LocalDate.of(2026, 3, 29);
+	private static final LocalDate CAMBIO_A_INVIERNO = LocalDate.of(2026, 10, 25);
+
+	private final Firestore db = mock(Firestore.class);
+	private final AccesoFirestore accesoFirestore = mock(AccesoFirestore.class);
+	private final ResumenesEstadisticas resumenes = new ResumenesEstadisticas(db, accesoFirestore,
+			mock(CompartimentosEjecucion.class), "Europe/Madrid", 3);
+	/** IDs de los documentos de resumen pedidos, en orden. */
+	private final List<String> ids = new ArrayList<>();
+
+	@BeforeEach
+	void preparar() {
+		CollectionReference coleccion = mock(CollectionReference.class);
+		when(db.collection("resumenEstadisticas")).thenReturn(coleccion);
+		when(coleccion.document(anyString())).thenAnswer(inv -> {
+			ids.add(inv.getArgument(0));
+			return mock(DocumentReference.class);
+		});
+		when(db.batch()).thenAnswer(inv -> mock(WriteBatch.class));
+	}
+
+	private List<String> idsAlContarEn(String instante) {
+		ids.clear();
+		LogEstadisticas evento = new LogEstadisticas();
+		evento.setEvento(Evento.INICIO_SESION);
+		resumenes.contar(mock(WriteBatch.class), List.of(evento), Instant.parse(instante).toEpochMilli());
+		return List.copyOf(ids);
+	}
+
+	private static List<Object> inicios(List<Map<String, Object>> serie) {
+		return serie.stream().map(punto -> punto.get("inicio")).toList();
+	}
+
+	private static void assertEstado(Runnable llamada, HttpStatus estado) {
+		assertThatThrownBy(llamada::run).isInstanceOfSatisfying(PresentationException.class,
+				e -> assertThat(e.getHttpStatus()).isEqualTo(estado));
+	}
+
+	@Test
+	void lasHorasSonUtcYLosDiasDeLaZonaConfigurada() {
+		// 00:30 del 29 en Madrid (CET) y todavía 28 en UTC
+		assertThat(idsAlContarEn("2026-03-28T23:30:00Z")).containsExactly("HORA_2026-03-28T23Z", "DIA_2026-03-29");
+		// Durante la hora UTC del salto (las 02:00 CET pasan a ser las 03:00 CEST) sigue siendo el mismo día
+		assertThat(idsAlContarEn("2026-03-29T01:30:00Z")).containsExactly("HORA_2026-03-29T01Z", "DIA_2026-03-29");
+		// Desde el cambio el día empieza a las 22:00 UTC
+		assertThat(idsAlContarEn("2026-03-29T21:59:00Z")).containsExactly("HORA_2026-03-29T21Z", "DIA_2026-03-29");
+		assertThat(idsAlContarEn("2026-03-29T22:00:00Z")).containsExactly("HORA_2026-03-29T22Z", "DIA_2026-03-30");
+		// Y al volver a CET, de nuevo a las 23:00 UTC
+		assertThat(idsAlContarEn("2026-10-25T22:30:00Z")).containsExactly("HORA_2026-10-25T22Z", "DIA_2026-10-25");
+		assertThat(idsAlContarEn("2026-10-25T23:00:00Z")).containsExactly("HORA_2026-10-25T23Z", "DIA_2026-10-26");
+	}
+
+	@Test
+	void laSerieTieneUnIntervaloPorHoraRealDelDia() throws Exception {
+		when(accesoFirestore.<List<DocumentSnapshot>>leer(eq("resumenEstadisticas.getAll"), any())).thenReturn(List.of());
+
+		List<Map<String, Object>> verano = resumenes.serie(CAMBIO_A_VERANO, CAMBIO_A_VERANO, ResumenesEstadisticas.Granularidad.HORA);
+		assertThat(verano).hasSize(23);
+		assertThat(verano.get(0)).containsEntry("inicio", "2026-03-28T23:00:00Z").containsEntry("INICIO_SESION", 0L);
+		assertThat(verano.get(22)).containsEntry("inicio", "2026-03-29T21:00:00Z");
+
+		assertThat(resumenes.serie(CAMBIO_A_INVIERNO, CAMBIO_A_INVIERNO, ResumenesEstadisticas.Granularidad.HORA)).hasSize(25);
+
+		assertThat(inicios(resumenes.serie(CAMBIO_A_VERANO.minusDays(1), CAMBIO_A_VERANO.plusDays(1),
+				ResumenesEstadisticas.Granularidad.DIA)))
+				.containsExactly("2026-03-27T23:00:00Z", "2026-03-28T23:00:00Z", "2026-03-29T22:00:00Z");
+	}
+
+	@Test
+	void laSerieRechazaLosRangosNoValidosODemasiadoLargos() throws Exception {
+		when(accesoFirestore.<List<DocumentSnapshot>>leer(eq("resumenEstadisticas.getAll"), any())).thenReturn(List.of());
+		LocalDate junio = LocalDate.of(2026, 6, 1);
+
+		assertEstado(() -> resumenes.serie(junio, junio.minusDays(1), ResumenesEstadisticas.Granularidad.DIA), HttpStatus.BAD_REQUEST);
+		assertEstado(() -> resumenes.serie(null, junio, ResumenesEstadisticas.Granularidad.DIA), HttpStatus.BAD_REQUEST);
+		assertEstado(() -> resumenes.serie(junio, junio.plusDays(367), ResumenesEstadisticas.Granularidad.DIA), HttpStatus.BAD_REQUEST);
+		assertThat(resumenes.serie(junio, junio.plusDays(366), ResumenesEstadisticas.Granularidad.DIA)).hasSize(367);
+
+		// Por horas, hasta 93 días (del 1 de junio al 1 de septiembre, sin cambios de hora)
+		assertThat(resumenes.serie(junio, LocalDate.of(2026, 9, 1), ResumenesEstadisticas.Granularidad.HORA)).hasSize(24 * 93);
+		assertEstado(() -> resumenes.serie(junio, LocalDate.of(2026, 9, 2), ResumenesEstadisticas.Granularidad.HORA),
+				HttpStatus.BAD_REQUEST);
+	}
+
+	/**
+	 * Un resumen del día ya existente y un evento a las 10:15 UTC.
+	 */
+	private void conResumenYEvento(LocalDate dia) throws Exception {
+		DocumentSnapshot resumenDia = mock(DocumentSnapshot.class);
+		when(resumenDia.getId()).thenReturn("DIA_" + dia);
+		when(resumenDia.exists()).thenReturn(true);
+		when(resumenDia.getUpdateTime()).thenReturn(Timestamp.now());
+		when(accesoFirestore.<List<DocumentSnapshot>>leer(eq("resumenEstadisticas.getAll"), any())).thenReturn(List.of(resumenDia));
+
+		QueryDocumentSnapshot evento = mock(QueryDocumentSnapshot.class);
+		when(evento.getDate("fecha")).thenReturn(Date.from(Instant.parse(dia + "T10:15:00Z")));
+		when(evento.getString("evento")).thenReturn(Evento.REGISTRO.name());
+		QuerySnapshot eventos = mock(QuerySnapshot.class);
+		when(eventos.getDocuments()).thenReturn(List.of(evento));
+		when(accesoFirestore.<QuerySnapshot>leer(eq("logEstadisticas.porFecha"), any())).thenReturn(eventos);
+	}
+
+	private static ExecutionException error(Status.Code codigo) {
+		return new ExecutionException(new StatusRuntimeException(codigo.toStatus()));
+	}
+
+	@Test
+	void laReconstruccionSeRepiteSiLosResumenesCambianEntretanto() throws Exception {
+		conResumenYEvento(CAMBIO_A_VERANO);
+		when(accesoFirestore.escribir(eq("resumenEstadisticas.reconstruir"), any()))
+				.thenThrow(error(Status.Code.FAILED_PRECONDITION))
+				.thenThrow(error(Status.Code.ALREADY_EXISTS))
+				.thenReturn(null);
+		ids.clear();
+
+		assertThat(resumenes.reconstruirDia(CAMBIO_A_VERANO)).isEqualTo(1);
+		verify(accesoFirestore, times(3)).escribir(eq("resumenEstadisticas.reconstruir"), any());
+		// Cada intento vuelve a leer los resúmenes: el día y sus 23 horas
+		verify(accesoFirestore, times(3)).leer(eq("resumenEstadisticas.getAll"), any());
+		assertThat(ids).hasSize(3 * 24).startsWith("DIA_2026-03-29", "HORA_2026-03-28T23Z").contains("HORA_2026-03-29T21Z")
+				.doesNotContain("HORA_2026-03-29T22Z");
+	}
+
+	@Test
+	void siLosResumenesSiguenCambiandoSeRindeCon409() throws Exception {
+		conResumenYEvento(CAMBIO_A_VERANO);
+		when(accesoFirestore.escribir(eq("resumenEstadisticas.reconstruir"), any())).thenThrow(error(Status.Code.ALREADY_EXISTS));
+
+		assertEstado(() -> resumenes.reconstruirDia(CAMBIO_A_VERANO), HttpStatus.CONFLICT);
+		verify(accesoFirestore, times(3)).escribir(eq("resumenEstadisticas.reconstruir"), any());
+	}
+
+	@Test
+	void otrosErroresNoSeReintentan() throws Exception {
+		conResumenYEvento(CAMBIO_A_VERANO);
+		when(accesoFirestore.escribir(eq("resumenEstadisticas.reconstruir"), any())).thenThrow(error(Status.Code.PERMISSION_DENIED));
+
+		assertEstado(() -> resumenes.reconstruirDia(CAMBIO_A_VERANO), HttpStatus.INTERNAL_SERVER_ERROR);
+		verify(accesoFirestore, times(1)).escribir(eq("resumenEstadisticas.reconstruir"), any());
+	}
+}
@@ -0,0 +1,197 @@
+package com.proyecto.ProyectoConectacare.eventos;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.WriteBatch;
+import com.proyecto.ProyectoConectacare.ejecucion.CompartimentosEjecucion;
+import com.proyecto.ProyectoConectacare.firestore.AccesoFirestore;
+import com.proyecto.ProyectoConectacare.model.Evento;
+import com.proyecto.ProyectoConectacare.model.LogEstadisticas;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class TuberiaEventosTest {
+
+	private final Firestore db = mock(Firestore.class);
+	private final AccesoFirestore accesoFirestore = mock(AccesoFirestore.class);
+	// Con el mock, programar un vaciado no hace nada: los tests llaman a vaciar() directamente
+	private final CompartimentosEjecucion compartimentos = mock(CompartimentosEjecucion.class);
+	private final ResumenesEstadisticas resumenes = mock(ResumenesEstadisticas.class);
+
+	/** Nombres de los eventos de cada lote enviado a Firestore, en orden, hayan fallado o no. */
+	private final List<List<String>> lotes = new ArrayList<>();
+	/** IDs de documento de los eventos de cada lote. */
+	private final List<List<String>> idsPorLote = new ArrayList<>();
+	/** Números de lote (desde 1) cuya escritura falla. */
+	private final Set<Integer> lotesQueFallan = new HashSet<>();
+	/** Se ejecuta durante la escritura de cada lote, antes de su resultado. */
+	private Runnable duranteLaEscritura = () -> {
+	};
+
+	@TempDir
+	Path directorio;
+
+	@BeforeEach
+	void preparar() throws Exception {
+		CollectionReference coleccion = mock(CollectionReference.class);
+		when(db.collection("logEstadisticas")).thenReturn(coleccion);
+		when(coleccion.document(anyString())).thenAnswer(inv -> {
+			idsPorLote.get(idsPorLote.size() - 1).add(inv.getArgument(0));
+			return mock(DocumentReference.class);
+		});
+		when(db.batch()).thenAnswer(inv -> {
+			List<String> nombres = new ArrayList<>();
+			lotes.add(nombres);
+			idsPorLote.add(new ArrayList<>());
+			WriteBatch lote = mock(WriteBatch.class);
+			when(lote.set(any(DocumentReference.class), any(LogEstadisticas.class))).thenAnswer(set -> {
+				nombres.add(set.<LogEstadisticas>getArgument(1).getNombre());
+				return lote;
+			});
+			return lote;
+		});
+		when(accesoFirestore.escribir(eq("logEstadisticas.lote"), any())).thenAnswer(inv -> {
+			duranteLaEscritura.run();
+			if (lotesQueFallan.contains(lotes.size())) {
+				throw new ExecutionException("UNAVAILABLE", null);
+			}
+			return null;
+		});
+	}
+
+	private TuberiaEventos tuberia(int capacidad, int tamanoLote, TuberiaEventos.PoliticaDesbordamiento politica) {
+		return new TuberiaEventos(db, accesoFirestore, compartimentos, new ObjectMapper(), resumenes, capacidad, tamanoLote,
+				politica, false, null, 1);
+	}
+
+	private TuberiaEventos conDiario(Path ruta) {
+		TuberiaEventos tuberia = new TuberiaEventos(db, accesoFirestore, compartimentos, new ObjectMapper(), resumenes, 100, 2,
+				TuberiaEventos.PoliticaDesbordamiento.DESCARTAR_NUEVO, true, ruta.toString(), 1);
+		tuberia.iniciar();
+		return tuberia;
+	}
+
+	private static LogEstadisticas evento(String nombre) {
+		LogEstadisticas log = new LogEstadisticas();
+		log.setNombre(nombre);
+		log.setEvento(Evento.INICIO_SESION);
+		return log;
+	}
+
+	private static void encolar(TuberiaEventos tuberia, String... nombres) {
+		for (String nombre : nombres) {
+			tuberia.encolar(evento(nombre));
+		}
+	}
+
+	@Test
+	void descartarNuevoRechazaLosEventosQueNoCaben() {
+		TuberiaEventos tuberia = tuberia(3, 10, TuberiaEventos.PoliticaDesbordamiento.DESCARTAR_NUEVO);
+		for (int i = 1; i <= 5; i++) {
+			assertThat(tuberia.encolar(evento("e" + i))).isEqualTo(i <= 3);
+		}
+		assertThat(tuberia.getMetricas())
+				.containsEntry("enCola", 3)
+				.containsEntry("encolados", 3L)
+				.containsEntry("descartadosNuevos", 2L)
+				.containsEntry("descartadosAntiguos", 0L);
+
+		tuberia.vaciar();
+		assertThat(lotes).containsExactly(List.of("e1", "e2", "e3"));
+	}
+
+	@Test
+	void descartarAntiguoHaceSitioAlEventoNuevo() {
+		TuberiaEventos tuberia = tuberia(3, 10, TuberiaEventos.PoliticaDesbordamiento.DESCARTAR_ANTIGUO);
+		for (int i = 1; i <= 5; i++) {
+			assertThat(tuberia.encolar(evento("e" + i))).isTrue();
+		}
+		assertThat(tuberia.getMetricas())
+				.containsEntry("enCola", 3)
+				.containsEntry("encolados", 5L)
+				.containsEntry("descartadosNuevos", 0L)
+				.containsEntry("descartadosAntiguos", 2L);
+
+		tuberia.vaciar();
+		assertThat(lotes).containsExactly(List.of("e3", "e4", "e5"));
+	}
+
+	@Test
+	void unLoteFallidoVuelveAlPrincipioDeLaColaEnSuOrden() {
+		TuberiaEventos tuberia = tuberia(10, 3, TuberiaEventos.PoliticaDesbordamiento.DESCARTAR_NUEVO);
+		lotesQueFallan.add(1);
+		encolar(tuberia, "e1", "e2", "e3", "e4", "e5");
+
+		// El primer lote falla y el vaciado se detiene hasta el siguiente ciclo
+		tuberia.vaciar();
+		assertThat(lotes).containsExactly(List.of("e1", "e2", "e3"));
+		assertThat(tuberia.getMetricas()).containsEntry("enCola", 5).containsEntry("lotesFallidos", 1L);
+
+		encolar(tuberia, "e6");
+		tuberia.vaciar();
+		assertThat(lotes).containsExactly(List.of("e1", "e2", "e3"), List.of("e1", "e2", "e3"), List.of("e4", "e5", "e6"));
+		assertThat(tuberia.getMetricas())
+				.containsEntry("enCola", 0)
+				.containsEntry("escritos", 6L)
+				.containsEntry("lotes", 2L);
+	}
+
+	@Test
+	void loQueNoCabeTrasUnFalloSeDescartaYSeCuenta() {
+		TuberiaEventos tuberia = tuberia(4, 3, TuberiaEventos.PoliticaDesbordamiento.DESCARTAR_NUEVO);
+		lotesQueFallan.add(1);
+		encolar(tuberia, "e1", "e2", "e3", "e4");
+		// Mientras se escribe el lote llegan eventos que vuelven a llenar la cola
+		duranteLaEscritura = () -> {
+			encolar(tuberia, "e5", "e6", "e7");
+			duranteLaEscritura = () -> {
+			};
+		};
+
+		tuberia.vaciar();
+		assertThat(tuberia.getMetricas())
+				.containsEntry("enCola", 4)
+				.containsEntry("descartadosTrasFallo", 3L)
+				.containsEntry("descartadosNuevos", 0L);
+
+		tuberia.vaciar();
+		assertThat(lotes).containsExactly(List.of("e1", "e2", "e3"), List.of("e4", "e5", "e6"), List.of("e7"));
+	}
+
+	@Test
+	void losEventosSinEscribirSeRecuperanDelDiarioConElMismoId() {
+		Path ruta = directorio.resolve("eventos.diario");
+		TuberiaEventos antes = conDiario(ruta);
+		// El primer lote se escribe y se confirma en el diario; el segundo falla y el proceso cae
+		lotesQueFallan.add(2);
+		encolar(antes, "e1", "e2", "e3");
+		antes.vaciar();
+		assertThat(lotes).containsExactly(List.of("e1", "e2"), List.of("e3"));
+
+		TuberiaEventos despues = conDiario(ruta);
+		assertThat(despues.getMetricas()).containsEntry("recuperados", 1L).containsEntry("enCola", 1);
+		despues.vaciar();
+		assertThat(lotes).hasSize(3);
+		assertThat(lotes.get(2)).containsExactly("e3");
+		// e3 conserva el ID con el que se intentó escribir antes de la caída, así que reescribirlo no lo duplica
+		assertThat(idsPorLote.get(2)).isEqualTo(idsPorLote.get(1)).doesNotContainAnyElementsOf(idsPorLote.get(0));
+		despues.detener();
+	}
+}
@@ -0,0 +1,172 @@
+package com.proyecto.ProyectoConectacare.firestore;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.api.core.SettableApiFuture;
+import com.proyecto.ProyectoConectacare.ejecucion.CompartimentosEjecucion;
+import com.proyecto.ProyectoConectacare.exception.PresentationException;
+import com.proyecto.ProyectoConectacare.peticion.PlazoPeticion;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AccesoFirestoreTest {
+
+	private final CompartimentosEjecucion compartimentos = new CompartimentosEjecucion(new MockEnvironment(), 64, 16);
+	// Dos fallos seguidos abren el circuito durante 100 ms; esperas entre reintentos de 1 a 5 ms
+	private final AccesoFirestore acceso = new AccesoFirestore(new LecturasHedge(false, 95, 0.05, 50), compartimentos,
+			new MockEnvironment(), 5000, 10000, 3, 1, 5, 2, 100);
+	private final ExecutorService hilos = Executors.newCachedThreadPool();
+
+	@AfterEach
+	void cerrar() {
+		hilos.shutdownNow();
+		compartimentos.cerrar();
+		PlazoPeticion.limpiar();
+	}
+
+	/**
+	 * Llamada sustituta que falla con los códigos indicados en los primeros intentos y después devuelve "ok".
+	 */
+	private static Supplier<ApiFuture<String>> fallaCon(AtomicInteger llamadas, Status.Code... codigos) {
+		return () -> {
+			int n = llamadas.getAndIncrement();
+			return n < codigos.length
+					? ApiFutures.immediateFailedFuture(new StatusRuntimeException(codigos[n].toStatus()))
+					: ApiFutures.immediateFuture("ok");
+		};
+	}
+
+	private void abrirCircuito(String coleccion) {
+		for (int i = 0; i < 2; i++) {
+			assertThatThrownBy(() -> acceso.escribir(coleccion + ".add", fallaCon(new AtomicInteger(), Status.Code.UNAVAILABLE)))
+					.isInstanceOf(ExecutionException.class);
+		}
+		assertThat(estadoCircuito(coleccion)).isEqualTo("ABIERTO");
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Object> metricas(String operacion) {
+		return (Map<String, Object>) ((Map<String, Object>) acceso.getMetricas().get("operaciones")).get(operacion);
+	}
+
+	@SuppressWarnings("unchecked")
+	private String estadoCircuito(String coleccion) {
+		return (String) ((Map<String, Map<String, Object>>) acceso.getMetricas().get("circuitos")).get(coleccion).get("estado");
+	}
+
+	@Test
+	void lasEscriturasSoloSeReintentanAnteABORTED() throws Exception {
+		AtomicInteger llamadas = new AtomicInteger();
+		assertThat(acceso.escribir("solicitudes.update",
+				fallaCon(llamadas, Status.Code.ABORTED, Status.Code.ABORTED))).isEqualTo("ok");
+		assertThat(llamadas).hasValue(3);
+		assertThat(metricas("solicitudes.update")).containsEntry("reintentos", 2L);
+
+		// Una escritura con UNAVAILABLE puede haberse aplicado: no se repite
+		AtomicInteger noDisponible = new AtomicInteger();
+		assertThatThrownBy(() -> acceso.escribir("anuncios.set", fallaCon(noDisponible, Status.Code.UNAVAILABLE)))
+				.isInstanceOf(ExecutionException.class);
+		assertThat(noDisponible).hasValue(1);
+		assertThat(metricas("anuncios.set")).containsEntry("reintentos", 0L).containsEntry("errores", 1L);
+	}
+
+	@Test
+	void lasLecturasSeReintentanAnteErroresTransitorios() throws Exception {
+		AtomicInteger llamadas = new AtomicInteger();
+		assertThat(acceso.leer("usuarios.get",
+				fallaCon(llamadas, Status.Code.DEADLINE_EXCEEDED, Status.Code.ABORTED))).isEqualTo("ok");
+		assertThat(llamadas).hasValue(3);
+
+		// NOT_FOUND no es transitorio ni cuenta como fallo para el circuito
+		AtomicInteger noEncontrado = new AtomicInteger();
+		assertThatThrownBy(() -> acceso.leer("usuarios.get", fallaCon(noEncontrado, Status.Code.NOT_FOUND)))
+				.isInstanceOf(ExecutionException.class);
+		assertThat(noEncontrado).hasValue(1);
+		assertThat(estadoCircuito("usuarios")).isEqualTo("CERRADO");
+	}
+
+	@Test
+	void laEsperaSeRecortaAlPlazoDeLaPeticion() {
+		SettableApiFuture<String> colgada = SettableApiFuture.create();
+		PlazoPeticion.establecer(50, 0);
+		long inicio = System.nanoTime();
+
+		assertThatThrownBy(() -> acceso.leer("anuncios.get", () -> colgada))
+				.isInstanceOfSatisfying(PresentationException.class,
+						e -> assertThat(e.getHttpStatus()).isEqualTo(HttpStatus.GATEWAY_TIMEOUT));
+
+		// Espera el plazo de la petición, no los 5 s de timeout de lectura, y no cuenta como fallo de Firestore
+		assertThat(System.nanoTime() - inicio).isLessThan(TimeUnit.SECONDS.toNanos(2));
+		assertThat(colgada.isCancelled()).isTrue();
+		assertThat(metricas("anuncios.get")).containsEntry("cortadasPorPlazoPeticion", 1L).containsEntry("timeouts", 0L);
+		assertThat(estadoCircuito("anuncios")).isEqualTo("CERRADO");
+
+		// Con el plazo vencido no se lanzan llamadas nuevas
+		AtomicInteger llamadas = new AtomicInteger();
+		assertThatThrownBy(() -> acceso.leer("anuncios.get", fallaCon(llamadas)))
+				.isInstanceOf(PresentationException.class);
+		assertThat(llamadas).hasValue(0);
+	}
+
+	@Test
+	void unaLlamadaAbandonadaNoLiberaLaPruebaDeOtra() throws Exception {
+		// Llamada normal con el circuito cerrado, que se abandonará por el plazo de su petición
+		SettableApiFuture<String> colgadaNormal = SettableApiFuture.create();
+		Future<?> normal = hilos.submit(() -> {
+			PlazoPeticion.establecer(300, 0);
+			try {
+				return acceso.leer("mensajes.get", () -> colgadaNormal);
+			} finally {
+				PlazoPeticion.limpiar();
+			}
+		});
+		Thread.sleep(20);
+
+		// Se abre el circuito y, pasada la apertura, otra llamada se queda con la prueba
+		abrirCircuito("mensajes");
+		Thread.sleep(120);
+		SettableApiFuture<String> prueba = SettableApiFuture.create();
+		Future<String> conPrueba = hilos.submit(() -> acceso.leer("mensajes.get", () -> prueba));
+
+		assertThatThrownBy(() -> normal.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(PresentationException.class);
+		// La prueba sigue en curso: el resto de llamadas se rechaza
+		assertThatThrownBy(() -> acceso.leer("mensajes.get", fallaCon(new AtomicInteger())))
+				.isInstanceOfSatisfying(PresentationException.class,
+						e -> assertThat(e.getHttpStatus()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE));
+
+		prueba.set("ok");
+		assertThat(conPrueba.get(5, TimeUnit.SECONDS)).isEqualTo("ok");
+		assertThat(estadoCircuito("mensajes")).isEqualTo("CERRADO");
+	}
+
+	@Test
+	void siLaPruebaSeAbandonaOtraLlamadaPuedeProbar() throws Exception {
+		abrirCircuito("chats");
+		Thread.sleep(120);
+
+		PlazoPeticion.establecer(30, 0);
+		assertThatThrownBy(() -> acceso.leer("chats.get", SettableApiFuture::create))
+				.isInstanceOf(PresentationException.class);
+		PlazoPeticion.limpiar();
+
+		assertThat(estadoCircuito("chats")).isEqualTo("SEMIABIERTO");
+		assertThat(acceso.leer("chats.get", fallaCon(new AtomicInteger()))).isEqualTo("ok");
+		assertThat(estadoCircuito("chats")).isEqualTo("CERRADO");
+	}
+}
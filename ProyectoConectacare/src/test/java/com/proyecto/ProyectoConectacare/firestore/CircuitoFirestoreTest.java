@@ -0,0 +1,81 @@
+package com.proyecto.ProyectoConectacare.firestore;
+
+import com.proyecto.ProyectoConectacare.firestore.CircuitoFirestore.Estado;
+import com.proyecto.ProyectoConectacare.firestore.CircuitoFirestore.Paso;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitoFirestoreTest {
+
+	private static final long APERTURA_MS = 50;
+
+	private static CircuitoFirestore abierto() {
+		CircuitoFirestore circuito = new CircuitoFirestore(3, APERTURA_MS);
+		for (int i = 0; i < 3; i++) {
+			circuito.fallo(circuito.permitir());
+		}
+		return circuito;
+	}
+
+	private static void esperarApertura() throws InterruptedException {
+		Thread.sleep(APERTURA_MS + 20);
+	}
+
+	@Test
+	void seAbreAlAlcanzarElUmbralDeFallosConsecutivos() {
+		CircuitoFirestore circuito = new CircuitoFirestore(3, APERTURA_MS);
+		circuito.fallo(circuito.permitir());
+		circuito.fallo(circuito.permitir());
+		// Un éxito reinicia la cuenta
+		circuito.exito();
+		circuito.fallo(circuito.permitir());
+		circuito.fallo(circuito.permitir());
+		assertThat(circuito.estado()).isEqualTo(Estado.CERRADO);
+		assertThat(circuito.permitir()).isEqualTo(Paso.NORMAL);
+
+		circuito.fallo(Paso.NORMAL);
+		assertThat(circuito.estado()).isEqualTo(Estado.ABIERTO);
+		assertThat(circuito.permitir()).isEqualTo(Paso.RECHAZADA);
+		assertThat(circuito.aperturas()).isEqualTo(1);
+	}
+
+	@Test
+	void semiabiertoDejaPasarUnaSolaPruebaYSiVaBienSeCierra() throws InterruptedException {
+		CircuitoFirestore circuito = abierto();
+		esperarApertura();
+
+		assertThat(circuito.estado()).isEqualTo(Estado.SEMIABIERTO);
+		assertThat(circuito.permitir()).isEqualTo(Paso.PRUEBA);
+		assertThat(circuito.permitir()).isEqualTo(Paso.RECHAZADA);
+
+		circuito.exito();
+		assertThat(circuito.estado()).isEqualTo(Estado.CERRADO);
+		assertThat(circuito.permitir()).isEqualTo(Paso.NORMAL);
+	}
+
+	@Test
+	void siFallaLaPruebaSeVuelveAAbrir() throws InterruptedException {
+		CircuitoFirestore circuito = abierto();
+		esperarApertura();
+
+		circuito.fallo(circuito.permitir());
+		assertThat(circuito.estado()).isEqualTo(Estado.ABIERTO);
+		assertThat(circuito.aperturas()).isEqualTo(2);
+
+		// Pasado otro periodo de apertura se admite una prueba nueva
+		esperarApertura();
+		assertThat(circuito.permitir()).isEqualTo(Paso.PRUEBA);
+	}
+
+	@Test
+	void laPruebaLiberadaSinResultadoPuedeRepetirse() throws InterruptedException {
+		CircuitoFirestore circuito = abierto();
+		esperarApertura();
+
+		assertThat(circuito.permitir()).isEqualTo(Paso.PRUEBA);
+		circuito.liberarPrueba();
+		assertThat(circuito.estado()).isEqualTo(Estado.SEMIABIERTO);
+		assertThat(circuito.permitir()).isEqualTo(Paso.PRUEBA);
+	}
+}
@@ -0,0 +1,82 @@
+package com.proyecto.ProyectoConectacare.firestore;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.SettableApiFuture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latencia de las lecturas con y sin hedging frente a una lectura sustituta con latencia inyectada: el 95 % tarda
+ * 2 ms y el 5 % restante 50 ms, como un Firestore con una cola lenta. Con 8 hilos leyendo a la vez.
+ *
+ * Se ejecuta con el método main (desde el IDE o con
+ * `mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.proyecto.ProyectoConectacare.firestore.LecturasHedgeBenchmark`).
+ * El modo SampleTime muestra los percentiles: con hedging el p99 debería bajar de ~50 ms a unos pocos ms a cambio
+ * de un 5 % de lecturas duplicadas como máximo.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class LecturasHedgeBenchmark {
+    private static final long TIMEOUT = TimeUnit.SECONDS.toNanos(5);
+
+    @Param({"false", "true"})
+    public boolean habilitado;
+
+    private LecturasHedge hedge;
+    private ScheduledExecutorService temporizador;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        hedge = new LecturasHedge(habilitado, 95, 0.05, 50);
+        temporizador = Executors.newScheduledThreadPool(2);
+    }
+
+    /**
+     * Lectura que termina al cabo de una latencia aleatoria; cada invocación (principal o hedge) sortea la suya.
+     */
+    private ApiFuture<String> lecturaLenta() {
+        SettableApiFuture<String> future = SettableApiFuture.create();
+        long latenciaMs = ThreadLocalRandom.current().nextInt(100) < 95 ? 2 : 50;
+        temporizador.schedule(() -> future.set("documento"), latenciaMs, TimeUnit.MILLISECONDS);
+        return future;
+    }
+
+    @Benchmark
+    public String leer() throws Exception {
+        return hedge.leer("documentos.get", this::lecturaLenta, TIMEOUT);
+    }
+
+    @TearDown(Level.Trial)
+    public void cerrar() {
+        temporizador.shutdownNow();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(LecturasHedgeBenchmark.class.getSimpleName()).build()).run();
+    }
+}
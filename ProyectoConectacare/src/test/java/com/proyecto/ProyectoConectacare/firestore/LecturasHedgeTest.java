@@ -0,0 +1,147 @@
+package com.proyecto.ProyectoConectacare.firestore;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.SettableApiFuture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LecturasHedgeTest {
+
+	private static final long UN_SEGUNDO = TimeUnit.SECONDS.toNanos(1);
+
+	private final ScheduledExecutorService temporizador = Executors.newSingleThreadScheduledExecutor();
+	private final List<SettableApiFuture<String>> lanzadas = new CopyOnWriteArrayList<>();
+
+	@AfterEach
+	void cerrar() {
+		temporizador.shutdownNow();
+	}
+
+	/**
+	 * Lectura sustituta: la primera invocación (la principal) tarda latenciaPrincipalMs y la segunda (el hedge)
+	 * latenciaSecundariaMs. Con 0 la lectura ya está terminada al devolverse.
+	 */
+	private Supplier<ApiFuture<String>> lectura(long latenciaPrincipalMs, long latenciaSecundariaMs) {
+		AtomicInteger invocaciones = new AtomicInteger();
+		return () -> {
+			boolean principal = invocaciones.getAndIncrement() == 0;
+			long latencia = principal ? latenciaPrincipalMs : latenciaSecundariaMs;
+			String valor = principal ? "principal" : "secundaria";
+			SettableApiFuture<String> future = SettableApiFuture.create();
+			lanzadas.add(future);
+			if (latencia == 0) {
+				future.set(valor);
+			} else {
+				temporizador.schedule(() -> future.set(valor), latencia, TimeUnit.MILLISECONDS);
+			}
+			return future;
+		};
+	}
+
+	private static double umbralMs(LecturasHedge hedge) {
+		Map<?, ?> umbrales = (Map<?, ?>) hedge.getMetricas().get("umbralesMs");
+		return umbrales.containsKey("op") ? (double) umbrales.get("op") : 0;
+	}
+
+	/**
+	 * Llena la ventana con lecturas instantáneas, de modo que el umbral queda en unos microsegundos y todas las
+	 * lecturas lentas que sigan provocan un hedge.
+	 */
+	private void calentar(LecturasHedge hedge, int lecturas) throws Exception {
+		for (int i = 0; i < lecturas; i++) {
+			hedge.leer("op", lectura(0, 0), UN_SEGUNDO);
+		}
+		assertThat(umbralMs(hedge)).isPositive().isLessThan(20);
+	}
+
+	@Test
+	void elUmbralEsElPercentilDeLaVentana() throws Exception {
+		LecturasHedge hedge = new LecturasHedge(true, 90, 0, 32);
+		for (int i = 0; i < 31; i++) {
+			hedge.leer("op", lectura(i < 28 ? 0 : 30, 0), UN_SEGUNDO);
+			// Sin las muestras mínimas no hay umbral ni hedges
+			assertThat(umbralMs(hedge)).isZero();
+		}
+		hedge.leer("op", lectura(30, 0), UN_SEGUNDO);
+
+		// El p90 de 32 muestras es la 29.ª más rápida: una de las cuatro lecturas de 30 ms
+		assertThat(umbralMs(hedge)).isGreaterThanOrEqualTo(30).isLessThan(500);
+		assertThat(hedge.getMetricas()).containsEntry("hedgesEnviados", 0L);
+	}
+
+	@Test
+	void siGanaLaSecundariaLaVentanaMideLaPrincipal() throws Exception {
+		LecturasHedge hedge = new LecturasHedge(true, 90, 1, 32);
+		calentar(hedge, 32);
+
+		for (int i = 0; i < 32; i++) {
+			assertThat(hedge.leer("op", lectura(50, 0), UN_SEGUNDO)).isEqualTo("secundaria");
+		}
+		// Las principales terminan después de responder; al registrarse la última se recalcula el percentil
+		long limite = System.nanoTime() + UN_SEGUNDO * 5;
+		while (umbralMs(hedge) < 50 && System.nanoTime() < limite) {
+			Thread.sleep(10);
+		}
+		assertThat(umbralMs(hedge)).isGreaterThanOrEqualTo(50);
+		assertThat(hedge.getMetricas()).containsEntry("hedgesEnviados", 32L).containsEntry("hedgesGanadores", 32L);
+	}
+
+	@Test
+	void elPresupuestoLimitaLasLecturasDuplicadas() throws Exception {
+		LecturasHedge hedge = new LecturasHedge(true, 90, 0.1, 32);
+		calentar(hedge, 32);
+
+		for (int i = 0; i < 20; i++) {
+			hedge.leer("op", lectura(5, 5), UN_SEGUNDO);
+		}
+
+		Map<String, Object> metricas = hedge.getMetricas();
+		long enviados = (long) metricas.get("hedgesEnviados");
+		long denegados = (long) metricas.get("hedgesDenegadosPorPresupuesto");
+		assertThat(metricas).containsEntry("lecturas", 52L);
+		assertThat(enviados).isPositive().isLessThanOrEqualTo(5);
+		assertThat(enviados + denegados).isEqualTo(20);
+	}
+
+	@Test
+	void siGanaLaPrincipalSeCancelaLaSecundaria() throws Exception {
+		LecturasHedge hedge = new LecturasHedge(true, 90, 1, 32);
+		calentar(hedge, 32);
+		lanzadas.clear();
+
+		assertThat(hedge.leer("op", lectura(20, 5000), UN_SEGUNDO)).isEqualTo("principal");
+		assertThat(lanzadas).hasSize(2);
+		assertThat(lanzadas.get(1).isCancelled()).isTrue();
+		assertThat(hedge.getMetricas()).containsEntry("hedgesGanadores", 0L);
+	}
+
+	@Test
+	void siGanaLaSecundariaLaPrincipalSeCancelaAlAgotarElTimeout() throws Exception {
+		LecturasHedge hedge = new LecturasHedge(true, 90, 1, 32);
+		calentar(hedge, 32);
+		lanzadas.clear();
+
+		long timeout = TimeUnit.MILLISECONDS.toNanos(100);
+		assertThat(hedge.leer("op", lectura(5000, 0), timeout)).isEqualTo("secundaria");
+		SettableApiFuture<String> principal = lanzadas.get(0);
+		// Sigue en curso para poder medirla hasta que se agote el timeout de la lectura
+		assertThat(principal.isDone()).isFalse();
+
+		long limite = System.nanoTime() + UN_SEGUNDO * 5;
+		while (!principal.isDone() && System.nanoTime() < limite) {
+			Thread.sleep(10);
+		}
+		assertThat(principal.isCancelled()).isTrue();
+	}
+}
@@ -0,0 +1,105 @@
+package com.proyecto.ProyectoConectacare.idempotencia;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.proyecto.ProyectoConectacare.cache.LecturasCoalescidas;
+import com.proyecto.ProyectoConectacare.cache.RegistroCaches;
+import com.proyecto.ProyectoConectacare.ejecucion.CompartimentosEjecucion;
+import com.proyecto.ProyectoConectacare.ejecucion.Prioridad;
+import com.proyecto.ProyectoConectacare.exception.PresentationException;
+import com.proyecto.ProyectoConectacare.firestore.AccesoFirestore;
+import com.proyecto.ProyectoConectacare.model.Anuncio;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RegistroIdempotenciaTest {
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final AccesoFirestore accesoFirestore = mock(AccesoFirestore.class);
+	private final CompartimentosEjecucion compartimentos = mock(CompartimentosEjecucion.class);
+	private final AtomicInteger escrituras = new AtomicInteger();
+	private RegistroIdempotencia registro;
+
+	@BeforeEach
+	void preparar() throws Exception {
+		DocumentSnapshot noExiste = mock(DocumentSnapshot.class);
+		when(noExiste.exists()).thenReturn(false);
+		when(accesoFirestore.<DocumentSnapshot>leer(anyString(), any())).thenReturn(noExiste);
+		registro = new RegistroIdempotencia(mock(Firestore.class), accesoFirestore, new RegistroCaches(objectMapper),
+				new LecturasCoalescidas(), compartimentos, objectMapper, 24);
+	}
+
+	private Anuncio crear() {
+		escrituras.incrementAndGet();
+		Anuncio anuncio = new Anuncio();
+		anuncio.setId("a1");
+		anuncio.setComentarios("hola");
+		anuncio.setUpdatedAt(new Date(1_700_000_000_000L));
+		anuncio.setContadoresSolicitudes(Map.of("total", 2L));
+		return anuncio;
+	}
+
+	private ResponseEntity<?> ejecutar(String clave, Object peticion) {
+		return registro.ejecutar("POST /anuncios", "u1", clave, peticion, HttpStatus.CREATED, this::crear);
+	}
+
+	@Test
+	void laRepeticionDevuelveElMismoJsonConLosCamposDeSoloLectura() throws Exception {
+		when(compartimentos.enviar(any(), any())).thenReturn(true);
+		ResponseEntity<?> primera = ejecutar("clave-1", Map.of("comentarios", "hola"));
+		ResponseEntity<?> repetida = ejecutar("clave-1", Map.of("comentarios", "hola"));
+
+		assertThat(escrituras).hasValue(1);
+		assertThat(primera.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+		assertThat(repetida.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+		assertThat(repetida.getHeaders().getContentType()).isEqualTo(MediaType.APPLICATION_JSON);
+		assertThat(repetida.getBody()).isEqualTo(primera.getBody());
+		assertThat((String) repetida.getBody())
+				.isEqualTo(objectMapper.writeValueAsString(crear()))
+				.contains("\"updatedAt\":1700000000000")
+				.contains("\"contadoresSolicitudes\":{\"total\":2}");
+	}
+
+	@Test
+	void sinClaveSeEjecutaSiempre() {
+		ResponseEntity<?> respuesta = ejecutar(null, Map.of());
+		ejecutar(" ", Map.of());
+		assertThat(escrituras).hasValue(2);
+		assertThat(respuesta.getBody()).isInstanceOf(Anuncio.class);
+	}
+
+	@Test
+	void reutilizarLaClaveConOtroCuerpoDa422() {
+		when(compartimentos.enviar(any(), any())).thenReturn(true);
+		ejecutar("clave-2", Map.of("comentarios", "hola"));
+		assertThatThrownBy(() -> ejecutar("clave-2", Map.of("comentarios", "adios")))
+				.isInstanceOfSatisfying(PresentationException.class,
+						e -> assertThat(e.getHttpStatus()).isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY));
+		assertThat(escrituras).hasValue(1);
+	}
+
+	@Test
+	void siLaColaDeFondoEstaLlenaSeGuardaEnElHiloDeLaPeticion() throws Exception {
+		when(compartimentos.enviar(any(), any())).thenReturn(false);
+		ejecutar("clave-3", Map.of());
+		verify(compartimentos).enviar(any(Prioridad.class), any());
+		verify(accesoFirestore, times(1)).escribir(anyString(), any());
+	}
+}
@@ -0,0 +1,45 @@
+package com.proyecto.ProyectoConectacare.model;
+
+import org.junit.jupiter.api.Test;
+
+import static com.proyecto.ProyectoConectacare.model.EstadoSolicitud.ACEPTADA;
+import static com.proyecto.ProyectoConectacare.model.EstadoSolicitud.PENDIENTE;
+import static com.proyecto.ProyectoConectacare.model.EstadoSolicitud.RECHAZADA;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EstadoSolicitudTest {
+
+	@Test
+	void unaSolicitudPendienteSePuedeAceptarORechazar() {
+		assertThat(PENDIENTE.puedeCambiarA(ACEPTADA)).isTrue();
+		assertThat(PENDIENTE.puedeCambiarA(RECHAZADA)).isTrue();
+	}
+
+	@Test
+	void unaSolicitudAceptadaSoloSePuedeRechazar() {
+		assertThat(ACEPTADA.puedeCambiarA(RECHAZADA)).isTrue();
+		assertThat(ACEPTADA.puedeCambiarA(PENDIENTE)).isFalse();
+	}
+
+	@Test
+	void rechazadaEsUnEstadoFinal() {
+		assertThat(RECHAZADA.siguientes()).isEmpty();
+		assertThat(RECHAZADA.puedeCambiarA(PENDIENTE)).isFalse();
+		assertThat(RECHAZADA.puedeCambiarA(ACEPTADA)).isFalse();
+	}
+
+	@Test
+	void repetirElEstadoActualSeAdmite() {
+		for (EstadoSolicitud estado : EstadoSolicitud.values()) {
+			assertThat(estado.puedeCambiarA(estado)).isTrue();
+			assertThat(estado.siguientes()).doesNotContain(estado);
+		}
+	}
+
+	@Test
+	void unDestinoNuloNoSeAdmite() {
+		for (EstadoSolicitud estado : EstadoSolicitud.values()) {
+			assertThat(estado.puedeCambiarA(null)).isFalse();
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package com.proyecto.ProyectoConectacare.peticion;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FiltroPlazoPeticionTest {
+
+	private final FiltroPlazoPeticion filtro = new FiltroPlazoPeticion(
+			new MockEnvironment().withProperty("conectacare.plazo.por-ruta[/admin/usuarios/csv]", "60000"),
+			15000, 60000, 500);
+
+	private static MockHttpServletRequest peticion(String ruta, String cabecera) {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", ruta);
+		if (cabecera != null) {
+			request.addHeader(FiltroPlazoPeticion.CABECERA_PLAZO, cabecera);
+		}
+		return request;
+	}
+
+	@Test
+	void usaElPlazoDeLaRutaOElPorDefecto() {
+		assertThat(filtro.calcularPlazoMs(peticion("/anuncios", null))).isEqualTo(15000);
+		assertThat(filtro.calcularPlazoMs(peticion("/admin/usuarios/csv", null))).isEqualTo(60000);
+	}
+
+	@Test
+	void laCabeceraSoloPuedeAcortarElPlazo() {
+		assertThat(filtro.calcularPlazoMs(peticion("/anuncios", "2000"))).isEqualTo(2000);
+		assertThat(filtro.calcularPlazoMs(peticion("/anuncios", "60000"))).isEqualTo(15000);
+		assertThat(filtro.calcularPlazoMs(peticion("/admin/usuarios/csv", "45000"))).isEqualTo(45000);
+	}
+
+	@Test
+	void ignoraLasCabecerasNoValidas() {
+		assertThat(filtro.calcularPlazoMs(peticion("/anuncios", "abc"))).isEqualTo(15000);
+		assertThat(filtro.calcularPlazoMs(peticion("/anuncios", "-5"))).isEqualTo(15000);
+	}
+}
@@ -0,0 +1,80 @@
+package com.proyecto.ProyectoConectacare.peticion;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LimitadorAdaptativoTest {
+
+	private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	// Ventana de 0 ms y 1 muestra mínima: cada liberación cierra una ventana y recalcula el límite
+	private static LimitadorAdaptativo limitador(int inicial, double suavizado) {
+		return new LimitadorAdaptativo(inicial, 1, 100, 1.5, suavizado, 0, 1);
+	}
+
+	private static void atender(LimitadorAdaptativo limitador, long rttNanos, boolean caida) {
+		assertThat(limitador.adquirir()).isTrue();
+		limitador.liberar(rttNanos, caida);
+	}
+
+	@Test
+	void rechazaAlAlcanzarElLimite() {
+		LimitadorAdaptativo limitador = limitador(2, 0.2);
+		assertThat(limitador.adquirir()).isTrue();
+		assertThat(limitador.adquirir()).isTrue();
+		assertThat(limitador.adquirir()).isFalse();
+		assertThat(limitador.metricas()).containsEntry("rechazadas", 1L).containsEntry("enVuelo", 2);
+	}
+
+	@Test
+	void lasCaidasBajanInclusoLosLimitesPequenos() {
+		LimitadorAdaptativo limitador = limitador(5, 0.2);
+		atender(limitador, MS, true);
+		assertThat(limitador.limite()).isEqualTo(4);
+		atender(limitador, MS, true);
+		atender(limitador, MS, true);
+		atender(limitador, MS, true);
+		assertThat(limitador.limite()).isEqualTo(1);
+		atender(limitador, MS, true);
+		assertThat(limitador.limite()).isEqualTo(1);
+	}
+
+	@Test
+	void lasCaidasReducenUnDiezPorCientoLosLimitesGrandes() {
+		LimitadorAdaptativo limitador = limitador(50, 0.2);
+		atender(limitador, MS, true);
+		assertThat(limitador.limite()).isEqualTo(45);
+	}
+
+	@Test
+	void elGradienteBajaUnLimitePequenoCuandoCreceLaLatencia() {
+		LimitadorAdaptativo limitador = limitador(4, 0.2);
+		atender(limitador, MS, false);
+		assertThat(limitador.limite()).isEqualTo(4);
+		// Latencia diez veces mayor: gradiente 0,5 y 4 * 0,5 + raíz de 4 = 4, pero debe bajar
+		atender(limitador, 10 * MS, false);
+		assertThat(limitador.limite()).isEqualTo(3);
+	}
+
+	@Test
+	void creceConLatenciaEstableSiSeUsaElLimite() {
+		LimitadorAdaptativo limitador = limitador(4, 1.0);
+		for (int i = 0; i < 4; i++) {
+			assertThat(limitador.adquirir()).isTrue();
+		}
+		limitador.liberar(MS, false);
+		// Gradiente 1: 4 + raíz de 4
+		assertThat(limitador.limite()).isEqualTo(6);
+	}
+
+	@Test
+	void noCreceSiSoloSeUsaUnaParteDelLimite() {
+		LimitadorAdaptativo limitador = limitador(10, 1.0);
+		atender(limitador, MS, false);
+		atender(limitador, MS, false);
+		assertThat(limitador.limite()).isEqualTo(10);
+	}
+}
@@ -0,0 +1,80 @@
+package com.proyecto.ProyectoConectacare.security;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CubetaTokensTest {
+
+	private static final long INTERVALO = TimeUnit.MILLISECONDS.toNanos(100); // 10 por segundo
+	private static final long RAFAGA = INTERVALO * 5; // capacidad 5
+
+	@Test
+	void admiteLaRafagaYRechazaDespues() {
+		CubetaTokens cubeta = new CubetaTokens();
+		long ahora = 1_000_000_000L;
+		for (int i = 4; i >= 0; i--) {
+			CubetaTokens.Consumo consumo = cubeta.consumir(ahora, INTERVALO, RAFAGA);
+			assertThat(consumo.admitido()).isTrue();
+			assertThat(consumo.restantes()).isEqualTo(i);
+		}
+		CubetaTokens.Consumo rechazo = cubeta.consumir(ahora, INTERVALO, RAFAGA);
+		assertThat(rechazo.admitido()).isFalse();
+		assertThat(rechazo.esperaNanos()).isEqualTo(INTERVALO);
+	}
+
+	@Test
+	void recargaUnTokenPorIntervalo() {
+		CubetaTokens cubeta = new CubetaTokens();
+		long ahora = 0;
+		for (int i = 0; i < 5; i++) {
+			cubeta.consumir(ahora, INTERVALO, RAFAGA);
+		}
+		assertThat(cubeta.consumir(ahora + INTERVALO - 1, INTERVALO, RAFAGA).admitido()).isFalse();
+		assertThat(cubeta.consumir(ahora + INTERVALO, INTERVALO, RAFAGA).admitido()).isTrue();
+		assertThat(cubeta.consumir(ahora + INTERVALO, INTERVALO, RAFAGA).admitido()).isFalse();
+	}
+
+	@Test
+	void funcionaConRelojNegativo() {
+		CubetaTokens cubeta = new CubetaTokens();
+		assertThat(cubeta.consumir(-5_000_000_000L, INTERVALO, RAFAGA).admitido()).isTrue();
+	}
+
+	@Test
+	void quedaInactivaCuandoSeVuelveALlenar() {
+		CubetaTokens cubeta = new CubetaTokens();
+		long ahora = 0;
+		assertThat(cubeta.inactiva(ahora)).isTrue();
+		cubeta.consumir(ahora, INTERVALO, RAFAGA);
+		cubeta.consumir(ahora, INTERVALO, RAFAGA);
+		assertThat(cubeta.inactiva(ahora + INTERVALO)).isFalse();
+		assertThat(cubeta.inactiva(ahora + 2 * INTERVALO)).isTrue();
+	}
+
+	@Test
+	void noAdmiteMasDeLaCapacidadConHilosConcurrentes() throws InterruptedException {
+		CubetaTokens cubeta = new CubetaTokens();
+		long ahora = 0;
+		long rafaga = INTERVALO * 1000;
+		AtomicInteger admitidas = new AtomicInteger();
+		Thread[] hilos = new Thread[8];
+		for (int h = 0; h < hilos.length; h++) {
+			hilos[h] = new Thread(() -> {
+				for (int i = 0; i < 500; i++) {
+					if (cubeta.consumir(ahora, INTERVALO, rafaga).admitido()) {
+						admitidas.incrementAndGet();
+					}
+				}
+			});
+			hilos[h].start();
+		}
+		for (Thread hilo : hilos) {
+			hilo.join();
+		}
+		assertThat(admitidas.get()).isEqualTo(1000);
+	}
+}
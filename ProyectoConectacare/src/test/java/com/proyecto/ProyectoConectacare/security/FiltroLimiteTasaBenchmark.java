@@ -0,0 +1,91 @@
+package com.proyecto.ProyectoConectacare.security;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coste por petición del limitador de tasa con 16 hilos concurrentes: una sola cubeta muy disputada (el peor caso
+ * para el CAS) y el filtro completo repartido entre 10.000 usuarios.
+ *
+ * Se ejecuta con el método main (desde el IDE o con
+ * `mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.proyecto.ProyectoConectacare.security.FiltroLimiteTasaBenchmark`).
+ * El objetivo es que el filtro añada menos de un microsegundo por petición.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(16)
+public class FiltroLimiteTasaBenchmark {
+    private static final long INTERVALO = TimeUnit.MICROSECONDS.toNanos(1);
+
+    private CubetaTokens cubeta;
+    private FiltroLimiteTasa filtro;
+
+    /**
+     * Peticiones de cada hilo (MockHttpServletRequest no admite uso concurrente).
+     */
+    @State(Scope.Thread)
+    public static class Peticiones {
+        MockHttpServletRequest[] peticiones;
+
+        @Setup(Level.Trial)
+        public void preparar() {
+            peticiones = new MockHttpServletRequest[10000];
+            for (int i = 0; i < peticiones.length; i++) {
+                peticiones[i] = new MockHttpServletRequest("GET", "/anuncios");
+                peticiones[i].setAttribute("userId", "uid-" + i);
+            }
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        cubeta = new CubetaTokens();
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("conectacare.rate-limit.autenticada-por-defecto", "* / 1000 1000000");
+        filtro = new FiltroLimiteTasa(environment, true, true, 1, 100000);
+    }
+
+    @Benchmark
+    public boolean cubetaDisputada() {
+        // CubetaTokens es privada del paquete y el código generado por JMH vive en otro paquete
+        return cubeta.consumir(System.nanoTime(), INTERVALO, INTERVALO * 1000).admitido();
+    }
+
+    @Benchmark
+    public MockHttpServletResponse filtroCompleto(Peticiones estado) throws Exception {
+        MockHttpServletRequest request = estado.peticiones[ThreadLocalRandom.current().nextInt(estado.peticiones.length)];
+        // OncePerRequestFilter marca la petición como filtrada; se quita la marca para poder reutilizarla
+        request.removeAttribute(filtro.getClass().getName() + ".FILTERED");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filtro.doFilter(request, response, new MockFilterChain());
+        return response;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(FiltroLimiteTasaBenchmark.class.getSimpleName()).build()).run();
+    }
+}
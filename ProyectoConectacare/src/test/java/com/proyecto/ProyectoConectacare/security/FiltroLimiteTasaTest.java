@@ -0,0 +1,127 @@
+package com.proyecto.ProyectoConectacare.security;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FiltroLimiteTasaTest {
+
+	private static FiltroLimiteTasa filtro(int maxCubetas) {
+		MockEnvironment environment = new MockEnvironment()
+				.withProperty("conectacare.rate-limit.publica-por-defecto", "* / 2 0.001")
+				.withProperty("conectacare.rate-limit.autenticada-por-defecto", "* / 3 0.001")
+				.withProperty("conectacare.rate-limit.ip-por-defecto", "* / 4 0.001");
+		return new FiltroLimiteTasa(environment, true, true, 1, maxCubetas);
+	}
+
+	private static int atender(FiltroLimiteTasa filtro, MockHttpServletRequest request) throws Exception {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		filtro.doFilter(request, response, new MockFilterChain());
+		return response.getStatus();
+	}
+
+	private static MockHttpServletRequest peticion(String ip, String xForwardedFor) {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/anuncios");
+		request.setRemoteAddr(ip);
+		if (xForwardedFor != null) {
+			request.addHeader("X-Forwarded-For", xForwardedFor);
+		}
+		return request;
+	}
+
+	@Test
+	void usaLaEntradaDeXForwardedForQueAnadeElProxy() {
+		FiltroLimiteTasa filtro = filtro(100);
+		assertThat(filtro.ipCliente(peticion("10.0.0.1", "6.6.6.6, 203.0.113.7"))).isEqualTo("203.0.113.7");
+		assertThat(filtro.ipCliente(peticion("10.0.0.1", "203.0.113.7"))).isEqualTo("203.0.113.7");
+		assertThat(filtro.ipCliente(peticion("10.0.0.1", null))).isEqualTo("10.0.0.1");
+	}
+
+	@Test
+	void falsificarLaIzquierdaDeXForwardedForNoDaUnaCubetaNueva() throws Exception {
+		FiltroLimiteTasa filtro = filtro(100);
+		assertThat(atender(filtro, peticion("10.0.0.1", "1.1.1.1, 203.0.113.7"))).isEqualTo(200);
+		assertThat(atender(filtro, peticion("10.0.0.1", "2.2.2.2, 203.0.113.7"))).isEqualTo(200);
+		assertThat(atender(filtro, peticion("10.0.0.1", "3.3.3.3, 203.0.113.7"))).isEqualTo(429);
+	}
+
+	@Test
+	void cambiarElTokenSinVerificarNoDaUnaCubetaNueva() throws Exception {
+		FiltroLimiteTasa filtro = filtro(100);
+		for (int i = 0; i < 2; i++) {
+			MockHttpServletRequest request = peticion("10.0.0.1", null);
+			request.addHeader("Authorization", "Bearer a.b.firma" + i);
+			assertThat(atender(filtro, request)).isEqualTo(200);
+		}
+		MockHttpServletRequest request = peticion("10.0.0.1", null);
+		request.addHeader("Authorization", "Bearer a.b.otra");
+		assertThat(atender(filtro, request)).isEqualTo(429);
+	}
+
+	@Test
+	void usaElUidVerificadoYLaPoliticaAutenticada() throws Exception {
+		FiltroLimiteTasa filtro = filtro(100);
+		for (int i = 0; i < 3; i++) {
+			MockHttpServletRequest request = peticion("10.0.0." + i, null);
+			request.setAttribute("userId", "uid-1");
+			assertThat(atender(filtro, request)).isEqualTo(200);
+		}
+		MockHttpServletRequest otraIp = peticion("10.0.0.9", null);
+		otraIp.setAttribute("userId", "uid-1");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		filtro.doFilter(otraIp, response, new MockFilterChain());
+		assertThat(response.getStatus()).isEqualTo(429);
+		assertThat(response.getHeader("RateLimit-Limit")).isEqualTo("3");
+		assertThat(response.getHeader("Retry-After")).isNotNull();
+
+		MockHttpServletRequest otroUsuario = peticion("10.0.0.9", null);
+		otroUsuario.setAttribute("userId", "uid-2");
+		assertThat(atender(filtro, otroUsuario)).isEqualTo(200);
+	}
+
+	@Test
+	void elLimitePorIpCortaAntesDeVerificarElToken() throws Exception {
+		FiltroLimiteTasa filtro = filtro(100);
+		MockFilterChain cadena = null;
+		for (int i = 0; i < 5; i++) {
+			MockHttpServletRequest request = peticion("10.0.0.1", null);
+			request.addHeader("Authorization", "Bearer a.b.firma" + i);
+			cadena = new MockFilterChain();
+			filtro.filtroPorIp().doFilter(request, new MockHttpServletResponse(), cadena);
+		}
+		// La quinta petición no llega al filtro de Firebase
+		assertThat(cadena.getRequest()).isNull();
+		assertThat(filtro.getMetricas().get("ipPorDefecto")).isEqualTo(Map.of(
+				"capacidad", 4L, "recargaPorSegundo", 0.001, "admitidas", 4L, "rechazadas", 1L));
+
+		// Otra IP tiene su propia cubeta
+		MockFilterChain otraIp = new MockFilterChain();
+		filtro.filtroPorIp().doFilter(peticion("10.0.0.2", null), new MockHttpServletResponse(), otraIp);
+		assertThat(otraIp.getRequest()).isNotNull();
+	}
+
+	@Test
+	void sinConfiarEnElProxyUsaLaDireccionRemota() {
+		FiltroLimiteTasa filtro = new FiltroLimiteTasa(new MockEnvironment(), true, false, 1, 100);
+		assertThat(filtro.ipCliente(peticion("10.0.0.1", "203.0.113.7"))).isEqualTo("10.0.0.1");
+	}
+
+	@Test
+	void alLlenarseDesalojaEnLugarDeCompartirCubeta() throws Exception {
+		FiltroLimiteTasa filtro = filtro(10);
+		for (int i = 0; i < 50; i++) {
+			MockHttpServletRequest request = peticion("10.0.1." + i, null);
+			// Cada clave gasta sus dos tokens, así que ninguna cubeta queda inactiva
+			assertThat(atender(filtro, request)).isEqualTo(200);
+			assertThat(atender(filtro, peticion("10.0.1." + i, null))).isEqualTo(200);
+		}
+		assertThat((Integer) filtro.getMetricas().get("cubetas")).isLessThanOrEqualTo(10);
+		assertThat((Long) filtro.getMetricas().get("desalojosForzados")).isPositive();
+	}
+}
@@ -0,0 +1,138 @@
+package com.proyecto.ProyectoConectacare.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.NoCredentials;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreOptions;
+import com.google.cloud.firestore.WriteBatch;
+import com.proyecto.ProyectoConectacare.cache.IndiceExistencia;
+import com.proyecto.ProyectoConectacare.cache.LecturasCoalescidas;
+import com.proyecto.ProyectoConectacare.cache.RegistroCaches;
+import com.proyecto.ProyectoConectacare.contadores.ContadoresSolicitudes;
+import com.proyecto.ProyectoConectacare.ejecucion.CompartimentosEjecucion;
+import com.proyecto.ProyectoConectacare.firestore.AccesoFirestore;
+import com.proyecto.ProyectoConectacare.firestore.LecturasHedge;
+import com.proyecto.ProyectoConectacare.model.EstadoSolicitud;
+import com.proyecto.ProyectoConectacare.sincronizacion.RegistroEliminaciones;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Rendimiento de actualizarEstadoSolicitud con 8 hilos aceptando a la vez solicitudes distintas: todas del mismo
+ * anuncio (cada transición incrementa el mismo documento de contadores) o repartidas entre 100 anuncios.
+ *
+ * Necesita el emulador de Firestore (`gcloud emulators firestore start --host-port=localhost:8081`) y la variable
+ * FIRESTORE_EMULATOR_HOST. Se ejecuta con el método main (desde el IDE o con
+ * `mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.proyecto.ProyectoConectacare.service.impl.TransicionesSolicitudBenchmark`).
+ * Cada iteración hace 2.000 transiciones PENDIENTE -> ACEPTADA sobre solicitudes recién creadas; el resultado es
+ * el tiempo de toda la iteración.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, batchSize = TransicionesSolicitudBenchmark.POR_HILO)
+@Measurement(iterations = 5, batchSize = TransicionesSolicitudBenchmark.POR_HILO)
+@Fork(1)
+@Threads(TransicionesSolicitudBenchmark.HILOS)
+public class TransicionesSolicitudBenchmark {
+    static final int HILOS = 8;
+    static final int POR_HILO = 250;
+    private static final int SOLICITUDES = HILOS * POR_HILO;
+    private static final int TAMANO_LOTE = 500;
+
+    @Param({"1", "100"})
+    public int anuncios;
+
+    private Firestore db;
+    private CompartimentosEjecucion compartimentos;
+    private SolicitudServiceImpl servicio;
+    private final AtomicInteger siguiente = new AtomicInteger();
+    private int iteracion;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        String emulador = System.getenv("FIRESTORE_EMULATOR_HOST");
+        if (emulador == null) {
+            throw new IllegalStateException("Defina FIRESTORE_EMULATOR_HOST para ejecutar este benchmark");
+        }
+        db = FirestoreOptions.newBuilder()
+                .setProjectId("conectacare-benchmark")
+                .setEmulatorHost(emulador)
+                .setCredentials(NoCredentials.getInstance())
+                .build()
+                .getService();
+        MockEnvironment environment = new MockEnvironment();
+        compartimentos = new CompartimentosEjecucion(environment, 64, 16);
+        AccesoFirestore accesoFirestore = new AccesoFirestore(new LecturasHedge(false, 95, 0.05, 50), compartimentos,
+                environment, 5000, 10000, 3, 50, 1000, 5, 10000);
+        RegistroCaches caches = new RegistroCaches(new ObjectMapper());
+        IndiceExistencia indiceExistencia = new IndiceExistencia(db, accesoFirestore, compartimentos, true);
+        RegistroEliminaciones registroEliminaciones = new RegistroEliminaciones(db, accesoFirestore, compartimentos, 30);
+        ContadoresSolicitudes contadores = new ContadoresSolicitudes(db, accesoFirestore, compartimentos);
+        AnuncioServiceImpl anuncioService = new AnuncioServiceImpl(db, caches, new LecturasCoalescidas(), accesoFirestore,
+                indiceExistencia, registroEliminaciones, contadores);
+        servicio = new SolicitudServiceImpl(db, accesoFirestore, caches, indiceExistencia, registroEliminaciones,
+                anuncioService, contadores);
+    }
+
+    /**
+     * Crea las solicitudes pendientes de la iteración, con IDs nuevos para no arrastrar el estado de la anterior.
+     */
+    @Setup(Level.Iteration)
+    public void crearSolicitudes() throws Exception {
+        iteracion++;
+        siguiente.set(0);
+        for (int inicio = 0; inicio < SOLICITUDES; inicio += TAMANO_LOTE) {
+            WriteBatch lote = db.batch();
+            for (int i = inicio; i < Math.min(inicio + TAMANO_LOTE, SOLICITUDES); i++) {
+                Map<String, Object> solicitud = new HashMap<>();
+                solicitud.put("anuncioId", "anuncio-" + anuncios + "-" + (i % anuncios));
+                solicitud.put("clienteId", "cliente-" + (i % anuncios));
+                solicitud.put("trabajadorId", "trabajador-" + i);
+                solicitud.put("estado", EstadoSolicitud.PENDIENTE.name());
+                lote.set(db.collection("solicitudes").document(id(i)), solicitud);
+            }
+            lote.commit().get();
+        }
+    }
+
+    private String id(int i) {
+        return "bench-" + anuncios + "-" + iteracion + "-" + i;
+    }
+
+    @Benchmark
+    public EstadoSolicitud aceptar() {
+        return servicio.actualizarEstadoSolicitud(id(siguiente.getAndIncrement()), EstadoSolicitud.ACEPTADA).getEstado();
+    }
+
+    @TearDown(Level.Trial)
+    public void cerrar() throws Exception {
+        compartimentos.cerrar();
+        db.close();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TransicionesSolicitudBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,86 @@
+package com.proyecto.ProyectoConectacare.sincronizacion;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.firestore.WriteBatch;
+import com.proyecto.ProyectoConectacare.exception.PresentationException;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.http.HttpStatus;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RegistroEliminacionesTest {
+
+	private final Firestore db = mock(Firestore.class);
+	private final RegistroEliminaciones registro = new RegistroEliminaciones(db, null, null, 30);
+
+	private static QuerySnapshot leidaEn(long ms) {
+		QuerySnapshot consulta = mock(QuerySnapshot.class);
+		when(consulta.getReadTime()).thenReturn(Timestamp.ofTimeMicroseconds(TimeUnit.MILLISECONDS.toMicros(ms)));
+		return consulta;
+	}
+
+	private static void assertEstado(Runnable llamada, HttpStatus estado) {
+		assertThatThrownBy(llamada::run).isInstanceOfSatisfying(PresentationException.class,
+				e -> assertThat(e.getHttpStatus()).isEqualTo(estado));
+	}
+
+	@Test
+	void aceptaLosCursoresDentroDeLaRetencion() {
+		long haceUnDia = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1);
+		assertThat(registro.validarCursor(haceUnDia)).isEqualTo(new Date(haceUnDia));
+	}
+
+	@Test
+	void rechazaLosCursoresNegativosCon400() {
+		assertEstado(() -> registro.validarCursor(-1), HttpStatus.BAD_REQUEST);
+	}
+
+	@Test
+	void rechazaLosCursoresAnterioresALaRetencionCon410() {
+		long haceTreintaYUnDias = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(31);
+		assertEstado(() -> registro.validarCursor(haceTreintaYUnDias), HttpStatus.GONE);
+		assertEstado(() -> registro.validarCursor(0), HttpStatus.GONE);
+	}
+
+	@Test
+	void elCursorEsLaLecturaMasAntigua() {
+		assertThat(RegistroEliminaciones.cursor(leidaEn(3_000), leidaEn(1_000), leidaEn(2_000))).isEqualTo(1_000);
+		assertThat(RegistroEliminaciones.cursor(leidaEn(5_000))).isEqualTo(5_000);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void registraLaLapidaEnElMismoLote() {
+		CollectionReference eliminaciones = mock(CollectionReference.class);
+		DocumentReference lapida = mock(DocumentReference.class);
+		when(db.collection("eliminaciones")).thenReturn(eliminaciones);
+		when(eliminaciones.document()).thenReturn(lapida);
+		WriteBatch lote = mock(WriteBatch.class);
+
+		registro.registrar(lote, "anuncios", "a1", "c1", null);
+
+		ArgumentCaptor<Map<String, Object>> datos = ArgumentCaptor.forClass(Map.class);
+		verify(lote).set(eq(lapida), datos.capture());
+		assertThat(datos.getValue())
+				.containsEntry("coleccion", "anuncios")
+				.containsEntry("documentoId", "a1")
+				.containsEntry("clienteId", "c1")
+				.containsEntry("trabajadorId", null)
+				.containsEntry("eliminadoEn", FieldValue.serverTimestamp());
+	}
+}